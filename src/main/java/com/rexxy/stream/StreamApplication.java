@@ -2,9 +2,12 @@ package com.rexxy.stream;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 import java.util.TimeZone;
 
+// Drive sync, cue indexing, cache warming, transcode polling and blob reconciliation run on @Scheduled
 @SpringBootApplication
+@EnableScheduling
 public class StreamApplication {
 
 	public static void main(String[] args) {
@@ -0,0 +1,57 @@
+package com.rexxy.stream.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+@Configuration
+@ConfigurationProperties(prefix = "cache.tiers")
+@Data
+public class CacheTierConfig {
+    // In-process Caffeine tier in front of Redis; off means every lookup goes to Redis
+    private boolean nearCacheEnabled = true;
+
+    // Defaults for caches without their own entry below
+    private long maximumSize = 1000;
+    private Duration nearTtl = Duration.ofMinutes(5);
+    private Duration redisTtl = Duration.ofMinutes(10);
+
+    // Entries whose serialized form is at least this many bytes are LZ4-compressed in Redis; 0 turns it off
+    private int compressionThreshold = 4096;
+
+    // Bytes of ready-to-send course hierarchy responses (JSON plus gzip) kept in memory
+    private long renderedHierarchyMaxBytes = 64L * 1024 * 1024;
+
+    // Redis pub/sub channel on which instances announce writes, so the others drop their near copy
+    private String invalidationChannel = "stream:cache:invalidate";
+
+    // Per-cache overrides, by cache name
+    private Map<String, Tier> caches = new HashMap<>();
+
+    @Data
+    public static class Tier {
+        // Entries kept in the near cache; 0 sends this cache straight to Redis
+        private Long maximumSize;
+        private Duration nearTtl;
+        private Duration redisTtl;
+    }
+
+    public long maximumSize(String cache) {
+        Tier tier = caches.get(cache);
+        return tier != null && tier.getMaximumSize() != null ? tier.getMaximumSize() : maximumSize;
+    }
+
+    public Duration nearTtl(String cache) {
+        Tier tier = caches.get(cache);
+        return tier != null && tier.getNearTtl() != null ? tier.getNearTtl() : nearTtl;
+    }
+
+    public Duration redisTtl(String cache) {
+        Tier tier = caches.get(cache);
+        return tier != null && tier.getRedisTtl() != null ? tier.getRedisTtl() : redisTtl;
+    }
+}
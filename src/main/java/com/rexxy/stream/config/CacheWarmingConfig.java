@@ -0,0 +1,29 @@
+package com.rexxy.stream.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+@Configuration
+@ConfigurationProperties(prefix = "cache.warming")
+@Data
+public class CacheWarmingConfig {
+    private boolean enabled = true;
+
+    // Most popular courses whose hierarchy is kept built
+    private int topCourses = 50;
+
+    // Hierarchies built at the same time, so a warm-up cannot flood the database
+    private int concurrency = 2;
+
+    // Popularity an enrollment adds; a hierarchy request adds 1
+    private int enrollmentWeight = 5;
+
+    // How often the top courses are checked and any that dropped out of the cache rebuilt
+    private Duration refreshInterval = Duration.ofMinutes(5);
+
+    // Every interval popularity is halved, so courses that stop being requested fall out of the top
+    private Duration popularityHalfLife = Duration.ofHours(1);
+}
@@ -0,0 +1,337 @@
+package com.rexxy.stream.config;
+
+import com.rexxy.stream.dto.CourseDTO;
+import com.rexxy.stream.dto.CourseHierarchyDTO;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Redis value serializer that writes the DTOs cached most often (course hierarchies and
+ * course lists) as compact binary instead of JSON with type metadata and field names.
+ *
+ * An entry is a version byte, a type byte and a flags byte followed by the body. The body
+ * of a known DTO is its fields in declaration order: strings and lists as a varint of
+ * length + 1 (0 for null) and their contents. Anything else is written by the JSON
+ * serializer. With {@link #FLAG_LZ4} the body is its uncompressed length and an LZ4 block;
+ * bodies of at least {@code compressionThreshold} bytes are compressed.
+ *
+ * JSON entries written before this serializer are still read. An entry of another version
+ * reads as null, which the cache treats as a miss, so instances of different versions can
+ * share Redis during a rolling upgrade. Bump {@link #VERSION} whenever a codec changes.
+ */
+public class CompactCacheSerializer implements RedisSerializer<Object> {
+
+    static final byte VERSION = 1;
+
+    private static final byte TYPE_JSON = 0;
+    private static final byte TYPE_HIERARCHY = 1;
+    private static final byte TYPE_COURSE = 2;
+    private static final byte TYPE_COURSE_LIST = 3;
+
+    static final byte FLAG_LZ4 = 1;
+
+    private static final int HEADER_SIZE = 3;
+
+    /**
+     * Fields each codec below writes, in order; tests hold these against the DTO declarations
+     * so a field added to a DTO fails the build instead of silently missing from cached entries
+     */
+    static final Map<Class<?>, List<String>> FIELDS = Map.of(
+            CourseHierarchyDTO.class, List.of("id", "title", "description", "category", "thumbnail", "createdAt",
+                    "duration", "tags", "modules"),
+            CourseHierarchyDTO.ModuleHierarchyDTO.class, List.of("id", "title", "duration", "lessonGroups"),
+            CourseHierarchyDTO.LessonGroupHierarchyDTO.class, List.of("id", "title", "duration", "lessons"),
+            CourseHierarchyDTO.LessonHierarchyDTO.class, List.of("id", "title", "duration", "description",
+                    "resourcePath"),
+            CourseDTO.class, List.of("id", "title", "description", "category", "thumbnail", "createdAt", "tags"));
+
+    private final GenericJackson2JsonRedisSerializer json = new GenericJackson2JsonRedisSerializer();
+    private final int compressionThreshold;
+    private final LZ4Compressor compressor;
+    private final LZ4FastDecompressor decompressor;
+
+    /**
+     * @param compressionThreshold body size from which entries are LZ4-compressed; 0 never compresses
+     */
+    public CompactCacheSerializer(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+        LZ4Factory lz4 = LZ4Factory.fastestInstance();
+        this.compressor = lz4.fastCompressor();
+        this.decompressor = lz4.fastDecompressor();
+    }
+
+    @Override
+    public byte[] serialize(Object value) throws SerializationException {
+        byte type;
+        byte[] body;
+        if (value instanceof CourseHierarchyDTO hierarchy) {
+            type = TYPE_HIERARCHY;
+            body = write(out -> writeHierarchy(out, hierarchy));
+        } else if (value instanceof CourseDTO course) {
+            type = TYPE_COURSE;
+            body = write(out -> writeCourse(out, course));
+        } else if (value instanceof List<?> list && !list.isEmpty()
+                && list.stream().allMatch(CourseDTO.class::isInstance)) {
+            type = TYPE_COURSE_LIST;
+            body = write(out -> writeList(out, list, (o, course) -> writeCourse(o, (CourseDTO) course)));
+        } else {
+            type = TYPE_JSON;
+            body = json.serialize(value);
+        }
+
+        byte flags = 0;
+        if (compressionThreshold > 0 && body.length >= compressionThreshold) {
+            byte[] compressed = new byte[5 + compressor.maxCompressedLength(body.length)];
+            int length = writeVarInt(compressed, 0, body.length);
+            length += compressor.compress(body, 0, body.length, compressed, length);
+            body = Arrays.copyOf(compressed, length);
+            flags |= FLAG_LZ4;
+        }
+
+        byte[] entry = new byte[HEADER_SIZE + body.length];
+        entry[0] = VERSION;
+        entry[1] = type;
+        entry[2] = flags;
+        System.arraycopy(body, 0, entry, HEADER_SIZE, body.length);
+        return entry;
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes) throws SerializationException {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        if (bytes[0] != VERSION) {
+            // Entries written before this serializer are JSON
+            return bytes[0] == '{' || bytes[0] == '[' || bytes[0] == '"' ? json.deserialize(bytes) : null;
+        }
+        if (bytes.length < HEADER_SIZE) {
+            throw new SerializationException("Truncated cache entry");
+        }
+
+        byte[] body = Arrays.copyOfRange(bytes, HEADER_SIZE, bytes.length);
+        if ((bytes[2] & FLAG_LZ4) != 0) {
+            body = decompress(body);
+        }
+        try {
+            DataInput in = new DataInputStream(new ByteArrayInputStream(body));
+            return switch (bytes[1]) {
+                case TYPE_JSON -> json.deserialize(body);
+                case TYPE_HIERARCHY -> readHierarchy(in);
+                case TYPE_COURSE -> readCourse(in);
+                case TYPE_COURSE_LIST -> readList(in, CompactCacheSerializer::readCourse);
+                default -> null;
+            };
+        } catch (IOException e) {
+            throw new SerializationException("Could not read cache entry", e);
+        }
+    }
+
+    private byte[] decompress(byte[] body) {
+        try {
+            int length = 0;
+            int shift = 0;
+            int offset = 0;
+            byte b;
+            do {
+                b = body[offset++];
+                length |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            byte[] restored = new byte[length];
+            decompressor.decompress(body, offset, restored, 0, length);
+            return restored;
+        } catch (LZ4Exception | ArrayIndexOutOfBoundsException | NegativeArraySizeException e) {
+            throw new SerializationException("Could not decompress cache entry", e);
+        }
+    }
+
+    private interface Body {
+        void write(DataOutput out) throws IOException;
+    }
+
+    private interface Writer<T> {
+        void write(DataOutput out, T value) throws IOException;
+    }
+
+    private interface Reader<T> {
+        T read(DataInput in) throws IOException;
+    }
+
+    private static byte[] write(Body body) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        try {
+            body.write(new DataOutputStream(bytes));
+        } catch (IOException e) {
+            throw new SerializationException("Could not write cache entry", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeHierarchy(DataOutput out, CourseHierarchyDTO hierarchy) throws IOException {
+        writeString(out, hierarchy.getId());
+        writeString(out, hierarchy.getTitle());
+        writeString(out, hierarchy.getDescription());
+        writeString(out, hierarchy.getCategory());
+        writeString(out, hierarchy.getThumbnail());
+        writeString(out, hierarchy.getCreatedAt());
+        writeString(out, hierarchy.getDuration());
+        writeList(out, hierarchy.getTags(), CompactCacheSerializer::writeString);
+        writeList(out, hierarchy.getModules(), CompactCacheSerializer::writeModule);
+    }
+
+    private static CourseHierarchyDTO readHierarchy(DataInput in) throws IOException {
+        return new CourseHierarchyDTO(readString(in), readString(in), readString(in), readString(in),
+                readString(in), readString(in), readString(in),
+                readList(in, CompactCacheSerializer::readString),
+                readList(in, CompactCacheSerializer::readModule));
+    }
+
+    private static void writeModule(DataOutput out, CourseHierarchyDTO.ModuleHierarchyDTO module)
+            throws IOException {
+        writeString(out, module.getId());
+        writeString(out, module.getTitle());
+        writeString(out, module.getDuration());
+        writeList(out, module.getLessonGroups(), CompactCacheSerializer::writeGroup);
+    }
+
+    private static CourseHierarchyDTO.ModuleHierarchyDTO readModule(DataInput in) throws IOException {
+        return new CourseHierarchyDTO.ModuleHierarchyDTO(readString(in), readString(in), readString(in),
+                readList(in, CompactCacheSerializer::readGroup));
+    }
+
+    private static void writeGroup(DataOutput out, CourseHierarchyDTO.LessonGroupHierarchyDTO group)
+            throws IOException {
+        writeString(out, group.getId());
+        writeString(out, group.getTitle());
+        writeString(out, group.getDuration());
+        writeList(out, group.getLessons(), CompactCacheSerializer::writeLesson);
+    }
+
+    private static CourseHierarchyDTO.LessonGroupHierarchyDTO readGroup(DataInput in) throws IOException {
+        return new CourseHierarchyDTO.LessonGroupHierarchyDTO(readString(in), readString(in), readString(in),
+                readList(in, CompactCacheSerializer::readLesson));
+    }
+
+    private static void writeLesson(DataOutput out, CourseHierarchyDTO.LessonHierarchyDTO lesson)
+            throws IOException {
+        writeString(out, lesson.getId());
+        writeString(out, lesson.getTitle());
+        writeString(out, lesson.getDuration());
+        writeString(out, lesson.getDescription());
+        writeString(out, lesson.getResourcePath());
+    }
+
+    private static CourseHierarchyDTO.LessonHierarchyDTO readLesson(DataInput in) throws IOException {
+        return new CourseHierarchyDTO.LessonHierarchyDTO(readString(in), readString(in), readString(in),
+                readString(in), readString(in));
+    }
+
+    private static void writeCourse(DataOutput out, CourseDTO course) throws IOException {
+        writeString(out, course.getId());
+        writeString(out, course.getTitle());
+        writeString(out, course.getDescription());
+        writeString(out, course.getCategory());
+        writeString(out, course.getThumbnail());
+        writeString(out, course.getCreatedAt());
+        writeList(out, course.getTags(), CompactCacheSerializer::writeString);
+    }
+
+    private static CourseDTO readCourse(DataInput in) throws IOException {
+        return new CourseDTO(readString(in), readString(in), readString(in), readString(in), readString(in),
+                readString(in), readList(in, CompactCacheSerializer::readString));
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, utf8.length + 1);
+        out.write(utf8);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        int length = readVarInt(in) - 1;
+        if (length < 0) {
+            return null;
+        }
+        byte[] utf8 = new byte[length];
+        in.readFully(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    private static <T> void writeList(DataOutput out, List<T> list, Writer<? super T> element) throws IOException {
+        if (list == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        writeVarInt(out, list.size() + 1);
+        for (T value : list) {
+            element.write(out, value);
+        }
+    }
+
+    private static <T> List<T> readList(DataInput in, Reader<T> element) throws IOException {
+        int size = readVarInt(in) - 1;
+        if (size < 0) {
+            return null;
+        }
+        List<T> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(element.read(in));
+        }
+        // Cached values are shared by every reader of the near tier
+        return Collections.unmodifiableList(list);
+    }
+
+    private static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int writeVarInt(byte[] buffer, int offset, int value) {
+        int start = offset;
+        while ((value & ~0x7F) != 0) {
+            buffer[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[offset++] = (byte) value;
+        return offset - start;
+    }
+
+    private static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+}
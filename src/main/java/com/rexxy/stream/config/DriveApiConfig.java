@@ -0,0 +1,24 @@
+package com.rexxy.stream.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+@Configuration
+@ConfigurationProperties(prefix = "google.drive.api")
+@Data
+public class DriveApiConfig {
+    // Pooled connections shared by all Drive API calls
+    private int maxConnections = 32;
+    private Duration connectTimeout = Duration.ofSeconds(10);
+    private Duration readTimeout = Duration.ofSeconds(60);
+
+    // Metadata lookups per batch request; Drive accepts at most 100
+    private int batchSize = 100;
+
+    // Rate-limited (403/429) and 5xx responses are retried with exponential backoff for up to this long
+    private Duration initialBackoff = Duration.ofMillis(500);
+    private Duration maxBackoff = Duration.ofSeconds(30);
+}
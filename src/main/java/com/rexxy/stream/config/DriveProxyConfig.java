@@ -0,0 +1,34 @@
+package com.rexxy.stream.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+@Configuration
+@ConfigurationProperties(prefix = "google.drive.proxy")
+@Data
+public class DriveProxyConfig {
+    // Stream Drive files through this server; when off, clients are redirected to drive.google.com
+    private boolean enabled = true;
+    private String apiBaseUrl = "https://www.googleapis.com/drive/v3";
+
+    // Local disk cache of fetched chunks, evicted whole files at a time, least recently used first
+    private String cacheDir = "cache/drive";
+    private long cacheMaxBytes = 20L * 1024 * 1024 * 1024;
+    private int chunkSize = 4 * 1024 * 1024;
+
+    // Consecutive missing chunks fetched with a single Drive request
+    private int fetchChunks = 4;
+
+    // How long a request waits for a chunk another request is fetching before fetching it too
+    private Duration fetchWaitTimeout = Duration.ofSeconds(30);
+
+    // Largest window served for an open-ended "bytes=N-" request
+    private long maxWindow = 8L * 1024 * 1024;
+
+    private Duration metadataTtl = Duration.ofMinutes(5);
+    private Duration connectTimeout = Duration.ofSeconds(10);
+    private Duration clientMaxAge = Duration.ofHours(1);
+}
@@ -0,0 +1,19 @@
+package com.rexxy.stream.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+@Configuration
+@ConfigurationProperties(prefix = "google.drive.sync")
+@Data
+public class DriveSyncConfig {
+    // Poll the Drive changes feed for watched folders
+    private boolean enabled = true;
+    private Duration interval = Duration.ofMinutes(5);
+
+    // Changes requested per page of the feed; Drive allows up to 1000
+    private int pageSize = 1000;
+}
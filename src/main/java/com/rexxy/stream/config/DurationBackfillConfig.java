@@ -0,0 +1,21 @@
+package com.rexxy.stream.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@ConfigurationProperties(prefix = "media.duration-backfill")
+@Data
+public class DurationBackfillConfig {
+    private boolean enabled = true;
+
+    // Concurrent ffprobe processes
+    private int workers = 4;
+
+    // Lessons probed, written in one JDBC batch and checkpointed together
+    private int batchSize = 200;
+
+    // Last lesson id written; a restart resumes after it
+    private String checkpointFile = "cache/duration-backfill.checkpoint";
+}
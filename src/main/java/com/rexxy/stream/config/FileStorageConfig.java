@@ -4,10 +4,18 @@ import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 
+import java.time.Duration;
+
 @Configuration
 @ConfigurationProperties(prefix = "file.storage")
 @Data
 public class FileStorageConfig {
     private String uploadDir = "uploads/videos";
     private String localLibraryRoot = "E:/Shared/development";
+
+    // Deduplicated uploads no lesson refers to are deleted once they are this old
+    private Duration orphanBlobRetention = Duration.ofDays(7);
+
+    // How often stored blobs are recounted and expired orphans deleted
+    private Duration orphanBlobReconcileInterval = Duration.ofHours(6);
 }
@@ -2,11 +2,13 @@ package com.rexxy.stream.config;
 
 import com.rexxy.stream.model.Lesson;
 import com.rexxy.stream.repository.LessonRepository;
+import com.rexxy.stream.service.CourseCacheInvalidator;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.annotation.Order;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -16,7 +18,7 @@ public class LessonDataFixer {
 
     @Bean
     @Order(2)
-    CommandLineRunner fixLessonData(LessonRepository lessonRepository) {
+    CommandLineRunner fixLessonData(LessonRepository lessonRepository, CourseCacheInvalidator cacheInvalidator) {
         return args -> {
             List<Lesson> allLessons = lessonRepository.findAll();
 
@@ -32,7 +34,7 @@ public class LessonDataFixer {
             System.out.println("Found " + lessonsWithVideo.size() + " lessons WITH video data");
 
             // Find lessons WITHOUT video data and update them
-            int updated = 0;
+            List<String> updated = new ArrayList<>();
             for (Lesson lesson : allLessons) {
                 // Skip if already has valid resourcePath (Drive file ID)
                 if (lesson.getResourcePath() != null && lesson.getResourcePath().length() > 10
@@ -53,13 +55,14 @@ public class LessonDataFixer {
                     lesson.setResourcePath(source.getDuration()); // File ID goes to resourcePath
                     lesson.setDuration(null); // Clear duration
                     lessonRepository.save(lesson);
-                    updated++;
+                    updated.add(lesson.getId());
                     System.out.println("✅ Updated: " + lesson.getTitle());
                 }
             }
 
-            if (updated > 0) {
-                System.out.println("Fixed " + updated + " lessons with video data!");
+            if (!updated.isEmpty()) {
+                cacheInvalidator.evictCoursesOfLessons(updated);
+                System.out.println("Fixed " + updated.size() + " lessons with video data!");
             } else {
                 System.out.println("✓ All lessons already have video data.");
             }
@@ -0,0 +1,62 @@
+package com.rexxy.stream.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+@Configuration
+@ConfigurationProperties(prefix = "media.streaming")
+@Data
+public class MediaStreamingConfig {
+    // Window served for open-ended ranges such as "bytes=1000-"; starting point when adaptive
+    private long defaultChunkSize = 1024 * 1024;
+
+    // Grow the window for clients playing sequentially, shrink it for clients that seek
+    private boolean adaptiveChunkEnabled = true;
+    private long minChunkSize = 256 * 1024;
+    private long maxChunkSize = 8L * 1024 * 1024;
+
+    // A sequential client's window grows no larger than its measured throughput delivers in this time
+    private Duration chunkTargetDuration = Duration.ofSeconds(4);
+
+    // Read the next window ahead for sequential clients
+    private boolean readAheadEnabled = true;
+    private int readAheadMaxConcurrent = 32;
+
+    // Hand range bodies to Tomcat's sendfile when the connector supports it; the only zero-copy path
+    private boolean sendfileEnabled = true;
+
+    // Off-heap cache of hot chunks (moov atoms, first GOPs, resume points)
+    private boolean segmentCacheEnabled = true;
+    private long segmentChunkSize = 1024 * 1024;
+    private long segmentCacheMaxBytes = 256L * 1024 * 1024;
+
+    // Requests for a chunk before it is admitted into the cache
+    private int segmentAdmissionThreshold = 2;
+
+    // Larger windows always take the zero-copy path
+    private long segmentCacheMaxWindow = 4L * 1024 * 1024;
+
+    // Cache-Control max-age per resource type; uploads are immutable (named by content hash)
+    private Duration libraryMaxAge = Duration.ofDays(1);
+    private Duration uploadMaxAge = Duration.ofDays(365);
+    private Duration subtitleMaxAge = Duration.ofHours(1);
+
+    // Subtitles: byte budget for converted VTT bodies, and the track served when no language is asked for
+    private long subtitleCacheMaxBytes = 32L * 1024 * 1024;
+    private String subtitleDefaultLanguage = "en";
+
+    // Parsed cues for caption windows and transcript search, kept on disk so restarts only parse changed files
+    private String cueIndexDir = "cache/cues";
+    private Duration cueIndexRefreshInterval = Duration.ofMinutes(10);
+
+    // HLS repackaging: target segment length and byte budget for cached sample tables
+    private Duration hlsSegmentDuration = Duration.ofSeconds(6);
+    private long hlsIndexCacheMaxBytes = 128L * 1024 * 1024;
+
+    // Media catalog: watch the library for changes, and re-stat entries older than this
+    private boolean catalogWatchEnabled = true;
+    private Duration catalogMaxStaleness = Duration.ofMinutes(5);
+}
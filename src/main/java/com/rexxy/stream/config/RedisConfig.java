@@ -1,15 +1,18 @@
 package com.rexxy.stream.config;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.cache.annotation.EnableCaching;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.cache.RedisCacheConfiguration;
 import org.springframework.data.redis.cache.RedisCacheManager;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
-import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.data.redis.serializer.RedisSerializationContext;
 
-import java.time.Duration;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -18,24 +21,38 @@ import java.util.Map;
 public class RedisConfig {
 
     @Bean
-    public RedisCacheManager cacheManager(RedisConnectionFactory connectionFactory) {
+    public TwoTierCacheManager cacheManager(RedisConnectionFactory connectionFactory, CacheTierConfig tierConfig,
+            StringRedisTemplate redisTemplate, MeterRegistry meterRegistry) {
         RedisCacheConfiguration defaultConfig = RedisCacheConfiguration.defaultCacheConfig()
-                .entryTtl(Duration.ofMinutes(10))
+                .entryTtl(tierConfig.getRedisTtl())
                 .serializeValuesWith(RedisSerializationContext.SerializationPair
-                        .fromSerializer(new GenericJackson2JsonRedisSerializer()));
+                        .fromSerializer(new CompactCacheSerializer(tierConfig.getCompressionThreshold())));
 
-        // Custom TTL for specific caches
+        // Custom TTL for specific caches, from cache.tiers.caches
         Map<String, RedisCacheConfiguration> cacheConfigs = new HashMap<>();
+        for (String cache : tierConfig.getCaches().keySet()) {
+            cacheConfigs.put(cache, defaultConfig.entryTtl(tierConfig.redisTtl(cache)));
+        }
 
-        // Course hierarchy cache - 5 minutes
-        cacheConfigs.put("courseHierarchy", defaultConfig.entryTtl(Duration.ofMinutes(5)));
-
-        // User sessions - 1 hour
-        cacheConfigs.put("userSessions", defaultConfig.entryTtl(Duration.ofHours(1)));
-
-        return RedisCacheManager.builder(connectionFactory)
+        RedisCacheManager redisCacheManager = RedisCacheManager.builder(connectionFactory)
                 .cacheDefaults(defaultConfig)
                 .withInitialCacheConfigurations(cacheConfigs)
                 .build();
+        redisCacheManager.initializeCaches();
+        return new TwoTierCacheManager(redisCacheManager, tierConfig, redisTemplate, meterRegistry);
+    }
+
+    /**
+     * Drops near-cache entries other instances announce as changed
+     */
+    @Bean
+    public RedisMessageListenerContainer cacheInvalidationListener(RedisConnectionFactory connectionFactory,
+            TwoTierCacheManager cacheManager, CacheTierConfig tierConfig) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.addMessageListener(
+                (message, pattern) -> cacheManager.onInvalidation(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(tierConfig.getInvalidationChannel()));
+        return container;
     }
 }
@@ -0,0 +1,31 @@
+package com.rexxy.stream.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+@Configuration
+@ConfigurationProperties(prefix = "media.thumbnails")
+@Data
+public class ThumbnailConfig {
+    private boolean enabled = true;
+
+    // One frame every interval, tiled columns x rows into each sprite sheet
+    private Duration interval = Duration.ofSeconds(10);
+    private int tileWidth = 160;
+    private int columns = 10;
+    private int rows = 10;
+
+    // ffmpeg -q:v, 2 (best) to 31 (worst)
+    private int jpegQuality = 5;
+
+    // Concurrent ffmpeg processes and jobs waiting in memory; jobs beyond that are generated on first request
+    private int workers = 1;
+    private int queueCapacity = 200;
+    private Duration timeout = Duration.ofMinutes(30);
+
+    // Sprite URLs carry the source version, so they can be cached for long
+    private Duration maxAge = Duration.ofDays(365);
+}
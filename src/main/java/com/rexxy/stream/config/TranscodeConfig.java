@@ -0,0 +1,47 @@
+package com.rexxy.stream.config;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+@Configuration
+@ConfigurationProperties(prefix = "media.transcode")
+@Data
+public class TranscodeConfig {
+    private boolean enabled = true;
+    private String ffmpegPath = "ffmpeg";
+
+    // Concurrent ffmpeg processes and jobs waiting in memory; the rest wait in the database
+    private int workers = 2;
+    private int queueCapacity = 50;
+
+    private int maxAttempts = 3;
+
+    // Wait before retrying a failed job; doubles with every failed attempt up to the maximum
+    private Duration retryBackoff = Duration.ofMinutes(1);
+    private Duration maxRetryBackoff = Duration.ofHours(1);
+    private Duration timeout = Duration.ofHours(2);
+
+    // Renditions are only produced below the source height
+    private List<Rendition> ladder = new ArrayList<>(List.of(
+            new Rendition("1080p", 1080, 5000, 160),
+            new Rendition("720p", 720, 2800, 128),
+            new Rendition("480p", 480, 1400, 96),
+            new Rendition("360p", 360, 800, 64)));
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Rendition {
+        private String name;
+        private int height;
+        private int videoKbps;
+        private int audioKbps;
+    }
+}
@@ -0,0 +1,257 @@
+package com.rexxy.stream.config;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.cache.Cache;
+import org.springframework.cache.support.SimpleValueWrapper;
+
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Cache with a bounded Caffeine tier in front of a shared Redis tier.
+ *
+ * Reads try the near tier first and copy what Redis returns into it, so a hot entry is
+ * served from the heap without a round trip or deserialization. Writes and evictions go
+ * to Redis first, then the near tier, and are announced through the manager so other
+ * instances drop their near copy; the near TTL bounds how long a lost announcement can
+ * leave one stale.
+ *
+ * A value read from Redis is only copied into the near tier if its key was not written or
+ * evicted during the read: writes, evictions and clears bump a generation (striped by key)
+ * that the fill checks atomically with the insert, so a read racing an eviction cannot put
+ * the old value back for a whole near TTL.
+ *
+ * Values are not copied: every reader on an instance gets the same object from the near
+ * tier (the rendered hierarchy responses rely on that identity), so cached values are
+ * read-only. Lists in the cached DTOs are unmodifiable; their setters must not be called.
+ */
+public class TwoTierCache implements Cache {
+
+    private static final int GENERATION_STRIPES = 64;
+
+    private final String name;
+    private final com.github.benmanes.caffeine.cache.Cache<String, ValueWrapper> near;
+    private final Cache remote;
+    private final TwoTierCacheManager manager;
+    private final Counter nearHits;
+    private final Counter nearMisses;
+    private final Counter remoteHits;
+    private final Counter remoteMisses;
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+    // Fills hold the read side so a clear cannot run between a fill's check and its insert
+    private final ReadWriteLock clearLock = new ReentrantReadWriteLock();
+
+    TwoTierCache(String name, Cache remote, long maximumSize, Duration nearTtl, TwoTierCacheManager manager,
+            MeterRegistry meterRegistry) {
+        this.name = name;
+        this.remote = remote;
+        this.manager = manager;
+        this.near = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(nearTtl)
+                .build();
+        this.nearHits = gets(meterRegistry, "near", "hit");
+        this.nearMisses = gets(meterRegistry, "near", "miss");
+        this.remoteHits = gets(meterRegistry, "redis", "hit");
+        this.remoteMisses = gets(meterRegistry, "redis", "miss");
+        hitRatio(meterRegistry, "near", nearHits, nearMisses);
+        hitRatio(meterRegistry, "redis", remoteHits, remoteMisses);
+        Gauge.builder("cache.tier.size", near, com.github.benmanes.caffeine.cache.Cache::estimatedSize)
+                .tag("cache", name)
+                .tag("tier", "near")
+                .description("Entries held by the near cache")
+                .register(meterRegistry);
+    }
+
+    private Counter gets(MeterRegistry meterRegistry, String tier, String result) {
+        return Counter.builder("cache.tier.gets")
+                .tag("cache", name)
+                .tag("tier", tier)
+                .tag("result", result)
+                .description("Lookups per cache tier; a near miss is a Redis lookup")
+                .register(meterRegistry);
+    }
+
+    private void hitRatio(MeterRegistry meterRegistry, String tier, Counter hits, Counter misses) {
+        Gauge.builder("cache.tier.hit.ratio", () -> {
+            double total = hits.count() + misses.count();
+            return total > 0 ? hits.count() / total : 0;
+        })
+                .tag("cache", name)
+                .tag("tier", tier)
+                .description("Share of lookups answered by this tier")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public Object getNativeCache() {
+        return remote.getNativeCache();
+    }
+
+    @Override
+    public ValueWrapper get(Object key) {
+        String id = nearKey(key);
+        ValueWrapper cached = near.getIfPresent(id);
+        if (cached != null) {
+            nearHits.increment();
+            return cached;
+        }
+        nearMisses.increment();
+        long generation = generation(id);
+        ValueWrapper value = remote.get(key);
+        if (value == null) {
+            remoteMisses.increment();
+            return null;
+        }
+        remoteHits.increment();
+        fillNear(id, value, generation);
+        return value;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Class<T> type) {
+        ValueWrapper wrapper = get(key);
+        Object value = wrapper != null ? wrapper.get() : null;
+        if (value != null && type != null && !type.isInstance(value)) {
+            throw new IllegalStateException(
+                    "Cached value is not of required type [" + type.getName() + "]: " + value);
+        }
+        return (T) value;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Callable<T> valueLoader) {
+        ValueWrapper cached = get(key);
+        if (cached != null) {
+            return (T) cached.get();
+        }
+        // Concurrent loads of the key within this instance share one call to the loader
+        String id = nearKey(key);
+        long generation = generation(id);
+        T value = remote.get(key, valueLoader);
+        fillNear(id, new SimpleValueWrapper(value), generation);
+        return value;
+    }
+
+    @Override
+    public void put(Object key, Object value) {
+        remote.put(key, value);
+        String id = nearKey(key);
+        bump(id);
+        near.put(id, new SimpleValueWrapper(value));
+        manager.publish(name, id);
+    }
+
+    @Override
+    public ValueWrapper putIfAbsent(Object key, Object value) {
+        String id = nearKey(key);
+        long generation = generation(id);
+        ValueWrapper existing = remote.putIfAbsent(key, value);
+        if (existing != null) {
+            fillNear(id, existing, generation);
+        } else {
+            bump(id);
+            near.put(id, new SimpleValueWrapper(value));
+            manager.publish(name, id);
+        }
+        return existing;
+    }
+
+    @Override
+    public void evict(Object key) {
+        remote.evict(key);
+        String id = nearKey(key);
+        evictNear(id);
+        manager.publish(name, id);
+    }
+
+    @Override
+    public boolean evictIfPresent(Object key) {
+        boolean present = remote.evictIfPresent(key);
+        String id = nearKey(key);
+        evictNear(id);
+        manager.publish(name, id);
+        return present;
+    }
+
+    @Override
+    public void clear() {
+        remote.clear();
+        clearNear();
+        manager.publish(name, null);
+    }
+
+    @Override
+    public boolean invalidate() {
+        boolean present = remote.invalidate();
+        clearNear();
+        manager.publish(name, null);
+        return present;
+    }
+
+    /**
+     * Drop the near copy of an entry another instance wrote
+     */
+    void evictNear(String id) {
+        bump(id);
+        near.invalidate(id);
+    }
+
+    void clearNear() {
+        clearLock.writeLock().lock();
+        try {
+            for (int i = 0; i < GENERATION_STRIPES; i++) {
+                generations.incrementAndGet(i);
+            }
+            near.invalidateAll();
+        } finally {
+            clearLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Copy a value read from Redis into the near tier, unless its key changed since
+     * {@code generation} was taken. Checked inside compute, which an invalidation of the key
+     * waits for, so a bump that lands after the check is followed by that invalidation.
+     */
+    private void fillNear(String id, ValueWrapper value, long generation) {
+        clearLock.readLock().lock();
+        try {
+            near.asMap().compute(id, (key, current) -> generation(id) == generation ? value : current);
+        } finally {
+            clearLock.readLock().unlock();
+        }
+    }
+
+    private long generation(String id) {
+        return generations.get(stripe(id));
+    }
+
+    private void bump(String id) {
+        generations.incrementAndGet(stripe(id));
+    }
+
+    private static int stripe(String id) {
+        return Math.floorMod(id.hashCode(), GENERATION_STRIPES);
+    }
+
+    /**
+     * Near keys are the string form Redis keys are made of, so an announcement can name them
+     */
+    static String nearKey(Object key) {
+        return key instanceof String value ? value : key.toString();
+    }
+}
@@ -0,0 +1,93 @@
+package com.rexxy.stream.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.Collection;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Puts a {@link TwoTierCache} near tier in front of every cache of the Redis cache manager.
+ *
+ * Writes and evictions are announced on a Redis pub/sub channel as
+ * {@code <instance>\n<cache>[\n<key>]}; the other instances drop that near entry, or the
+ * whole near cache when no key is given. An instance ignores its own announcements.
+ */
+public class TwoTierCacheManager implements CacheManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(TwoTierCacheManager.class);
+
+    private final CacheManager remote;
+    private final CacheTierConfig config;
+    private final StringRedisTemplate redisTemplate;
+    private final MeterRegistry meterRegistry;
+    private final String instanceId = UUID.randomUUID().toString();
+    private final ConcurrentMap<String, Cache> caches = new ConcurrentHashMap<>();
+
+    public TwoTierCacheManager(CacheManager remote, CacheTierConfig config, StringRedisTemplate redisTemplate,
+            MeterRegistry meterRegistry) {
+        this.remote = remote;
+        this.config = config;
+        this.redisTemplate = redisTemplate;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public Cache getCache(String name) {
+        Cache cache = caches.get(name);
+        if (cache != null) {
+            return cache;
+        }
+        Cache redisCache = remote.getCache(name);
+        if (redisCache == null) {
+            return null;
+        }
+        return caches.computeIfAbsent(name, key -> config.isNearCacheEnabled() && config.maximumSize(key) > 0
+                ? new TwoTierCache(key, redisCache, config.maximumSize(key), config.nearTtl(key), this, meterRegistry)
+                : redisCache);
+    }
+
+    @Override
+    public Collection<String> getCacheNames() {
+        return remote.getCacheNames();
+    }
+
+    /**
+     * Tell the other instances that a key, or with a null key the whole cache, changed
+     */
+    void publish(String cache, String key) {
+        if (!config.isNearCacheEnabled()) {
+            return;
+        }
+        String message = instanceId + "\n" + cache + (key != null ? "\n" + key : "");
+        try {
+            redisTemplate.convertAndSend(config.getInvalidationChannel(), message);
+        } catch (RuntimeException e) {
+            // The near TTL still bounds how long other instances serve their copy
+            logger.warn("Could not announce a change to cache {}: {}", cache, e.getMessage());
+        }
+    }
+
+    /**
+     * Apply an announcement received on the invalidation channel
+     */
+    public void onInvalidation(String message) {
+        String[] parts = message.split("\n", 3);
+        if (parts.length < 2 || parts[0].equals(instanceId)) {
+            return;
+        }
+        if (caches.get(parts[1]) instanceof TwoTierCache cache) {
+            if (parts.length == 3) {
+                cache.evictNear(parts[2]);
+            } else {
+                cache.clearNear();
+            }
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.rexxy.stream.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+@Configuration
+@ConfigurationProperties(prefix = "media.upload")
+@Data
+public class UploadConfig {
+    // Chunk size handed to clients unless they ask for another one within the bounds
+    private long defaultChunkSize = 8L * 1024 * 1024;
+    private long minChunkSize = 1024 * 1024;
+    private long maxChunkSize = 64L * 1024 * 1024;
+
+    private long maxUploadSize = 50L * 1024 * 1024 * 1024;
+
+    // Buffer used by the streaming multipart endpoint to parse and write the request body
+    private int streamBufferSize = 256 * 1024;
+
+    // Unfinished uploads older than this are deleted
+    private Duration expiry = Duration.ofHours(24);
+}
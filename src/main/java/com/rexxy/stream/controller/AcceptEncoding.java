@@ -0,0 +1,50 @@
+package com.rexxy.stream.controller;
+
+/**
+ * Reads an Accept-Encoding header (RFC 9110 section 12.5.3) for a single content coding.
+ */
+final class AcceptEncoding {
+
+    private AcceptEncoding() {
+    }
+
+    /**
+     * Whether a response in {@code coding} is acceptable: the coding is listed by name (gzip
+     * also as x-gzip), or covered by "*", with a q-value above zero. A named entry overrides
+     * "*", so {@code gzip;q=0, *} refuses gzip.
+     */
+    static boolean accepts(String header, String coding) {
+        if (header == null) {
+            return false;
+        }
+        double named = -1;
+        double wildcard = -1;
+        for (String entry : header.split(",")) {
+            String[] params = entry.split(";");
+            String name = params[0].trim();
+            if (name.equalsIgnoreCase(coding) || ("gzip".equalsIgnoreCase(coding) && name.equalsIgnoreCase("x-gzip"))) {
+                named = Math.max(named, quality(params));
+            } else if (name.equals("*")) {
+                wildcard = Math.max(wildcard, quality(params));
+            }
+        }
+        return named >= 0 ? named > 0 : wildcard > 0;
+    }
+
+    // A malformed weight counts as 0, so an unreadable entry never turns on an encoding
+    private static double quality(String[] params) {
+        for (int i = 1; i < params.length; i++) {
+            String param = params[i].trim();
+            int eq = param.indexOf('=');
+            if (eq > 0 && param.substring(0, eq).trim().equalsIgnoreCase("q")) {
+                try {
+                    double q = Double.parseDouble(param.substring(eq + 1).trim());
+                    return q >= 0 && q <= 1 ? q : 0;
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+}
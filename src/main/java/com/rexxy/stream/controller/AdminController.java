@@ -8,6 +8,8 @@ import com.rexxy.stream.repository.LessonRepository;
 import com.rexxy.stream.repository.ModuleRepository;
 import com.rexxy.stream.repository.UserProgressRepository;
 import com.rexxy.stream.repository.UserRepository;
+import com.rexxy.stream.service.BlobStoreService;
+import com.rexxy.stream.service.CourseCacheInvalidator;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
@@ -28,16 +30,21 @@ public class AdminController {
     private final LessonRepository lessonRepository;
     private final EnrollmentRepository enrollmentRepository;
     private final UserProgressRepository progressRepository;
+    private final BlobStoreService blobStoreService;
+    private final CourseCacheInvalidator cacheInvalidator;
 
     public AdminController(UserRepository userRepository, CourseRepository courseRepository,
             ModuleRepository moduleRepository, LessonRepository lessonRepository,
-            EnrollmentRepository enrollmentRepository, UserProgressRepository progressRepository) {
+            EnrollmentRepository enrollmentRepository, UserProgressRepository progressRepository,
+            BlobStoreService blobStoreService, CourseCacheInvalidator cacheInvalidator) {
         this.userRepository = userRepository;
         this.courseRepository = courseRepository;
         this.moduleRepository = moduleRepository;
         this.lessonRepository = lessonRepository;
         this.enrollmentRepository = enrollmentRepository;
         this.progressRepository = progressRepository;
+        this.blobStoreService = blobStoreService;
+        this.cacheInvalidator = cacheInvalidator;
     }
 
     /**
@@ -146,7 +153,6 @@ public class AdminController {
      * Update Course
      */
     @PutMapping("/courses/{id}")
-    @org.springframework.cache.annotation.CacheEvict(value = "courseHierarchyV2", allEntries = true)
     public ResponseEntity<com.rexxy.stream.model.Course> updateCourse(@AuthenticationPrincipal User user,
             @PathVariable String id, @RequestBody UpdateCourseRequest request) {
         if (!isAdmin(user))
@@ -163,7 +169,9 @@ public class AdminController {
                 course.setThumbnail(request.getThumbnail());
             if (request.getTags() != null)
                 course.setTags(request.getTags());
-            return ResponseEntity.ok(courseRepository.save(course));
+            com.rexxy.stream.model.Course saved = courseRepository.save(course);
+            cacheInvalidator.evictCourse(saved.getId());
+            return ResponseEntity.ok(saved);
         }).orElse(ResponseEntity.notFound().build());
     }
 
@@ -171,7 +179,6 @@ public class AdminController {
      * Update Module
      */
     @PutMapping("/modules/{id}")
-    @org.springframework.cache.annotation.CacheEvict(value = "courseHierarchyV2", allEntries = true)
     public ResponseEntity<com.rexxy.stream.model.Module> updateModule(@AuthenticationPrincipal User user,
             @PathVariable String id, @RequestBody UpdateModuleRequest request) {
         if (!isAdmin(user))
@@ -182,7 +189,9 @@ public class AdminController {
                 module.setTitle(request.getTitle());
             if (request.getOrderIndex() != null)
                 module.setOrderIndex(request.getOrderIndex());
-            return ResponseEntity.ok(moduleRepository.save(module));
+            com.rexxy.stream.model.Module saved = moduleRepository.save(module);
+            cacheInvalidator.evictCourse(saved.getCourse().getId());
+            return ResponseEntity.ok(saved);
         }).orElse(ResponseEntity.notFound().build());
     }
 
@@ -190,7 +199,6 @@ public class AdminController {
      * Update Lesson
      */
     @PutMapping("/lessons/{id}")
-    @org.springframework.cache.annotation.CacheEvict(value = "courseHierarchyV2", allEntries = true)
     public ResponseEntity<com.rexxy.stream.model.Lesson> updateLesson(@AuthenticationPrincipal User user,
             @PathVariable String id, @RequestBody UpdateLessonRequest request) {
         if (!isAdmin(user))
@@ -201,11 +209,16 @@ public class AdminController {
                 lesson.setTitle(request.getTitle());
             if (request.getDescription() != null)
                 lesson.setDescription(request.getDescription());
-            if (request.getVideoKey() != null)
+            if (request.getVideoKey() != null && !request.getVideoKey().equals(lesson.getResourcePath())) {
+                blobStoreService.release(lesson.getResourcePath());
+                blobStoreService.acquire(request.getVideoKey());
                 lesson.setResourcePath(request.getVideoKey());
+            }
             if (request.getOrderIndex() != null)
                 lesson.setOrderIndex(request.getOrderIndex());
-            return ResponseEntity.ok(lessonRepository.save(lesson));
+            com.rexxy.stream.model.Lesson saved = lessonRepository.save(lesson);
+            cacheInvalidator.evictCourseOfGroup(saved.getLessonGroup().getId());
+            return ResponseEntity.ok(saved);
         }).orElse(ResponseEntity.notFound().build());
     }
 
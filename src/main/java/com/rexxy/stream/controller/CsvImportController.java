@@ -6,12 +6,18 @@ import com.rexxy.stream.model.LessonGroup;
 import com.rexxy.stream.model.Module;
 import com.rexxy.stream.model.StorageType;
 import com.rexxy.stream.repository.*;
+import com.rexxy.stream.service.BlobStoreService;
+import com.rexxy.stream.service.CourseCacheInvalidator;
+import com.rexxy.stream.service.GoogleDriveService;
 import com.rexxy.stream.service.LessonService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.time.LocalDateTime;
 import java.util.*;
@@ -23,22 +29,34 @@ import java.util.*;
 @RequestMapping("/api/csv-import")
 public class CsvImportController {
 
+    private static final Logger logger = LoggerFactory.getLogger(CsvImportController.class);
+    private static final String UNKNOWN_DURATION = "0:00";
+
     private final LessonRepository lessonRepository;
     private final LessonGroupRepository lessonGroupRepository;
     private final ModuleRepository moduleRepository;
     private final CourseRepository courseRepository;
     private final LessonService lessonService;
+    private final BlobStoreService blobStoreService;
+    private final GoogleDriveService googleDriveService;
+    private final CourseCacheInvalidator cacheInvalidator;
 
     public CsvImportController(LessonRepository lessonRepository,
             LessonGroupRepository lessonGroupRepository,
             ModuleRepository moduleRepository,
             CourseRepository courseRepository,
-            LessonService lessonService) {
+            LessonService lessonService,
+            BlobStoreService blobStoreService,
+            GoogleDriveService googleDriveService,
+            CourseCacheInvalidator cacheInvalidator) {
         this.lessonRepository = lessonRepository;
         this.lessonGroupRepository = lessonGroupRepository;
         this.moduleRepository = moduleRepository;
         this.courseRepository = courseRepository;
         this.lessonService = lessonService;
+        this.blobStoreService = blobStoreService;
+        this.googleDriveService = googleDriveService;
+        this.cacheInvalidator = cacheInvalidator;
     }
 
     /**
@@ -61,7 +79,7 @@ public class CsvImportController {
             LessonGroup lessonGroup = lessonGroupRepository.findById(lessonGroupId)
                     .orElseThrow(() -> new RuntimeException("Lesson group not found: " + lessonGroupId));
 
-            List<Lesson> createdLessons = new ArrayList<>();
+            List<Lesson> parsedLessons = new ArrayList<>();
             List<String> errors = new ArrayList<>();
             int lineNumber = 0;
 
@@ -94,7 +112,7 @@ public class CsvImportController {
                         }
 
                         String title = parts[0].trim();
-                        String duration = "0:00"; // default
+                        String duration = UNKNOWN_DURATION; // default
                         String fileId;
 
                         // Check if we have duration (3 columns) or not (2 columns)
@@ -121,9 +139,7 @@ public class CsvImportController {
                         lesson.setDuration(duration);
                         lesson.setResourcePath(fileId);
                         lesson.setLessonGroup(lessonGroup);
-
-                        Lesson saved = lessonRepository.save(lesson);
-                        createdLessons.add(saved);
+                        parsedLessons.add(lesson);
 
                     } catch (Exception e) {
                         errors.add("Line " + lineNumber + ": " + e.getMessage());
@@ -131,6 +147,15 @@ public class CsvImportController {
                 }
             }
 
+            fillDriveDurations(parsedLessons);
+            List<Lesson> createdLessons = lessonRepository.saveAll(parsedLessons);
+            for (Lesson saved : createdLessons) {
+                blobStoreService.acquire(saved.getResourcePath());
+            }
+            if (!createdLessons.isEmpty()) {
+                cacheInvalidator.evictCourseOfGroup(lessonGroupId);
+            }
+
             response.setTotalLines(lineNumber);
             response.setImportedCount(createdLessons.size());
             response.setErrorCount(errors.size());
@@ -286,6 +311,7 @@ public class CsvImportController {
                     lesson.setDuration(duration);
 
                     lesson = lessonRepository.save(lesson);
+                    blobStoreService.acquire(lesson.getResourcePath());
 
                     group.getLessons().add(lesson);
                     lessonGroupRepository.save(group);
@@ -310,6 +336,32 @@ public class CsvImportController {
         }
     }
 
+    /**
+     * Look up durations the CSV left out for Drive lessons, all in a few batch requests.
+     * Without Drive credentials the lessons keep the default duration.
+     */
+    private void fillDriveDurations(List<Lesson> lessons) {
+        List<String> fileIds = lessons.stream()
+                .filter(lesson -> lesson.getStorageType() == StorageType.GOOGLE_DRIVE)
+                .filter(lesson -> UNKNOWN_DURATION.equals(lesson.getDuration()))
+                .map(Lesson::getResourcePath)
+                .toList();
+        if (fileIds.isEmpty()) {
+            return;
+        }
+        try {
+            Map<String, GoogleDriveService.VideoFileInfo> infos = googleDriveService.getFileInfos(fileIds);
+            for (Lesson lesson : lessons) {
+                GoogleDriveService.VideoFileInfo info = infos.get(lesson.getResourcePath());
+                if (info != null && info.getDuration() != null && UNKNOWN_DURATION.equals(lesson.getDuration())) {
+                    lesson.setDuration(info.getDuration());
+                }
+            }
+        } catch (IllegalStateException | IOException e) {
+            logger.info("Skipping Drive duration lookup for {} lessons: {}", fileIds.size(), e.getMessage());
+        }
+    }
+
     /**
      * Parse CSV line handling quoted fields
      */
@@ -1,35 +1,67 @@
 package com.rexxy.stream.controller;
 
+import com.rexxy.stream.config.DriveProxyConfig;
+import com.rexxy.stream.service.DriveChunkCache;
+import com.rexxy.stream.service.DriveRangeProxy;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.http.*;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
+
 /**
  * Controller for streaming videos from Google Drive
- * Uses redirect to Google Drive's direct streaming URL (no API needed)
+ * Proxies byte ranges through the Drive API with a local chunk cache, and falls back to a
+ * redirect to Google Drive's download URL when the proxy is off or no API credentials exist
  */
 @RestController
 @RequestMapping("/api/drive")
 public class DriveStreamController {
+    private static final Logger logger = LoggerFactory.getLogger(DriveStreamController.class);
+
+    private final DriveProxyConfig proxyConfig;
+    private final DriveRangeProxy driveRangeProxy;
+
+    public DriveStreamController(DriveProxyConfig proxyConfig, DriveRangeProxy driveRangeProxy) {
+        this.proxyConfig = proxyConfig;
+        this.driveRangeProxy = driveRangeProxy;
+    }
 
     /**
-     * Redirect to Google Drive streaming URL
-     * This uses Google Drive's built-in streaming without requiring API credentials
+     * Stream a Drive file with Range support
      */
     @GetMapping("/stream/{fileId}")
-    public ResponseEntity<Void> streamVideo(@PathVariable String fileId) {
+    public void streamVideo(
+            @PathVariable String fileId,
+            @RequestHeader(value = "Range", required = false) String rangeHeader,
+            HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
         // Validate file ID format (should be alphanumeric with underscores/hyphens)
-        if (fileId == null || fileId.length() < 10 || fileId.contains("/")) {
-            return ResponseEntity.badRequest().build();
+        if (!DriveChunkCache.isValidFileId(fileId)) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
+
+        if (proxyConfig.isEnabled()) {
+            try {
+                driveRangeProxy.serve(fileId, rangeHeader, request, response);
+                return;
+            } catch (IllegalStateException e) {
+                // No API credentials configured
+                logger.debug("Drive proxy unavailable, redirecting: {}", e.getMessage());
+            }
         }
 
         // Google Drive direct download URL with streaming support
         // This URL format allows direct video playback
         String driveUrl = "https://drive.google.com/uc?export=download&id=" + fileId;
 
-        return ResponseEntity.status(HttpStatus.FOUND)
-                .header(HttpHeaders.LOCATION, driveUrl)
-                .header(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN, "*")
-                .build();
+        response.setStatus(HttpServletResponse.SC_FOUND);
+        response.setHeader(HttpHeaders.LOCATION, driveUrl);
+        response.setHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN, "*");
     }
 
     /**
@@ -2,6 +2,7 @@ package com.rexxy.stream.controller;
 
 import com.rexxy.stream.dto.EnrollmentDTO;
 import com.rexxy.stream.model.User;
+import com.rexxy.stream.service.CourseCacheWarmer;
 import com.rexxy.stream.service.EnrollmentService;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -16,9 +17,11 @@ import java.util.Map;
 public class EnrollmentController {
 
     private final EnrollmentService enrollmentService;
+    private final CourseCacheWarmer cacheWarmer;
 
-    public EnrollmentController(EnrollmentService enrollmentService) {
+    public EnrollmentController(EnrollmentService enrollmentService, CourseCacheWarmer cacheWarmer) {
         this.enrollmentService = enrollmentService;
+        this.cacheWarmer = cacheWarmer;
     }
 
     /**
@@ -34,6 +37,7 @@ public class EnrollmentController {
         }
 
         EnrollmentDTO enrollment = enrollmentService.enroll(user, courseId);
+        cacheWarmer.recordEnrollment(courseId);
         return ResponseEntity.status(HttpStatus.CREATED).body(enrollment);
     }
 
@@ -1,17 +1,16 @@
 package com.rexxy.stream.controller;
 
-import com.rexxy.stream.model.Lesson;
-import com.rexxy.stream.model.LessonGroup;
-import com.rexxy.stream.model.StorageType;
-import com.rexxy.stream.repository.LessonGroupRepository;
-import com.rexxy.stream.repository.LessonRepository;
+import com.rexxy.stream.exception.ConflictException;
+import com.rexxy.stream.exception.ResourceNotFoundException;
+import com.rexxy.stream.model.DriveFolderWatch;
+import com.rexxy.stream.service.DriveSyncService;
 import com.rexxy.stream.service.GoogleDriveService;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
-import java.util.ArrayList;
+import java.io.IOException;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Controller for bulk importing videos from Google Drive
@@ -21,15 +20,11 @@ import java.util.Map;
 public class GoogleDriveController {
 
     private final GoogleDriveService googleDriveService;
-    private final LessonRepository lessonRepository;
-    private final LessonGroupRepository lessonGroupRepository;
+    private final DriveSyncService driveSyncService;
 
-    public GoogleDriveController(GoogleDriveService googleDriveService,
-            LessonRepository lessonRepository,
-            LessonGroupRepository lessonGroupRepository) {
+    public GoogleDriveController(GoogleDriveService googleDriveService, DriveSyncService driveSyncService) {
         this.googleDriveService = googleDriveService;
-        this.lessonRepository = lessonRepository;
-        this.lessonGroupRepository = lessonGroupRepository;
+        this.driveSyncService = driveSyncService;
     }
 
     /**
@@ -59,7 +54,8 @@ public class GoogleDriveController {
     }
 
     /**
-     * Bulk import videos from Google Drive folder to a lesson group
+     * Bulk import videos from Google Drive folder to a lesson group. The folder stays synced
+     * with the group afterwards; importing it again only applies what changed on Drive.
      * 
      * @param lessonGroupId The lesson group to add videos to
      * @param folderId      Optional folder ID (uses default if not provided)
@@ -69,37 +65,15 @@ public class GoogleDriveController {
             @PathVariable String lessonGroupId,
             @RequestParam(required = false) String folderId) {
         try {
-            // Verify lesson group exists
-            LessonGroup lessonGroup = lessonGroupRepository.findById(lessonGroupId)
-                    .orElseThrow(() -> new RuntimeException("Lesson group not found"));
-
-            // Get videos from folder
-            List<GoogleDriveService.VideoFileInfo> videos;
-            if (folderId != null && !folderId.isEmpty()) {
-                videos = googleDriveService.listVideosInFolder(folderId);
-            } else {
-                videos = googleDriveService.listVideosInDefaultFolder();
-            }
-
-            // Create lessons for each video
-            List<Lesson> createdLessons = new ArrayList<>();
-            for (GoogleDriveService.VideoFileInfo video : videos) {
-                Lesson lesson = new Lesson();
-                lesson.setTitle(cleanFileName(video.getFileName()));
-                lesson.setDuration(video.getDuration() != null ? video.getDuration() : "0:00");
-                lesson.setResourcePath(video.getFileId());
-                lesson.setStorageType(StorageType.GOOGLE_DRIVE);
-                lesson.setLessonGroup(lessonGroup);
-
-                Lesson saved = lessonRepository.save(lesson);
-                createdLessons.add(saved);
-            }
+            String folder = folderId != null && !folderId.isEmpty() ? folderId
+                    : googleDriveService.getDefaultFolderId();
+            DriveSyncService.SyncResult result = driveSyncService.importFolder(folder, lessonGroupId);
 
             BulkImportResponse response = new BulkImportResponse();
-            response.setTotalVideos(videos.size());
-            response.setImportedCount(createdLessons.size());
+            response.setTotalVideos(result.seen());
+            response.setImportedCount(result.added());
             response.setLessonGroupId(lessonGroupId);
-            response.setMessage("Successfully imported " + createdLessons.size() + " videos");
+            response.setMessage(describe(result));
 
             return ResponseEntity.ok(response);
         } catch (Exception e) {
@@ -107,24 +81,44 @@ public class GoogleDriveController {
             response.setTotalVideos(0);
             response.setImportedCount(0);
             response.setMessage("Error: " + e.getMessage());
-            return ResponseEntity.internalServerError().body(response);
+            HttpStatus status = e instanceof ConflictException ? HttpStatus.CONFLICT
+                    : e instanceof ResourceNotFoundException ? HttpStatus.NOT_FOUND
+                    : HttpStatus.INTERNAL_SERVER_ERROR;
+            return ResponseEntity.status(status).body(response);
         }
     }
 
     /**
-     * Clean up file name by removing extension and formatting
+     * Folders kept in sync with lesson groups
      */
-    private String cleanFileName(String fileName) {
-        // Remove file extension
-        int lastDot = fileName.lastIndexOf('.');
-        if (lastDot > 0) {
-            fileName = fileName.substring(0, lastDot);
-        }
+    @GetMapping("/watches")
+    public ResponseEntity<List<DriveFolderWatch>> listWatches() {
+        return ResponseEntity.ok(driveSyncService.getWatches());
+    }
+
+    /**
+     * Stop syncing a folder; already imported lessons are kept
+     */
+    @DeleteMapping("/watches/{folderId}")
+    public ResponseEntity<Void> unwatch(@PathVariable String folderId) {
+        driveSyncService.unwatch(folderId);
+        return ResponseEntity.noContent().build();
+    }
 
-        // Replace underscores and hyphens with spaces
-        fileName = fileName.replace('_', ' ').replace('-', ' ');
+    /**
+     * Apply pending Drive changes to all synced folders now instead of waiting for the schedule
+     */
+    @PostMapping("/sync")
+    public ResponseEntity<DriveSyncService.SyncResult> sync() throws IOException {
+        return ResponseEntity.ok(driveSyncService.syncAll());
+    }
 
-        return fileName;
+    private static String describe(DriveSyncService.SyncResult result) {
+        String message = "Successfully imported " + result.added() + " videos";
+        if (result.updated() > 0 || result.removed() > 0) {
+            message += ", updated " + result.updated() + ", removed " + result.removed();
+        }
+        return message;
     }
 
     /**
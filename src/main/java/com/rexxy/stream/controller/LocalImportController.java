@@ -10,6 +10,8 @@ import com.rexxy.stream.repository.CourseRepository;
 import com.rexxy.stream.repository.LessonGroupRepository;
 import com.rexxy.stream.repository.LessonRepository;
 import com.rexxy.stream.repository.ModuleRepository;
+import com.rexxy.stream.service.MediaCatalog;
+import com.rexxy.stream.service.ThumbnailService;
 import org.springframework.http.ResponseEntity;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
@@ -33,17 +35,23 @@ public class LocalImportController {
     private final LessonGroupRepository lessonGroupRepository;
     private final LessonRepository lessonRepository;
     private final FileStorageConfig fileStorageConfig;
+    private final MediaCatalog mediaCatalog;
+    private final ThumbnailService thumbnailService;
 
     public LocalImportController(CourseRepository courseRepository,
             ModuleRepository moduleRepository,
             LessonGroupRepository lessonGroupRepository,
             LessonRepository lessonRepository,
-            FileStorageConfig fileStorageConfig) {
+            FileStorageConfig fileStorageConfig,
+            MediaCatalog mediaCatalog,
+            ThumbnailService thumbnailService) {
         this.courseRepository = courseRepository;
         this.moduleRepository = moduleRepository;
         this.lessonGroupRepository = lessonGroupRepository;
         this.lessonRepository = lessonRepository;
         this.fileStorageConfig = fileStorageConfig;
+        this.mediaCatalog = mediaCatalog;
+        this.thumbnailService = thumbnailService;
     }
 
     /**
@@ -236,7 +244,12 @@ public class LocalImportController {
         lesson.setStorageType(StorageType.LOCAL);
         lesson.setLessonGroup(group);
         lesson.setOrderIndex(orderIndex);
-        return lessonRepository.save(lesson);
+        lesson = lessonRepository.save(lesson);
+
+        // Index the file now so its first stream request is a catalog hit
+        mediaCatalog.refresh(videoFile.toAbsolutePath().normalize());
+        thumbnailService.enqueue(videoFile);
+        return lesson;
     }
 
     /**
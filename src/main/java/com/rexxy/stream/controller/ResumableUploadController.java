@@ -0,0 +1,67 @@
+package com.rexxy.stream.controller;
+
+import com.rexxy.stream.dto.UploadSessionRequest;
+import com.rexxy.stream.dto.UploadSessionResponse;
+import com.rexxy.stream.dto.VideoUploadResponse;
+import com.rexxy.stream.service.ResumableUploadService;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.net.URI;
+
+/**
+ * Resumable chunked uploads:
+ * POST /api/videos/uploads creates a session (or answers 200 with the stored video when the
+ * announced sha256 is already stored), PUT .../chunks/{index} stores a chunk
+ * (any order, in parallel, with X-Chunk-SHA256), GET shows what is missing and
+ * POST .../complete publishes the video.
+ */
+@RestController
+@RequestMapping("/api/videos/uploads")
+public class ResumableUploadController {
+
+    private final ResumableUploadService resumableUploadService;
+
+    public ResumableUploadController(ResumableUploadService resumableUploadService) {
+        this.resumableUploadService = resumableUploadService;
+    }
+
+    @PostMapping
+    public ResponseEntity<?> createUpload(@RequestBody UploadSessionRequest request) throws IOException {
+        VideoUploadResponse existing = resumableUploadService.findExisting(request);
+        if (existing != null) {
+            return ResponseEntity.ok(existing);
+        }
+        UploadSessionResponse session = resumableUploadService.create(request);
+        return ResponseEntity.created(URI.create("/api/videos/uploads/" + session.getUploadId())).body(session);
+    }
+
+    @GetMapping("/{uploadId}")
+    public ResponseEntity<UploadSessionResponse> getUpload(@PathVariable String uploadId) throws IOException {
+        return ResponseEntity.ok(resumableUploadService.status(uploadId));
+    }
+
+    @PutMapping("/{uploadId}/chunks/{index}")
+    public ResponseEntity<UploadSessionResponse> putChunk(
+            @PathVariable String uploadId,
+            @PathVariable int index,
+            @RequestHeader(value = "X-Chunk-SHA256", required = false) String sha256,
+            HttpServletRequest request) throws IOException {
+        return ResponseEntity.ok(resumableUploadService.putChunk(uploadId, index, sha256,
+                request.getContentLengthLong(), request.getInputStream()));
+    }
+
+    @PostMapping("/{uploadId}/complete")
+    public ResponseEntity<VideoUploadResponse> completeUpload(@PathVariable String uploadId) throws IOException {
+        return ResponseEntity.status(HttpStatus.CREATED).body(resumableUploadService.complete(uploadId));
+    }
+
+    @DeleteMapping("/{uploadId}")
+    public ResponseEntity<Void> abortUpload(@PathVariable String uploadId) throws IOException {
+        resumableUploadService.abort(uploadId);
+        return ResponseEntity.noContent().build();
+    }
+}
@@ -1,10 +1,14 @@
 package com.rexxy.stream.controller;
 
-import com.rexxy.stream.dto.CourseHierarchyDTO;
-import com.rexxy.stream.service.StreamingService;
+import com.rexxy.stream.service.CourseCacheWarmer;
+import com.rexxy.stream.service.HierarchyResponseCache;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
@@ -12,14 +16,32 @@ import org.springframework.web.bind.annotation.RestController;
 @RequestMapping("/api/streaming")
 public class StreamingController {
 
-    private final StreamingService streamingService;
+    private final HierarchyResponseCache hierarchyResponseCache;
+    private final CourseCacheWarmer cacheWarmer;
 
-    public StreamingController(StreamingService streamingService) {
-        this.streamingService = streamingService;
+    public StreamingController(HierarchyResponseCache hierarchyResponseCache, CourseCacheWarmer cacheWarmer) {
+        this.hierarchyResponseCache = hierarchyResponseCache;
+        this.cacheWarmer = cacheWarmer;
     }
 
     @GetMapping("/courses/{courseId}/hierarchy")
-    public ResponseEntity<CourseHierarchyDTO> getCourseHierarchy(@PathVariable String courseId) {
-        return ResponseEntity.ok(streamingService.getCourseHierarchy(courseId));
+    public ResponseEntity<byte[]> getCourseHierarchy(@PathVariable String courseId,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        HierarchyResponseCache.Rendered hierarchy = hierarchyResponseCache.get(courseId);
+        cacheWarmer.recordView(courseId);
+        boolean gzip = hierarchy.gzip() != null && AcceptEncoding.accepts(acceptEncoding, "gzip");
+
+        // Clients revalidate every time; an unchanged course costs a 304 and no body
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .cacheControl(CacheControl.noCache())
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (gzip) {
+            String etag = hierarchy.etag();
+            return response.eTag(etag.substring(0, etag.length() - 1) + "-gz\"")
+                    .header(HttpHeaders.CONTENT_ENCODING, "gzip")
+                    .body(hierarchy.gzip());
+        }
+        return response.eTag(hierarchy.etag()).body(hierarchy.json());
     }
 }
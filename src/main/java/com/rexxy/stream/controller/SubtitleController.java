@@ -1,114 +1,103 @@
 package com.rexxy.stream.controller;
 
-import com.rexxy.stream.config.FileStorageConfig;
-import com.rexxy.stream.model.Lesson;
-import com.rexxy.stream.model.StorageType;
-import com.rexxy.stream.repository.LessonRepository;
-import org.springframework.http.HttpStatus;
+import com.rexxy.stream.config.MediaStreamingConfig;
+import com.rexxy.stream.dto.CueDTO;
+import com.rexxy.stream.service.CueIndexService;
+import com.rexxy.stream.service.SubtitleService;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.Optional;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/api/videos/subtitles")
 public class SubtitleController {
 
-    private final LessonRepository lessonRepository;
-    private final FileStorageConfig fileStorageConfig;
+    private static final MediaType TEXT_VTT = MediaType.parseMediaType("text/vtt;charset=UTF-8");
 
-    public SubtitleController(LessonRepository lessonRepository, FileStorageConfig fileStorageConfig) {
-        this.lessonRepository = lessonRepository;
-        this.fileStorageConfig = fileStorageConfig;
+    private final SubtitleService subtitleService;
+    private final CueIndexService cueIndexService;
+    private final MediaStreamingConfig streamingConfig;
+
+    public SubtitleController(SubtitleService subtitleService, CueIndexService cueIndexService,
+            MediaStreamingConfig streamingConfig) {
+        this.subtitleService = subtitleService;
+        this.cueIndexService = cueIndexService;
+        this.streamingConfig = streamingConfig;
     }
 
+    /**
+     * Subtitle track of a lesson as WebVTT; {@code lang} picks a language variant, otherwise
+     * the default track is served. Gzipped when the client accepts it.
+     */
     @GetMapping("/{lessonId}")
-    public ResponseEntity<String> getSubtitle(@PathVariable String lessonId) {
-        Optional<Lesson> lessonOpt = lessonRepository.findById(lessonId);
-        if (lessonOpt.isEmpty()) {
-            return ResponseEntity.notFound().build();
-        }
-
-        Lesson lesson = lessonOpt.get();
-        if (lesson.getStorageType() != StorageType.LOCAL || lesson.getResourcePath() == null) {
+    public ResponseEntity<byte[]> getSubtitle(@PathVariable String lessonId,
+            @RequestParam(required = false) String lang,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding)
+            throws IOException {
+        SubtitleService.Subtitle subtitle = subtitleService.getSubtitle(lessonId, lang);
+        if (subtitle == null) {
             return ResponseEntity.notFound().build();
         }
 
-        try {
-            Path libraryRoot = Paths.get(fileStorageConfig.getLocalLibraryRoot());
-            // resourcePath contains forward slashes from import, normalize for OS
-            String normalizedPath = lesson.getResourcePath().replace("/", java.io.File.separator);
-            Path videoPath = libraryRoot.resolve(normalizedPath);
-
-            // Assume subtitle is same name but with .en.srt or .srt
-            // Try .en.srt first (as seen in file listing), then .srt
-            String videoFileName = videoPath.getFileName().toString();
-            String baseName = videoFileName.lastIndexOf(".") > 0
-                    ? videoFileName.substring(0, videoFileName.lastIndexOf("."))
-                    : videoFileName;
-
-            Path parentDir = videoPath.getParent();
-            Path subtitlePath = parentDir.resolve(baseName + ".en.srt");
-
-            if (!Files.exists(subtitlePath)) {
-                subtitlePath = parentDir.resolve(baseName + ".srt");
-            }
-
-            if (!Files.exists(subtitlePath)) {
-                return ResponseEntity.notFound().build();
-            }
-
-            // Read SRT and convert to VTT
-            String vttContent = convertSrtToVtt(subtitlePath);
-
-            return ResponseEntity.ok()
-                    .contentType(MediaType.parseMediaType("text/vtt"))
-                    .body(vttContent);
-
-        } catch (Exception e) {
-            e.printStackTrace();
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        boolean gzip = subtitle.gzip() != null && AcceptEncoding.accepts(acceptEncoding, "gzip");
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(TEXT_VTT)
+                .cacheControl(CacheControl.maxAge(streamingConfig.getSubtitleMaxAge()).cachePublic())
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        // Each encoding is its own representation and gets its own strong tag; Spring answers
+        // If-None-Match with 304
+        if (gzip) {
+            return response
+                    .eTag(subtitle.etag().substring(0, subtitle.etag().length() - 1) + "-gz\"")
+                    .header(HttpHeaders.CONTENT_ENCODING, "gzip")
+                    .body(subtitle.gzip());
         }
+        return response.eTag(subtitle.etag()).body(subtitle.vtt());
     }
 
-    private String convertSrtToVtt(Path srtPath) throws IOException {
-        StringBuilder vtt = new StringBuilder();
-        vtt.append("WEBVTT\n\n");
-
-        try (BufferedReader reader = Files.newBufferedReader(srtPath, StandardCharsets.UTF_8)) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // SRT format:
-                // 1
-                // 00:00:20,000 --> 00:00:24,400
-                // Text line...
-
-                // VTT format:
-                // WEBVTT
-                //
-                // 00:00:20.000 --> 00:00:24.400
-                // Text line...
+    /**
+     * Available subtitle languages of a lesson with the URL of each track
+     */
+    @GetMapping("/{lessonId}/tracks")
+    public ResponseEntity<List<Map<String, String>>> getTracks(@PathVariable String lessonId) {
+        List<Map<String, String>> tracks = subtitleService.getTracks(lessonId).stream()
+                .map(track -> {
+                    Map<String, String> entry = new LinkedHashMap<>();
+                    entry.put("language", track.language());
+                    entry.put("url", "/api/videos/subtitles/" + lessonId
+                            + (track.language() != null ? "?lang=" + track.language() : ""));
+                    return entry;
+                })
+                .distinct()
+                .toList();
+        return ResponseEntity.ok(tracks);
+    }
 
-                // If line is time range, replace comma with dot
-                if (line.matches("\\d{2}:\\d{2}:\\d{2},\\d{3}\\s-->\\s\\d{2}:\\d{2}:\\d{2},\\d{3}")) {
-                    vtt.append(line.replace(",", ".")).append("\n");
-                } else {
-                    // Keep other lines (text and index numbers usually ignored by VTT parsers or
-                    // acceptable)
-                    // Some strictly remove indices, but browsers are usually lenient.
-                    // To be safe, we can skip pure number lines if we wanted,
-                    // but keeping them is usually fine for simple srt-vtt.
-                    vtt.append(line).append("\n");
-                }
-            }
+    /**
+     * Cues of the default track showing between {@code from} and {@code to} (seconds), so a
+     * player seeking into a long lesson does not need the whole file
+     */
+    @GetMapping("/{lessonId}/cues")
+    public ResponseEntity<List<CueDTO>> getCues(@PathVariable String lessonId,
+            @RequestParam(defaultValue = "0") double from,
+            @RequestParam(required = false) Double to) throws IOException {
+        if (from < 0 || (to != null && to < from)) {
+            throw new IllegalArgumentException("Invalid cue window: from=" + from + ", to=" + to);
+        }
+        List<CueIndexService.Hit> hits = cueIndexService.window(lessonId, Math.round(from * 1000),
+                to != null ? Math.round(to * 1000) : Long.MAX_VALUE);
+        if (hits == null) {
+            return ResponseEntity.notFound().build();
         }
-        return vtt.toString();
+        return ResponseEntity.ok(hits.stream()
+                .map(hit -> new CueDTO(hit.start() / 1000.0, hit.end() / 1000.0, hit.text()))
+                .toList());
     }
 }
@@ -0,0 +1,66 @@
+package com.rexxy.stream.controller;
+
+import com.rexxy.stream.config.ThumbnailConfig;
+import com.rexxy.stream.service.EntityTags;
+import com.rexxy.stream.service.ThumbnailService;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Seek-preview thumbnails of a lesson: a WebVTT track whose cues reference tiles of the
+ * sprite sheets next to it
+ */
+@RestController
+@RequestMapping("/api/videos/thumbnails")
+public class ThumbnailController {
+
+    private static final MediaType TEXT_VTT = MediaType.parseMediaType("text/vtt;charset=UTF-8");
+
+    private final ThumbnailService thumbnailService;
+    private final ThumbnailConfig thumbnailConfig;
+
+    public ThumbnailController(ThumbnailService thumbnailService, ThumbnailConfig thumbnailConfig) {
+        this.thumbnailService = thumbnailService;
+        this.thumbnailConfig = thumbnailConfig;
+    }
+
+    /**
+     * Thumbnail track; 404 while the sprites are still being generated
+     */
+    @GetMapping("/{lessonId}/thumbs.vtt")
+    public ResponseEntity<Resource> getTrack(@PathVariable String lessonId) throws IOException {
+        Path track = thumbnailService.getTrack(lessonId);
+        if (track == null) {
+            return ResponseEntity.notFound().build();
+        }
+        // Same URL across regenerations, so revalidate by tag; the sheets it points at are versioned
+        return ResponseEntity.ok()
+                .contentType(TEXT_VTT)
+                .cacheControl(CacheControl.maxAge(thumbnailConfig.getMaxAge()).cachePublic())
+                .eTag(EntityTags.forFile(Files.readAttributes(track, BasicFileAttributes.class)))
+                .body(new FileSystemResource(track));
+    }
+
+    @GetMapping("/{lessonId}/thumbs-{index}.jpg")
+    public ResponseEntity<Resource> getSheet(@PathVariable String lessonId, @PathVariable int index)
+            throws IOException {
+        Path sheet = thumbnailService.getSheet(lessonId, index);
+        if (sheet == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.IMAGE_JPEG)
+                .cacheControl(CacheControl.maxAge(thumbnailConfig.getMaxAge()).cachePublic().immutable())
+                .eTag(EntityTags.forFile(Files.readAttributes(sheet, BasicFileAttributes.class)))
+                .body(new FileSystemResource(sheet));
+    }
+}
@@ -1,34 +1,62 @@
 package com.rexxy.stream.controller;
 
 import com.rexxy.stream.config.FileStorageConfig;
+import com.rexxy.stream.config.MediaStreamingConfig;
 import com.rexxy.stream.dto.VideoUploadResponse;
+import com.rexxy.stream.service.HlsPackager;
+import com.rexxy.stream.service.MediaCatalog;
+import com.rexxy.stream.service.MediaCatalog.MediaEntry;
+import com.rexxy.stream.service.MediaRangeService;
+import com.rexxy.stream.service.Mp4SampleIndex;
+import com.rexxy.stream.service.StreamingUploadService;
+import com.rexxy.stream.service.TranscodeService;
 import com.rexxy.stream.service.VideoStreamingService;
 import jakarta.servlet.http.HttpServletRequest;
-import org.springframework.core.io.Resource;
-import org.springframework.core.io.UrlResource;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
-import java.net.MalformedURLException;
-import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 
 @RestController
 @RequestMapping("/api/videos")
 public class VideoStreamingController {
+    private static final String CLIENT_HINTS = "Save-Data, Downlink, Viewport-Width, DPR";
+
     private final VideoStreamingService videoStreamingService;
     private final FileStorageConfig fileStorageConfig;
+    private final MediaStreamingConfig streamingConfig;
+    private final MediaRangeService mediaRangeService;
+    private final MediaCatalog mediaCatalog;
+    private final HlsPackager hlsPackager;
+    private final TranscodeService transcodeService;
+    private final StreamingUploadService streamingUploadService;
 
     public VideoStreamingController(VideoStreamingService videoStreamingService,
-            FileStorageConfig fileStorageConfig) {
+            FileStorageConfig fileStorageConfig,
+            MediaStreamingConfig streamingConfig,
+            MediaRangeService mediaRangeService,
+            MediaCatalog mediaCatalog,
+            HlsPackager hlsPackager,
+            TranscodeService transcodeService,
+            StreamingUploadService streamingUploadService) {
         this.videoStreamingService = videoStreamingService;
         this.fileStorageConfig = fileStorageConfig;
+        this.streamingConfig = streamingConfig;
+        this.mediaRangeService = mediaRangeService;
+        this.mediaCatalog = mediaCatalog;
+        this.hlsPackager = hlsPackager;
+        this.transcodeService = transcodeService;
+        this.streamingUploadService = streamingUploadService;
     }
 
     @PostMapping("/upload")
@@ -37,52 +65,55 @@ public class VideoStreamingController {
         return ResponseEntity.status(HttpStatus.CREATED).body(response);
     }
 
+    /**
+     * Same contract as /upload, but the multipart body is parsed while it arrives and written
+     * straight to storage; the SHA-256 of the stored file is returned in X-Content-SHA256.
+     * A client that sends X-Content-SHA256 (with Expect: 100-continue) for content that is
+     * already stored gets 200 and the existing file without transferring the body; see
+     * TomcatConfig for the connector setting this relies on.
+     */
+    @PostMapping(value = "/upload/stream", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<VideoUploadResponse> uploadVideoStreaming(
+            @RequestHeader(value = "X-Content-SHA256", required = false) String sha256,
+            HttpServletRequest request) throws IOException {
+        StreamingUploadService.StreamedUpload upload = streamingUploadService.ingest(request.getContentType(),
+                request.getInputStream(), sha256);
+        return ResponseEntity.status(upload.duplicate() ? HttpStatus.OK : HttpStatus.CREATED)
+                .header("X-Content-SHA256", upload.sha256())
+                .body(upload.response());
+    }
+
     @GetMapping("/stream/{filename}")
-    public ResponseEntity<Resource> streamVideo(
+    public void streamVideo(
             @PathVariable String filename,
+            HttpServletRequest request,
+            HttpServletResponse response,
             @RequestHeader(value = "Range", required = false) String rangeHeader) throws IOException {
 
-        Resource resource = videoStreamingService.loadVideoAsResource(filename);
         Path filePath = videoStreamingService.getFilePath(filename);
-        long fileSize = Files.size(filePath);
-        String contentType = Files.probeContentType(filePath);
-
-        if (contentType == null) {
-            contentType = "application/octet-stream";
-        }
-
-        // If no range header, return the entire file
-        if (rangeHeader == null) {
-            return ResponseEntity.ok()
-                    .contentType(MediaType.parseMediaType(contentType))
-                    .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + filename + "\"")
-                    .contentLength(fileSize)
-                    .body(resource);
+        MediaEntry entry = videoStreamingService.isInStorage(filePath) ? mediaCatalog.lookup(filePath) : null;
+        if (entry == null) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return;
         }
 
-        // Parse range header (e.g., "bytes=0-1023")
-        String[] ranges = rangeHeader.replace("bytes=", "").split("-");
-        long rangeStart = Long.parseLong(ranges[0]);
-        long rangeEnd = ranges.length > 1 && !ranges[1].isEmpty()
-                ? Long.parseLong(ranges[1])
-                : fileSize - 1;
-
-        if (rangeEnd > fileSize - 1) {
-            rangeEnd = fileSize - 1;
+        // Uploads are named by the sha256 of their content, so the bytes behind a name never change
+        CacheControl cacheControl = CacheControl.maxAge(streamingConfig.getUploadMaxAge()).cachePublic().immutable();
+
+        if (transcodeService.manifest(filename) != null) {
+            // Transcoded uploads are negotiated from client hints, so shared caches must not mix them
+            response.setHeader("Accept-CH", CLIENT_HINTS);
+            response.setHeader(HttpHeaders.VARY, CLIENT_HINTS);
+            cacheControl = CacheControl.maxAge(streamingConfig.getUploadMaxAge()).cachePrivate();
+            Path rendition = transcodeService.selectRendition(filename, request);
+            MediaEntry renditionEntry = rendition != null ? mediaCatalog.lookup(rendition) : null;
+            if (renditionEntry != null) {
+                entry = renditionEntry;
+            }
         }
 
-        long contentLength = rangeEnd - rangeStart + 1;
-
-        // For range requests, we need to return a 206 Partial Content response
-        // Note: For a production implementation, you'd want to use InputStreamResource
-        // with proper byte range reading. This is a simplified version.
-        return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
-                .contentType(MediaType.parseMediaType(contentType))
-                .header(HttpHeaders.CONTENT_RANGE, "bytes " + rangeStart + "-" + rangeEnd + "/" + fileSize)
-                .header(HttpHeaders.ACCEPT_RANGES, "bytes")
-                .header(HttpHeaders.CONTENT_LENGTH, String.valueOf(contentLength))
-                .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + filename + "\"")
-                .body(resource);
+        String contentType = entry.contentType() != null ? entry.contentType() : "application/octet-stream";
+        mediaRangeService.serve(entry, contentType, cacheControl, rangeHeader, request, response);
     }
 
     /**
@@ -90,8 +121,9 @@ public class VideoStreamingController {
      * Path is relative to file.storage.local-library-root
      */
     @GetMapping("/library/**")
-    public ResponseEntity<Resource> streamLibraryVideo(
+    public void streamLibraryVideo(
             HttpServletRequest request,
+            HttpServletResponse response,
             @RequestHeader(value = "Range", required = false) String rangeHeader) throws IOException {
 
         // Extract path after /api/videos/library/
@@ -106,110 +138,110 @@ public class VideoStreamingController {
 
         // Security check: ensure the path is within the library root
         if (!filePath.startsWith(libraryRoot)) {
-            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+            response.setStatus(HttpServletResponse.SC_FORBIDDEN);
+            return;
         }
 
-        if (!Files.exists(filePath) || !Files.isReadable(filePath)) {
-            return ResponseEntity.notFound().build();
+        MediaEntry entry = mediaCatalog.lookup(filePath);
+        if (entry == null) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return;
         }
 
-        Resource resource;
-        try {
-            resource = new UrlResource(filePath.toUri());
-        } catch (MalformedURLException e) {
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
-        }
+        String contentType = entry.contentType() != null ? entry.contentType() : "video/mp4";
 
-        long fileSize = Files.size(filePath);
-        String contentType = Files.probeContentType(filePath);
-        if (contentType == null) {
-            contentType = "video/mp4";
-        }
+        CacheControl cacheControl = CacheControl.maxAge(streamingConfig.getLibraryMaxAge()).cachePublic();
+        mediaRangeService.serve(entry, contentType, cacheControl, rangeHeader, request, response);
+    }
 
-        String filename = filePath.getFileName().toString();
+    /**
+     * HLS view of a library MP4, repackaged on the fly from its sample tables:
+     * {path}/index.m3u8, {path}/init.mp4 and {path}/{n}.m4s
+     * Path is relative to file.storage.local-library-root
+     */
+    @GetMapping("/hls/**")
+    public void streamLibraryHls(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String requestUri = request.getRequestURI();
+        String relativePath = requestUri.substring(requestUri.indexOf("/hls/") + 5);
+        relativePath = java.net.URLDecoder.decode(relativePath, StandardCharsets.UTF_8);
 
-        // If no range header, return the entire file
-        if (rangeHeader == null) {
-            return ResponseEntity.ok()
-                    .contentType(MediaType.parseMediaType(contentType))
-                    .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + filename + "\"")
-                    .header(HttpHeaders.ACCEPT_RANGES, "bytes")
-                    .contentLength(fileSize)
-                    .body(resource);
+        int slash = relativePath.lastIndexOf('/');
+        if (slash <= 0) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return;
         }
+        String resource = relativePath.substring(slash + 1);
 
-        // Parse range header (e.g., "bytes=0-1023")
-        String[] ranges = rangeHeader.replace("bytes=", "").split("-");
-        long rangeStart = Long.parseLong(ranges[0]);
-        long rangeEnd = ranges.length > 1 && !ranges[1].isEmpty()
-                ? Long.parseLong(ranges[1])
-                : Math.min(rangeStart + 1024 * 1024 - 1, fileSize - 1); // Default to 1MB chunk
-
-        if (rangeEnd > fileSize - 1) {
-            rangeEnd = fileSize - 1;
+        Path libraryRoot = Paths.get(fileStorageConfig.getLocalLibraryRoot()).toAbsolutePath().normalize();
+        Path filePath = libraryRoot.resolve(relativePath.substring(0, slash)).normalize();
+        if (!filePath.startsWith(libraryRoot)) {
+            response.setStatus(HttpServletResponse.SC_FORBIDDEN);
+            return;
         }
 
-        long contentLength = rangeEnd - rangeStart + 1;
-
-        // Use RandomAccessFile to seek to the correct position and read only requested
-        // bytes
-        java.io.RandomAccessFile randomAccessFile = new java.io.RandomAccessFile(filePath.toFile(), "r");
-        randomAccessFile.seek(rangeStart);
+        MediaEntry entry = mediaCatalog.lookup(filePath);
+        if (entry == null) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
 
-        // Create an InputStream that reads from the current position
-        java.io.InputStream inputStream = new java.io.InputStream() {
-            private long remaining = contentLength;
+        Mp4SampleIndex index;
+        try {
+            index = hlsPackager.index(entry);
+        } catch (IOException e) {
+            response.setStatus(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE);
+            return;
+        }
 
-            @Override
-            public int read() throws java.io.IOException {
-                if (remaining <= 0)
-                    return -1;
-                remaining--;
-                return randomAccessFile.read();
+        int segment = -1;
+        if (resource.endsWith(".m4s")) {
+            try {
+                segment = Integer.parseInt(resource, 0, resource.length() - 4, 10);
+            } catch (NumberFormatException e) {
+                segment = -1;
             }
-
-            @Override
-            public int read(byte[] b, int off, int len) throws java.io.IOException {
-                if (remaining <= 0)
-                    return -1;
-                int toRead = (int) Math.min(len, remaining);
-                int read = randomAccessFile.read(b, off, toRead);
-                if (read > 0)
-                    remaining -= read;
-                return read;
+            if (segment < 0 || segment >= index.segmentCount()) {
+                response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                return;
             }
+        } else if (!"index.m3u8".equals(resource) && !"init.mp4".equals(resource)) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
 
-            @Override
-            public void close() throws java.io.IOException {
-                randomAccessFile.close();
-            }
-        };
-
-        org.springframework.core.io.InputStreamResource streamResource = new org.springframework.core.io.InputStreamResource(
-                inputStream);
-
-        return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
-                .contentType(MediaType.parseMediaType(contentType))
-                .header(HttpHeaders.CONTENT_RANGE, "bytes " + rangeStart + "-" + rangeEnd + "/" + fileSize)
-                .header(HttpHeaders.ACCEPT_RANGES, "bytes")
-                .header(HttpHeaders.CONTENT_LENGTH, String.valueOf(contentLength))
-                .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + filename + "\"")
-                .body(streamResource);
+        // Every HLS resource is derived from the source file, so its validators are too
+        String etag = entry.etag().substring(0, entry.etag().length() - 1) + "-" + resource + "\"";
+        response.setHeader(HttpHeaders.CACHE_CONTROL,
+                CacheControl.maxAge(streamingConfig.getLibraryMaxAge()).cachePublic().getHeaderValue());
+        if (new ServletWebRequest(request, response).checkNotModified(etag, entry.lastModified())) {
+            return;
+        }
+
+        if (segment >= 0) {
+            response.setContentType("video/iso.segment");
+            response.setContentLengthLong(hlsPackager.segmentLength(index, segment));
+            hlsPackager.writeSegment(entry.path(), index, segment, response.getOutputStream());
+            return;
+        }
+
+        byte[] body = "init.mp4".equals(resource)
+                ? hlsPackager.initSegment(index)
+                : hlsPackager.playlist(index).getBytes(StandardCharsets.UTF_8);
+        response.setContentType("init.mp4".equals(resource) ? "video/mp4" : "application/vnd.apple.mpegurl");
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
     }
 
     @GetMapping("/{filename}/info")
     public ResponseEntity<?> getVideoInfo(@PathVariable String filename) throws IOException {
         Path filePath = videoStreamingService.getFilePath(filename);
-
-        if (!Files.exists(filePath)) {
+        MediaEntry entry = videoStreamingService.isInStorage(filePath) ? mediaCatalog.lookup(filePath) : null;
+        if (entry == null) {
             return ResponseEntity.notFound().build();
         }
 
-        long fileSize = Files.size(filePath);
-        String contentType = Files.probeContentType(filePath);
-
         return ResponseEntity.ok()
-                .body(new VideoInfo(filename, fileSize, contentType));
+                .body(new VideoInfo(filename, entry.size(), entry.contentType()));
     }
 
     // Inner class for video info response
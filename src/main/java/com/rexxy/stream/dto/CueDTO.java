@@ -0,0 +1,17 @@
+package com.rexxy.stream.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * One subtitle cue; times in seconds from the start of the lesson
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class CueDTO {
+    private double start;
+    private double end;
+    private String text;
+}
@@ -13,6 +13,7 @@ public class SearchResultDTO {
     private List<CourseResult> courses;
     private List<ModuleResult> modules;
     private List<LessonResult> lessons;
+    private List<TranscriptResult> transcripts;
     private int totalResults;
 
     @Data
@@ -46,4 +47,18 @@ public class SearchResultDTO {
         private String moduleTitle;
         private String courseTitle;
     }
+
+    /**
+     * A subtitle cue matching the query; times in seconds from the start of the lesson
+     */
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class TranscriptResult {
+        private String lessonId;
+        private String lessonTitle;
+        private double start;
+        private double end;
+        private String text;
+    }
 }
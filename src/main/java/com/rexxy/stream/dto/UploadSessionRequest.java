@@ -0,0 +1,18 @@
+package com.rexxy.stream.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class UploadSessionRequest {
+    private String filename;
+    private String contentType;
+    private long size;
+    // Optional; the server picks one when absent or out of bounds
+    private Long chunkSize;
+    // Optional hex SHA-256 of the whole file; content that is already stored is not uploaded again
+    private String sha256;
+}
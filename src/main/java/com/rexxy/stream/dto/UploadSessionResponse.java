@@ -0,0 +1,20 @@
+package com.rexxy.stream.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class UploadSessionResponse {
+    private String uploadId;
+    private String filename;
+    private long size;
+    private long chunkSize;
+    private int chunkCount;
+    private long bytesReceived;
+    private List<Integer> missingChunks;
+}
@@ -0,0 +1,35 @@
+package com.rexxy.stream.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * A Drive folder kept in sync with a lesson group. {@code pageToken} is the Drive changes
+ * token up to which the folder's changes have been applied.
+ */
+@Entity
+@Table(name = "drive_folder_watches")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class DriveFolderWatch {
+    @Id
+    @GeneratedValue(strategy = GenerationType.UUID)
+    private String id;
+
+    @Column(name = "folder_id", nullable = false, unique = true)
+    private String folderId;
+
+    @Column(name = "lesson_group_id", nullable = false)
+    private String lessonGroupId;
+
+    @Column(name = "page_token", nullable = false)
+    private String pageToken;
+
+    @Column(name = "last_synced_at")
+    private LocalDateTime lastSyncedAt;
+}
@@ -0,0 +1,55 @@
+package com.rexxy.stream.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "transcode_jobs", indexes = {
+        @Index(columnList = "status"),
+        @Index(columnList = "source_filename")
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TranscodeJob {
+    @Id
+    @GeneratedValue(strategy = GenerationType.UUID)
+    private String id;
+
+    // Name of the original file inside the upload directory
+    @Column(name = "source_filename", nullable = false)
+    private String sourceFilename;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private JobStatus status;
+
+    private int attempts;
+
+    @Column(length = 2000)
+    private String error;
+
+    @Column(name = "created_at")
+    private LocalDateTime createdAt;
+
+    @Column(name = "started_at")
+    private LocalDateTime startedAt;
+
+    @Column(name = "completed_at")
+    private LocalDateTime completedAt;
+
+    // A failed job waits in QUEUED until then before its next attempt
+    @Column(name = "next_attempt_at")
+    private LocalDateTime nextAttemptAt;
+
+    public enum JobStatus {
+        QUEUED,
+        RUNNING,
+        COMPLETED,
+        FAILED
+    }
+}
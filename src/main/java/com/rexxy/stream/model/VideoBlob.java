@@ -0,0 +1,41 @@
+package com.rexxy.stream.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * An uploaded video stored once under its content hash. {@code refCount} is the number of
+ * lessons whose resourcePath points at the blob's filename. An unreferenced blob is kept until
+ * both {@code createdAt} and {@code claimedAt} are older than the retention period.
+ */
+@Entity
+@Table(name = "video_blobs")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class VideoBlob {
+    // Hex SHA-256 of the file contents
+    @Id
+    @Column(length = 64)
+    private String sha256;
+
+    // Name of the file inside the upload directory, "<sha256>.<ext>"
+    @Column(nullable = false, unique = true)
+    private String filename;
+
+    private long size;
+
+    @Column(name = "ref_count")
+    private int refCount;
+
+    @Column(name = "created_at")
+    private LocalDateTime createdAt;
+
+    // Last time an upload or hash lookup resolved to this blob instead of storing a copy
+    @Column(name = "claimed_at")
+    private LocalDateTime claimedAt;
+}
@@ -0,0 +1,12 @@
+package com.rexxy.stream.repository;
+
+import com.rexxy.stream.model.DriveFolderWatch;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+@Repository
+public interface DriveFolderWatchRepository extends JpaRepository<DriveFolderWatch, String> {
+    Optional<DriveFolderWatch> findByFolderId(String folderId);
+}
@@ -1,7 +1,9 @@
 package com.rexxy.stream.repository;
 
 import com.rexxy.stream.model.Enrollment;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
@@ -20,4 +22,8 @@ public interface EnrollmentRepository extends JpaRepository<Enrollment, String>
     boolean existsByUserIdAndCourseId(String userId, String courseId);
 
     long countByCourseId(String courseId);
+
+    // Course id and enrollment count, most enrolled first
+    @Query("SELECT e.course.id, COUNT(e) FROM Enrollment e GROUP BY e.course.id ORDER BY COUNT(e) DESC")
+    List<Object[]> countByCourseMostEnrolledFirst(Pageable pageable);
 }
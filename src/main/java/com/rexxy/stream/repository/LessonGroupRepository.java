@@ -3,13 +3,19 @@ package com.rexxy.stream.repository;
 import com.rexxy.stream.model.LessonGroup;
 import com.rexxy.stream.model.Module;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface LessonGroupRepository extends JpaRepository<LessonGroup, String> {
     List<LessonGroup> findByModuleId(String moduleId);
 
     List<LessonGroup> findByModuleIn(List<Module> modules);
+
+    @Query("SELECT m.course.id FROM LessonGroup lg JOIN lg.module m WHERE lg.id = :id")
+    Optional<String> findCourseIdById(@Param("id") String id);
 }
@@ -16,5 +16,21 @@ public interface LessonRepository extends JpaRepository<Lesson, String> {
     @org.springframework.data.jpa.repository.Query("SELECT COUNT(l) FROM Lesson l JOIN l.lessonGroup lg JOIN lg.module m WHERE m.course.id = :courseId")
     long countByCourseId(@org.springframework.data.repository.query.Param("courseId") String courseId);
 
-    List<Lesson> findByDurationIsNullAndResourcePathIsNotNull();
+    long countByDurationIsNullAndResourcePathIsNotNull();
+
+    @org.springframework.data.jpa.repository.Query("SELECT l.id, l.resourcePath FROM Lesson l WHERE l.duration IS NULL AND l.resourcePath IS NOT NULL AND l.id > :afterId ORDER BY l.id")
+    List<Object[]> findMissingDurationAfter(@org.springframework.data.repository.query.Param("afterId") String afterId, org.springframework.data.domain.Pageable pageable);
+
+    List<Lesson> findByLessonGroupIdAndResourcePathIn(String lessonGroupId, java.util.Collection<String> resourcePaths);
+
+    @org.springframework.data.jpa.repository.Query("SELECT l.id FROM Lesson l WHERE l.storageType = :storageType")
+    List<String> findIdsByStorageType(@org.springframework.data.repository.query.Param("storageType") com.rexxy.stream.model.StorageType storageType);
+
+    boolean existsByResourcePath(String resourcePath);
+
+    @org.springframework.data.jpa.repository.Query("SELECT l.resourcePath, COUNT(l) FROM Lesson l WHERE l.resourcePath IN :paths GROUP BY l.resourcePath")
+    List<Object[]> countByResourcePathIn(@org.springframework.data.repository.query.Param("paths") java.util.Collection<String> paths);
+
+    @org.springframework.data.jpa.repository.Query("SELECT DISTINCT m.course.id FROM Lesson l JOIN l.lessonGroup lg JOIN lg.module m WHERE l.id IN :ids")
+    List<String> findCourseIdsByIdIn(@org.springframework.data.repository.query.Param("ids") java.util.Collection<String> ids);
 }
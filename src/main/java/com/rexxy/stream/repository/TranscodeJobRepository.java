@@ -0,0 +1,24 @@
+package com.rexxy.stream.repository;
+
+import com.rexxy.stream.model.TranscodeJob;
+import com.rexxy.stream.model.TranscodeJob.JobStatus;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+@Repository
+public interface TranscodeJobRepository extends JpaRepository<TranscodeJob, String> {
+    List<TranscodeJob> findByStatusOrderByCreatedAtAsc(JobStatus status);
+
+    long countByStatus(JobStatus status);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE TranscodeJob j SET j.status = :to WHERE j.status = :from")
+    int updateStatus(@Param("from") JobStatus from, @Param("to") JobStatus to);
+}
@@ -2,10 +2,13 @@ package com.rexxy.stream.repository;
 
 import com.rexxy.stream.model.UserProgress;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -28,4 +31,9 @@ public interface UserProgressRepository extends JpaRepository<UserProgress, Stri
     long countCompletedLessons(@Param("userId") String userId, @Param("courseId") String courseId);
 
     long countByUserIdAndCompletedTrue(String userId);
+
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM UserProgress up WHERE up.lesson.id IN :lessonIds")
+    int deleteByLessonIdIn(@Param("lessonIds") Collection<String> lessonIds);
 }
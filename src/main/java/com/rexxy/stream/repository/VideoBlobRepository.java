@@ -0,0 +1,27 @@
+package com.rexxy.stream.repository;
+
+import com.rexxy.stream.model.VideoBlob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+@Repository
+public interface VideoBlobRepository extends JpaRepository<VideoBlob, String> {
+    Optional<VideoBlob> findByFilename(String filename);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE VideoBlob b SET b.refCount = b.refCount + :delta WHERE b.filename = :filename")
+    int adjustRefCount(@Param("filename") String filename, @Param("delta") int delta);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE VideoBlob b SET b.claimedAt = :claimedAt WHERE b.sha256 = :sha256")
+    int markClaimed(@Param("sha256") String sha256, @Param("claimedAt") LocalDateTime claimedAt);
+}
@@ -0,0 +1,24 @@
+package com.rexxy.stream.runner;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+/**
+ * {@code /actuator/durationbackfill}: state, progress and rate of the duration backfill
+ */
+@Component
+@Endpoint(id = "durationbackfill")
+public class DurationBackfillEndpoint {
+
+    private final DurationBackfillRunner runner;
+
+    public DurationBackfillEndpoint(DurationBackfillRunner runner) {
+        this.runner = runner;
+    }
+
+    @ReadOperation
+    public DurationBackfillRunner.Progress progress() {
+        return runner.progress();
+    }
+}
@@ -1,68 +1,233 @@
 package com.rexxy.stream.runner;
 
+import com.rexxy.stream.config.DurationBackfillConfig;
 import com.rexxy.stream.config.FileStorageConfig;
-import com.rexxy.stream.model.Lesson;
 import com.rexxy.stream.repository.LessonRepository;
+import com.rexxy.stream.service.CourseCacheInvalidator;
 import com.rexxy.stream.service.MediaMetadataService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.boot.CommandLineRunner;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Component;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Fills in missing lesson durations with ffprobe in the background, so startup does not
+ * wait for it.
+ *
+ * Lessons are read in id order, one batch at a time; each batch is probed on a pool of
+ * {@code workers} ffprobe processes, written with one JDBC batch update and then
+ * checkpointed by its last id, so a restart resumes where the previous run stopped. The
+ * checkpoint is removed once a run completes, so the next start retries files that could
+ * not be probed. Progress is exposed as the {@code durationbackfill} actuator endpoint.
+ */
 @Component
 public class DurationBackfillRunner implements CommandLineRunner {
 
     private static final Logger logger = LoggerFactory.getLogger(DurationBackfillRunner.class);
 
+    private static final String UPDATE_SQL = "UPDATE lessons SET duration = ? WHERE id = ? AND duration IS NULL";
+
     private final LessonRepository lessonRepository;
     private final MediaMetadataService mediaMetadataService;
     private final FileStorageConfig fileStorageConfig;
+    private final DurationBackfillConfig config;
+    private final JdbcTemplate jdbcTemplate;
+    private final CourseCacheInvalidator cacheInvalidator;
+    private final Path checkpointFile;
+    private final Counter probed;
+    private final Counter updated;
+
+    private final AtomicLong pending = new AtomicLong();
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private volatile State state = State.IDLE;
+    private volatile String lastId;
+    private volatile Instant startedAt;
+    private volatile Instant finishedAt;
+    private volatile ExecutorService workers;
+    private volatile Thread thread;
+
+    public enum State {
+        IDLE, RUNNING, COMPLETED, FAILED, STOPPED
+    }
+
+    /**
+     * Snapshot for the actuator endpoint; {@code pending} counts lessons without a duration
+     * when the run started
+     */
+    public record Progress(State state, long pending, long processed, long updated, double lessonsPerSecond,
+            String lastId, Instant startedAt, Instant finishedAt) {
+    }
 
     public DurationBackfillRunner(LessonRepository lessonRepository,
             MediaMetadataService mediaMetadataService,
-            FileStorageConfig fileStorageConfig) {
+            FileStorageConfig fileStorageConfig,
+            DurationBackfillConfig config,
+            JdbcTemplate jdbcTemplate,
+            CourseCacheInvalidator cacheInvalidator,
+            MeterRegistry meterRegistry) {
         this.lessonRepository = lessonRepository;
         this.mediaMetadataService = mediaMetadataService;
         this.fileStorageConfig = fileStorageConfig;
+        this.config = config;
+        this.jdbcTemplate = jdbcTemplate;
+        this.cacheInvalidator = cacheInvalidator;
+        this.checkpointFile = Paths.get(config.getCheckpointFile()).toAbsolutePath().normalize();
+        this.probed = Counter.builder("duration.backfill.processed")
+                .description("Lessons probed by the duration backfill; its rate is the backfill throughput")
+                .register(meterRegistry);
+        this.updated = Counter.builder("duration.backfill.updated")
+                .description("Lesson durations written by the duration backfill")
+                .register(meterRegistry);
+        Gauge.builder("duration.backfill.remaining", this,
+                runner -> Math.max(0, runner.pending.get() - runner.processed.get()))
+                .description("Lessons the running duration backfill has yet to probe")
+                .register(meterRegistry);
     }
 
     @Override
-    public void run(String... args) throws Exception {
-        logger.info("Checking for lessons with missing duration...");
-        List<Lesson> lessons = lessonRepository.findByDurationIsNullAndResourcePathIsNotNull();
-
-        if (lessons.isEmpty()) {
-            logger.info("No lessons found with missing duration.");
+    public void run(String... args) {
+        if (!config.isEnabled()) {
             return;
         }
+        thread = Thread.ofPlatform().name("duration-backfill").daemon().start(this::backfill);
+    }
+
+    @PreDestroy
+    public void stop() {
+        Thread coordinator = thread;
+        if (coordinator != null) {
+            coordinator.interrupt();
+        }
+        ExecutorService pool = workers;
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+    }
+
+    public Progress progress() {
+        Instant start = startedAt;
+        Instant end = finishedAt != null ? finishedAt : Instant.now();
+        double seconds = start != null ? Math.max(1, Duration.between(start, end).toMillis()) / 1000.0 : 0;
+        return new Progress(state, pending.get(), processed.get(), written.get(),
+                seconds > 0 ? processed.get() / seconds : 0, lastId, start, finishedAt);
+    }
+
+    void backfill() {
+        startedAt = Instant.now();
+        finishedAt = null;
+        processed.set(0);
+        written.set(0);
+        state = State.RUNNING;
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, config.getWorkers()),
+                Thread.ofPlatform().name("ffprobe-", 0).daemon().factory());
+        workers = pool;
+        try {
+            pending.set(lessonRepository.countByDurationIsNullAndResourcePathIsNotNull());
+            String after = readCheckpoint();
+            if (pending.get() == 0) {
+                logger.info("No lessons found with missing duration.");
+            } else {
+                logger.info("Backfilling durations of {} lessons with {} ffprobe workers{}", pending.get(),
+                        config.getWorkers(), after.isEmpty() ? "" : ", resuming after " + after);
+            }
 
-        logger.info("Found {} lessons with missing duration. Starting backfill...", lessons.size());
-
-        int count = 0;
-        for (Lesson lesson : lessons) {
-            String resourcePath = lesson.getResourcePath();
-            try {
-                Path filePath = resolveFilePath(resourcePath);
-                if (filePath != null && Files.exists(filePath)) {
-                    double duration = mediaMetadataService.getDuration(filePath);
-                    if (duration > 0) {
-                        lesson.setDuration(mediaMetadataService.formatDuration(duration));
-                        lessonRepository.save(lesson);
-                        count++;
-                        logger.debug("Updated duration for lesson '{}' ({})", lesson.getTitle(), lesson.getId());
+            List<Object[]> rows;
+            while (!(rows = lessonRepository.findMissingDurationAfter(after,
+                    PageRequest.ofSize(Math.max(1, config.getBatchSize())))).isEmpty()) {
+                List<Future<String>> probes = new ArrayList<>(rows.size());
+                for (Object[] row : rows) {
+                    String resourcePath = (String) row[1];
+                    probes.add(pool.submit(() -> probe(resourcePath)));
+                }
+                List<Object[]> updates = new ArrayList<>();
+                List<String> updatedIds = new ArrayList<>();
+                for (int i = 0; i < rows.size(); i++) {
+                    String duration = probes.get(i).get();
+                    if (duration != null) {
+                        updates.add(new Object[] { duration, rows.get(i)[0] });
+                        updatedIds.add((String) rows.get(i)[0]);
                     }
                 }
-            } catch (Exception e) {
-                logger.error("Failed to backfill duration for lesson '{}': {}", lesson.getTitle(), e.getMessage());
+                if (!updates.isEmpty()) {
+                    jdbcTemplate.batchUpdate(UPDATE_SQL, updates);
+                    cacheInvalidator.evictCoursesOfLessons(updatedIds);
+                }
+
+                after = (String) rows.get(rows.size() - 1)[0];
+                writeCheckpoint(after);
+                lastId = after;
+                processed.addAndGet(rows.size());
+                written.addAndGet(updates.size());
+                probed.increment(rows.size());
+                updated.increment(updates.size());
             }
+
+            Files.deleteIfExists(checkpointFile);
+            state = State.COMPLETED;
+            if (pending.get() > 0) {
+                logger.info("Duration backfill completed. Updated {} out of {} lessons.", written.get(),
+                        processed.get());
+            }
+        } catch (InterruptedException e) {
+            // Shutting down: the checkpoint lets the next start continue
+            state = State.STOPPED;
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            state = State.FAILED;
+            logger.error("Duration backfill failed after {} lessons: {}", processed.get(), e.getMessage());
+        } finally {
+            finishedAt = Instant.now();
+            pool.shutdownNow();
         }
+    }
+
+    private String probe(String resourcePath) {
+        try {
+            Path filePath = resolveFilePath(resourcePath);
+            if (filePath != null && Files.exists(filePath)) {
+                double duration = mediaMetadataService.getDuration(filePath);
+                if (duration > 0) {
+                    return mediaMetadataService.formatDuration(duration);
+                }
+            }
+        } catch (Exception e) {
+            logger.debug("Failed to probe duration of {}: {}", resourcePath, e.getMessage());
+        }
+        return null;
+    }
+
+    private String readCheckpoint() throws IOException {
+        return Files.isRegularFile(checkpointFile) ? Files.readString(checkpointFile, StandardCharsets.UTF_8).trim()
+                : "";
+    }
 
-        logger.info("Duration backfill completed. Updated {} out of {} lessons.", count, lessons.size());
+    private void writeCheckpoint(String id) throws IOException {
+        Files.createDirectories(checkpointFile.getParent());
+        Path tmp = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+        Files.writeString(tmp, id, StandardCharsets.UTF_8);
+        Files.move(tmp, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
     }
 
     private Path resolveFilePath(String resourcePath) {
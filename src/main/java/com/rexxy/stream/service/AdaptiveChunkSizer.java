@@ -0,0 +1,244 @@
+package com.rexxy.stream.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.rexxy.stream.config.MediaStreamingConfig;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Picks the window served for open-ended ranges ("bytes=N-") per client and file.
+ *
+ * A client that asks for the byte right after its previous window is playing through the
+ * file, so its window doubles up to {@code maxChunkSize}, but no further than what its
+ * measured throughput delivers in {@code chunkTargetDuration}. A client that jumps elsewhere
+ * is seeking, so its window halves down to {@code minChunkSize}. Sequential clients also get
+ * the following window read ahead on a virtual thread, which pulls it into the OS page
+ * cache (local or network file system) before the player asks for it.
+ *
+ * Choosing a window changes nothing; a client's state only moves when a 206 that carried
+ * bytes is reported through {@link #recordTransfer}, so 304s, 416s and aborted requests do
+ * not count. Throughput is only known for bodies copied on the request thread; sendfile
+ * bodies are written by the connector after the request returns and leave it unchanged.
+ */
+@Service
+public class AdaptiveChunkSizer {
+
+    // Step used to touch the read-ahead window; one pooled direct buffer per in-flight read
+    private static final int READ_AHEAD_BUFFER_SIZE = 256 * 1024;
+
+    // Smaller bodies mostly measure latency and socket buffering, not bandwidth
+    static final long MIN_MEASURED_BYTES = 64 * 1024;
+
+    // Weight of the newest sample in the throughput average
+    private static final double THROUGHPUT_SMOOTHING = 0.3;
+
+    private final MediaStreamingConfig streamingConfig;
+    private final Cache<ClientKey, ClientState> clients;
+    private final ExecutorService readAheadExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Semaphore readAheadPermits;
+    private final BlockingQueue<ByteBuffer> bufferPool;
+    private final DistributionSummary chunkSizes;
+    private final Counter readAheadIssued;
+    private final Counter readAheadHits;
+    private final Counter readAheadMisses;
+
+    public AdaptiveChunkSizer(MediaStreamingConfig streamingConfig, MeterRegistry meterRegistry) {
+        this.streamingConfig = streamingConfig;
+        this.clients = Caffeine.newBuilder()
+                .maximumSize(10_000)
+                .expireAfterAccess(Duration.ofMinutes(10))
+                .build();
+        int concurrency = Math.max(1, streamingConfig.getReadAheadMaxConcurrent());
+        this.readAheadPermits = new Semaphore(concurrency);
+        this.bufferPool = new ArrayBlockingQueue<>(concurrency);
+
+        this.chunkSizes = DistributionSummary.builder("video.stream.chunk.size")
+                .baseUnit("bytes")
+                .description("Window served for open-ended range requests")
+                .register(meterRegistry);
+        this.readAheadIssued = Counter.builder("video.readahead.issued")
+                .description("Read-ahead reads started")
+                .register(meterRegistry);
+        this.readAheadHits = Counter.builder("video.readahead.requests").tag("result", "hit")
+                .description("Requests that landed on a completed read-ahead window")
+                .register(meterRegistry);
+        this.readAheadMisses = Counter.builder("video.readahead.requests").tag("result", "miss")
+                .description("Read-aheads that were unfinished or never used")
+                .register(meterRegistry);
+    }
+
+    record ClientKey(String client, Path path) {
+    }
+
+    // Guarded by its own monitor; one instance per client and file
+    private static final class ClientState {
+        long window;
+        long expectedNext = -1;
+        double bytesPerSecond;
+        long readAheadStart = -1;
+        long readAheadEnd = -1;
+        CompletableFuture<Void> readAhead;
+    }
+
+    /**
+     * Window for an open-ended range starting at {@code start}
+     *
+     * @param client Identifies the player, see {@link MediaRangeService}
+     */
+    public long openEndedWindow(String client, Path filePath, long start) {
+        long window = streamingConfig.getDefaultChunkSize();
+        if (streamingConfig.isAdaptiveChunkEnabled()) {
+            ClientState state = clients.getIfPresent(new ClientKey(client, filePath));
+            if (state != null) {
+                synchronized (state) {
+                    window = nextWindow(state, start);
+                }
+            }
+        }
+        chunkSizes.record(window);
+        return window;
+    }
+
+    /**
+     * Account for a 206 that sent {@code length} bytes from {@code start}: move the client's
+     * window, fold the transfer into its throughput and read ahead the next window when it
+     * is playing sequentially
+     *
+     * @param elapsedNanos Time spent writing the body, or a negative value when it was not
+     *                     measured (sendfile)
+     */
+    public void recordTransfer(String client, Path filePath, long fileSize, long start, long length,
+            long elapsedNanos) {
+        if (!streamingConfig.isAdaptiveChunkEnabled() || length <= 0) {
+            return;
+        }
+        ClientState state = clients.get(new ClientKey(client, filePath), key -> new ClientState());
+        synchronized (state) {
+            boolean sequential = state.window != 0 && start == state.expectedNext;
+            state.window = nextWindow(state, start);
+            recordReadAheadOutcome(state, start);
+            if (elapsedNanos > 0 && length >= MIN_MEASURED_BYTES) {
+                double rate = length * 1e9 / elapsedNanos;
+                state.bytesPerSecond = state.bytesPerSecond == 0 ? rate
+                        : state.bytesPerSecond + THROUGHPUT_SMOOTHING * (rate - state.bytesPerSecond);
+            }
+
+            long nextStart = start + length;
+            state.expectedNext = Math.min(nextStart, fileSize);
+            if (sequential && nextStart < fileSize && streamingConfig.isReadAheadEnabled()) {
+                long nextEnd = Math.min(fileSize, nextStart + nextWindow(state, nextStart)) - 1;
+                state.readAhead = readAhead(filePath, nextStart, nextEnd);
+                if (state.readAhead != null) {
+                    state.readAheadStart = nextStart;
+                    state.readAheadEnd = nextEnd;
+                }
+            }
+        }
+    }
+
+    // Window the client gets for a request at start; does not change the state
+    private long nextWindow(ClientState state, long start) {
+        if (state.window == 0) {
+            return streamingConfig.getDefaultChunkSize();
+        }
+        long min = Math.min(streamingConfig.getMinChunkSize(), state.window);
+        if (start != state.expectedNext) {
+            return Math.max(state.window / 2, min);
+        }
+        long max = Math.max(streamingConfig.getMaxChunkSize(), state.window);
+        if (state.bytesPerSecond > 0) {
+            long deliverable = (long) (state.bytesPerSecond * streamingConfig.getChunkTargetDuration().toNanos() / 1e9);
+            max = Math.max(streamingConfig.getMinChunkSize(), Math.min(streamingConfig.getMaxChunkSize(), deliverable));
+        }
+        return Math.min(state.window * 2, max);
+    }
+
+    // Measured throughput of a client, 0 until a transfer was timed; used by tests
+    double throughput(String client, Path filePath) {
+        ClientState state = clients.getIfPresent(new ClientKey(client, filePath));
+        if (state == null) {
+            return 0;
+        }
+        synchronized (state) {
+            return state.bytesPerSecond;
+        }
+    }
+
+    private void recordReadAheadOutcome(ClientState state, long start) {
+        if (state.readAhead == null) {
+            return;
+        }
+        boolean used = start >= state.readAheadStart && start <= state.readAheadEnd;
+        if (used && state.readAhead.isDone() && !state.readAhead.isCompletedExceptionally()) {
+            readAheadHits.increment();
+        } else {
+            readAheadMisses.increment();
+        }
+        state.readAhead = null;
+    }
+
+    // Start an asynchronous read of [start, end]; null when too many are already in flight
+    private CompletableFuture<Void> readAhead(Path filePath, long start, long end) {
+        if (!readAheadPermits.tryAcquire()) {
+            return null;
+        }
+        readAheadIssued.increment();
+        return CompletableFuture.runAsync(() -> {
+            ByteBuffer buffer = bufferPool.poll();
+            if (buffer == null) {
+                buffer = ByteBuffer.allocateDirect(READ_AHEAD_BUFFER_SIZE);
+            }
+            try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+                long position = start;
+                while (position <= end) {
+                    buffer.clear();
+                    buffer.limit((int) Math.min(buffer.capacity(), end - position + 1));
+                    int read = channel.read(buffer, position);
+                    if (read <= 0) {
+                        break;
+                    }
+                    position += read;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                bufferPool.offer(buffer);
+                readAheadPermits.release();
+            }
+        }, readAheadExecutor);
+    }
+
+    // Read-ahead started for a client, if any; used by tests
+    CompletableFuture<Void> pendingReadAhead(String client, Path filePath) {
+        ClientState state = clients.getIfPresent(new ClientKey(client, filePath));
+        if (state == null) {
+            return null;
+        }
+        synchronized (state) {
+            return state.readAhead;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        readAheadExecutor.shutdownNow();
+    }
+}
@@ -0,0 +1,254 @@
+package com.rexxy.stream.service;
+
+import com.rexxy.stream.config.FileStorageConfig;
+import com.rexxy.stream.dto.VideoUploadResponse;
+import com.rexxy.stream.model.VideoBlob;
+import com.rexxy.stream.repository.LessonRepository;
+import com.rexxy.stream.repository.VideoBlobRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+/**
+ * Content-addressed store for uploaded videos.
+ *
+ * Every upload path hashes the file while receiving it into a staging file; publishing it
+ * here renames it to {@code <sha256>.<ext>} in the upload directory, or drops it when the
+ * same content is already stored. Lessons refer to blobs by that filename through
+ * {@code resourcePath}, and each blob counts its referencing lessons so unused copies can be
+ * removed after a grace period. Handing out an existing blob restarts that period, so an
+ * upload that was deduplicated onto an old orphan has time to be attached to its lesson.
+ */
+@Service
+public class BlobStoreService {
+
+    private static final Logger logger = LoggerFactory.getLogger(BlobStoreService.class);
+
+    private static final String STAGING_DIR = ".incoming";
+    private static final String STAGING_SUFFIX = ".staged";
+    private static final Pattern SHA256 = Pattern.compile("[0-9a-fA-F]{64}");
+    private static final Pattern BLOB_NAME = Pattern.compile("[0-9a-f]{64}\\.[a-z0-9]+");
+    private static final int LOCK_STRIPES = 64;
+    private static final int COUNT_BATCH = 500;
+
+    private final VideoBlobRepository blobRepository;
+    private final LessonRepository lessonRepository;
+    private final FileStorageConfig fileStorageConfig;
+    private final MediaCatalog mediaCatalog;
+    private final TranscodeService transcodeService;
+    private final ThumbnailService thumbnailService;
+    private final Path uploadRoot;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    public BlobStoreService(VideoBlobRepository blobRepository,
+            LessonRepository lessonRepository,
+            FileStorageConfig fileStorageConfig,
+            MediaCatalog mediaCatalog,
+            TranscodeService transcodeService,
+            ThumbnailService thumbnailService) {
+        this.blobRepository = blobRepository;
+        this.lessonRepository = lessonRepository;
+        this.fileStorageConfig = fileStorageConfig;
+        this.mediaCatalog = mediaCatalog;
+        this.transcodeService = transcodeService;
+        this.thumbnailService = thumbnailService;
+        this.uploadRoot = Paths.get(fileStorageConfig.getUploadDir()).toAbsolutePath().normalize();
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * A fresh file in the upload directory's staging area to receive an upload into; being on
+     * the same filesystem makes publishing it a rename
+     */
+    public Path newStagingFile() throws IOException {
+        return Files.createDirectories(uploadRoot.resolve(STAGING_DIR)).resolve(UUID.randomUUID() + STAGING_SUFFIX);
+    }
+
+    /**
+     * Upload response for content that is already stored, or {@code null} when the hash is
+     * unknown. A hit marks the blob as claimed so reconciliation does not delete it before the
+     * caller has had a chance to reference it.
+     */
+    public VideoUploadResponse find(String sha256) {
+        if (sha256 == null || !SHA256.matcher(sha256).matches()) {
+            return null;
+        }
+        String hash = sha256.toLowerCase(Locale.ROOT);
+        synchronized (lock(hash)) {
+            VideoBlob blob = blobRepository.findById(hash)
+                    .filter(stored -> Files.isRegularFile(uploadRoot.resolve(stored.getFilename())))
+                    .orElse(null);
+            if (blob == null) {
+                return null;
+            }
+            blobRepository.markClaimed(hash, LocalDateTime.now());
+            return response(blob.getFilename(), blob.getSize(), true);
+        }
+    }
+
+    /**
+     * Publish a completely written staging file under its content hash. When the content is
+     * already stored the staging file is deleted and the existing blob is returned.
+     */
+    public VideoUploadResponse store(Path staged, String sha256, String extension, long size) throws IOException {
+        String hash = sha256.toLowerCase(Locale.ROOT);
+        synchronized (lock(hash)) {
+            VideoUploadResponse existing = find(hash);
+            if (existing != null) {
+                Files.deleteIfExists(staged);
+                logger.info("Upload matches stored blob {}", existing.getFilename());
+                return existing;
+            }
+
+            String suffix = extension.toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9]", "");
+            if (suffix.isEmpty()) {
+                Files.deleteIfExists(staged);
+                throw new IllegalArgumentException("File must have a name with an extension");
+            }
+            String filename = hash + "." + suffix;
+            Path target = uploadRoot.resolve(filename);
+            Files.move(staged, target, StandardCopyOption.ATOMIC_MOVE);
+            LocalDateTime now = LocalDateTime.now();
+            blobRepository.save(new VideoBlob(hash, filename, size, 0, now, now));
+
+            mediaCatalog.refresh(target);
+            transcodeService.enqueue(filename);
+            thumbnailService.enqueue(target);
+            return response(filename, size, false);
+        }
+    }
+
+    /**
+     * Count a lesson reference to a stored blob; resource paths that are not blobs are ignored
+     */
+    public void acquire(String resourcePath) {
+        if (isBlob(resourcePath)) {
+            blobRepository.adjustRefCount(resourcePath, 1);
+        }
+    }
+
+    /**
+     * Drop a lesson reference to a stored blob; the file stays until the next reconciliation
+     * finds it unreferenced for longer than the retention period
+     */
+    public void release(String resourcePath) {
+        if (isBlob(resourcePath)) {
+            blobRepository.adjustRefCount(resourcePath, -1);
+        }
+    }
+
+    /**
+     * Recount references from the lessons table, which also catches lessons removed by
+     * cascading course or module deletes, then delete blobs that stayed unreferenced past the
+     * retention period and leftover staging files
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(fixedDelayString = "${file.storage.orphan-blob-reconcile-interval:6h}",
+            initialDelayString = "${file.storage.orphan-blob-reconcile-interval:6h}")
+    public void reconcile() {
+        LocalDateTime cutoff = LocalDateTime.now().minus(fileStorageConfig.getOrphanBlobRetention());
+        try {
+            List<VideoBlob> blobs = blobRepository.findAll();
+            Map<String, Long> counts = new HashMap<>();
+            for (int from = 0; from < blobs.size(); from += COUNT_BATCH) {
+                List<String> filenames = blobs.subList(from, Math.min(blobs.size(), from + COUNT_BATCH)).stream()
+                        .map(VideoBlob::getFilename)
+                        .toList();
+                for (Object[] row : lessonRepository.countByResourcePathIn(filenames)) {
+                    counts.put((String) row[0], (Long) row[1]);
+                }
+            }
+
+            List<VideoBlob> changed = new ArrayList<>();
+            for (VideoBlob blob : blobs) {
+                int references = counts.getOrDefault(blob.getFilename(), 0L).intValue();
+                if (references == 0 && isExpired(blob, cutoff)) {
+                    delete(blob, cutoff);
+                } else if (references != blob.getRefCount()) {
+                    blob.setRefCount(references);
+                    changed.add(blob);
+                }
+            }
+            blobRepository.saveAll(changed);
+            purgeStaging();
+        } catch (Exception e) {
+            logger.warn("Failed to reconcile stored blobs: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Delete a blob the reconciliation found unreferenced, unless it was claimed or referenced
+     * since the reconciliation read it
+     */
+    private void delete(VideoBlob listed, LocalDateTime cutoff) throws IOException {
+        synchronized (lock(listed.getSha256())) {
+            VideoBlob blob = blobRepository.findById(listed.getSha256()).orElse(null);
+            if (blob == null || !isExpired(blob, cutoff) || lessonRepository.existsByResourcePath(blob.getFilename())) {
+                return;
+            }
+            logger.info("Deleting unreferenced blob {}", blob.getFilename());
+            Path file = uploadRoot.resolve(blob.getFilename());
+            transcodeService.discard(blob.getFilename());
+            thumbnailService.discard(blob.getFilename());
+            mediaCatalog.remove(file);
+            Files.deleteIfExists(file);
+            blobRepository.delete(blob);
+        }
+    }
+
+    private void purgeStaging() throws IOException {
+        Path stagingDir = uploadRoot.resolve(STAGING_DIR);
+        if (!Files.isDirectory(stagingDir)) {
+            return;
+        }
+        long cutoffMillis = System.currentTimeMillis() - fileStorageConfig.getOrphanBlobRetention().toMillis();
+        try (DirectoryStream<Path> staged = Files.newDirectoryStream(stagingDir, "*" + STAGING_SUFFIX)) {
+            for (Path file : staged) {
+                if (Files.getLastModifiedTime(file).toMillis() < cutoffMillis) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    private static boolean isExpired(VideoBlob blob, LocalDateTime cutoff) {
+        return blob.getCreatedAt() != null && blob.getCreatedAt().isBefore(cutoff)
+                && (blob.getClaimedAt() == null || blob.getClaimedAt().isBefore(cutoff));
+    }
+
+    private static boolean isBlob(String resourcePath) {
+        return resourcePath != null && BLOB_NAME.matcher(resourcePath).matches();
+    }
+
+    private Object lock(String sha256) {
+        return locks[Math.floorMod(sha256.hashCode(), LOCK_STRIPES)];
+    }
+
+    private static VideoUploadResponse response(String filename, long size, boolean duplicate) {
+        return new VideoUploadResponse(
+                filename,
+                duplicate ? "File already uploaded" : "File uploaded successfully",
+                "/api/videos/stream/" + filename,
+                size);
+    }
+}
@@ -0,0 +1,189 @@
+package com.rexxy.stream.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * RFC 7233 "bytes" Range header parser.
+ *
+ * Works on the header characters in place (no split, regex or substring) and supports
+ * closed ("0-499"), open-ended ("500-") and suffix ("-500") specs as well as
+ * comma-separated lists. Overlapping or adjacent ranges are coalesced.
+ */
+public final class ByteRangeParser {
+
+    // Ranges left after coalescing; anything above this is answered with 416
+    public static final int MAX_RANGES = 16;
+
+    // Raw specs we are willing to look at before giving up on the header
+    private static final int MAX_SPECS = 128;
+
+    // Long.MAX_VALUE has 19 digits, so 18 can never overflow
+    private static final int MAX_DIGITS = 18;
+
+    private ByteRangeParser() {
+    }
+
+    /**
+     * Inclusive byte window of a representation
+     */
+    public record ByteRange(long start, long end) {
+        public long length() {
+            return end - start + 1;
+        }
+    }
+
+    /**
+     * Parse a Range header against a representation of the given length.
+     *
+     * @param header         Raw Range header value
+     * @param length         Representation length in bytes
+     * @param openEndedLimit Maximum window served for "N-" specs
+     * @return {@code null} if the header is malformed or uses another unit (serve the full
+     *         representation), an empty list if nothing is satisfiable (answer 416),
+     *         otherwise the ranges to serve in ascending order
+     */
+    public static List<ByteRange> parse(String header, long length, long openEndedLimit) {
+        return parse(header, length, start -> openEndedLimit);
+    }
+
+    /**
+     * Same as {@link #parse(String, long, long)} with the window for an "N-" spec chosen
+     * per request, e.g. by the AdaptiveChunkSizer. The function is only called for
+     * open-ended specs that start inside the representation.
+     */
+    public static List<ByteRange> parse(String header, long length, LongUnaryOperator openEndedLimit) {
+        if (header == null) {
+            return null;
+        }
+
+        int len = header.length();
+        int i = skipWhitespace(header, 0);
+        if (!header.regionMatches(true, i, "bytes", 0, 5)) {
+            return null;
+        }
+        i = skipWhitespace(header, i + 5);
+        if (i >= len || header.charAt(i) != '=') {
+            return null;
+        }
+        i++;
+
+        List<ByteRange> ranges = new ArrayList<>(2);
+        int specs = 0;
+        while (true) {
+            i = skipWhitespace(header, i);
+            if (i >= len) {
+                break;
+            }
+            if (header.charAt(i) == ',') {
+                // Empty list elements are allowed by the ABNF
+                i++;
+                continue;
+            }
+            if (++specs > MAX_SPECS) {
+                return List.of();
+            }
+
+            int digitsStart = i;
+            long first = 0;
+            while (i < len && isDigit(header.charAt(i))) {
+                if (i - digitsStart == MAX_DIGITS) {
+                    return null;
+                }
+                first = first * 10 + (header.charAt(i) - '0');
+                i++;
+            }
+            boolean hasFirst = i > digitsStart;
+
+            if (i >= len || header.charAt(i) != '-') {
+                return null;
+            }
+            i++;
+
+            digitsStart = i;
+            long last = 0;
+            while (i < len && isDigit(header.charAt(i))) {
+                if (i - digitsStart == MAX_DIGITS) {
+                    return null;
+                }
+                last = last * 10 + (header.charAt(i) - '0');
+                i++;
+            }
+            boolean hasLast = i > digitsStart;
+
+            i = skipWhitespace(header, i);
+            if (i < len && header.charAt(i) != ',') {
+                return null;
+            }
+
+            if (!hasFirst) {
+                // Suffix range: the last N bytes
+                if (!hasLast) {
+                    return null;
+                }
+                if (last > 0 && length > 0) {
+                    ranges.add(new ByteRange(Math.max(0, length - last), length - 1));
+                }
+                continue;
+            }
+
+            if (hasLast && last < first) {
+                // Invalid spec: the whole header must be ignored
+                return null;
+            }
+            if (first >= length) {
+                continue;
+            }
+
+            long end;
+            if (hasLast) {
+                end = Math.min(last, length - 1);
+            } else {
+                long window = Math.max(1, openEndedLimit.applyAsLong(first));
+                end = length - 1 - first < window ? length - 1 : first + window - 1;
+            }
+            ranges.add(new ByteRange(first, end));
+        }
+
+        if (specs == 0) {
+            return null;
+        }
+        if (ranges.size() <= 1) {
+            return ranges;
+        }
+
+        List<ByteRange> merged = coalesce(ranges);
+        return merged.size() > MAX_RANGES ? List.of() : merged;
+    }
+
+    private static List<ByteRange> coalesce(List<ByteRange> ranges) {
+        ranges.sort(Comparator.comparingLong(ByteRange::start));
+        List<ByteRange> merged = new ArrayList<>(ranges.size());
+        ByteRange current = ranges.get(0);
+        for (int k = 1; k < ranges.size(); k++) {
+            ByteRange next = ranges.get(k);
+            if (next.start() <= current.end() + 1) {
+                current = new ByteRange(current.start(), Math.max(current.end(), next.end()));
+            } else {
+                merged.add(current);
+                current = next;
+            }
+        }
+        merged.add(current);
+        return merged.size() == 1 ? Collections.singletonList(merged.get(0)) : merged;
+    }
+
+    private static int skipWhitespace(String s, int i) {
+        while (i < s.length() && (s.charAt(i) == ' ' || s.charAt(i) == '\t')) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
@@ -0,0 +1,110 @@
+package com.rexxy.stream.service;
+
+import com.rexxy.stream.repository.LessonGroupRepository;
+import com.rexxy.stream.repository.LessonRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Evicts the cached hierarchy of exactly the courses a write touched.
+ *
+ * A hierarchy is cached per course, and every lesson, lesson group and module belongs to
+ * one course through its parents, so writers resolve that course (before a delete, or
+ * before and after a move) and evict only its entry; the other courses stay cached.
+ * Inside a transaction the eviction waits for the commit, so a read between the eviction
+ * and the commit cannot cache the old hierarchy again. Evicted courses that are popular
+ * are handed to the {@link CourseCacheWarmer} to be built again.
+ */
+@Component
+public class CourseCacheInvalidator {
+
+    private static final Logger logger = LoggerFactory.getLogger(CourseCacheInvalidator.class);
+
+    public static final String HIERARCHY_CACHE = "courseHierarchyV2";
+
+    private final CacheManager cacheManager;
+    private final LessonRepository lessonRepository;
+    private final LessonGroupRepository lessonGroupRepository;
+    private final CourseCacheWarmer cacheWarmer;
+
+    public CourseCacheInvalidator(CacheManager cacheManager, LessonRepository lessonRepository,
+            LessonGroupRepository lessonGroupRepository, CourseCacheWarmer cacheWarmer) {
+        this.cacheManager = cacheManager;
+        this.lessonRepository = lessonRepository;
+        this.lessonGroupRepository = lessonGroupRepository;
+        this.cacheWarmer = cacheWarmer;
+    }
+
+    /**
+     * Course a lesson group belongs to, or null for an unknown group
+     */
+    public String courseIdOfGroup(String lessonGroupId) {
+        return lessonGroupId == null ? null : lessonGroupRepository.findCourseIdById(lessonGroupId).orElse(null);
+    }
+
+    public void evictCourse(String courseId) {
+        if (courseId != null) {
+            evictCourses(Set.of(courseId));
+        }
+    }
+
+    /**
+     * Evict the given courses; nulls are skipped so callers can pass an old and a new parent
+     * without checking whether a move happened
+     */
+    public void evictCourses(Collection<String> courseIds) {
+        Set<String> keys = new LinkedHashSet<>();
+        for (String courseId : courseIds) {
+            if (courseId != null) {
+                keys.add(courseId);
+            }
+        }
+        if (keys.isEmpty()) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    evictNow(keys);
+                }
+            });
+        } else {
+            evictNow(keys);
+        }
+    }
+
+    public void evictCourseOfGroup(String lessonGroupId) {
+        evictCourse(courseIdOfGroup(lessonGroupId));
+    }
+
+    /**
+     * Evict the courses of lessons written outside the services, e.g. by a batch update
+     */
+    public void evictCoursesOfLessons(Collection<String> lessonIds) {
+        if (!lessonIds.isEmpty()) {
+            evictCourses(lessonRepository.findCourseIdsByIdIn(lessonIds));
+        }
+    }
+
+    private void evictNow(Set<String> courseIds) {
+        Cache cache = cacheManager.getCache(HIERARCHY_CACHE);
+        if (cache == null) {
+            return;
+        }
+        for (String courseId : courseIds) {
+            cache.evict(courseId);
+        }
+        logger.debug("Evicted cached hierarchy of courses {}", courseIds);
+        cacheWarmer.evicted(courseIds);
+    }
+}
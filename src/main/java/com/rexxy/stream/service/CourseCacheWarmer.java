@@ -0,0 +1,167 @@
+package com.rexxy.stream.service;
+
+import com.rexxy.stream.config.CacheWarmingConfig;
+import com.rexxy.stream.exception.ResourceNotFoundException;
+import com.rexxy.stream.repository.EnrollmentRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the hierarchies of the most popular courses built, so their first visitor after a
+ * deploy or an edit does not pay for the hierarchy queries.
+ *
+ * Popularity is counted per instance, like the near cache it fills: hierarchy requests and
+ * enrollments add to a course's score and the scores are halved every half-life. At startup,
+ * before any traffic, the most enrolled courses stand in. The top courses are built once the
+ * application is ready, again right after one of them is evicted, and on a fixed interval in
+ * case an entry expired or the cache was cleared. Builds run on a small fixed pool and a
+ * course already waiting for a build is not queued twice.
+ */
+@Component
+public class CourseCacheWarmer {
+
+    private static final Logger logger = LoggerFactory.getLogger(CourseCacheWarmer.class);
+
+    private final HierarchyResponseCache hierarchyResponseCache;
+    private final EnrollmentRepository enrollmentRepository;
+    private final CacheWarmingConfig config;
+    private final Map<String, AtomicLong> popularity = new ConcurrentHashMap<>();
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    private final ExecutorService builders;
+    private final Counter warmed;
+    private final Counter failed;
+
+    public CourseCacheWarmer(HierarchyResponseCache hierarchyResponseCache, EnrollmentRepository enrollmentRepository,
+            CacheWarmingConfig config, MeterRegistry meterRegistry) {
+        this.hierarchyResponseCache = hierarchyResponseCache;
+        this.enrollmentRepository = enrollmentRepository;
+        this.config = config;
+        this.builders = Executors.newFixedThreadPool(Math.max(1, config.getConcurrency()),
+                Thread.ofPlatform().name("cache-warmer-", 0).daemon().factory());
+        this.warmed = Counter.builder("cache.warming.courses").tag("result", "warmed")
+                .description("Course hierarchies built ahead of a request")
+                .register(meterRegistry);
+        this.failed = Counter.builder("cache.warming.courses").tag("result", "failed")
+                .description("Course hierarchies built ahead of a request")
+                .register(meterRegistry);
+    }
+
+    public void recordView(String courseId) {
+        record(courseId, 1);
+    }
+
+    public void recordEnrollment(String courseId) {
+        record(courseId, config.getEnrollmentWeight());
+    }
+
+    /**
+     * Courses to keep built, most popular first
+     */
+    public List<String> topCourses() {
+        return popularity.entrySet().stream()
+                .sorted(Comparator.comparingLong((Map.Entry<String, AtomicLong> e) -> e.getValue().get()).reversed())
+                .limit(config.getTopCourses())
+                .map(Map.Entry::getKey)
+                .toList();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmOnStartup() {
+        if (!config.isEnabled() || config.getTopCourses() <= 0) {
+            return;
+        }
+        try {
+            for (Object[] row : enrollmentRepository.countByCourseMostEnrolledFirst(
+                    PageRequest.ofSize(config.getTopCourses()))) {
+                record((String) row[0], ((Number) row[1]).longValue() * config.getEnrollmentWeight());
+            }
+        } catch (Exception e) {
+            logger.warn("Could not rank courses by enrollments: {}", e.getMessage());
+        }
+        List<String> top = topCourses();
+        if (!top.isEmpty()) {
+            logger.info("Warming the hierarchy cache with {} courses", top.size());
+            warm(top);
+        }
+    }
+
+    /**
+     * Rebuild the evicted courses that are among the most popular
+     */
+    public void evicted(Collection<String> courseIds) {
+        if (!config.isEnabled() || popularity.isEmpty()) {
+            return;
+        }
+        List<String> top = topCourses();
+        warm(courseIds.stream().filter(top::contains).toList());
+    }
+
+    /**
+     * Build the top courses that fell out of the cache; the others are near-cache hits
+     */
+    @Scheduled(fixedDelayString = "${cache.warming.refresh-interval:5m}",
+            initialDelayString = "${cache.warming.refresh-interval:5m}")
+    public void refresh() {
+        if (config.isEnabled()) {
+            warm(topCourses());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${cache.warming.popularity-half-life:1h}",
+            initialDelayString = "${cache.warming.popularity-half-life:1h}")
+    public void decay() {
+        for (AtomicLong score : popularity.values()) {
+            score.updateAndGet(value -> value / 2);
+        }
+        popularity.values().removeIf(score -> score.get() == 0);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        builders.shutdownNow();
+    }
+
+    private void record(String courseId, long weight) {
+        popularity.computeIfAbsent(courseId, id -> new AtomicLong()).addAndGet(weight);
+    }
+
+    private void warm(Collection<String> courseIds) {
+        for (String courseId : courseIds) {
+            if (pending.add(courseId)) {
+                builders.execute(() -> build(courseId));
+            }
+        }
+    }
+
+    private void build(String courseId) {
+        // Cleared first, so an eviction that lands while this build runs queues another one
+        pending.remove(courseId);
+        try {
+            hierarchyResponseCache.get(courseId);
+            warmed.increment();
+        } catch (ResourceNotFoundException e) {
+            popularity.remove(courseId);
+        } catch (RuntimeException e) {
+            failed.increment();
+            logger.debug("Failed to warm hierarchy of course {}: {}", courseId, e.getMessage());
+        }
+    }
+}
@@ -4,7 +4,6 @@ import com.rexxy.stream.dto.CourseDTO;
 import com.rexxy.stream.exception.ResourceNotFoundException;
 import com.rexxy.stream.model.Course;
 import com.rexxy.stream.repository.CourseRepository;
-import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
@@ -14,9 +13,11 @@ import java.util.stream.Collectors;
 @Service
 public class CourseService {
     private final CourseRepository courseRepository;
+    private final CourseCacheInvalidator cacheInvalidator;
 
-    public CourseService(CourseRepository courseRepository) {
+    public CourseService(CourseRepository courseRepository, CourseCacheInvalidator cacheInvalidator) {
         this.courseRepository = courseRepository;
+        this.cacheInvalidator = cacheInvalidator;
     }
 
     public List<CourseDTO> getAllCourses() {
@@ -32,7 +33,6 @@ public class CourseService {
         return convertToDTO(course);
     }
 
-    @CacheEvict(value = "courseHierarchyV2", allEntries = true)
     public CourseDTO createCourse(CourseDTO courseDTO) {
         Course course = new Course();
         course.setTitle(courseDTO.getTitle());
@@ -48,7 +48,6 @@ public class CourseService {
         return convertToDTO(savedCourse);
     }
 
-    @CacheEvict(value = "courseHierarchyV2", allEntries = true)
     public CourseDTO updateCourse(String id, CourseDTO courseDTO) {
         Course course = courseRepository.findById(id)
                 .orElseThrow(() -> new ResourceNotFoundException("Course", "id", id));
@@ -62,14 +61,15 @@ public class CourseService {
         }
 
         Course updatedCourse = courseRepository.save(course);
+        cacheInvalidator.evictCourse(id);
         return convertToDTO(updatedCourse);
     }
 
-    @CacheEvict(value = "courseHierarchyV2", allEntries = true)
     public void deleteCourse(String id) {
         Course course = courseRepository.findById(id)
                 .orElseThrow(() -> new ResourceNotFoundException("Course", "id", id));
         courseRepository.delete(course);
+        cacheInvalidator.evictCourse(id);
     }
 
     private CourseDTO convertToDTO(Course course) {
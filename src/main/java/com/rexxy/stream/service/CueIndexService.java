@@ -0,0 +1,310 @@
+package com.rexxy.stream.service;
+
+import com.rexxy.stream.config.MediaStreamingConfig;
+import com.rexxy.stream.exception.ResourceNotFoundException;
+import com.rexxy.stream.model.StorageType;
+import com.rexxy.stream.repository.LessonRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+
+/**
+ * Cue tables of every local lesson's default subtitle track, for caption windows and
+ * transcript search.
+ *
+ * Each table is written to {@code cueIndexDir} next to the size and mtime of the file it was
+ * parsed from. At startup the stored tables are loaded first, so search works right away,
+ * and a background pass then parses only subtitles that are new or changed; the same pass
+ * runs every {@code cueIndexRefreshInterval}. A word index across lessons narrows a search
+ * to the lessons containing every word before their own indexes pick out the cues.
+ */
+@Service
+public class CueIndexService {
+
+    private static final Logger logger = LoggerFactory.getLogger(CueIndexService.class);
+
+    private static final String SUFFIX = ".cues";
+    private static final Pattern LESSON_ID = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+    private final SubtitleService subtitleService;
+    private final LessonRepository lessonRepository;
+    private final Path indexDir;
+    private final Map<String, CueTable> tables = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> lessonsByWord = new ConcurrentHashMap<>();
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    public CueIndexService(SubtitleService subtitleService, LessonRepository lessonRepository,
+            MediaStreamingConfig streamingConfig) {
+        this.subtitleService = subtitleService;
+        this.lessonRepository = lessonRepository;
+        this.indexDir = Paths.get(streamingConfig.getCueIndexDir()).toAbsolutePath().normalize();
+    }
+
+    /**
+     * A cue of a lesson; times in milliseconds
+     */
+    public record Hit(String lessonId, int start, int end, String text) {
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        Thread.ofVirtual().name("cue-index").start(() -> {
+            loadStored();
+            refresh();
+        });
+    }
+
+    /**
+     * Parse subtitles that are new or changed since they were last indexed and drop
+     * lessons that are gone
+     */
+    @Scheduled(fixedDelayString = "${media.streaming.cue-index-refresh-interval:10m}",
+            initialDelayString = "${media.streaming.cue-index-refresh-interval:10m}")
+    public void refresh() {
+        if (!refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            List<String> lessonIds = lessonRepository.findIdsByStorageType(StorageType.LOCAL);
+            int parsed = 0;
+            for (String lessonId : lessonIds) {
+                try {
+                    if (update(lessonId)) {
+                        parsed++;
+                    }
+                } catch (ResourceNotFoundException e) {
+                    drop(lessonId);
+                } catch (IOException | UncheckedIOException e) {
+                    logger.debug("Failed to index subtitles of lesson {}: {}", lessonId, e.getMessage());
+                }
+            }
+            Set<String> live = new HashSet<>(lessonIds);
+            for (String lessonId : List.copyOf(tables.keySet())) {
+                if (!live.contains(lessonId)) {
+                    drop(lessonId);
+                }
+            }
+            if (parsed > 0) {
+                logger.info("Indexed subtitles of {} lessons, {} in the cue index", parsed, tables.size());
+            }
+        } catch (Exception e) {
+            logger.warn("Cue index refresh failed: {}", e.getMessage());
+        } finally {
+            refreshing.set(false);
+        }
+    }
+
+    /**
+     * Cues of a lesson showing in [fromMillis, toMillis); null when the lesson has no subtitles
+     *
+     * @throws ResourceNotFoundException if the lesson does not exist
+     */
+    public List<Hit> window(String lessonId, long fromMillis, long toMillis) throws IOException {
+        CueTable table = tables.get(lessonId);
+        if (table == null) {
+            update(lessonId);
+            table = tables.get(lessonId);
+            if (table == null) {
+                return null;
+            }
+        }
+        List<Hit> hits = new ArrayList<>();
+        for (int cue : table.window(fromMillis, toMillis)) {
+            hits.add(hit(lessonId, table, cue));
+        }
+        return hits;
+    }
+
+    /**
+     * Cues, across all lessons, whose text contains every word of the query
+     */
+    public List<Hit> search(String query, int limit) {
+        List<String> words = CueTable.tokenize(query).stream().distinct().toList();
+        if (words.isEmpty()) {
+            return List.of();
+        }
+        List<Set<String>> lessonSets = new ArrayList<>();
+        for (String word : words) {
+            Set<String> lessons = lessonsByWord.get(word);
+            if (lessons == null) {
+                return List.of();
+            }
+            lessonSets.add(lessons);
+        }
+        lessonSets.sort(Comparator.comparingInt(Set::size));
+
+        List<Hit> hits = new ArrayList<>();
+        for (String lessonId : lessonSets.get(0)) {
+            if (!lessonSets.stream().allMatch(lessons -> lessons.contains(lessonId))) {
+                continue;
+            }
+            CueTable table = tables.get(lessonId);
+            if (table == null) {
+                continue;
+            }
+            for (int cue : table.find(words)) {
+                hits.add(hit(lessonId, table, cue));
+                if (hits.size() >= limit) {
+                    return hits;
+                }
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * Bring one lesson's table up to date
+     *
+     * @return whether its subtitles had to be parsed
+     */
+    boolean update(String lessonId) throws IOException {
+        SubtitleService.SubtitleTrack track = subtitleService.select(subtitleService.getTracks(lessonId), null);
+        if (track == null) {
+            drop(lessonId);
+            return false;
+        }
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(track.path(), BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            drop(lessonId);
+            return false;
+        }
+        CueTable.Source source = new CueTable.Source(track.path().toString(),
+                attributes.lastModifiedTime().toMillis(), attributes.size());
+        CueTable current = tables.get(lessonId);
+        if (current != null && current.source().equals(source)) {
+            return false;
+        }
+        CueTable stored = load(lessonId);
+        if (stored != null && stored.source().equals(source)) {
+            install(lessonId, stored);
+            return false;
+        }
+
+        SubtitleService.Subtitle subtitle = subtitleService.getSubtitle(lessonId, null);
+        if (subtitle == null) {
+            drop(lessonId);
+            return false;
+        }
+        CueTable table = CueTable.parse(subtitle.vtt(), source);
+        store(lessonId, table);
+        install(lessonId, table);
+        return true;
+    }
+
+    private void loadStored() {
+        if (!Files.isDirectory(indexDir)) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(indexDir, "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                String lessonId = name.substring(0, name.length() - SUFFIX.length());
+                CueTable table = load(lessonId);
+                if (table != null && !tables.containsKey(lessonId)) {
+                    install(lessonId, table);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to read cue index {}: {}", indexDir, e.getMessage());
+        }
+        logger.info("Loaded {} stored cue tables", tables.size());
+    }
+
+    private CueTable load(String lessonId) {
+        Path file = file(lessonId);
+        if (file == null || !Files.isRegularFile(file)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            return CueTable.read(in, Files.size(file));
+        } catch (IOException e) {
+            logger.debug("Ignoring unreadable cue table {}: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    private void store(String lessonId, CueTable table) throws IOException {
+        Path file = file(lessonId);
+        if (file == null) {
+            return;
+        }
+        Files.createDirectories(indexDir);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            table.write(out);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private synchronized void install(String lessonId, CueTable table) {
+        CueTable previous = tables.put(lessonId, table);
+        if (previous != null) {
+            unindex(lessonId, previous, table.words());
+        }
+        for (String word : table.words()) {
+            lessonsByWord.computeIfAbsent(word, w -> ConcurrentHashMap.newKeySet()).add(lessonId);
+        }
+    }
+
+    private synchronized void drop(String lessonId) {
+        CueTable previous = tables.remove(lessonId);
+        if (previous != null) {
+            unindex(lessonId, previous, Set.of());
+        }
+        Path file = file(lessonId);
+        try {
+            if (file != null) {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            logger.debug("Failed to delete cue table {}: {}", file, e.getMessage());
+        }
+    }
+
+    private void unindex(String lessonId, CueTable table, Set<String> keep) {
+        for (String word : table.words()) {
+            if (!keep.contains(word)) {
+                lessonsByWord.computeIfPresent(word, (w, lessons) -> {
+                    lessons.remove(lessonId);
+                    return lessons.isEmpty() ? null : lessons;
+                });
+            }
+        }
+    }
+
+    private Path file(String lessonId) {
+        return LESSON_ID.matcher(lessonId).matches() ? indexDir.resolve(lessonId + SUFFIX) : null;
+    }
+
+    private static Hit hit(String lessonId, CueTable table, int cue) {
+        return new Hit(lessonId, table.start(cue), table.end(cue), table.text(cue));
+    }
+}
@@ -0,0 +1,292 @@
+package com.rexxy.stream.service;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The cues of one subtitle track flattened into arrays: start and end times in milliseconds
+ * and offsets into a single string holding all cue texts, plus a per-track word index.
+ *
+ * Cues are sorted by start time, so the cues of a time window are found by binary search.
+ */
+public final class CueTable {
+
+    private static final int MAGIC = 0x43554531; // "CUE1"
+    private static final int CUE_BYTES = 3 * Integer.BYTES;
+    private static final Pattern TIMING = Pattern.compile(
+            "((?:\\d+:)?\\d{1,2}:\\d{2}[.,]\\d{3})\\s+-->\\s+((?:\\d+:)?\\d{1,2}:\\d{2}[.,]\\d{3}).*");
+    private static final Pattern TAG = Pattern.compile("<[^>]*>");
+    private static final Pattern WORD_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    /**
+     * The subtitle file the table was built from; a table is stale once this changes
+     */
+    public record Source(String path, long lastModified, long size) {
+    }
+
+    private final Source source;
+    private final int[] starts;
+    private final int[] ends;
+    private final int[] offsets;
+    private final String text;
+    private final int maxDuration;
+    private final Map<String, int[]> postings;
+
+    private CueTable(Source source, int[] starts, int[] ends, int[] offsets, String text) {
+        this.source = source;
+        this.starts = starts;
+        this.ends = ends;
+        this.offsets = offsets;
+        this.text = text;
+        int longest = 0;
+        for (int i = 0; i < starts.length; i++) {
+            longest = Math.max(longest, ends[i] - starts[i]);
+        }
+        this.maxDuration = longest;
+        this.postings = buildPostings();
+    }
+
+    /**
+     * Parse a WebVTT body; cue settings, styling tags and blocks other than cues are dropped
+     */
+    public static CueTable parse(byte[] vtt, Source source) throws IOException {
+        record Cue(int start, int end, String text) {
+        }
+        List<Cue> cues = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new ByteArrayInputStream(vtt), StandardCharsets.UTF_8))) {
+            Matcher timing = TIMING.matcher("");
+            String line;
+            int start = -1;
+            int end = -1;
+            StringBuilder cueText = new StringBuilder();
+            while ((line = reader.readLine()) != null) {
+                if (start < 0) {
+                    if (timing.reset(line).matches()) {
+                        start = millis(timing.group(1));
+                        end = millis(timing.group(2));
+                    }
+                } else if (line.isBlank()) {
+                    cues.add(new Cue(start, end, cueText.toString()));
+                    cueText.setLength(0);
+                    start = -1;
+                } else {
+                    if (!cueText.isEmpty()) {
+                        cueText.append('\n');
+                    }
+                    cueText.append(TAG.matcher(line).replaceAll(""));
+                }
+            }
+            if (start >= 0) {
+                cues.add(new Cue(start, end, cueText.toString()));
+            }
+        }
+        cues.sort((a, b) -> Integer.compare(a.start(), b.start()));
+
+        int[] starts = new int[cues.size()];
+        int[] ends = new int[cues.size()];
+        int[] offsets = new int[cues.size() + 1];
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < cues.size(); i++) {
+            starts[i] = cues.get(i).start();
+            ends[i] = cues.get(i).end();
+            offsets[i] = text.length();
+            text.append(cues.get(i).text());
+        }
+        offsets[cues.size()] = text.length();
+        return new CueTable(source, starts, ends, offsets, text.toString());
+    }
+
+    public Source source() {
+        return source;
+    }
+
+    public int size() {
+        return starts.length;
+    }
+
+    public int start(int cue) {
+        return starts[cue];
+    }
+
+    public int end(int cue) {
+        return ends[cue];
+    }
+
+    public String text(int cue) {
+        return text.substring(offsets[cue], offsets[cue + 1]);
+    }
+
+    /**
+     * Cues showing at any time in [fromMillis, toMillis)
+     */
+    public List<Integer> window(long fromMillis, long toMillis) {
+        // No cue that starts before this can still be showing at fromMillis
+        int first = lowerBound(fromMillis - maxDuration);
+        List<Integer> cues = new ArrayList<>();
+        for (int i = first; i < starts.length && starts[i] < toMillis; i++) {
+            if (ends[i] > fromMillis) {
+                cues.add(i);
+            }
+        }
+        return cues;
+    }
+
+    /**
+     * Distinct words of the track, as used for the cross-lesson index
+     */
+    public Set<String> words() {
+        return postings.keySet();
+    }
+
+    /**
+     * Cues containing every one of the given (already normalised) words
+     */
+    public int[] find(List<String> words) {
+        int[] result = null;
+        for (String word : words) {
+            int[] cues = postings.get(word);
+            if (cues == null) {
+                return new int[0];
+            }
+            result = result == null ? cues : intersect(result, cues);
+        }
+        return result == null ? new int[0] : result;
+    }
+
+    /**
+     * Lower-cased words of a text with punctuation removed
+     */
+    public static List<String> tokenize(String text) {
+        List<String> words = new ArrayList<>();
+        for (String word : WORD_SEPARATOR.split(text.toLowerCase(Locale.ROOT))) {
+            if (word.length() > 1) {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeUTF(source.path());
+        out.writeLong(source.lastModified());
+        out.writeLong(source.size());
+        out.writeInt(starts.length);
+        for (int i = 0; i < starts.length; i++) {
+            out.writeInt(starts[i]);
+            out.writeInt(ends[i]);
+            out.writeInt(offsets[i]);
+        }
+        byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(utf8.length);
+        out.write(utf8);
+    }
+
+    /**
+     * Read a table written by {@link #write(DataOutputStream)}; {@code length} is the size of
+     * the stored file, which bounds the counts it may claim
+     *
+     * @throws IOException if the data is not a cue table or is truncated or corrupt
+     */
+    public static CueTable read(DataInputStream in, long length) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a cue table");
+        }
+        Source source = new Source(in.readUTF(), in.readLong(), in.readLong());
+        int count = in.readInt();
+        if (count < 0 || count > length / CUE_BYTES) {
+            throw new IOException("Corrupt cue table: " + count + " cues in " + length + " bytes");
+        }
+        int[] starts = new int[count];
+        int[] ends = new int[count];
+        int[] offsets = new int[count + 1];
+        for (int i = 0; i < count; i++) {
+            starts[i] = in.readInt();
+            ends[i] = in.readInt();
+            offsets[i] = in.readInt();
+        }
+        int textLength = in.readInt();
+        if (textLength < 0 || textLength > length) {
+            throw new IOException("Corrupt cue table: " + textLength + " bytes of text in " + length + " bytes");
+        }
+        byte[] utf8 = in.readNBytes(textLength);
+        if (utf8.length != textLength) {
+            throw new IOException("Truncated cue table");
+        }
+        String text = new String(utf8, StandardCharsets.UTF_8);
+        offsets[count] = text.length();
+        for (int i = 0; i < count; i++) {
+            if (offsets[i] < 0 || offsets[i] > offsets[i + 1]) {
+                throw new IOException("Corrupt cue table: bad text offset for cue " + i);
+            }
+        }
+        return new CueTable(source, starts, ends, offsets, text);
+    }
+
+    private Map<String, int[]> buildPostings() {
+        Map<String, List<Integer>> byWord = new HashMap<>();
+        for (int cue = 0; cue < starts.length; cue++) {
+            for (String word : new LinkedHashSet<>(tokenize(text(cue)))) {
+                byWord.computeIfAbsent(word, w -> new ArrayList<>()).add(cue);
+            }
+        }
+        Map<String, int[]> compact = new HashMap<>(byWord.size() * 2);
+        byWord.forEach((word, cues) -> compact.put(word, cues.stream().mapToInt(Integer::intValue).toArray()));
+        return compact;
+    }
+
+    private int lowerBound(long millis) {
+        int low = 0;
+        int high = starts.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (starts[mid] < millis) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] out = new int[Math.min(a.length, b.length)];
+        int n = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            if (a[i] == b[j]) {
+                out[n++] = a[i];
+                i++;
+                j++;
+            } else if (a[i] < b[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    private static int millis(String timestamp) {
+        String[] parts = timestamp.replace(',', '.').split("[:.]");
+        int n = parts.length;
+        int hours = n == 4 ? Integer.parseInt(parts[0]) : 0;
+        return ((hours * 60 + Integer.parseInt(parts[n - 3])) * 60 + Integer.parseInt(parts[n - 2])) * 1000
+                + Integer.parseInt(parts[n - 1]);
+    }
+}
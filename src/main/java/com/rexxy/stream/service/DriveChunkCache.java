@@ -0,0 +1,413 @@
+package com.rexxy.stream.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rexxy.stream.config.DriveProxyConfig;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Bounded local disk cache for Drive files.
+ *
+ * Each file is kept as a sparse file of its full size plus a bitmap of the fixed-size chunks
+ * that have been downloaded, so any mix of ranges can be cached and served back without ever
+ * fetching the whole file. The bitmap lives in a small sidecar next to the data so the cache
+ * survives restarts. When the cached bytes exceed the limit, whole files are evicted, least
+ * recently used first.
+ *
+ * A copy replaced by a new Drive version stays open for the requests still reading it: its
+ * data file is moved aside and deleted when the last of them releases it. Each missing chunk
+ * is downloaded by one request at a time; others asking for it wait for that download.
+ */
+@Service
+public class DriveChunkCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(DriveChunkCache.class);
+
+    private static final Pattern FILE_ID = Pattern.compile("[A-Za-z0-9_-]{10,128}");
+    private static final String DATA_SUFFIX = ".data";
+    private static final String META_SUFFIX = ".json";
+    private static final String RETIRED_SUFFIX = ".retired";
+
+    private final DriveProxyConfig config;
+    private final ObjectMapper objectMapper;
+    private final Path cacheDir;
+    private final Map<String, CachedFile> files = new ConcurrentHashMap<>();
+    private final AtomicLong cachedBytes = new AtomicLong();
+
+    public DriveChunkCache(DriveProxyConfig config, ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        this.config = config;
+        this.objectMapper = objectMapper;
+        this.cacheDir = Paths.get(config.getCacheDir()).toAbsolutePath().normalize();
+        Gauge.builder("drive.cache.bytes", cachedBytes, AtomicLong::get)
+                .description("Bytes of Drive files held in the local chunk cache")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Persisted form of a cached file; {@code chunks} is the BitSet of downloaded chunks
+     */
+    record CacheState(String fileId, long size, String version, int chunkSize, long[] chunks) {
+    }
+
+    public static boolean isValidFileId(String fileId) {
+        return fileId != null && FILE_ID.matcher(fileId).matches();
+    }
+
+    /**
+     * Count what is already on disk so the size bound holds across restarts
+     */
+    @PostConstruct
+    public void loadExisting() {
+        if (!Files.isDirectory(cacheDir)) {
+            return;
+        }
+        try (DirectoryStream<Path> retired = Files.newDirectoryStream(cacheDir, "*" + RETIRED_SUFFIX)) {
+            for (Path file : retired) {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to remove replaced Drive cache files in {}: {}", cacheDir, e.getMessage());
+        }
+        try (DirectoryStream<Path> metas = Files.newDirectoryStream(cacheDir, "*" + META_SUFFIX)) {
+            for (Path meta : metas) {
+                try {
+                    CacheState state = objectMapper.readValue(meta.toFile(), CacheState.class);
+                    acquire(state.fileId(), state.size(), state.version()).users.decrementAndGet();
+                } catch (IOException | IllegalArgumentException e) {
+                    logger.warn("Dropping unreadable Drive cache entry {}: {}", meta, e.getMessage());
+                    Files.deleteIfExists(meta);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to scan Drive cache {}: {}", cacheDir, e.getMessage());
+        }
+        evictIfNeeded();
+    }
+
+    /**
+     * Open the cache entry for a Drive file, pinning it against eviction until
+     * {@link #release(CachedFile)}. A cached copy of another version is retired; requests
+     * still holding it keep reading it until they release it.
+     */
+    public CachedFile acquire(String fileId, long size, String version) throws IOException {
+        if (!isValidFileId(fileId)) {
+            throw new IllegalArgumentException("Invalid Drive file id");
+        }
+        IOException[] failure = new IOException[1];
+        CachedFile file = files.compute(fileId, (id, existing) -> {
+            try {
+                CachedFile current = existing;
+                if (current != null && !current.matches(size, version)) {
+                    retire(current);
+                    current = null;
+                }
+                if (current == null) {
+                    current = load(id, size, version);
+                }
+                // Pin inside compute so eviction can never pick a file that is being handed out
+                current.users.incrementAndGet();
+                return current;
+            } catch (IOException e) {
+                failure[0] = e;
+                return null;
+            }
+        });
+        if (file == null) {
+            throw failure[0];
+        }
+        file.lastAccess = System.nanoTime();
+        return file;
+    }
+
+    public void release(CachedFile file) {
+        if (file.users.decrementAndGet() == 0 && file.retired) {
+            file.closeRetired();
+        }
+        evictIfNeeded();
+    }
+
+    long cachedBytes() {
+        return cachedBytes.get();
+    }
+
+    @PreDestroy
+    public void close() {
+        files.values().forEach(CachedFile::closeQuietly);
+    }
+
+    private CachedFile load(String fileId, long size, String version) throws IOException {
+        Files.createDirectories(cacheDir);
+        Path data = cacheDir.resolve(fileId + DATA_SUFFIX);
+        Path meta = cacheDir.resolve(fileId + META_SUFFIX);
+        BitSet chunks = new BitSet();
+        if (Files.isRegularFile(meta) && Files.isRegularFile(data)) {
+            try {
+                CacheState state = objectMapper.readValue(meta.toFile(), CacheState.class);
+                if (state.size() == size && Objects.equals(state.version(), version)
+                        && state.chunkSize() == config.getChunkSize()) {
+                    chunks = BitSet.valueOf(state.chunks());
+                }
+            } catch (IOException e) {
+                logger.warn("Ignoring unreadable Drive cache state {}: {}", meta, e.getMessage());
+            }
+        }
+
+        FileChannel channel = FileChannel.open(data, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.SPARSE);
+        if (chunks.isEmpty()) {
+            // Fresh or stale copy: start over; chunks written at their offsets leave holes in between
+            channel.truncate(0);
+        }
+        CachedFile file = new CachedFile(fileId, size, version, config.getChunkSize(), chunks, channel, meta);
+        cachedBytes.addAndGet(file.bytesCached());
+        return file;
+    }
+
+    private void discard(CachedFile file) throws IOException {
+        file.closeQuietly();
+        cachedBytes.addAndGet(-file.bytesCached());
+        Files.deleteIfExists(cacheDir.resolve(file.fileId + DATA_SUFFIX));
+        Files.deleteIfExists(file.metaFile);
+    }
+
+    /**
+     * Take a replaced copy out of the cache without pulling it from under its readers: the data
+     * file is moved aside so the new version can be cached under the usual name, and is closed
+     * and deleted by whichever of this and the last release sees no users left
+     */
+    private void retire(CachedFile file) throws IOException {
+        long bytes;
+        synchronized (file) {
+            file.retired = true;
+            bytes = file.bytesCached();
+        }
+        cachedBytes.addAndGet(-bytes);
+        Files.deleteIfExists(file.metaFile);
+        Path data = cacheDir.resolve(file.fileId + DATA_SUFFIX);
+        if (Files.exists(data)) {
+            file.retiredData = Files.move(data, cacheDir.resolve(file.fileId + "." + UUID.randomUUID() + RETIRED_SUFFIX));
+        }
+        if (file.users.get() == 0) {
+            file.closeRetired();
+        }
+    }
+
+    private void evictIfNeeded() {
+        while (cachedBytes.get() > config.getCacheMaxBytes()) {
+            CachedFile victim = files.values().stream()
+                    .filter(file -> file.users.get() == 0)
+                    .min(Comparator.comparingLong(file -> file.lastAccess))
+                    .orElse(null);
+            if (victim == null) {
+                return;
+            }
+            boolean[] removed = new boolean[1];
+            files.computeIfPresent(victim.fileId, (id, current) -> {
+                if (current == victim && current.users.get() == 0) {
+                    removed[0] = true;
+                    return null;
+                }
+                return current;
+            });
+            if (removed[0]) {
+                try {
+                    logger.debug("Evicting Drive file {} from the cache", victim.fileId);
+                    discard(victim);
+                } catch (IOException e) {
+                    logger.warn("Failed to evict Drive cache file {}: {}", victim.fileId, e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Sparse local copy of one Drive file
+     */
+    public final class CachedFile {
+        private final String fileId;
+        private final long size;
+        private final String version;
+        private final int chunkSize;
+        private final BitSet chunks;
+        private final FileChannel channel;
+        private final Path metaFile;
+        private final AtomicInteger users = new AtomicInteger();
+        // Chunks being downloaded, guarded by this
+        private final Map<Integer, CompletableFuture<Void>> downloads = new HashMap<>();
+        private volatile long lastAccess;
+        private volatile boolean retired;
+        private volatile Path retiredData;
+
+        private CachedFile(String fileId, long size, String version, int chunkSize, BitSet chunks,
+                FileChannel channel, Path metaFile) {
+            this.fileId = fileId;
+            this.size = size;
+            this.version = version;
+            this.chunkSize = chunkSize;
+            this.chunks = chunks;
+            this.channel = channel;
+            this.metaFile = metaFile;
+        }
+
+        public int chunkSize() {
+            return chunkSize;
+        }
+
+        public int chunkOf(long position) {
+            return (int) (position / chunkSize);
+        }
+
+        /**
+         * Offset of the last byte of a chunk; the final chunk may be short
+         */
+        public long chunkEnd(int chunk) {
+            return Math.min(size, (long) (chunk + 1) * chunkSize) - 1;
+        }
+
+        public synchronized boolean has(int chunk) {
+            return chunks.get(chunk);
+        }
+
+        /**
+         * Take on downloading a chunk. Returns null when the caller now owns the download and
+         * must {@link #complete(int)} the chunk or {@link #abandon(int, int)} it; otherwise a
+         * future that finishes once the chunk is cached or its download is given up.
+         */
+        public synchronized CompletableFuture<Void> claim(int chunk) {
+            if (chunks.get(chunk)) {
+                return CompletableFuture.completedFuture(null);
+            }
+            CompletableFuture<Void> download = downloads.get(chunk);
+            if (download != null) {
+                return download;
+            }
+            downloads.put(chunk, new CompletableFuture<>());
+            return null;
+        }
+
+        /**
+         * Give up claimed chunks in [from, to] that were not completed, waking their waiters
+         */
+        public void abandon(int from, int to) {
+            for (int chunk = from; chunk <= to; chunk++) {
+                CompletableFuture<Void> download;
+                synchronized (this) {
+                    download = downloads.remove(chunk);
+                }
+                if (download != null) {
+                    download.complete(null);
+                }
+            }
+        }
+
+        public void write(ByteBuffer data, long position) throws IOException {
+            while (data.hasRemaining()) {
+                position += channel.write(data, position);
+            }
+        }
+
+        /**
+         * Record a chunk whose bytes have all been written
+         */
+        public void complete(int chunk) throws IOException {
+            long[] snapshot;
+            CompletableFuture<Void> download;
+            synchronized (this) {
+                download = downloads.remove(chunk);
+                if (chunks.get(chunk)) {
+                    snapshot = null;
+                } else {
+                    chunks.set(chunk);
+                    // A retired copy is no longer counted or persisted
+                    snapshot = retired ? null : chunks.toLongArray();
+                }
+            }
+            if (download != null) {
+                download.complete(null);
+            }
+            if (snapshot != null) {
+                cachedBytes.addAndGet(chunkEnd(chunk) - (long) chunk * chunkSize + 1);
+                persist(snapshot);
+            }
+        }
+
+        public void transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            long end = position + count;
+            while (position < end) {
+                long sent = channel.transferTo(position, end - position, target);
+                if (sent <= 0) {
+                    throw new IOException("Drive cache file " + fileId + " is shorter than expected");
+                }
+                position += sent;
+            }
+        }
+
+        private boolean matches(long size, String version) {
+            return this.size == size && Objects.equals(this.version, version);
+        }
+
+        private synchronized long bytesCached() {
+            long bytes = 0;
+            for (int chunk = chunks.nextSetBit(0); chunk >= 0; chunk = chunks.nextSetBit(chunk + 1)) {
+                bytes += chunkEnd(chunk) - (long) chunk * chunkSize + 1;
+            }
+            return bytes;
+        }
+
+        private void persist(long[] snapshot) throws IOException {
+            synchronized (metaFile) {
+                Path tmp = metaFile.resolveSibling(metaFile.getFileName() + ".tmp");
+                objectMapper.writeValue(tmp.toFile(), new CacheState(fileId, size, version, chunkSize, snapshot));
+                Files.move(tmp, metaFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+
+        private void closeRetired() {
+            closeQuietly();
+            Path data = retiredData;
+            if (data != null) {
+                try {
+                    Files.deleteIfExists(data);
+                } catch (IOException e) {
+                    logger.debug("Failed to delete replaced Drive cache file {}: {}", data, e.getMessage());
+                }
+            }
+        }
+
+        private void closeQuietly() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.debug("Failed to close Drive cache file {}: {}", fileId, e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package com.rexxy.stream.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.rexxy.stream.config.DriveProxyConfig;
+import com.rexxy.stream.exception.ResourceNotFoundException;
+import com.rexxy.stream.service.ByteRangeParser.ByteRange;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Streams Google Drive files through this server with full Range support.
+ *
+ * Ranges are forwarded to the Drive media API (files.get?alt=media), which avoids the
+ * virus-scan interstitial and redirect hops of the public download URL. Everything fetched
+ * is teed into the DriveChunkCache, so repeat viewers and seeks back into watched parts are
+ * served from local disk. Fetches are aligned to cache chunks and a run of missing chunks
+ * is fetched with one request; a chunk another request is already fetching is waited for
+ * rather than fetched again.
+ */
+@Service
+public class DriveRangeProxy {
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final DriveProxyConfig config;
+    private final GoogleDriveService googleDriveService;
+    private final DriveChunkCache chunkCache;
+    private final ObjectMapper objectMapper;
+    private final HttpClient httpClient;
+    private final Cache<String, DriveFile> metadata;
+    private final Counter cacheBytes;
+    private final Counter driveBytes;
+
+    public DriveRangeProxy(DriveProxyConfig config, GoogleDriveService googleDriveService,
+            DriveChunkCache chunkCache, ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        this.config = config;
+        this.googleDriveService = googleDriveService;
+        this.chunkCache = chunkCache;
+        this.objectMapper = objectMapper;
+        this.httpClient = HttpClient.newBuilder()
+                .connectTimeout(config.getConnectTimeout())
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+        this.metadata = Caffeine.newBuilder()
+                .maximumSize(10_000)
+                .expireAfterWrite(config.getMetadataTtl())
+                .build();
+        this.cacheBytes = Counter.builder("drive.proxy.bytes").tag("source", "cache")
+                .description("Bytes sent to clients for proxied Drive files")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.driveBytes = Counter.builder("drive.proxy.bytes").tag("source", "drive")
+                .description("Bytes sent to clients for proxied Drive files")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Drive file attributes needed to serve it; {@code version} changes whenever the content does
+     */
+    public record DriveFile(String id, String name, String mimeType, long size, String version) {
+    }
+
+    /**
+     * Serve a Drive file, or the window selected by the Range header. Multiple ranges are
+     * answered with the single window that spans them.
+     *
+     * @throws ResourceNotFoundException if Drive does not know the file
+     * @throws IllegalStateException     if Drive credentials are not configured
+     */
+    public void serve(String fileId, String rangeHeader, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        DriveFile file = metadata(fileId);
+        String etag = "\"" + file.version() + "\"";
+
+        response.setHeader(HttpHeaders.CACHE_CONTROL,
+                CacheControl.maxAge(config.getClientMaxAge()).cachePrivate().getHeaderValue());
+        if (new ServletWebRequest(request, response).checkNotModified(etag)) {
+            return;
+        }
+        response.setContentType(file.mimeType() != null ? file.mimeType() : "application/octet-stream");
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange != null && !ifRange.equals(etag)) {
+            rangeHeader = null;
+        }
+
+        long size = file.size();
+        List<ByteRange> ranges = rangeHeader == null || size == 0 ? null
+                : ByteRangeParser.parse(rangeHeader, size, config.getMaxWindow());
+        if (ranges != null && ranges.isEmpty()) {
+            response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + size);
+            response.setContentLength(0);
+            return;
+        }
+
+        long start = 0;
+        long end = size - 1;
+        if (ranges == null) {
+            response.setStatus(HttpServletResponse.SC_OK);
+        } else {
+            start = ranges.get(0).start();
+            end = ranges.get(ranges.size() - 1).end();
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + size);
+        }
+        response.setContentLengthLong(end - start + 1);
+        if (size > 0) {
+            copy(file, start, end, Channels.newChannel(response.getOutputStream()));
+        }
+    }
+
+    /**
+     * Drive metadata for a file, cached for a few minutes
+     */
+    public DriveFile metadata(String fileId) throws IOException {
+        if (!DriveChunkCache.isValidFileId(fileId)) {
+            throw new ResourceNotFoundException("Drive file", "id", fileId);
+        }
+        DriveFile cached = metadata.getIfPresent(fileId);
+        if (cached != null) {
+            return cached;
+        }
+        URI uri = URI.create(config.getApiBaseUrl() + "/files/" + fileId
+                + "?fields=id,name,mimeType,size,md5Checksum,modifiedTime&supportsAllDrives=true");
+        HttpResponse<InputStream> response = send(HttpRequest.newBuilder(uri).GET(), fileId);
+        JsonNode json;
+        try (InputStream body = response.body()) {
+            json = objectMapper.readTree(body);
+        }
+        String version = json.hasNonNull("md5Checksum") ? json.get("md5Checksum").asText()
+                : json.path("modifiedTime").asText(fileId);
+        DriveFile file = new DriveFile(fileId, json.path("name").asText(null), json.path("mimeType").asText(null),
+                json.path("size").asLong(), version);
+        metadata.put(fileId, file);
+        return file;
+    }
+
+    private void copy(DriveFile file, long start, long end, WritableByteChannel out) throws IOException {
+        DriveChunkCache.CachedFile cached = chunkCache.acquire(file.id(), file.size(), file.version());
+        try {
+            int lastChunk = cached.chunkOf(end);
+            long position = start;
+            while (position <= end) {
+                int chunk = cached.chunkOf(position);
+                if (cached.has(chunk)) {
+                    // Serve the whole run of cached chunks with one transfer
+                    int runEnd = chunk;
+                    while (runEnd < lastChunk && cached.has(runEnd + 1)) {
+                        runEnd++;
+                    }
+                    long windowEnd = Math.min(end, cached.chunkEnd(runEnd));
+                    cached.transferTo(position, windowEnd - position + 1, out);
+                    cacheBytes.increment(windowEnd - position + 1);
+                    position = windowEnd + 1;
+                } else {
+                    CompletableFuture<Void> download = cached.claim(chunk);
+                    if (download != null && awaitDownload(download)) {
+                        // Cached by another request now, or given up on; look again
+                        continue;
+                    }
+                    // Past the wait timeout the chunk is fetched again rather than stalling the client
+                    boolean claimed = download == null;
+                    int runEnd = chunk;
+                    while (claimed && runEnd < lastChunk && runEnd - chunk + 1 < config.getFetchChunks()
+                            && cached.claim(runEnd + 1) == null) {
+                        runEnd++;
+                    }
+                    long fetchStart = (long) chunk * cached.chunkSize();
+                    long fetchEnd = cached.chunkEnd(runEnd);
+                    try {
+                        fetch(file, cached, fetchStart, fetchEnd, position, Math.min(end, fetchEnd), out);
+                    } finally {
+                        if (claimed) {
+                            cached.abandon(chunk, runEnd);
+                        }
+                    }
+                    position = Math.min(end, fetchEnd) + 1;
+                }
+            }
+        } finally {
+            chunkCache.release(cached);
+        }
+    }
+
+    /**
+     * Wait for another request's download of a chunk; false when it is taking too long
+     */
+    private boolean awaitDownload(CompletableFuture<Void> download) throws IOException {
+        try {
+            download.get(config.getFetchWaitTimeout().toMillis(), TimeUnit.MILLISECONDS);
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        } catch (ExecutionException e) {
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a Drive chunk");
+        }
+    }
+
+    /**
+     * Download [fetchStart, fetchEnd] from Drive into the cache, forwarding
+     * [sendFrom, sendTo] to the client as it arrives
+     */
+    private void fetch(DriveFile file, DriveChunkCache.CachedFile cached, long fetchStart, long fetchEnd,
+            long sendFrom, long sendTo, WritableByteChannel out) throws IOException {
+        URI uri = URI.create(config.getApiBaseUrl() + "/files/" + file.id() + "?alt=media&supportsAllDrives=true");
+        HttpResponse<InputStream> response = send(HttpRequest.newBuilder(uri).GET()
+                .header(HttpHeaders.RANGE, "bytes=" + fetchStart + "-" + fetchEnd), file.id());
+
+        // A 200 means Drive ignored the range and sends the file from the start
+        long position = response.statusCode() == HttpServletResponse.SC_PARTIAL_CONTENT ? fetchStart : 0;
+        int nextChunk = cached.chunkOf(fetchStart);
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        try (InputStream body = response.body()) {
+            while (position <= fetchEnd) {
+                int read = body.read(buffer, 0, (int) Math.min(buffer.length, fetchEnd - position + 1));
+                if (read < 0) {
+                    break;
+                }
+                long readEnd = position + read - 1;
+                if (readEnd >= fetchStart) {
+                    int skip = (int) Math.max(0, fetchStart - position);
+                    cached.write(ByteBuffer.wrap(buffer, skip, read - skip), position + skip);
+                    long from = Math.max(position, sendFrom);
+                    long to = Math.min(readEnd, sendTo);
+                    if (from <= to) {
+                        ByteBuffer slice = ByteBuffer.wrap(buffer, (int) (from - position), (int) (to - from + 1));
+                        while (slice.hasRemaining()) {
+                            out.write(slice);
+                        }
+                        driveBytes.increment(to - from + 1);
+                    }
+                    while (nextChunk <= cached.chunkOf(fetchEnd) && cached.chunkEnd(nextChunk) <= readEnd) {
+                        cached.complete(nextChunk++);
+                    }
+                }
+                position = readEnd + 1;
+            }
+        }
+        if (position <= sendTo) {
+            throw new IOException("Drive response for " + file.id() + " ended at byte " + position);
+        }
+    }
+
+    private HttpResponse<InputStream> send(HttpRequest.Builder builder, String fileId) throws IOException {
+        HttpRequest request = builder
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + googleDriveService.getAccessToken())
+                .build();
+        HttpResponse<InputStream> response;
+        try {
+            response = httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while calling Drive");
+        }
+        int status = response.statusCode();
+        if (status == HttpServletResponse.SC_OK || status == HttpServletResponse.SC_PARTIAL_CONTENT) {
+            return response;
+        }
+        response.body().close();
+        if (status == HttpServletResponse.SC_NOT_FOUND) {
+            metadata.invalidate(fileId);
+            throw new ResourceNotFoundException("Drive file", "id", fileId);
+        }
+        throw new IOException("Drive returned " + status + " for " + fileId);
+    }
+}
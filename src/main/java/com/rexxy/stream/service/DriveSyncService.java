@@ -0,0 +1,380 @@
+package com.rexxy.stream.service;
+
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.rexxy.stream.config.DriveSyncConfig;
+import com.rexxy.stream.exception.ConflictException;
+import com.rexxy.stream.exception.ResourceNotFoundException;
+import com.rexxy.stream.model.DriveFolderWatch;
+import com.rexxy.stream.model.Lesson;
+import com.rexxy.stream.model.LessonGroup;
+import com.rexxy.stream.model.StorageType;
+import com.rexxy.stream.repository.DriveFolderWatchRepository;
+import com.rexxy.stream.repository.LessonGroupRepository;
+import com.rexxy.stream.repository.LessonRepository;
+import com.rexxy.stream.repository.UserProgressRepository;
+import com.rexxy.stream.service.GoogleDriveService.ChangePage;
+import com.rexxy.stream.service.GoogleDriveService.DriveChange;
+import com.rexxy.stream.service.GoogleDriveService.VideoFileInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps lesson groups in step with the Drive folders they were imported from.
+ *
+ * A folder is listed in full once, when it is first imported; the Drive changes token taken
+ * just before that listing is stored with the watch. Every sync after that reads only the
+ * changes feed from the stored token and applies adds, renames, moves and trashes to the
+ * group's lessons, so its cost follows the number of changes rather than the folder size.
+ * Watches at the same token share one read of the feed, and the token is saved after each
+ * page so an interrupted sync resumes where it stopped. If Drive no longer accepts a token
+ * the folder is listed again and the group is made to mirror it.
+ */
+@Service
+public class DriveSyncService {
+
+    private static final Logger logger = LoggerFactory.getLogger(DriveSyncService.class);
+
+    private static final String UNKNOWN_DURATION = "0:00";
+
+    private final DriveSyncConfig config;
+    private final GoogleDriveService googleDriveService;
+    private final DriveFolderWatchRepository watchRepository;
+    private final LessonRepository lessonRepository;
+    private final LessonGroupRepository lessonGroupRepository;
+    private final UserProgressRepository userProgressRepository;
+    private final CourseCacheInvalidator cacheInvalidator;
+
+    public DriveSyncService(DriveSyncConfig config,
+            GoogleDriveService googleDriveService,
+            DriveFolderWatchRepository watchRepository,
+            LessonRepository lessonRepository,
+            LessonGroupRepository lessonGroupRepository,
+            UserProgressRepository userProgressRepository,
+            CourseCacheInvalidator cacheInvalidator) {
+        this.config = config;
+        this.googleDriveService = googleDriveService;
+        this.watchRepository = watchRepository;
+        this.lessonRepository = lessonRepository;
+        this.lessonGroupRepository = lessonGroupRepository;
+        this.userProgressRepository = userProgressRepository;
+        this.cacheInvalidator = cacheInvalidator;
+    }
+
+    /**
+     * Lessons touched by a sync; {@code seen} counts the Drive files looked at
+     */
+    public record SyncResult(int seen, int added, int updated, int removed) {
+        static final SyncResult NONE = new SyncResult(0, 0, 0, 0);
+
+        SyncResult plus(SyncResult other) {
+            return new SyncResult(seen + other.seen, added + other.added, updated + other.updated,
+                    removed + other.removed);
+        }
+
+        public boolean changed() {
+            return added + updated + removed > 0;
+        }
+    }
+
+    /**
+     * Import a folder into a lesson group and keep it synced from then on. Importing a folder
+     * that is already synced into the same group only applies what changed since the last sync.
+     *
+     * @throws ConflictException if the folder is synced into another lesson group
+     */
+    public synchronized SyncResult importFolder(String folderId, String lessonGroupId) throws IOException {
+        LessonGroup group = lessonGroupRepository.findById(lessonGroupId)
+                .orElseThrow(() -> new ResourceNotFoundException("LessonGroup", "id", lessonGroupId));
+        DriveFolderWatch watch = watchRepository.findByFolderId(folderId).orElse(null);
+        if (watch != null) {
+            if (!watch.getLessonGroupId().equals(lessonGroupId)) {
+                throw new ConflictException("Drive folder " + folderId + " is already synced into lesson group "
+                        + watch.getLessonGroupId());
+            }
+            return syncFrom(watch.getPageToken(), List.of(watch));
+        }
+
+        // Take the token first so changes made while the folder is listed are picked up next time
+        watch = new DriveFolderWatch(null, folderId, lessonGroupId, googleDriveService.getStartPageToken(), null);
+        SyncResult result = list(watch, group, false);
+        watch.setLastSyncedAt(LocalDateTime.now());
+        watchRepository.save(watch);
+        logger.info("Imported Drive folder {} into lesson group {}: {}", folderId, lessonGroupId, result);
+        return result;
+    }
+
+    public List<DriveFolderWatch> getWatches() {
+        return watchRepository.findAll();
+    }
+
+    /**
+     * Stop syncing a folder; its lessons stay as they are
+     */
+    public synchronized void unwatch(String folderId) {
+        DriveFolderWatch watch = watchRepository.findByFolderId(folderId)
+                .orElseThrow(() -> new ResourceNotFoundException("DriveFolderWatch", "folderId", folderId));
+        watchRepository.delete(watch);
+    }
+
+    @Scheduled(fixedDelayString = "${google.drive.sync.interval:5m}",
+            initialDelayString = "${google.drive.sync.interval:5m}")
+    public void scheduledSync() {
+        if (!config.isEnabled()) {
+            return;
+        }
+        try {
+            SyncResult result = syncAll();
+            if (result.changed()) {
+                logger.info("Drive sync applied {}", result);
+            }
+        } catch (IllegalStateException e) {
+            logger.debug("Skipping Drive sync: {}", e.getMessage());
+        } catch (Exception e) {
+            logger.warn("Drive sync failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Apply pending Drive changes to every watched folder
+     */
+    public synchronized SyncResult syncAll() throws IOException {
+        Map<String, List<DriveFolderWatch>> byToken = watchRepository.findAll().stream()
+                .collect(Collectors.groupingBy(DriveFolderWatch::getPageToken, LinkedHashMap::new,
+                        Collectors.toList()));
+        SyncResult total = SyncResult.NONE;
+        for (Map.Entry<String, List<DriveFolderWatch>> entry : byToken.entrySet()) {
+            total = total.plus(syncFrom(entry.getKey(), entry.getValue()));
+        }
+        return total;
+    }
+
+    private SyncResult syncFrom(String startToken, List<DriveFolderWatch> watches) throws IOException {
+        Map<DriveFolderWatch, LessonGroup> groups = new LinkedHashMap<>();
+        for (DriveFolderWatch watch : watches) {
+            LessonGroup group = lessonGroupRepository.findById(watch.getLessonGroupId()).orElse(null);
+            if (group == null) {
+                logger.info("Lesson group {} is gone, no longer syncing Drive folder {}", watch.getLessonGroupId(),
+                        watch.getFolderId());
+                watchRepository.delete(watch);
+            } else {
+                groups.put(watch, group);
+            }
+        }
+        if (groups.isEmpty()) {
+            return SyncResult.NONE;
+        }
+
+        SyncResult result = SyncResult.NONE;
+        String pageToken = startToken;
+        while (true) {
+            ChangePage page;
+            try {
+                page = googleDriveService.listChanges(pageToken, config.getPageSize());
+            } catch (GoogleJsonResponseException e) {
+                // Anything else (auth, quota, outages) is retried from the saved token next run
+                if (!isRejectedToken(e)) {
+                    throw e;
+                }
+                logger.warn("Drive rejected changes token for {} folders ({}), listing them again",
+                        groups.size(), e.getStatusCode());
+                return result.plus(relist(groups));
+            }
+
+            for (Map.Entry<DriveFolderWatch, LessonGroup> entry : groups.entrySet()) {
+                result = result.plus(apply(entry.getKey(), entry.getValue(), page.changes()));
+            }
+
+            boolean last = page.nextPageToken() == null;
+            pageToken = last ? page.newStartPageToken() : page.nextPageToken();
+            // Checkpoint after every page so a failed sync does not apply the same changes twice
+            for (DriveFolderWatch watch : groups.keySet()) {
+                watch.setPageToken(pageToken);
+                if (last) {
+                    watch.setLastSyncedAt(LocalDateTime.now());
+                }
+            }
+            watchRepository.saveAll(groups.keySet());
+            if (last) {
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Whether Drive refused the page token itself, which only a full listing can recover from
+     */
+    private static boolean isRejectedToken(GoogleJsonResponseException e) {
+        if (e.getStatusCode() == 400 || e.getStatusCode() == 404) {
+            return true;
+        }
+        GoogleJsonError details = e.getDetails();
+        return details != null && details.getErrors() != null && details.getErrors().stream()
+                .anyMatch(error -> "invalid".equals(error.getReason()) || "notFound".equals(error.getReason()));
+    }
+
+    private SyncResult relist(Map<DriveFolderWatch, LessonGroup> groups) throws IOException {
+        SyncResult result = SyncResult.NONE;
+        for (Map.Entry<DriveFolderWatch, LessonGroup> entry : groups.entrySet()) {
+            DriveFolderWatch watch = entry.getKey();
+            watch.setPageToken(googleDriveService.getStartPageToken());
+            result = result.plus(list(watch, entry.getValue(), true));
+            watch.setLastSyncedAt(LocalDateTime.now());
+            watchRepository.save(watch);
+        }
+        return result;
+    }
+
+    /**
+     * Bring a group up to date from a full folder listing. With {@code prune}, Drive lessons
+     * of the group that are no longer in the folder are removed.
+     */
+    private SyncResult list(DriveFolderWatch watch, LessonGroup group, boolean prune) throws IOException {
+        List<VideoFileInfo> videos = googleDriveService.listVideosInFolder(watch.getFolderId());
+        Map<String, VideoFileInfo> byId = new LinkedHashMap<>();
+        for (VideoFileInfo video : videos) {
+            byId.put(video.getFileId(), video);
+        }
+
+        List<Lesson> existing = prune ? lessonRepository.findByLessonGroupId(group.getId())
+                : lessonRepository.findByLessonGroupIdAndResourcePathIn(group.getId(), byId.keySet());
+        Map<String, List<Lesson>> lessonsByFile = existing.stream()
+                .collect(Collectors.groupingBy(Lesson::getResourcePath));
+
+        List<Lesson> save = new ArrayList<>();
+        List<Lesson> delete = new ArrayList<>();
+        int added = 0;
+        int updated = 0;
+        for (VideoFileInfo video : byId.values()) {
+            List<Lesson> lessons = lessonsByFile.getOrDefault(video.getFileId(), List.of());
+            if (lessons.isEmpty()) {
+                save.add(newLesson(video, group));
+                added++;
+            }
+            for (Lesson lesson : lessons) {
+                if (refresh(lesson, video)) {
+                    save.add(lesson);
+                    updated++;
+                }
+            }
+        }
+        if (prune) {
+            for (Lesson lesson : existing) {
+                if (lesson.getStorageType() == StorageType.GOOGLE_DRIVE && !byId.containsKey(lesson.getResourcePath())) {
+                    delete.add(lesson);
+                }
+            }
+        }
+        write(group, save, delete);
+        return new SyncResult(videos.size(), added, updated, delete.size());
+    }
+
+    private SyncResult apply(DriveFolderWatch watch, LessonGroup group, List<DriveChange> changes) {
+        if (changes.isEmpty()) {
+            return SyncResult.NONE;
+        }
+        // A file can change several times within a page; its last entry is its current state
+        Map<String, DriveChange> latest = new LinkedHashMap<>();
+        for (DriveChange change : changes) {
+            latest.put(change.fileId(), change);
+        }
+        Set<String> fileIds = latest.keySet();
+        Map<String, List<Lesson>> lessonsByFile = lessonRepository
+                .findByLessonGroupIdAndResourcePathIn(group.getId(), fileIds).stream()
+                .collect(Collectors.groupingBy(Lesson::getResourcePath));
+
+        List<Lesson> save = new ArrayList<>();
+        List<Lesson> delete = new ArrayList<>();
+        int seen = 0;
+        int added = 0;
+        int updated = 0;
+        for (DriveChange change : latest.values()) {
+            List<Lesson> lessons = lessonsByFile.getOrDefault(change.fileId(), List.of());
+            boolean inFolder = !change.removed() && !change.trashed()
+                    && change.parents().contains(watch.getFolderId())
+                    && GoogleDriveService.isVideo(change.file().getMimeType());
+            if (!inFolder) {
+                // Deleted, trashed or moved out of the folder
+                delete.addAll(lessons);
+                continue;
+            }
+            seen++;
+            if (lessons.isEmpty()) {
+                save.add(newLesson(change.file(), group));
+                added++;
+            }
+            for (Lesson lesson : lessons) {
+                if (refresh(lesson, change.file())) {
+                    save.add(lesson);
+                    updated++;
+                }
+            }
+        }
+        write(group, save, delete);
+        return new SyncResult(seen, added, updated, delete.size());
+    }
+
+    private void write(LessonGroup group, List<Lesson> save, List<Lesson> delete) {
+        if (!delete.isEmpty()) {
+            userProgressRepository.deleteByLessonIdIn(delete.stream().map(Lesson::getId).toList());
+            lessonRepository.deleteAll(delete);
+        }
+        if (!save.isEmpty()) {
+            lessonRepository.saveAll(save);
+        }
+        if (!save.isEmpty() || !delete.isEmpty()) {
+            cacheInvalidator.evictCourseOfGroup(group.getId());
+        }
+    }
+
+    private static Lesson newLesson(VideoFileInfo video, LessonGroup group) {
+        Lesson lesson = new Lesson();
+        lesson.setTitle(lessonTitle(video.getFileName()));
+        lesson.setDuration(video.getDuration() != null ? video.getDuration() : UNKNOWN_DURATION);
+        lesson.setResourcePath(video.getFileId());
+        lesson.setStorageType(StorageType.GOOGLE_DRIVE);
+        lesson.setLessonGroup(group);
+        return lesson;
+    }
+
+    /**
+     * Carry a rename, and a duration Drive has finished working out, over to a lesson
+     */
+    private static boolean refresh(Lesson lesson, VideoFileInfo video) {
+        boolean changed = false;
+        String title = lessonTitle(video.getFileName());
+        if (!Objects.equals(lesson.getTitle(), title)) {
+            lesson.setTitle(title);
+            changed = true;
+        }
+        if (video.getDuration() != null && (lesson.getDuration() == null
+                || UNKNOWN_DURATION.equals(lesson.getDuration()))) {
+            lesson.setDuration(video.getDuration());
+            changed = true;
+        }
+        return changed;
+    }
+
+    /**
+     * Lesson title for a Drive file name: the extension dropped, underscores and hyphens as spaces
+     */
+    public static String lessonTitle(String fileName) {
+        int lastDot = fileName.lastIndexOf('.');
+        if (lastDot > 0) {
+            fileName = fileName.substring(0, lastDot);
+        }
+        return fileName.replace('_', ' ').replace('-', ' ');
+    }
+}
@@ -0,0 +1,51 @@
+package com.rexxy.stream.service;
+
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Strong entity tags for media files and generated content
+ */
+public final class EntityTags {
+
+    private EntityTags() {
+    }
+
+    /**
+     * Validator for a file on disk built from size, mtime and, where the file system
+     * exposes one, the inode. A file replaced in place with the same size and mtime
+     * still gets a new tag because its inode changes.
+     */
+    public static String forFile(BasicFileAttributes attributes) {
+        StringBuilder tag = new StringBuilder(48).append('"')
+                .append(Long.toHexString(attributes.size()))
+                .append('-')
+                .append(Long.toHexString(attributes.lastModifiedTime().toMillis()));
+        Object fileKey = attributes.fileKey();
+        if (fileKey != null) {
+            tag.append('-').append(Integer.toHexString(fileKey.hashCode()));
+        }
+        return tag.append('"').toString();
+    }
+
+    /**
+     * Validator for generated bodies: first 128 bits of the SHA-256 of the bytes
+     */
+    public static String forContent(byte[] content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+            return '"' + HexFormat.of().formatHex(digest, 0, 16) + '"';
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * Strong comparison as required for If-Range: weak tags never match
+     */
+    public static boolean strongMatch(String candidate, String etag) {
+        return candidate != null && !candidate.startsWith("W/") && candidate.trim().equals(etag);
+    }
+}
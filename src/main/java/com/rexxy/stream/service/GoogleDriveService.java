@@ -1,33 +1,74 @@
 package com.rexxy.stream.service;
 
-import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
-import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.api.client.googleapis.batch.BatchRequest;
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.googleapis.json.GoogleJsonErrorContainer;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.HttpBackOffIOExceptionHandler;
+import com.google.api.client.http.HttpBackOffUnsuccessfulResponseHandler;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.HttpUnsuccessfulResponseHandler;
+import com.google.api.client.http.apache.v2.ApacheHttpTransport;
 import com.google.api.client.json.JsonFactory;
 import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.client.util.BackOff;
+import com.google.api.client.util.ExponentialBackOff;
+import com.google.api.client.util.Sleeper;
 import com.google.api.services.drive.Drive;
 import com.google.api.services.drive.DriveScopes;
+import com.google.api.services.drive.model.Change;
+import com.google.api.services.drive.model.ChangeList;
 import com.google.api.services.drive.model.File;
 import com.google.api.services.drive.model.FileList;
 import com.google.auth.http.HttpCredentialsAdapter;
 import com.google.auth.oauth2.GoogleCredentials;
+import com.rexxy.stream.config.DriveApiConfig;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.security.GeneralSecurityException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
- * Service for handling Google Drive video streaming and file management
+ * Service for handling Google Drive video streaming and file management.
+ *
+ * One Drive client is built on first use and shared by all callers. It runs over a pooled
+ * Apache HTTP transport, retries rate-limited and server-error responses with exponential
+ * backoff, and times every call as {@code drive.api.requests}. Metadata for many files is
+ * looked up with batch requests rather than one round trip per file.
  */
 @Service
 public class GoogleDriveService {
 
+    private static final Logger logger = LoggerFactory.getLogger(GoogleDriveService.class);
+
     private static final JsonFactory JSON_FACTORY = GsonFactory.getDefaultInstance();
+    private static final Set<String> RATE_LIMIT_REASONS = Set.of("rateLimitExceeded", "userRateLimitExceeded");
+    // Drive error bodies are small; a larger one is not an error we can parse anyway
+    private static final int ERROR_BODY_LIMIT = 64 * 1024;
     private static final List<String> SCOPES = Collections.singletonList(DriveScopes.DRIVE_READONLY);
+    private static final String FILE_FIELDS = "id, name, mimeType, size, createdTime, videoMediaMetadata";
+    private static final int PAGE_SIZE = 1000;
 
     @Value("${google.drive.credentials.path:google-credentials.json}")
     private String credentialsPath;
@@ -35,15 +76,68 @@ public class GoogleDriveService {
     @Value("${google.drive.folder.id:}")
     private String defaultFolderId;
 
-    private Drive driveService;
+    private final DriveApiConfig config;
+    private final MeterRegistry meterRegistry;
+    private final Counter retries;
+    private volatile Drive driveService;
+    private volatile Sleeper sleeper = Sleeper.DEFAULT;
+    private GoogleCredentials credentials;
+
+    public GoogleDriveService(DriveApiConfig config, MeterRegistry meterRegistry) {
+        this.config = config;
+        this.meterRegistry = meterRegistry;
+        this.retries = Counter.builder("drive.api.retries")
+                .description("Drive API calls retried after a rate-limit, server error or I/O failure")
+                .register(meterRegistry);
+    }
+
+    /**
+     * The shared Drive client, built once over a pooled transport
+     */
+    private Drive getDriveService() throws IOException {
+        Drive drive = driveService;
+        if (drive == null) {
+            synchronized (this) {
+                if (driveService == null) {
+                    driveService = buildClient(pooledTransport(), new HttpCredentialsAdapter(getCredentials()));
+                }
+                drive = driveService;
+            }
+        }
+        return drive;
+    }
+
+    private HttpTransport pooledTransport() {
+        // Every call goes to the same host, so the per-route limit is the one that matters
+        return new ApacheHttpTransport(ApacheHttpTransport.newDefaultHttpClientBuilder()
+                .setMaxConnTotal(config.getMaxConnections())
+                .setMaxConnPerRoute(config.getMaxConnections())
+                .build());
+    }
+
+    private Drive buildClient(HttpTransport transport, HttpRequestInitializer credentials) {
+        HttpRequestInitializer initializer = request -> {
+            credentials.initialize(request);
+            request.setConnectTimeout((int) config.getConnectTimeout().toMillis());
+            request.setReadTimeout((int) config.getReadTimeout().toMillis());
+            request.setUnsuccessfulResponseHandler(new RetryHandler(request.getUnsuccessfulResponseHandler()));
+            request.setIOExceptionHandler(new HttpBackOffIOExceptionHandler(newBackOff()).setSleeper(sleeper));
+        };
+        return new Drive.Builder(transport, JSON_FACTORY, initializer)
+                .setApplicationName("Streaming App")
+                .build();
+    }
 
     /**
-     * Initialize Google Drive service with credentials
+     * Replace the client's transport; used by tests to talk to a fake Drive
      */
-    private Drive getDriveService() throws IOException, GeneralSecurityException {
-        if (driveService == null) {
-            final NetHttpTransport HTTP_TRANSPORT = GoogleNetHttpTransport.newTrustedTransport();
+    synchronized void useTransport(HttpTransport transport, HttpRequestInitializer credentials, Sleeper sleeper) {
+        this.sleeper = sleeper;
+        this.driveService = buildClient(transport, credentials);
+    }
 
+    private synchronized GoogleCredentials getCredentials() throws IOException {
+        if (credentials == null) {
             // Check if credentials file exists
             java.io.File credFile = new java.io.File(credentialsPath);
             if (!credFile.exists()) {
@@ -54,15 +148,21 @@ public class GoogleDriveService {
                                 "For now, you can use the CSV import feature which doesn't require Google Drive API setup.");
             }
 
-            GoogleCredentials credentials = GoogleCredentials
-                    .fromStream(new FileInputStream(credentialsPath))
-                    .createScoped(SCOPES);
-
-            driveService = new Drive.Builder(HTTP_TRANSPORT, JSON_FACTORY, new HttpCredentialsAdapter(credentials))
-                    .setApplicationName("Streaming App")
-                    .build();
+            try (FileInputStream in = new FileInputStream(credentialsPath)) {
+                credentials = GoogleCredentials.fromStream(in).createScoped(SCOPES);
+            }
         }
-        return driveService;
+        return credentials;
+    }
+
+    /**
+     * OAuth access token for calling the Drive REST API directly, refreshed when it is
+     * about to expire
+     */
+    public String getAccessToken() throws IOException {
+        GoogleCredentials creds = getCredentials();
+        creds.refreshIfExpired();
+        return creds.getAccessToken().getTokenValue();
     }
 
     /**
@@ -71,35 +171,23 @@ public class GoogleDriveService {
      * @param folderId Google Drive folder ID
      * @return List of video files
      */
-    public List<VideoFileInfo> listVideosInFolder(String folderId) throws IOException, GeneralSecurityException {
+    public List<VideoFileInfo> listVideosInFolder(String folderId) throws IOException {
         Drive service = getDriveService();
         List<VideoFileInfo> videos = new ArrayList<>();
 
         String pageToken = null;
         do {
-            FileList result = service.files().list()
+            Drive.Files.List request = service.files().list()
                     .setQ("'" + folderId
                             + "' in parents and (mimeType contains 'video/' or mimeType = 'application/octet-stream') and trashed = false")
                     .setSpaces("drive")
-                    .setFields("nextPageToken, files(id, name, mimeType, size, createdTime, videoMediaMetadata)")
-                    .setPageToken(pageToken)
-                    .execute();
+                    .setFields("nextPageToken, files(" + FILE_FIELDS + ")")
+                    .setPageSize(PAGE_SIZE)
+                    .setPageToken(pageToken);
+            FileList result = timed("files.list", request::execute);
 
             for (File file : result.getFiles()) {
-                VideoFileInfo info = new VideoFileInfo();
-                info.setFileId(file.getId());
-                info.setFileName(file.getName());
-                info.setMimeType(file.getMimeType());
-                info.setSize(file.getSize());
-                info.setCreatedTime(file.getCreatedTime() != null ? file.getCreatedTime().toString() : null);
-
-                // Extract video duration if available
-                if (file.getVideoMediaMetadata() != null && file.getVideoMediaMetadata().getDurationMillis() != null) {
-                    long durationMillis = file.getVideoMediaMetadata().getDurationMillis();
-                    info.setDuration(formatDuration(durationMillis));
-                }
-
-                videos.add(info);
+                videos.add(toInfo(file));
             }
 
             pageToken = result.getNextPageToken();
@@ -111,12 +199,26 @@ public class GoogleDriveService {
     /**
      * List all videos in the default configured folder
      */
-    public List<VideoFileInfo> listVideosInDefaultFolder() throws IOException, GeneralSecurityException {
+    public List<VideoFileInfo> listVideosInDefaultFolder() throws IOException {
+        return listVideosInFolder(getDefaultFolderId());
+    }
+
+    /**
+     * The configured default folder
+     */
+    public String getDefaultFolderId() {
         if (defaultFolderId == null || defaultFolderId.isEmpty()) {
             throw new IllegalStateException(
                     "Default folder ID not configured. Set google.drive.folder.id in application.properties");
         }
-        return listVideosInFolder(defaultFolderId);
+        return defaultFolderId;
+    }
+
+    /**
+     * Whether a Drive file is imported as a video; matches the folder listing query
+     */
+    public static boolean isVideo(String mimeType) {
+        return mimeType != null && (mimeType.contains("video/") || mimeType.equals("application/octet-stream"));
     }
 
     /**
@@ -157,23 +259,140 @@ public class GoogleDriveService {
      */
     public VideoFileInfo getFileInfo(String fileId) {
         try {
-            Drive service = getDriveService();
-            File file = service.files().get(fileId)
-                    .setFields("id, name, mimeType, size")
-                    .execute();
-
-            VideoFileInfo info = new VideoFileInfo();
-            info.setFileId(file.getId());
-            info.setFileName(file.getName());
-            info.setMimeType(file.getMimeType());
-            info.setSize(file.getSize());
-            return info;
-        } catch (Exception e) {
-            e.printStackTrace();
+            Drive.Files.Get request = getDriveService().files().get(fileId).setFields(FILE_FIELDS);
+            return toInfo(timed("files.get", request::execute));
+        } catch (GoogleJsonResponseException e) {
+            logger.warn("Drive returned {} for file {}", e.getStatusCode(), fileId);
+            return null;
+        } catch (IOException e) {
+            logger.warn("Failed to look up Drive file {}: {}", fileId, e.getMessage());
             return null;
         }
     }
 
+    /**
+     * Get file information for many files, sending up to {@code batchSize} lookups per HTTP
+     * request. Lookups that are rate limited are sent again with backoff; files that do not
+     * exist or cannot be read are left out of the result.
+     *
+     * @return info by file ID, in the order the IDs were given
+     */
+    public Map<String, VideoFileInfo> getFileInfos(Collection<String> fileIds) throws IOException {
+        Drive service = getDriveService();
+        Map<String, VideoFileInfo> found = new LinkedHashMap<>();
+        List<String> pending = new ArrayList<>(new LinkedHashSet<>(fileIds));
+        BackOff backOff = newBackOff();
+        while (!pending.isEmpty()) {
+            List<String> throttled = new ArrayList<>();
+            for (int from = 0; from < pending.size(); from += config.getBatchSize()) {
+                BatchRequest batch = service.batch();
+                for (String fileId : pending.subList(from, Math.min(pending.size(), from + config.getBatchSize()))) {
+                    HttpRequest part = service.files().get(fileId).setFields(FILE_FIELDS).buildHttpRequest();
+                    // Throttled parts are collected and retried together below instead of one by one
+                    if (part.getUnsuccessfulResponseHandler() instanceof RetryHandler retry) {
+                        part.setUnsuccessfulResponseHandler(retry.credentials);
+                    }
+                    batch.queue(part, File.class, GoogleJsonErrorContainer.class, new JsonBatchCallback<>() {
+                        @Override
+                        public void onSuccess(File file, HttpHeaders responseHeaders) {
+                            found.put(fileId, toInfo(file));
+                        }
+
+                        @Override
+                        public void onFailure(GoogleJsonError error, HttpHeaders responseHeaders) {
+                            if (isRetryable(error.getCode(), reasonOf(error))) {
+                                throttled.add(fileId);
+                            } else {
+                                logger.debug("Drive returned {} for file {}", error.getCode(), fileId);
+                            }
+                        }
+                    });
+                }
+                timed("files.batchGet", () -> {
+                    batch.execute();
+                    return null;
+                });
+            }
+            if (throttled.isEmpty()) {
+                break;
+            }
+            long wait = backOff.nextBackOffMillis();
+            if (wait == BackOff.STOP) {
+                logger.warn("Giving up on {} rate-limited Drive lookups", throttled.size());
+                break;
+            }
+            retries.increment(throttled.size());
+            sleep(wait);
+            pending = throttled;
+        }
+
+        Map<String, VideoFileInfo> ordered = new LinkedHashMap<>();
+        for (String fileId : fileIds) {
+            VideoFileInfo info = found.get(fileId);
+            if (info != null) {
+                ordered.put(fileId, info);
+            }
+        }
+        return ordered;
+    }
+
+    /**
+     * One entry of the Drive changes feed. {@code file} is null when the file was deleted or
+     * access to it was lost; {@code parents} lists the folders the file is in now.
+     */
+    public record DriveChange(String fileId, VideoFileInfo file, List<String> parents, boolean trashed) {
+        public boolean removed() {
+            return file == null;
+        }
+    }
+
+    /**
+     * A page of changes; {@code newStartPageToken} is only set on the last page and is the
+     * token to resume from on the next sync
+     */
+    public record ChangePage(List<DriveChange> changes, String nextPageToken, String newStartPageToken) {
+    }
+
+    /**
+     * Token for the current position of the changes feed; changes made after this call are
+     * listed from it
+     */
+    public String getStartPageToken() throws IOException {
+        Drive.Changes.GetStartPageToken request = getDriveService().changes().getStartPageToken()
+                .setSupportsAllDrives(true);
+        return timed("changes.getStartPageToken", request::execute).getStartPageToken();
+    }
+
+    /**
+     * One page of file changes since {@code pageToken}, covering shared drives as well
+     */
+    public ChangePage listChanges(String pageToken, int pageSize) throws IOException {
+        Drive.Changes.List request = getDriveService().changes().list(pageToken)
+                .setFields("nextPageToken, newStartPageToken, changes(fileId, removed, file(" + FILE_FIELDS
+                        + ", parents, trashed))")
+                .setPageSize(pageSize)
+                .setIncludeRemoved(true)
+                .setSupportsAllDrives(true)
+                .setIncludeItemsFromAllDrives(true);
+        ChangeList result = timed("changes.list", request::execute);
+
+        List<DriveChange> changes = new ArrayList<>();
+        for (Change change : result.getChanges()) {
+            if (change.getFileId() == null) {
+                continue; // a shared drive itself changed, not a file
+            }
+            File file = change.getFile();
+            if (Boolean.TRUE.equals(change.getRemoved()) || file == null) {
+                changes.add(new DriveChange(change.getFileId(), null, List.of(), false));
+            } else {
+                changes.add(new DriveChange(change.getFileId(), toInfo(file),
+                        file.getParents() != null ? file.getParents() : List.of(),
+                        Boolean.TRUE.equals(file.getTrashed())));
+            }
+        }
+        return new ChangePage(changes, result.getNextPageToken(), result.getNewStartPageToken());
+    }
+
     /**
      * Stream a file from Google Drive
      * 
@@ -182,14 +401,145 @@ public class GoogleDriveService {
      */
     public java.io.InputStream streamFile(String fileId) {
         try {
-            Drive service = getDriveService();
-            return service.files().get(fileId).executeMediaAsInputStream();
-        } catch (Exception e) {
-            e.printStackTrace();
+            Drive.Files.Get request = getDriveService().files().get(fileId);
+            return timed("files.media", request::executeMediaAsInputStream);
+        } catch (IOException e) {
+            logger.warn("Failed to open Drive file {}: {}", fileId, e.getMessage());
             return null;
         }
     }
 
+    private VideoFileInfo toInfo(File file) {
+        VideoFileInfo info = new VideoFileInfo();
+        info.setFileId(file.getId());
+        info.setFileName(file.getName());
+        info.setMimeType(file.getMimeType());
+        info.setSize(file.getSize());
+        info.setCreatedTime(file.getCreatedTime() != null ? file.getCreatedTime().toString() : null);
+
+        // Extract video duration if available
+        if (file.getVideoMediaMetadata() != null && file.getVideoMediaMetadata().getDurationMillis() != null) {
+            long durationMillis = file.getVideoMediaMetadata().getDurationMillis();
+            info.setDuration(formatDuration(durationMillis));
+        }
+        return info;
+    }
+
+    private interface DriveCall<T> {
+        T execute() throws IOException;
+    }
+
+    /**
+     * Run one Drive API call, recording its latency by operation and outcome
+     */
+    private <T> T timed(String operation, DriveCall<T> call) throws IOException {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "success";
+        try {
+            return call.execute();
+        } catch (GoogleJsonResponseException e) {
+            outcome = String.valueOf(e.getStatusCode());
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            outcome = "error";
+            throw e;
+        } finally {
+            sample.stop(Timer.builder("drive.api.requests")
+                    .description("Drive API calls")
+                    .tag("operation", operation)
+                    .tag("outcome", outcome)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry));
+        }
+    }
+
+    /**
+     * Rate limits come back as 429 or as 403 with a rate limit reason; any other 403 is a
+     * permission error that a retry cannot fix
+     */
+    private static boolean isRetryable(int status, String reason) {
+        return status == 429 || status >= 500 || status == 403 && RATE_LIMIT_REASONS.contains(reason);
+    }
+
+    private static String reasonOf(GoogleJsonError error) {
+        if (error == null || error.getErrors() == null || error.getErrors().isEmpty()) {
+            return null;
+        }
+        return error.getErrors().get(0).getReason();
+    }
+
+    /**
+     * Reason given in an error response, read so that the body can still be parsed into the
+     * exception the call fails with
+     */
+    private static String reasonOf(HttpResponse response) {
+        try {
+            InputStream content = response.getContent();
+            if (content == null || !content.markSupported()) {
+                return null;
+            }
+            content.mark(ERROR_BODY_LIMIT);
+            byte[] body;
+            try {
+                body = content.readNBytes(ERROR_BODY_LIMIT);
+            } finally {
+                content.reset();
+            }
+            return reasonOf(JSON_FACTORY.fromString(new String(body, response.getContentCharset()),
+                    GoogleJsonErrorContainer.class).getError());
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private BackOff newBackOff() {
+        return new ExponentialBackOff.Builder()
+                .setInitialIntervalMillis((int) config.getInitialBackoff().toMillis())
+                .setMaxElapsedTimeMillis((int) config.getMaxBackoff().toMillis())
+                .setMaxIntervalMillis((int) Math.min(config.getMaxBackoff().toMillis(), 16_000))
+                .build();
+    }
+
+    private void sleep(long millis) throws IOException {
+        try {
+            sleeper.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while backing off from Drive");
+        }
+    }
+
+    /**
+     * Lets the credentials refresh an expired token first, then backs off and retries
+     * rate-limited and server-error responses
+     */
+    private final class RetryHandler implements HttpUnsuccessfulResponseHandler {
+        private final HttpUnsuccessfulResponseHandler credentials;
+        private final HttpBackOffUnsuccessfulResponseHandler backOff =
+                new HttpBackOffUnsuccessfulResponseHandler(newBackOff())
+                        .setBackOffRequired(response -> isRetryable(response.getStatusCode(),
+                                response.getStatusCode() == 403 ? reasonOf(response) : null))
+                        .setSleeper(sleeper);
+
+        private RetryHandler(HttpUnsuccessfulResponseHandler credentials) {
+            this.credentials = credentials;
+        }
+
+        @Override
+        public boolean handleResponse(HttpRequest request, HttpResponse response, boolean supportsRetry)
+                throws IOException {
+            if (credentials != null && credentials.handleResponse(request, response, supportsRetry)) {
+                return true;
+            }
+            boolean retry = backOff.handleResponse(request, response, supportsRetry);
+            if (retry) {
+                logger.debug("Retrying Drive call after {}", response.getStatusCode());
+                retries.increment();
+            }
+            return retry;
+        }
+    }
+
     /**
      * Format duration from milliseconds to HH:MM:SS or MM:SS
      */
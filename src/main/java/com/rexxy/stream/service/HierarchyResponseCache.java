@@ -0,0 +1,112 @@
+package com.rexxy.stream.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.rexxy.stream.config.CacheTierConfig;
+import com.rexxy.stream.dto.CourseHierarchyDTO;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.WeakReference;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Course hierarchy responses kept as the bytes that go on the wire: the JSON body, its
+ * gzipped form and an ETag.
+ *
+ * A response is tied to the hierarchy instance it was rendered from. While the near tier
+ * of the hierarchy cache keeps returning that instance the stored bytes are sent as they
+ * are; once a write to the course evicts it (here or, through the invalidation channel,
+ * on another instance) the next request gets a new instance and renders again. Responses
+ * are held in a byte-bounded cache, so the most requested courses stay rendered; they only
+ * weakly refer to their hierarchy, so the bound covers everything they keep in memory.
+ */
+@Service
+public class HierarchyResponseCache {
+
+    private static final int GZIP_MIN_BYTES = 1024;
+
+    private final StreamingService streamingService;
+    private final ObjectMapper objectMapper;
+    private final Cache<String, Entry> responses;
+    private final Counter renders;
+
+    public HierarchyResponseCache(StreamingService streamingService, ObjectMapper objectMapper,
+            CacheTierConfig cacheTierConfig, MeterRegistry meterRegistry) {
+        this.streamingService = streamingService;
+        this.objectMapper = objectMapper;
+        this.responses = Caffeine.newBuilder()
+                .maximumWeight(cacheTierConfig.getRenderedHierarchyMaxBytes())
+                .weigher((String courseId, Entry entry) -> entry.rendered().weight())
+                .build();
+        this.renders = Counter.builder("hierarchy.response.renders")
+                .description("Course hierarchy responses serialized and compressed")
+                .register(meterRegistry);
+        // Caffeine applies writes to the weighted size asynchronously; catch up before reading it
+        Gauge.builder("hierarchy.response.cache.size", responses, cache -> {
+                    cache.cleanUp();
+                    return cache.policy().eviction().map(e -> e.weightedSize().orElse(0)).orElse(0L);
+                })
+                .baseUnit("bytes")
+                .description("Bytes of rendered course hierarchy responses held in memory")
+                .register(meterRegistry);
+    }
+
+    /**
+     * A hierarchy ready to send: the JSON body, its gzipped form (null when not worth it) and ETag
+     */
+    public record Rendered(byte[] json, byte[] gzip, String etag) {
+        int weight() {
+            return json.length + (gzip != null ? gzip.length : 0);
+        }
+    }
+
+    /**
+     * A response and the hierarchy it was rendered from; once the hierarchy cache lets go of
+     * that instance the reference clears and the response is rendered again
+     */
+    private record Entry(Rendered rendered, WeakReference<CourseHierarchyDTO> source) {
+    }
+
+    /**
+     * @throws com.rexxy.stream.exception.ResourceNotFoundException for an unknown course
+     */
+    public Rendered get(String courseId) {
+        CourseHierarchyDTO hierarchy = streamingService.getCourseHierarchy(courseId);
+        Entry entry = responses.getIfPresent(courseId);
+        if (entry != null && entry.source().get() == hierarchy) {
+            return entry.rendered();
+        }
+        Rendered rendered = render(hierarchy);
+        responses.put(courseId, new Entry(rendered, new WeakReference<>(hierarchy)));
+        return rendered;
+    }
+
+    private Rendered render(CourseHierarchyDTO hierarchy) {
+        try {
+            byte[] json = objectMapper.writeValueAsBytes(hierarchy);
+            renders.increment();
+            return new Rendered(json, json.length >= GZIP_MIN_BYTES ? gzip(json) : null,
+                    EntityTags.forContent(json));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not serialize hierarchy of course " + hierarchy.getId(), e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(data);
+        }
+        return out.toByteArray();
+    }
+}
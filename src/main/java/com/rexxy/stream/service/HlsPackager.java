@@ -0,0 +1,324 @@
+package com.rexxy.stream.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.rexxy.stream.config.MediaStreamingConfig;
+import com.rexxy.stream.service.MediaCatalog.MediaEntry;
+import com.rexxy.stream.service.Mp4SampleIndex.Track;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+
+/**
+ * Repackages progressive MP4 files as HLS with fragmented-MP4 segments, without transcoding.
+ *
+ * The sample tables of each file are parsed once and cached per path and mtime together with
+ * the keyframe-aligned segment boundaries. A segment is a moof box built from those tables
+ * followed by an mdat whose payload is copied from the source file in contiguous runs.
+ */
+@Service
+public class HlsPackager {
+
+    // Sample flags for trun: sync samples depend on nothing, others are non-sync dependents
+    private static final int SYNC_SAMPLE_FLAGS = 0x02000000;
+    private static final int NON_SYNC_SAMPLE_FLAGS = 0x01010000;
+
+    private final MediaStreamingConfig streamingConfig;
+    private final Cache<IndexKey, Mp4SampleIndex> indexes;
+
+    public HlsPackager(MediaStreamingConfig streamingConfig) {
+        this.streamingConfig = streamingConfig;
+        this.indexes = Caffeine.newBuilder()
+                .maximumWeight(streamingConfig.getHlsIndexCacheMaxBytes())
+                .weigher((IndexKey key, Mp4SampleIndex index) -> (int) Math.min(Integer.MAX_VALUE,
+                        index.estimatedBytes()))
+                .build();
+    }
+
+    record IndexKey(Path path, long lastModified) {
+    }
+
+    /**
+     * Parsed sample tables and segment boundaries of a file, from cache when it is unchanged
+     *
+     * @throws IOException when the file cannot be segmented (not MP4, fragmented, no A/V track)
+     */
+    public Mp4SampleIndex index(MediaEntry entry) throws IOException {
+        try {
+            return indexes.get(new IndexKey(entry.path(), entry.lastModified()), key -> {
+                try (FileChannel channel = FileChannel.open(key.path(), StandardOpenOption.READ)) {
+                    return Mp4SampleIndex.parse(channel, streamingConfig.getHlsSegmentDuration().toMillis());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * VOD media playlist; segment URIs are relative to the playlist
+     */
+    public String playlist(Mp4SampleIndex index) {
+        double longest = 0;
+        for (int s = 0; s < index.segmentCount(); s++) {
+            longest = Math.max(longest, index.segmentDuration(s));
+        }
+
+        StringBuilder playlist = new StringBuilder(64 + index.segmentCount() * 32)
+                .append("#EXTM3U\n")
+                .append("#EXT-X-VERSION:7\n")
+                .append("#EXT-X-TARGETDURATION:").append((long) Math.ceil(longest)).append('\n')
+                .append("#EXT-X-MEDIA-SEQUENCE:0\n")
+                .append("#EXT-X-PLAYLIST-TYPE:VOD\n")
+                .append("#EXT-X-INDEPENDENT-SEGMENTS\n")
+                .append("#EXT-X-MAP:URI=\"init.mp4\"\n");
+        for (int s = 0; s < index.segmentCount(); s++) {
+            playlist.append("#EXTINF:").append(String.format(Locale.ROOT, "%.3f", index.segmentDuration(s)))
+                    .append(",\n").append(s).append(".m4s\n");
+        }
+        return playlist.append("#EXT-X-ENDLIST\n").toString();
+    }
+
+    /**
+     * ftyp + moov with empty sample tables and an mvex announcing the fragments
+     */
+    public byte[] initSegment(Mp4SampleIndex index) {
+        BoxWriter out = new BoxWriter();
+        int ftyp = out.begin("ftyp");
+        out.fourCc("iso6").putInt(0).fourCc("iso6").fourCc("cmfc").fourCc("mp41");
+        out.end(ftyp);
+
+        int moov = out.begin("moov");
+        out.put(index.mvhd());
+        for (Track track : index.tracks()) {
+            int trak = out.begin("trak");
+            out.put(track.tkhd());
+            if (track.edts() != null) {
+                out.put(track.edts());
+            }
+            int mdia = out.begin("mdia");
+            out.put(track.initBoxes().get(0)).put(track.initBoxes().get(1));
+            int minf = out.begin("minf");
+            out.put(track.initBoxes().get(2)).put(track.initBoxes().get(3));
+            int stbl = out.begin("stbl");
+            out.put(track.initBoxes().get(4));
+            out.end(out.fullBox("stts", 0, 0).putInt(0).mark());
+            out.end(out.fullBox("stsc", 0, 0).putInt(0).mark());
+            out.end(out.fullBox("stsz", 0, 0).putInt(0).putInt(0).mark());
+            out.end(out.fullBox("stco", 0, 0).putInt(0).mark());
+            out.end(stbl);
+            out.end(minf);
+            out.end(mdia);
+            out.end(trak);
+        }
+        int mvex = out.begin("mvex");
+        for (Track track : index.tracks()) {
+            out.end(out.fullBox("trex", 0, 0)
+                    .putInt(track.trackId()).putInt(1).putInt(0).putInt(0).putInt(0).mark());
+        }
+        out.end(mvex);
+        out.end(moov);
+        return out.toByteArray();
+    }
+
+    /**
+     * Length of a media segment in bytes, so the caller can set Content-Length up front
+     */
+    public long segmentLength(Mp4SampleIndex index, int segment) {
+        return moof(index, segment).length + 8 + payloadLength(index, segment);
+    }
+
+    /**
+     * Write moof + mdat of one segment, copying sample data from the source in file order
+     */
+    public void writeSegment(Path source, Mp4SampleIndex index, int segment, OutputStream out) throws IOException {
+        byte[] moof = moof(index, segment);
+        long payload = payloadLength(index, segment);
+        out.write(moof);
+        out.write(ByteBuffer.allocate(8).putInt((int) (payload + 8)).put("mdat".getBytes(StandardCharsets.ISO_8859_1))
+                .array());
+
+        WritableByteChannel target = Channels.newChannel(out);
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            for (int t = 0; t < index.tracks().size(); t++) {
+                Track track = index.tracks().get(t);
+                int first = index.segmentStart(t, segment);
+                int last = index.segmentStart(t, segment + 1);
+                int i = first;
+                while (i < last) {
+                    // Coalesce samples that sit back to back in the file into one transfer
+                    long runStart = track.offsets()[i];
+                    long runEnd = runStart + track.sizes()[i];
+                    i++;
+                    while (i < last && track.offsets()[i] == runEnd) {
+                        runEnd += track.sizes()[i];
+                        i++;
+                    }
+                    transfer(channel, runStart, runEnd - runStart, target);
+                }
+            }
+        }
+    }
+
+    private static void transfer(FileChannel channel, long position, long length, WritableByteChannel target)
+            throws IOException {
+        while (length > 0) {
+            long sent = channel.transferTo(position, length, target);
+            if (sent <= 0) {
+                throw new IOException("Source file shrank while writing a segment");
+            }
+            position += sent;
+            length -= sent;
+        }
+    }
+
+    private static long payloadLength(Mp4SampleIndex index, int segment) {
+        long length = 0;
+        for (int t = 0; t < index.tracks().size(); t++) {
+            Track track = index.tracks().get(t);
+            for (int i = index.segmentStart(t, segment); i < index.segmentStart(t, segment + 1); i++) {
+                length += track.sizes()[i];
+            }
+        }
+        return length;
+    }
+
+    private static byte[] moof(Mp4SampleIndex index, int segment) {
+        BoxWriter out = new BoxWriter();
+        int moof = out.begin("moof");
+        out.end(out.fullBox("mfhd", 0, 0).putInt(segment + 1).mark());
+
+        int[] dataOffsetPositions = new int[index.tracks().size()];
+        long[] trackBytes = new long[index.tracks().size()];
+        for (int t = 0; t < index.tracks().size(); t++) {
+            Track track = index.tracks().get(t);
+            int first = index.segmentStart(t, segment);
+            int last = index.segmentStart(t, segment + 1);
+            dataOffsetPositions[t] = -1;
+            if (first == last) {
+                continue;
+            }
+
+            int traf = out.begin("traf");
+            // default-base-is-moof: data offsets count from the start of this moof
+            out.end(out.fullBox("tfhd", 0, 0x020000).putInt(track.trackId()).mark());
+            out.end(out.fullBox("tfdt", 1, 0).putLong(track.dts()[first]).mark());
+
+            boolean composition = track.compositionOffsets() != null;
+            int flags = 0x000001 | 0x000100 | 0x000200 | 0x000400 | (composition ? 0x000800 : 0);
+            int trun = out.fullBox("trun", composition ? 1 : 0, flags).putInt(last - first).mark();
+            dataOffsetPositions[t] = out.position();
+            out.putInt(0);
+            for (int i = first; i < last; i++) {
+                out.putInt((int) (track.dts()[i + 1] - track.dts()[i]))
+                        .putInt(track.sizes()[i])
+                        .putInt(track.isSync(i) ? SYNC_SAMPLE_FLAGS : NON_SYNC_SAMPLE_FLAGS);
+                if (composition) {
+                    out.putInt(track.compositionOffsets()[i]);
+                }
+                trackBytes[t] += track.sizes()[i];
+            }
+            out.end(trun);
+            out.end(traf);
+        }
+        out.end(moof);
+
+        // Samples follow the 8-byte mdat header, one track after the other
+        long dataOffset = out.position() + 8;
+        for (int t = 0; t < dataOffsetPositions.length; t++) {
+            if (dataOffsetPositions[t] >= 0) {
+                out.patchInt(dataOffsetPositions[t], (int) dataOffset);
+                dataOffset += trackBytes[t];
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Minimal ISO BMFF writer: boxes are opened with begin/fullBox and their size is
+     * patched in by end once the body is written
+     */
+    private static final class BoxWriter {
+        private ByteBuffer buffer = ByteBuffer.allocate(4096);
+        private int lastBox;
+
+        int begin(String type) {
+            ensure(8);
+            int start = buffer.position();
+            buffer.putInt(0);
+            fourCc(type);
+            return start;
+        }
+
+        BoxWriter fullBox(String type, int version, int flags) {
+            lastBox = begin(type);
+            return putInt((version << 24) | flags);
+        }
+
+        // Start offset of the box most recently opened with fullBox
+        int mark() {
+            return lastBox;
+        }
+
+        void end(int start) {
+            buffer.putInt(start, buffer.position() - start);
+        }
+
+        int position() {
+            return buffer.position();
+        }
+
+        BoxWriter fourCc(String code) {
+            return put(code.getBytes(StandardCharsets.ISO_8859_1));
+        }
+
+        BoxWriter putInt(int value) {
+            ensure(4);
+            buffer.putInt(value);
+            return this;
+        }
+
+        BoxWriter putLong(long value) {
+            ensure(8);
+            buffer.putLong(value);
+            return this;
+        }
+
+        BoxWriter put(byte[] bytes) {
+            ensure(bytes.length);
+            buffer.put(bytes);
+            return this;
+        }
+
+        void patchInt(int position, int value) {
+            buffer.putInt(position, value);
+        }
+
+        byte[] toByteArray() {
+            byte[] bytes = new byte[buffer.position()];
+            buffer.get(0, bytes);
+            return bytes;
+        }
+
+        private void ensure(int bytes) {
+            if (buffer.remaining() < bytes) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+                buffer.flip();
+                grown.put(buffer);
+                buffer = grown;
+            }
+        }
+    }
+}
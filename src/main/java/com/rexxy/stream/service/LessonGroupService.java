@@ -6,7 +6,6 @@ import com.rexxy.stream.model.LessonGroup;
 import com.rexxy.stream.model.Module;
 import com.rexxy.stream.repository.LessonGroupRepository;
 import com.rexxy.stream.repository.ModuleRepository;
-import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.stereotype.Service;
 
 import java.util.Comparator;
@@ -17,10 +16,13 @@ import java.util.stream.Collectors;
 public class LessonGroupService {
         private final LessonGroupRepository lessonGroupRepository;
         private final ModuleRepository moduleRepository;
+        private final CourseCacheInvalidator cacheInvalidator;
 
-        public LessonGroupService(LessonGroupRepository lessonGroupRepository, ModuleRepository moduleRepository) {
+        public LessonGroupService(LessonGroupRepository lessonGroupRepository, ModuleRepository moduleRepository,
+                        CourseCacheInvalidator cacheInvalidator) {
                 this.lessonGroupRepository = lessonGroupRepository;
                 this.moduleRepository = moduleRepository;
+                this.cacheInvalidator = cacheInvalidator;
         }
 
         public List<LessonGroupDTO> getAllLessonGroups() {
@@ -51,7 +53,6 @@ public class LessonGroupService {
                                 .collect(Collectors.toList());
         }
 
-        @CacheEvict(value = "courseHierarchy", allEntries = true)
         public LessonGroupDTO createLessonGroup(LessonGroupDTO lessonGroupDTO) {
                 Module module = moduleRepository.findById(lessonGroupDTO.getModuleId())
                                 .orElseThrow(() -> new ResourceNotFoundException("Module", "id",
@@ -63,13 +64,14 @@ public class LessonGroupService {
                 lessonGroup.setOrderIndex(lessonGroupDTO.getOrderIndex());
 
                 LessonGroup savedLessonGroup = lessonGroupRepository.save(lessonGroup);
+                cacheInvalidator.evictCourse(module.getCourse().getId());
                 return convertToDTO(savedLessonGroup);
         }
 
-        @CacheEvict(value = "courseHierarchy", allEntries = true)
         public LessonGroupDTO updateLessonGroup(String id, LessonGroupDTO lessonGroupDTO) {
                 LessonGroup lessonGroup = lessonGroupRepository.findById(id)
                                 .orElseThrow(() -> new ResourceNotFoundException("LessonGroup", "id", id));
+                String previousCourseId = cacheInvalidator.courseIdOfGroup(id);
 
                 if (lessonGroupDTO.getModuleId() != lessonGroup.getModule().getId()) {
                         Module module = moduleRepository.findById(lessonGroupDTO.getModuleId())
@@ -82,14 +84,17 @@ public class LessonGroupService {
                 lessonGroup.setOrderIndex(lessonGroupDTO.getOrderIndex());
 
                 LessonGroup updatedLessonGroup = lessonGroupRepository.save(lessonGroup);
+                cacheInvalidator.evictCourses(java.util.Arrays.asList(previousCourseId,
+                                cacheInvalidator.courseIdOfGroup(id)));
                 return convertToDTO(updatedLessonGroup);
         }
 
-        @CacheEvict(value = "courseHierarchy", allEntries = true)
         public void deleteLessonGroup(String id) {
                 LessonGroup lessonGroup = lessonGroupRepository.findById(id)
                                 .orElseThrow(() -> new ResourceNotFoundException("LessonGroup", "id", id));
+                String courseId = cacheInvalidator.courseIdOfGroup(id);
                 lessonGroupRepository.delete(lessonGroup);
+                cacheInvalidator.evictCourse(courseId);
         }
 
         private LessonGroupDTO convertToDTO(LessonGroup lessonGroup) {
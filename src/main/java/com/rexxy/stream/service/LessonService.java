@@ -6,7 +6,6 @@ import com.rexxy.stream.model.Lesson;
 import com.rexxy.stream.model.LessonGroup;
 import com.rexxy.stream.repository.LessonGroupRepository;
 import com.rexxy.stream.repository.LessonRepository;
-import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -21,13 +20,18 @@ public class LessonService {
     private final LessonGroupRepository lessonGroupRepository;
     private final MediaMetadataService mediaMetadataService;
     private final com.rexxy.stream.config.FileStorageConfig fileStorageConfig;
+    private final BlobStoreService blobStoreService;
+    private final CourseCacheInvalidator cacheInvalidator;
 
     public LessonService(LessonRepository lessonRepository, LessonGroupRepository lessonGroupRepository,
-            MediaMetadataService mediaMetadataService, com.rexxy.stream.config.FileStorageConfig fileStorageConfig) {
+            MediaMetadataService mediaMetadataService, com.rexxy.stream.config.FileStorageConfig fileStorageConfig,
+            BlobStoreService blobStoreService, CourseCacheInvalidator cacheInvalidator) {
         this.lessonRepository = lessonRepository;
         this.lessonGroupRepository = lessonGroupRepository;
         this.mediaMetadataService = mediaMetadataService;
         this.fileStorageConfig = fileStorageConfig;
+        this.blobStoreService = blobStoreService;
+        this.cacheInvalidator = cacheInvalidator;
     }
 
     public List<LessonDTO> getAllLessons() {
@@ -56,7 +60,6 @@ public class LessonService {
                 .collect(Collectors.toList());
     }
 
-    @CacheEvict(value = "courseHierarchy", allEntries = true)
     public LessonDTO createLesson(LessonDTO lessonDTO) {
         LessonGroup lessonGroup = lessonGroupRepository.findById(lessonDTO.getLessonGroupId())
                 .orElseThrow(() -> new ResourceNotFoundException("LessonGroup", "id", lessonDTO.getLessonGroupId()));
@@ -75,13 +78,15 @@ public class LessonService {
         lesson.setOrderIndex(lessonDTO.getOrderIndex());
 
         Lesson savedLesson = lessonRepository.save(lesson);
+        blobStoreService.acquire(savedLesson.getResourcePath());
+        cacheInvalidator.evictCourseOfGroup(lessonGroup.getId());
         return convertToDTO(savedLesson);
     }
 
-    @CacheEvict(value = "courseHierarchy", allEntries = true)
     public LessonDTO updateLesson(String id, LessonDTO lessonDTO) {
         Lesson lesson = lessonRepository.findById(id)
                 .orElseThrow(() -> new ResourceNotFoundException("Lesson", "id", id));
+        String previousGroupId = lesson.getLessonGroup().getId();
 
         if (lessonDTO.getLessonGroupId() != lesson.getLessonGroup().getId()) {
             LessonGroup lessonGroup = lessonGroupRepository.findById(lessonDTO.getLessonGroupId())
@@ -101,18 +106,26 @@ public class LessonService {
         }
         lesson.setDuration(duration);
 
+        if (!java.util.Objects.equals(lesson.getResourcePath(), lessonDTO.getResourcePath())) {
+            blobStoreService.release(lesson.getResourcePath());
+            blobStoreService.acquire(lessonDTO.getResourcePath());
+        }
         lesson.setResourcePath(lessonDTO.getResourcePath());
         lesson.setOrderIndex(lessonDTO.getOrderIndex());
 
         Lesson updatedLesson = lessonRepository.save(lesson);
+        // A lesson moved to another group may have left its course
+        cacheInvalidator.evictCourses(java.util.Arrays.asList(cacheInvalidator.courseIdOfGroup(previousGroupId),
+                cacheInvalidator.courseIdOfGroup(updatedLesson.getLessonGroup().getId())));
         return convertToDTO(updatedLesson);
     }
 
-    @CacheEvict(value = "courseHierarchy", allEntries = true)
     public void deleteLesson(String id) {
         Lesson lesson = lessonRepository.findById(id)
                 .orElseThrow(() -> new ResourceNotFoundException("Lesson", "id", id));
         lessonRepository.delete(lesson);
+        blobStoreService.release(lesson.getResourcePath());
+        cacheInvalidator.evictCourseOfGroup(lesson.getLessonGroup().getId());
     }
 
     public String extractDuration(String resourcePath) {
@@ -0,0 +1,264 @@
+package com.rexxy.stream.service;
+
+import com.rexxy.stream.config.FileStorageConfig;
+import com.rexxy.stream.config.MediaStreamingConfig;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory index of media files under the local library root and the upload directory.
+ *
+ * Entries hold everything a stream request needs (size, mtime, content type, ETag) so the
+ * hot path is a single map lookup instead of several stat calls against a possibly
+ * network-mounted share. The index is filled by a background scan at startup, updated on
+ * import and upload, and kept fresh by a recursive WatchService. Because watch events are
+ * not delivered reliably on every network file system, an entry older than
+ * {@code catalogMaxStaleness} is re-validated with one stat on its next lookup.
+ */
+@Service
+public class MediaCatalog {
+
+    private static final Logger logger = LoggerFactory.getLogger(MediaCatalog.class);
+
+    private static final Set<String> MEDIA_EXTENSIONS = Set.of("mp4", "m4v", "mov", "mkv", "webm", "avi", "ts");
+
+    private final MediaStreamingConfig streamingConfig;
+    private final VideoSegmentCache segmentCache;
+    private final List<Path> roots;
+    private final Map<Path, MediaEntry> entries = new ConcurrentHashMap<>();
+    private final Map<WatchKey, Path> watchedDirectories = new ConcurrentHashMap<>();
+    private volatile WatchService watchService;
+
+    public MediaCatalog(FileStorageConfig fileStorageConfig, MediaStreamingConfig streamingConfig,
+            VideoSegmentCache segmentCache) {
+        this.streamingConfig = streamingConfig;
+        this.segmentCache = segmentCache;
+        this.roots = List.of(
+                Paths.get(fileStorageConfig.getLocalLibraryRoot()).toAbsolutePath().normalize(),
+                Paths.get(fileStorageConfig.getUploadDir()).toAbsolutePath().normalize());
+    }
+
+    /**
+     * Everything the range path needs to answer a request without touching the disk
+     */
+    public record MediaEntry(Path path, long size, long lastModified, String contentType, String etag,
+            long verifiedAt) {
+    }
+
+    /**
+     * Entry for an absolute, normalized path, or {@code null} when it is not a regular file.
+     * Misses and stale entries are filled with a single stat.
+     */
+    public MediaEntry lookup(Path filePath) {
+        MediaEntry entry = entries.get(filePath);
+        if (entry != null && System.currentTimeMillis() - entry.verifiedAt()
+                < streamingConfig.getCatalogMaxStaleness().toMillis()) {
+            return entry;
+        }
+        return refresh(filePath);
+    }
+
+    /**
+     * Re-read a file's metadata, e.g. right after it was imported or uploaded.
+     * Cached segments of the previous version are dropped when the file changed.
+     */
+    public MediaEntry refresh(Path filePath) {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(filePath, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            remove(filePath);
+            return null;
+        } catch (IOException e) {
+            logger.warn("Could not read attributes of {}: {}", filePath, e.getMessage());
+            return null;
+        }
+        if (!attributes.isRegularFile()) {
+            remove(filePath);
+            return null;
+        }
+
+        MediaEntry previous = entries.get(filePath);
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        String etag = EntityTags.forFile(attributes);
+        boolean unchanged = previous != null && previous.etag().equals(etag);
+        String contentType = unchanged ? previous.contentType() : probeContentType(filePath);
+
+        MediaEntry entry = new MediaEntry(filePath, attributes.size(), lastModified, contentType, etag,
+                System.currentTimeMillis());
+        entries.put(filePath, entry);
+        if (previous != null && !unchanged) {
+            segmentCache.invalidate(filePath);
+        }
+        return entry;
+    }
+
+    /**
+     * Forget a file and everything below it when it is a directory
+     */
+    public void remove(Path path) {
+        entries.keySet().removeIf(candidate -> {
+            if (candidate.startsWith(path)) {
+                segmentCache.invalidate(candidate);
+                return true;
+            }
+            return false;
+        });
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        Thread.ofPlatform().name("media-catalog").daemon().start(() -> {
+            try {
+                if (streamingConfig.isCatalogWatchEnabled()) {
+                    watchService = FileSystems.getDefault().newWatchService();
+                }
+            } catch (IOException | UnsupportedOperationException e) {
+                logger.warn("File watching unavailable, relying on re-validation: {}", e.getMessage());
+            }
+
+            long started = System.currentTimeMillis();
+            for (Path root : roots) {
+                if (Files.isDirectory(root)) {
+                    scan(root);
+                }
+            }
+            logger.info("Media catalog indexed {} files in {} ms", entries.size(),
+                    System.currentTimeMillis() - started);
+
+            if (watchService != null) {
+                watch();
+            }
+        });
+    }
+
+    @PreDestroy
+    public void stop() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+
+    // Walk a tree, registering every directory with the watcher and indexing media files
+    private void scan(Path directory) {
+        try {
+            Files.walkFileTree(directory, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    if (dir.getFileName() != null && dir.getFileName().toString().startsWith(".")) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    register(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile() && isMedia(file)) {
+                        entries.put(file, new MediaEntry(file, attrs.size(), attrs.lastModifiedTime().toMillis(),
+                                probeContentType(file), EntityTags.forFile(attrs), System.currentTimeMillis()));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    logger.debug("Skipping {}: {}", file, e.getMessage());
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            logger.warn("Failed to index {}: {}", directory, e.getMessage());
+        }
+    }
+
+    private void register(Path directory) {
+        if (watchService == null) {
+            return;
+        }
+        try {
+            WatchKey key = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            watchedDirectories.put(key, directory);
+        } catch (IOException e) {
+            logger.debug("Cannot watch {}: {}", directory, e.getMessage());
+        }
+    }
+
+    private void watch() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            Path directory = watchedDirectories.get(key);
+            if (directory != null) {
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        // Events were dropped: re-index the whole directory
+                        scan(directory);
+                        continue;
+                    }
+                    Path changed = directory.resolve((Path) event.context());
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                        remove(changed);
+                    } else if (Files.isDirectory(changed)) {
+                        if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                            scan(changed);
+                        }
+                    } else if (isMedia(changed) || entries.containsKey(changed)) {
+                        refresh(changed);
+                    }
+                }
+            }
+            if (!key.reset()) {
+                watchedDirectories.remove(key);
+            }
+        }
+    }
+
+    private static boolean isMedia(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 && MEDIA_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    private static String probeContentType(Path file) {
+        try {
+            return Files.probeContentType(file);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
@@ -1,16 +1,22 @@
 package com.rexxy.stream.service;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 @Service
 public class MediaMetadataService {
 
+    private static final Logger logger = LoggerFactory.getLogger(MediaMetadataService.class);
+
     /**
      * Extracts the duration of a video file using ffprobe.
      * 
@@ -18,29 +24,74 @@ public class MediaMetadataService {
      * @return Duration in seconds (as a double), or 0 if extraction fails
      */
     public double getDuration(Path path) {
+        String value = probe(path, "format=duration");
         try {
-            ProcessBuilder processBuilder = new ProcessBuilder(
-                    "ffprobe",
-                    "-v", "error",
-                    "-show_entries", "format=duration",
-                    "-of", "default=noprint_wrappers=1:nokey=1",
-                    path.toAbsolutePath().toString());
+            return value != null ? Double.parseDouble(value) : 0;
+        } catch (NumberFormatException e) {
+            logger.warn("Failed to extract duration for {}: {}", path, e.getMessage());
+            return 0;
+        }
+    }
 
-            Process process = processBuilder.start();
+    /**
+     * Extracts the height in pixels of the first video stream using ffprobe.
+     *
+     * @param path Path to the video file
+     * @return Height in pixels, or 0 if extraction fails
+     */
+    public int getVideoHeight(Path path) {
+        return probeInt(path, "stream=height");
+    }
+
+    /**
+     * Extracts the width in pixels of the first video stream using ffprobe.
+     *
+     * @param path Path to the video file
+     * @return Width in pixels, or 0 if extraction fails
+     */
+    public int getVideoWidth(Path path) {
+        return probeInt(path, "stream=width");
+    }
+
+    private int probeInt(Path path, String entry) {
+        String value = probe(path, entry);
+        try {
+            return value != null ? Integer.parseInt(value) : 0;
+        } catch (NumberFormatException e) {
+            logger.warn("Failed to extract {} for {}: {}", entry, path, e.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * Runs ffprobe for a single entry, e.g. "format=duration" or "stream=height" (of the
+     * first video stream), and returns its value, or null if ffprobe fails or prints nothing
+     */
+    private String probe(Path path, String entry) {
+        List<String> command = new ArrayList<>(List.of("ffprobe", "-v", "error"));
+        if (entry.startsWith("stream=")) {
+            command.addAll(List.of("-select_streams", "v:0"));
+        }
+        command.addAll(List.of(
+                "-show_entries", entry,
+                "-of", "default=noprint_wrappers=1:nokey=1",
+                path.toAbsolutePath().toString()));
+        try {
+            Process process = new ProcessBuilder(command).start();
 
             // Read output
             try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
                 String line = reader.readLine();
                 if (line != null) {
                     process.waitFor(5, TimeUnit.SECONDS);
-                    return Double.parseDouble(line.trim());
+                    return line.trim();
                 }
             }
 
-        } catch (IOException | InterruptedException | NumberFormatException e) {
-            System.err.println("Failed to extract duration for " + path + ": " + e.getMessage());
+        } catch (IOException | InterruptedException e) {
+            logger.warn("Failed to extract {} for {}: {}", entry, path, e.getMessage());
         }
-        return 0;
+        return null;
     }
 
     /**
@@ -0,0 +1,248 @@
+package com.rexxy.stream.service;
+
+import com.rexxy.stream.config.MediaStreamingConfig;
+import com.rexxy.stream.service.ByteRangeParser.ByteRange;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Service;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.Principal;
+import java.util.List;
+
+/**
+ * Serves byte windows of media files. Only the sendfile path is zero-copy: when Tomcat
+ * offers sendfile the window is handed to the connector, which has the kernel copy it
+ * from the page cache to the socket. Without it (sendfile disabled, another container,
+ * multipart ranges) FileChannel.transferTo writes into a channel wrapping the servlet
+ * output stream, and the JDK copies through a heap buffer as an ordinary stream copy would.
+ * Small windows over hot chunks are answered from the off-heap VideoSegmentCache.
+ */
+@Service
+public class MediaRangeService {
+
+    // Request attributes understood by Tomcat's NIO connector
+    static final String SENDFILE_SUPPORT_ATTR = "org.apache.tomcat.sendfile.support";
+    static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
+    private final MediaStreamingConfig streamingConfig;
+    private final VideoSegmentCache segmentCache;
+    private final AdaptiveChunkSizer chunkSizer;
+
+    public MediaRangeService(MediaStreamingConfig streamingConfig, VideoSegmentCache segmentCache,
+            AdaptiveChunkSizer chunkSizer) {
+        this.streamingConfig = streamingConfig;
+        this.segmentCache = segmentCache;
+        this.chunkSizer = chunkSizer;
+    }
+
+    /**
+     * Write the whole file, or the window selected by the Range header, to the response.
+     * Answers 304/412 for matching conditional requests and drops the Range when an
+     * If-Range validator no longer matches.
+     *
+     * @param entry        Catalog entry of the file to serve (already validated by the caller)
+     * @param contentType  Content type to advertise
+     * @param cacheControl Freshness policy for this kind of resource
+     * @param rangeHeader  Raw Range header, may be null
+     */
+    public void serve(MediaCatalog.MediaEntry entry, String contentType, CacheControl cacheControl,
+            String rangeHeader, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Path filePath = entry.path();
+        long fileSize = entry.size();
+        long lastModified = entry.lastModified();
+        String etag = entry.etag();
+        String filename = filePath.getFileName().toString();
+
+        response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl.getHeaderValue());
+        if (new ServletWebRequest(request, response).checkNotModified(etag, lastModified)) {
+            // 304 or 412, validators already set
+            return;
+        }
+
+        response.setContentType(contentType);
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + filename + "\"");
+
+        if (rangeHeader != null && !ifRangeMatches(request, etag, lastModified)) {
+            // The client's partial copy is stale: send the full representation
+            rangeHeader = null;
+        }
+
+        // If no range header, return the entire file
+        if (rangeHeader == null || fileSize == 0) {
+            response.setStatus(HttpServletResponse.SC_OK);
+            transfer(filePath, fileSize, lastModified, 0, fileSize - 1, request, response);
+            return;
+        }
+
+        String client = clientKey(request);
+        List<ByteRange> ranges = ByteRangeParser.parse(rangeHeader, fileSize,
+                start -> chunkSizer.openEndedWindow(client, filePath, start));
+
+        if (ranges == null) {
+            // Malformed or non-byte ranges are ignored as RFC 7233 requires
+            response.setStatus(HttpServletResponse.SC_OK);
+            transfer(filePath, fileSize, lastModified, 0, fileSize - 1, request, response);
+            return;
+        }
+
+        if (ranges.isEmpty()) {
+            response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + fileSize);
+            response.setContentLength(0);
+            return;
+        }
+
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        if (ranges.size() == 1) {
+            ByteRange range = ranges.get(0);
+            response.setHeader(HttpHeaders.CONTENT_RANGE,
+                    "bytes " + range.start() + "-" + range.end() + "/" + fileSize);
+            long started = System.nanoTime();
+            boolean timed = transfer(filePath, fileSize, lastModified, range.start(), range.end(), request, response);
+            chunkSizer.recordTransfer(client, filePath, fileSize, range.start(), range.length(),
+                    timed ? System.nanoTime() - started : -1);
+        } else {
+            transferMultipart(filePath, contentType, fileSize, ranges, response);
+        }
+    }
+
+    /**
+     * Players behind one NAT or proxy share an address, so the signed-in user, or else the
+     * user agent, tells them apart for chunk sizing
+     */
+    static String clientKey(HttpServletRequest request) {
+        Principal user = request.getUserPrincipal();
+        String id = user != null ? user.getName() : request.getHeader(HttpHeaders.USER_AGENT);
+        return id != null ? request.getRemoteAddr() + " " + id : request.getRemoteAddr();
+    }
+
+    private boolean ifRangeMatches(HttpServletRequest request, String etag, long lastModified) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return EntityTags.strongMatch(ifRange, etag);
+        }
+        try {
+            return request.getDateHeader(HttpHeaders.IF_RANGE) / 1000 == lastModified / 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Write bytes [start, end] (inclusive) of the file to the response body, from the
+     * segment cache when the window is hot, through sendfile when the connector offers it
+     * and with a buffered copy otherwise.
+     *
+     * @return whether the body was written on this thread, so the time spent measures the
+     *         client's throughput; false for sendfile, which the connector writes later
+     */
+    private boolean transfer(Path filePath, long fileSize, long lastModified, long start, long end,
+            HttpServletRequest request, HttpServletResponse response) throws IOException {
+        long length = Math.max(0, end - start + 1);
+        response.setContentLengthLong(length);
+        if (length == 0) {
+            return false;
+        }
+
+        List<ByteBuffer> cached = segmentCache.lookup(filePath, fileSize, lastModified, start, end);
+        if (cached != null) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            for (ByteBuffer view : cached) {
+                while (view.hasRemaining()) {
+                    out.write(view);
+                }
+            }
+            return true;
+        }
+
+        if (streamingConfig.isSendfileEnabled()
+                && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTR))) {
+            // Tomcat picks these up when the response is committed; its end offset is exclusive
+            request.setAttribute(SENDFILE_FILENAME_ATTR, filePath.toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START_ATTR, start);
+            request.setAttribute(SENDFILE_END_ATTR, end + 1);
+            return false;
+        }
+
+        // Not zero-copy: the servlet stream is not a file-descriptor channel, so transferTo
+        // falls back to reading into a heap buffer and writing it to the stream
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = start;
+            long remaining = length;
+            while (remaining > 0) {
+                long sent = channel.transferTo(position, remaining, out);
+                if (sent <= 0) {
+                    // File shrank underneath us; the client will see a short body
+                    break;
+                }
+                position += sent;
+                remaining -= sent;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stream several windows as a multipart/byteranges body. Part headers are
+     * precomputed so the exact Content-Length is known before the first byte is sent.
+     */
+    private void transferMultipart(Path filePath, String contentType, long fileSize, List<ByteRange> ranges,
+            HttpServletResponse response) throws IOException {
+        String boundary = MimeTypeUtils.generateMultipartBoundaryString();
+        byte[][] partHeaders = new byte[ranges.size()][];
+        long contentLength = 0;
+        for (int i = 0; i < ranges.size(); i++) {
+            ByteRange range = ranges.get(i);
+            partHeaders[i] = ("\r\n--" + boundary + "\r\n"
+                    + HttpHeaders.CONTENT_TYPE + ": " + contentType + "\r\n"
+                    + HttpHeaders.CONTENT_RANGE + ": bytes " + range.start() + "-" + range.end() + "/" + fileSize
+                    + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+            contentLength += partHeaders[i].length + range.length();
+        }
+        byte[] closing = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        contentLength += closing.length;
+
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+        response.setContentLengthLong(contentLength);
+
+        OutputStream out = response.getOutputStream();
+        WritableByteChannel channelOut = Channels.newChannel(out);
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            for (int i = 0; i < ranges.size(); i++) {
+                out.write(partHeaders[i]);
+                ByteRange range = ranges.get(i);
+                long position = range.start();
+                long remaining = range.length();
+                while (remaining > 0) {
+                    long sent = channel.transferTo(position, remaining, channelOut);
+                    if (sent <= 0) {
+                        return;
+                    }
+                    position += sent;
+                    remaining -= sent;
+                }
+            }
+            out.write(closing);
+        }
+    }
+}
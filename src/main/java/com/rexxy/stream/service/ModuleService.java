@@ -6,7 +6,6 @@ import com.rexxy.stream.model.Course;
 import com.rexxy.stream.model.Module;
 import com.rexxy.stream.repository.CourseRepository;
 import com.rexxy.stream.repository.ModuleRepository;
-import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.stereotype.Service;
 
 import java.util.Comparator;
@@ -17,10 +16,13 @@ import java.util.stream.Collectors;
 public class ModuleService {
     private final ModuleRepository moduleRepository;
     private final CourseRepository courseRepository;
+    private final CourseCacheInvalidator cacheInvalidator;
 
-    public ModuleService(ModuleRepository moduleRepository, CourseRepository courseRepository) {
+    public ModuleService(ModuleRepository moduleRepository, CourseRepository courseRepository,
+            CourseCacheInvalidator cacheInvalidator) {
         this.moduleRepository = moduleRepository;
         this.courseRepository = courseRepository;
+        this.cacheInvalidator = cacheInvalidator;
     }
 
     public List<ModuleDTO> getAllModules() {
@@ -49,7 +51,6 @@ public class ModuleService {
                 .collect(Collectors.toList());
     }
 
-    @CacheEvict(value = "courseHierarchy", allEntries = true)
     public ModuleDTO createModule(ModuleDTO moduleDTO) {
         Course course = courseRepository.findById(moduleDTO.getCourseId())
                 .orElseThrow(() -> new ResourceNotFoundException("Course", "id", moduleDTO.getCourseId()));
@@ -61,13 +62,14 @@ public class ModuleService {
         module.setOrderIndex(moduleDTO.getOrderIndex());
 
         Module savedModule = moduleRepository.save(module);
+        cacheInvalidator.evictCourse(course.getId());
         return convertToDTO(savedModule);
     }
 
-    @CacheEvict(value = "courseHierarchy", allEntries = true)
     public ModuleDTO updateModule(String id, ModuleDTO moduleDTO) {
         Module module = moduleRepository.findById(id)
                 .orElseThrow(() -> new ResourceNotFoundException("Module", "id", id));
+        String previousCourseId = module.getCourse().getId();
 
         if (moduleDTO.getCourseId() != module.getCourse().getId()) {
             Course course = courseRepository.findById(moduleDTO.getCourseId())
@@ -80,14 +82,15 @@ public class ModuleService {
         module.setOrderIndex(moduleDTO.getOrderIndex());
 
         Module updatedModule = moduleRepository.save(module);
+        cacheInvalidator.evictCourses(List.of(previousCourseId, updatedModule.getCourse().getId()));
         return convertToDTO(updatedModule);
     }
 
-    @CacheEvict(value = "courseHierarchy", allEntries = true)
     public void deleteModule(String id) {
         Module module = moduleRepository.findById(id)
                 .orElseThrow(() -> new ResourceNotFoundException("Module", "id", id));
         moduleRepository.delete(module);
+        cacheInvalidator.evictCourse(module.getCourse().getId());
     }
 
     private ModuleDTO convertToDTO(Module module) {
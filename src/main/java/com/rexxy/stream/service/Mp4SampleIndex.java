@@ -0,0 +1,538 @@
+package com.rexxy.stream.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Sample tables of a progressive MP4 file, flattened into arrays, plus the boxes needed to
+ * build a fragmented-MP4 init segment and keyframe-aligned segment boundaries.
+ *
+ * Only the moov box is read; sample data stays on disk and is addressed by offset. The
+ * first video track and the first audio track are kept, other tracks are ignored.
+ */
+public final class Mp4SampleIndex {
+
+    // Moov boxes larger than this are rejected instead of being read into memory
+    private static final long MAX_MOOV_SIZE = 64L * 1024 * 1024;
+
+    private final List<Track> tracks;
+    private final byte[] mvhd;
+    private final int[][] segmentStarts;
+    private final int segmentCount;
+
+    /**
+     * One track's samples: decode times have one extra trailing element holding the end
+     * of the last sample, so durations are {@code dts[i + 1] - dts[i]}
+     */
+    public record Track(int trackId, String handler, long timescale, List<byte[]> initBoxes, byte[] tkhd,
+            byte[] edts, long[] offsets, int[] sizes, long[] dts, int[] compositionOffsets, BitSet syncSamples) {
+
+        public int sampleCount() {
+            return sizes.length;
+        }
+
+        public boolean isSync(int sample) {
+            return syncSamples == null || syncSamples.get(sample);
+        }
+    }
+
+    private Mp4SampleIndex(List<Track> tracks, byte[] mvhd, long segmentDurationMillis) {
+        this.tracks = tracks;
+        this.mvhd = mvhd;
+        this.segmentStarts = computeSegments(tracks, segmentDurationMillis);
+        this.segmentCount = segmentStarts[0].length - 1;
+    }
+
+    public List<Track> tracks() {
+        return tracks;
+    }
+
+    public byte[] mvhd() {
+        return mvhd;
+    }
+
+    public int segmentCount() {
+        return segmentCount;
+    }
+
+    /**
+     * First sample of a segment in the given track; {@code segment == segmentCount()} gives
+     * the end of the last segment
+     */
+    public int segmentStart(int track, int segment) {
+        return segmentStarts[track][segment];
+    }
+
+    /**
+     * Duration of a segment in seconds, measured on the primary (video if present) track
+     */
+    public double segmentDuration(int segment) {
+        Track primary = tracks.get(0);
+        long start = primary.dts()[segmentStarts[0][segment]];
+        long end = primary.dts()[segmentStarts[0][segment + 1]];
+        return (end - start) / (double) primary.timescale();
+    }
+
+    /**
+     * Rough heap footprint, used to weigh cache entries
+     */
+    public long estimatedBytes() {
+        long bytes = 256;
+        for (Track track : tracks) {
+            bytes += track.sampleCount() * 24L;
+        }
+        return bytes;
+    }
+
+    /**
+     * Read and flatten the sample tables of an MP4 file
+     *
+     * @throws IOException when the file is not a progressive MP4 we can segment
+     */
+    public static Mp4SampleIndex parse(FileChannel channel, long segmentDurationMillis) throws IOException {
+        ByteBuffer moov = readMoov(channel);
+        try {
+            return parseMoov(moov, channel.size(), segmentDurationMillis);
+        } catch (IndexOutOfBoundsException e) {
+            // A box shorter than its fields; the table counts are checked before this can happen
+            throw new IOException("Corrupt moov box", e);
+        }
+    }
+
+    private static Mp4SampleIndex parseMoov(ByteBuffer moov, long fileSize, long segmentDurationMillis)
+            throws IOException {
+        byte[] mvhd = null;
+        Track video = null;
+        Track audio = null;
+        for (int p = moov.position(); p < moov.limit(); p = next(moov, p)) {
+            String type = type(moov, p);
+            if ("mvhd".equals(type)) {
+                mvhd = raw(moov, p);
+            } else if ("mvex".equals(type)) {
+                throw new IOException("Fragmented MP4 input is not supported");
+            } else if ("trak".equals(type)) {
+                Track track = parseTrack(moov, p, fileSize);
+                if (track == null) {
+                    continue;
+                }
+                if (video == null && "vide".equals(track.handler())) {
+                    video = track;
+                } else if (audio == null && "soun".equals(track.handler())) {
+                    audio = track;
+                }
+            }
+        }
+        if (mvhd == null || (video == null && audio == null)) {
+            throw new IOException("No playable audio or video track");
+        }
+
+        List<Track> tracks = new ArrayList<>(2);
+        if (video != null) {
+            tracks.add(video);
+        }
+        if (audio != null) {
+            tracks.add(audio);
+        }
+        return new Mp4SampleIndex(List.copyOf(tracks), mvhd, segmentDurationMillis);
+    }
+
+    // Locate the top-level moov box and read it into memory
+    private static ByteBuffer readMoov(FileChannel channel) throws IOException {
+        long size = channel.size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(16);
+        while (position + 8 <= size) {
+            header.clear();
+            header.limit((int) Math.min(16, size - position));
+            readFully(channel, header, position);
+            header.flip();
+            long boxSize = header.getInt() & 0xFFFFFFFFL;
+            String type = new String(header.array(), 4, 4, StandardCharsets.ISO_8859_1);
+            int headerSize = 8;
+            if (boxSize == 1) {
+                if (header.limit() < 16) {
+                    throw new IOException("Truncated box header at offset " + position);
+                }
+                boxSize = header.getLong(8);
+                headerSize = 16;
+            } else if (boxSize == 0) {
+                boxSize = size - position;
+            }
+            if (boxSize < headerSize) {
+                throw new IOException("Corrupt box header at offset " + position);
+            }
+            if ("moov".equals(type)) {
+                if (boxSize > MAX_MOOV_SIZE || position + boxSize > size) {
+                    throw new IOException("Unsupported moov size " + boxSize);
+                }
+                ByteBuffer moov = ByteBuffer.allocate((int) (boxSize - headerSize));
+                readFully(channel, moov, position + headerSize);
+                moov.flip();
+                return moov;
+            }
+            position += boxSize;
+        }
+        throw new IOException("No moov box found");
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+    }
+
+    private static Track parseTrack(ByteBuffer buf, int trak, long fileSize) throws IOException {
+        byte[] tkhd = null;
+        byte[] edts = null;
+        int mdia = -1;
+        for (int p = body(buf, trak); p < end(buf, trak); p = next(buf, p)) {
+            switch (type(buf, p)) {
+                case "tkhd" -> tkhd = raw(buf, p);
+                case "edts" -> edts = raw(buf, p);
+                case "mdia" -> mdia = p;
+                default -> {
+                }
+            }
+        }
+        if (tkhd == null || mdia < 0) {
+            return null;
+        }
+        int tkhdVersion = tkhd[8];
+        int trackId = ByteBuffer.wrap(tkhd).getInt(tkhdVersion == 1 ? 28 : 20);
+
+        long timescale = 0;
+        String handler = null;
+        byte[] mdhd = null;
+        byte[] hdlr = null;
+        int minf = -1;
+        for (int p = body(buf, mdia); p < end(buf, mdia); p = next(buf, p)) {
+            switch (type(buf, p)) {
+                case "mdhd" -> {
+                    mdhd = raw(buf, p);
+                    int b = body(buf, p);
+                    timescale = buf.getInt(b + (buf.get(b) == 1 ? 20 : 12)) & 0xFFFFFFFFL;
+                }
+                case "hdlr" -> {
+                    hdlr = raw(buf, p);
+                    handler = fourCc(buf, body(buf, p) + 8);
+                }
+                case "minf" -> minf = p;
+                default -> {
+                }
+            }
+        }
+        if (!"vide".equals(handler) && !"soun".equals(handler)) {
+            return null;
+        }
+        if (timescale == 0 || minf < 0) {
+            throw new IOException("Incomplete " + handler + " track " + trackId);
+        }
+
+        byte[] mediaHeader = null;
+        byte[] dinf = null;
+        int stbl = -1;
+        for (int p = body(buf, minf); p < end(buf, minf); p = next(buf, p)) {
+            switch (type(buf, p)) {
+                case "vmhd", "smhd" -> mediaHeader = raw(buf, p);
+                case "dinf" -> dinf = raw(buf, p);
+                case "stbl" -> stbl = p;
+                default -> {
+                }
+            }
+        }
+        if (stbl < 0 || mediaHeader == null) {
+            throw new IOException("Missing sample table in track " + trackId);
+        }
+
+        int stsd = -1, stts = -1, ctts = -1, stss = -1, stsz = -1, stz2 = -1, stsc = -1, stco = -1, co64 = -1;
+        for (int p = body(buf, stbl); p < end(buf, stbl); p = next(buf, p)) {
+            switch (type(buf, p)) {
+                case "stsd" -> stsd = p;
+                case "stts" -> stts = p;
+                case "ctts" -> ctts = p;
+                case "stss" -> stss = p;
+                case "stsz" -> stsz = p;
+                case "stz2" -> stz2 = p;
+                case "stsc" -> stsc = p;
+                case "stco" -> stco = p;
+                case "co64" -> co64 = p;
+                default -> {
+                }
+            }
+        }
+        if (stsd < 0 || stts < 0 || stsc < 0 || (stsz < 0 && stz2 < 0) || (stco < 0 && co64 < 0)) {
+            throw new IOException("Incomplete sample table in track " + trackId);
+        }
+
+        int[] sizes = stsz >= 0 ? readStsz(buf, stsz, fileSize) : readStz2(buf, stz2);
+        long[] offsets = readOffsets(buf, stsc, stco >= 0 ? stco : co64, co64 >= 0, sizes);
+        long[] dts = readDecodeTimes(buf, stts, sizes.length);
+        int[] compositionOffsets = ctts >= 0 ? readCompositionOffsets(buf, ctts, sizes.length) : null;
+        BitSet sync = stss >= 0 ? readSyncSamples(buf, stss, sizes.length) : null;
+
+        List<byte[]> initBoxes = List.of(mdhd, hdlr, mediaHeader, dinf != null ? dinf : new byte[0], raw(buf, stsd));
+        return new Track(trackId, handler, timescale, initBoxes, tkhd, edts, offsets, sizes, dts,
+                compositionOffsets, sync);
+    }
+
+    private static int[] readStsz(ByteBuffer buf, int box, long fileSize) throws IOException {
+        int b = body(buf, box);
+        int sampleSize = buf.getInt(b + 4);
+        int count;
+        if (sampleSize != 0) {
+            // No table to measure the count against: every sample has to fit the file, and
+            // there may be no more than a table within the moov size limit could list
+            count = buf.getInt(b + 8);
+            if (count < 0 || count > MAX_MOOV_SIZE / 4 || (long) count * (sampleSize & 0xFFFFFFFFL) > fileSize) {
+                throw new IOException("Corrupt stsz box: " + count + " samples of " + sampleSize + " bytes");
+            }
+        } else {
+            count = entryCount(buf, box, 8, 4);
+        }
+        int[] sizes = new int[count];
+        if (sampleSize != 0) {
+            Arrays.fill(sizes, sampleSize);
+        } else {
+            for (int i = 0; i < count; i++) {
+                sizes[i] = buf.getInt(b + 12 + i * 4);
+            }
+        }
+        return sizes;
+    }
+
+    private static int[] readStz2(ByteBuffer buf, int box) throws IOException {
+        int b = body(buf, box);
+        int fieldSize = buf.get(b + 7) & 0xFF;
+        if (fieldSize != 4 && fieldSize != 8 && fieldSize != 16) {
+            throw new IOException("Invalid stz2 field size " + fieldSize);
+        }
+        int count = buf.getInt(b + 8);
+        if (count < 0 || ((long) count * fieldSize + 7) / 8 > end(buf, box) - (b + 12)) {
+            throw new IOException("Corrupt stz2 box: " + count + " entries");
+        }
+        int[] sizes = new int[count];
+        for (int i = 0; i < count; i++) {
+            sizes[i] = switch (fieldSize) {
+                case 4 -> {
+                    int packed = buf.get(b + 12 + i / 2) & 0xFF;
+                    yield (i % 2 == 0) ? packed >>> 4 : packed & 0x0F;
+                }
+                case 8 -> buf.get(b + 12 + i) & 0xFF;
+                case 16 -> buf.getShort(b + 12 + i * 2) & 0xFFFF;
+                default -> throw new IOException("Invalid stz2 field size " + fieldSize);
+            };
+        }
+        return sizes;
+    }
+
+    // Expand stsc runs over the chunk offsets into one file offset per sample
+    private static long[] readOffsets(ByteBuffer buf, int stsc, int chunkBox, boolean wide, int[] sizes)
+            throws IOException {
+        int cb = body(buf, chunkBox);
+        int chunkCount = entryCount(buf, chunkBox, 4, wide ? 8 : 4);
+        int sb = body(buf, stsc);
+        int entryCount = entryCount(buf, stsc, 4, 12);
+
+        long[] offsets = new long[sizes.length];
+        int sample = 0;
+        for (int e = 0; e < entryCount && sample < sizes.length; e++) {
+            int firstChunk = buf.getInt(sb + 8 + e * 12);
+            int samplesPerChunk = buf.getInt(sb + 12 + e * 12);
+            int lastChunk = e + 1 < entryCount ? buf.getInt(sb + 8 + (e + 1) * 12) - 1 : chunkCount;
+            for (int chunk = firstChunk; chunk <= lastChunk && sample < sizes.length; chunk++) {
+                if (chunk < 1 || chunk > chunkCount) {
+                    throw new IOException("stsc refers to missing chunk " + chunk);
+                }
+                long offset = wide
+                        ? buf.getLong(cb + 8 + (chunk - 1) * 8)
+                        : buf.getInt(cb + 8 + (chunk - 1) * 4) & 0xFFFFFFFFL;
+                for (int k = 0; k < samplesPerChunk && sample < sizes.length; k++) {
+                    offsets[sample] = offset;
+                    offset += sizes[sample];
+                    sample++;
+                }
+            }
+        }
+        if (sample != sizes.length) {
+            throw new IOException("Chunk table covers " + sample + " of " + sizes.length + " samples");
+        }
+        return offsets;
+    }
+
+    private static long[] readDecodeTimes(ByteBuffer buf, int box, int sampleCount) throws IOException {
+        int b = body(buf, box);
+        int entryCount = entryCount(buf, box, 4, 8);
+        long[] dts = new long[sampleCount + 1];
+        int sample = 0;
+        long time = 0;
+        long lastDelta = 0;
+        for (int e = 0; e < entryCount && sample < sampleCount; e++) {
+            int count = buf.getInt(b + 8 + e * 8);
+            lastDelta = buf.getInt(b + 12 + e * 8) & 0xFFFFFFFFL;
+            for (int k = 0; k < count && sample < sampleCount; k++) {
+                dts[sample++] = time;
+                time += lastDelta;
+            }
+        }
+        while (sample < sampleCount) {
+            dts[sample++] = time;
+            time += lastDelta;
+        }
+        dts[sampleCount] = time;
+        return dts;
+    }
+
+    private static int[] readCompositionOffsets(ByteBuffer buf, int box, int sampleCount) throws IOException {
+        int b = body(buf, box);
+        int entryCount = entryCount(buf, box, 4, 8);
+        int[] offsets = new int[sampleCount];
+        int sample = 0;
+        for (int e = 0; e < entryCount && sample < sampleCount; e++) {
+            int count = buf.getInt(b + 8 + e * 8);
+            // Version 0 is unsigned, version 1 signed; both fit an int in practice
+            int offset = buf.getInt(b + 12 + e * 8);
+            for (int k = 0; k < count && sample < sampleCount; k++) {
+                offsets[sample++] = offset;
+            }
+        }
+        return offsets;
+    }
+
+    private static BitSet readSyncSamples(ByteBuffer buf, int box, int sampleCount) throws IOException {
+        int b = body(buf, box);
+        int entryCount = entryCount(buf, box, 4, 4);
+        BitSet sync = new BitSet(sampleCount);
+        for (int e = 0; e < entryCount; e++) {
+            int number = buf.getInt(b + 8 + e * 4);
+            if (number >= 1 && number <= sampleCount) {
+                sync.set(number - 1);
+            }
+        }
+        return sync;
+    }
+
+    /**
+     * Cut the primary track at the first sync sample after every target duration, then
+     * give each other track the samples whose decode time falls into the same window.
+     */
+    private static int[][] computeSegments(List<Track> tracks, long segmentDurationMillis) {
+        Track primary = tracks.get(0);
+        long target = Math.max(1, segmentDurationMillis * primary.timescale() / 1000);
+
+        int[] starts = new int[primary.sampleCount() + 1];
+        int count = 0;
+        if (primary.sampleCount() > 0) {
+            starts[count++] = 0;
+            long segmentStartTime = primary.dts()[0];
+            for (int i = 1; i < primary.sampleCount(); i++) {
+                if (primary.isSync(i) && primary.dts()[i] - segmentStartTime >= target) {
+                    starts[count++] = i;
+                    segmentStartTime = primary.dts()[i];
+                }
+            }
+        }
+        starts[count] = primary.sampleCount();
+
+        int[][] segments = new int[tracks.size()][];
+        segments[0] = Arrays.copyOf(starts, count + 1);
+        for (int t = 1; t < tracks.size(); t++) {
+            Track track = tracks.get(t);
+            int[] trackStarts = new int[count + 1];
+            for (int s = 1; s < count; s++) {
+                // Same instant expressed in this track's timescale
+                long boundary = primary.dts()[starts[s]] * track.timescale() / primary.timescale();
+                trackStarts[s] = firstSampleAtOrAfter(track.dts(), track.sampleCount(), boundary);
+            }
+            trackStarts[count] = track.sampleCount();
+            segments[t] = trackStarts;
+        }
+        return segments;
+    }
+
+    private static int firstSampleAtOrAfter(long[] dts, int sampleCount, long time) {
+        int low = 0;
+        int high = sampleCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (dts[mid] < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // Box helpers over absolute positions in the moov buffer
+
+    private static long size(ByteBuffer buf, int p) {
+        long size = buf.getInt(p) & 0xFFFFFFFFL;
+        if (size == 1) {
+            return buf.getLong(p + 8);
+        }
+        return size == 0 ? buf.limit() - p : size;
+    }
+
+    private static int headerSize(ByteBuffer buf, int p) {
+        return (buf.getInt(p) & 0xFFFFFFFFL) == 1 ? 16 : 8;
+    }
+
+    /**
+     * Entry count stored at {@code countOffset} of a box body, checked against the bytes
+     * left in the box for {@code entrySize}-byte entries, so a truncated or hostile file
+     * cannot ask for a huge table
+     */
+    private static int entryCount(ByteBuffer buf, int box, int countOffset, int entrySize) throws IOException {
+        int tableStart = body(buf, box) + countOffset + 4;
+        int boxEnd = end(buf, box);
+        if (tableStart > boxEnd) {
+            throw new IOException("Truncated " + type(buf, box) + " box");
+        }
+        int count = buf.getInt(tableStart - 4);
+        if (count < 0 || count > (boxEnd - tableStart) / entrySize) {
+            throw new IOException("Corrupt " + type(buf, box) + " box: " + count + " entries");
+        }
+        return count;
+    }
+
+    private static int body(ByteBuffer buf, int p) {
+        return p + headerSize(buf, p);
+    }
+
+    private static int end(ByteBuffer buf, int p) {
+        return (int) Math.min(buf.limit(), p + size(buf, p));
+    }
+
+    private static int next(ByteBuffer buf, int p) {
+        long size = size(buf, p);
+        if (size < 8 || p + size > buf.limit()) {
+            // Truncated or corrupt child: stop iterating this level
+            return buf.limit();
+        }
+        return (int) (p + size);
+    }
+
+    private static String type(ByteBuffer buf, int p) {
+        return fourCc(buf, p + 4);
+    }
+
+    private static String fourCc(ByteBuffer buf, int p) {
+        byte[] bytes = new byte[4];
+        buf.get(p, bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] raw(ByteBuffer buf, int p) {
+        byte[] bytes = new byte[end(buf, p) - p];
+        buf.get(p, bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,296 @@
+package com.rexxy.stream.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Incremental multipart/form-data reader.
+ *
+ * Parts are handed out one at a time and each part body is an InputStream that ends at the
+ * next boundary, so a file part can be consumed while the request is still arriving. Only a
+ * single fixed-size buffer is used regardless of the request size.
+ */
+public class MultipartStream {
+
+    private static final int MAX_HEADER_BYTES = 16 * 1024;
+
+    private final InputStream in;
+    private final byte[] delimiter;
+    private final byte[] buf;
+    private int head;
+    private int tail;
+    private boolean eof;
+    private boolean started;
+    private boolean finished;
+    private PartBody current;
+
+    /**
+     * A part of the form; {@code filename} is null for plain fields
+     */
+    public record Part(String name, String filename, String contentType, InputStream body) {
+    }
+
+    public MultipartStream(InputStream in, String boundary, int bufferSize) {
+        this.in = in;
+        this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+        this.buf = new byte[Math.max(bufferSize, delimiter.length * 4)];
+        // The first boundary has no leading CRLF; pretend it does so every delimiter looks alike
+        buf[0] = '\r';
+        buf[1] = '\n';
+        tail = 2;
+    }
+
+    /**
+     * Extract the boundary parameter from a multipart Content-Type header
+     */
+    public static String boundary(String contentType) {
+        if (contentType == null || !contentType.toLowerCase(Locale.ROOT).startsWith("multipart/")) {
+            throw new IllegalArgumentException("Expected a multipart request");
+        }
+        for (String param : contentType.split(";")) {
+            String trimmed = param.trim();
+            if (trimmed.regionMatches(true, 0, "boundary=", 0, 9)) {
+                String value = unquote(trimmed.substring(9));
+                if (!value.isEmpty() && value.length() <= 70) {
+                    return value;
+                }
+            }
+        }
+        throw new IllegalArgumentException("Multipart request has no boundary");
+    }
+
+    /**
+     * Advance to the next part, skipping whatever is left of the current one.
+     *
+     * @return the next part, or null after the closing boundary
+     */
+    public Part nextPart() throws IOException {
+        if (finished) {
+            return null;
+        }
+        // Skip the preamble on the first call, or the unread rest of the previous part
+        if (!started) {
+            current = new PartBody();
+            started = true;
+        }
+        current.skipToEnd();
+
+        if (!ensure(2)) {
+            throw new IOException("Unexpected end of multipart body");
+        }
+        if (buf[head] == '-' && buf[head + 1] == '-') {
+            finished = true;
+            return null;
+        }
+        String line = readLine();
+        if (!line.isBlank()) {
+            throw new IOException("Malformed multipart boundary");
+        }
+
+        String name = null;
+        String filename = null;
+        String contentType = null;
+        int headerBytes = 0;
+        for (String header = readLine(); !header.isEmpty(); header = readLine()) {
+            headerBytes += header.length();
+            if (headerBytes > MAX_HEADER_BYTES) {
+                throw new IOException("Multipart part headers too large");
+            }
+            int colon = header.indexOf(':');
+            if (colon < 0) {
+                continue;
+            }
+            String key = header.substring(0, colon).trim();
+            String value = header.substring(colon + 1).trim();
+            if (key.equalsIgnoreCase("Content-Disposition")) {
+                name = parameter(value, "name");
+                filename = parameter(value, "filename");
+            } else if (key.equalsIgnoreCase("Content-Type")) {
+                contentType = value;
+            }
+        }
+        current = new PartBody();
+        return new Part(name, filename, contentType, current);
+    }
+
+    private String readLine() throws IOException {
+        int from = head;
+        while (true) {
+            for (int i = from; i + 1 < tail; i++) {
+                if (buf[i] == '\r' && buf[i + 1] == '\n') {
+                    String line = new String(buf, head, i - head, StandardCharsets.UTF_8);
+                    head = i + 2;
+                    return line;
+                }
+            }
+            if (tail - head >= MAX_HEADER_BYTES || tail - head >= buf.length - 1) {
+                throw new IOException("Multipart header line too long");
+            }
+            from = Math.max(head, tail - 1);
+            int shift = head;
+            if (fill() < 0) {
+                throw new IOException("Unexpected end of multipart body");
+            }
+            from -= shift;
+        }
+    }
+
+    /**
+     * Make sure at least {@code n} unread bytes are buffered, unless the input ends first
+     */
+    private boolean ensure(int n) throws IOException {
+        while (tail - head < n) {
+            if (fill() < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compact the unread bytes to the front of the buffer and read once more.
+     *
+     * @return bytes read, or -1 at end of input
+     */
+    private int fill() throws IOException {
+        if (head > 0) {
+            System.arraycopy(buf, head, buf, 0, tail - head);
+            if (current != null) {
+                current.shift(head);
+            }
+            tail -= head;
+            head = 0;
+        }
+        if (eof || tail == buf.length) {
+            return eof ? -1 : 0;
+        }
+        int n = in.read(buf, tail, buf.length - tail);
+        if (n < 0) {
+            eof = true;
+            return -1;
+        }
+        tail += n;
+        return n;
+    }
+
+    private int indexOfDelimiter(int from) {
+        int last = tail - delimiter.length;
+        outer:
+        for (int i = from; i <= last; i++) {
+            if (buf[i] != '\r') {
+                continue;
+            }
+            for (int j = 1; j < delimiter.length; j++) {
+                if (buf[i + j] != delimiter[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static String parameter(String header, String name) {
+        for (String param : header.split(";")) {
+            String trimmed = param.trim();
+            int eq = trimmed.indexOf('=');
+            if (eq > 0 && trimmed.substring(0, eq).trim().equalsIgnoreCase(name)) {
+                return unquote(trimmed.substring(eq + 1).trim());
+            }
+        }
+        return null;
+    }
+
+    private static String unquote(String value) {
+        if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+            return value.substring(1, value.length() - 1);
+        }
+        return value;
+    }
+
+    /**
+     * Body of the current part; reads stop at the delimiter, which is consumed at the end
+     */
+    private final class PartBody extends InputStream {
+        // Buffer positions already known to be body bytes, and of the delimiter once found
+        private int safeEnd = -1;
+        private int delimiterAt = -1;
+        private boolean done;
+
+        void shift(int by) {
+            if (safeEnd >= 0) {
+                safeEnd -= by;
+            }
+            if (delimiterAt >= 0) {
+                delimiterAt -= by;
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (done) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+            while (true) {
+                int available = available0();
+                if (available > 0) {
+                    int n = Math.min(len, available);
+                    System.arraycopy(buf, head, b, off, n);
+                    head += n;
+                    return n;
+                }
+                if (delimiterAt == head) {
+                    head += delimiter.length;
+                    done = true;
+                    return -1;
+                }
+                if (fill() < 0 && tail - head < delimiter.length) {
+                    throw new IOException("Unexpected end of multipart body");
+                }
+            }
+        }
+
+        /**
+         * Body bytes that can be handed out from the buffer without crossing the delimiter
+         */
+        private int available0() {
+            if (delimiterAt >= 0) {
+                return delimiterAt - head;
+            }
+            if (safeEnd > head) {
+                return safeEnd - head;
+            }
+            int found = indexOfDelimiter(Math.max(head, safeEnd));
+            if (found >= 0) {
+                delimiterAt = found;
+                return found - head;
+            }
+            // The tail could hold the start of a delimiter that is still arriving
+            safeEnd = Math.max(head, tail - delimiter.length + 1);
+            return safeEnd - head;
+        }
+
+        @Override
+        public int available() {
+            return done ? 0 : Math.max(0, available0());
+        }
+
+        void skipToEnd() throws IOException {
+            byte[] scratch = new byte[8192];
+            while (read(scratch, 0, scratch.length) >= 0) {
+                // discard
+            }
+        }
+    }
+}
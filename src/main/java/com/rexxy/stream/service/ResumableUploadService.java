@@ -0,0 +1,514 @@
+package com.rexxy.stream.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rexxy.stream.config.FileStorageConfig;
+import com.rexxy.stream.config.UploadConfig;
+import com.rexxy.stream.dto.UploadSessionRequest;
+import com.rexxy.stream.dto.UploadSessionResponse;
+import com.rexxy.stream.dto.VideoUploadResponse;
+import com.rexxy.stream.exception.ConflictException;
+import com.rexxy.stream.exception.ResourceNotFoundException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resumable, chunked uploads in the style of S3 multipart.
+ *
+ * A session preallocates a single .part file of the final size. Every chunk PUT claims its
+ * index and streams the body straight to its offset in the .part file while hashing it, so
+ * chunks can arrive in any order and in parallel. The chunk only counts as received once
+ * its length and checksum match; re-sends of received chunks are checked and discarded, so
+ * a bad retry can never overwrite bytes already received. Received chunks are tracked in a
+ * small sidecar file so an upload survives a server restart.
+ *
+ * The whole-file SHA-256 is advanced over the contiguous run of received chunks as it grows,
+ * while those bytes are still in the page cache, so completing an upload that arrived in
+ * order hashes almost nothing. Completing closes the session to further chunks and
+ * publishes the file to the content-addressed blob store with a rename, or drops it if the
+ * same video is already stored. Sessions expire after {@code expiry} without an accepted
+ * chunk.
+ */
+@Service
+public class ResumableUploadService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ResumableUploadService.class);
+
+    private static final String INCOMING_DIR = ".incoming";
+    private static final int COPY_BUFFER_SIZE = 256 * 1024;
+
+    private final UploadConfig uploadConfig;
+    private final BlobStoreService blobStoreService;
+    private final ObjectMapper objectMapper;
+    private final Path uploadRoot;
+    private final Path incomingDir;
+    private final Map<String, UploadSession> sessions = new ConcurrentHashMap<>();
+
+    public ResumableUploadService(UploadConfig uploadConfig,
+            FileStorageConfig fileStorageConfig,
+            BlobStoreService blobStoreService,
+            ObjectMapper objectMapper) {
+        this.uploadConfig = uploadConfig;
+        this.blobStoreService = blobStoreService;
+        this.objectMapper = objectMapper;
+        this.uploadRoot = Paths.get(fileStorageConfig.getUploadDir()).toAbsolutePath().normalize();
+        this.incomingDir = uploadRoot.resolve(INCOMING_DIR);
+    }
+
+    /**
+     * Persisted form of a session; {@code received} is the BitSet of stored chunks
+     */
+    record SessionState(String uploadId, String filename, String contentType, long size, long chunkSize,
+            long createdAt, long lastActivityAt, long[] received) {
+
+        // Sidecars written before activity was tracked only have the creation time
+        long lastActive() {
+            return Math.max(createdAt, lastActivityAt);
+        }
+    }
+
+    // Mutable fields are guarded by the session's monitor, except the hash state
+    private static final class UploadSession {
+        final SessionState state;
+        final BitSet received;
+        // Chunks whose body is being written right now
+        final BitSet writing = new BitSet();
+        long lastActivityAt;
+        // Set once completion, abort or expiry starts; no chunk is written after that
+        boolean closed;
+        // Chunks [0, receivedPrefix) are all received
+        volatile int receivedPrefix;
+
+        // Whole-file hash over chunks [0, hashedChunks), guarded by hashLock; never taken
+        // before the session's monitor, which complete() holds while it waits for it
+        final Object hashLock = new Object();
+        final MessageDigest digest = sha256();
+        int hashedChunks;
+
+        UploadSession(SessionState state) {
+            this.state = state;
+            this.received = BitSet.valueOf(state.received() != null ? state.received() : new long[0]);
+            this.lastActivityAt = state.lastActive();
+            this.receivedPrefix = received.nextClearBit(0);
+        }
+
+        int chunkCount() {
+            return (int) ((state.size() + state.chunkSize() - 1) / state.chunkSize());
+        }
+
+        long chunkLength(int index) {
+            return Math.min(state.chunkSize(), state.size() - (long) index * state.chunkSize());
+        }
+    }
+
+    public UploadSessionResponse create(UploadSessionRequest request) throws IOException {
+        String filename = request.getFilename();
+        if (filename == null || filename.isBlank() || filename.lastIndexOf('.') < 0) {
+            throw new IllegalArgumentException("File must have a name with an extension");
+        }
+        if (request.getContentType() == null || !request.getContentType().startsWith("video/")) {
+            throw new IllegalArgumentException("Only video files are allowed");
+        }
+        if (request.getSize() <= 0 || request.getSize() > uploadConfig.getMaxUploadSize()) {
+            throw new IllegalArgumentException("Upload size must be between 1 and " + uploadConfig.getMaxUploadSize());
+        }
+
+        long chunkSize = request.getChunkSize() != null ? request.getChunkSize() : uploadConfig.getDefaultChunkSize();
+        chunkSize = Math.max(uploadConfig.getMinChunkSize(), Math.min(uploadConfig.getMaxChunkSize(), chunkSize));
+        if ((request.getSize() + chunkSize - 1) / chunkSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many chunks for this upload size");
+        }
+
+        purgeExpired();
+        Files.createDirectories(incomingDir);
+
+        String uploadId = UUID.randomUUID().toString();
+        try (RandomAccessFile part = new RandomAccessFile(partFile(uploadId).toFile(), "rw")) {
+            // Sparse on most file systems: reserves the final size without writing zeros
+            part.setLength(request.getSize());
+        }
+
+        long now = System.currentTimeMillis();
+        UploadSession session = new UploadSession(new SessionState(uploadId, filename, request.getContentType(),
+                request.getSize(), chunkSize, now, now, new long[0]));
+        persist(session);
+        sessions.put(uploadId, session);
+        return status(session);
+    }
+
+    /**
+     * The stored video when the request announces the SHA-256 of content that is already
+     * stored, in which case no session is needed
+     */
+    public VideoUploadResponse findExisting(UploadSessionRequest request) {
+        return blobStoreService.find(request.getSha256());
+    }
+
+    public UploadSessionResponse status(String uploadId) throws IOException {
+        return status(session(uploadId));
+    }
+
+    /**
+     * Store one chunk at its offset. The body must have the chunk's exact length and match
+     * the SHA-256 announced by the client, otherwise the chunk stays missing. A chunk that was
+     * already received is only checked against its checksum and discarded, so a retry can
+     * never overwrite good bytes.
+     *
+     * @param sha256Hex     Hex SHA-256 of the chunk body
+     * @param contentLength Declared body length, or -1 if unknown
+     * @throws ConflictException if the chunk is already being uploaded, or the upload is being
+     *                           completed or was aborted
+     */
+    public UploadSessionResponse putChunk(String uploadId, int index, String sha256Hex, long contentLength,
+            InputStream body) throws IOException {
+        UploadSession session = session(uploadId);
+        if (index < 0 || index >= session.chunkCount()) {
+            throw new IllegalArgumentException("Chunk index out of range: " + index);
+        }
+        byte[] expectedDigest = parseDigest(sha256Hex);
+        long length = session.chunkLength(index);
+        if (contentLength >= 0 && contentLength != length) {
+            throw new IllegalArgumentException("Chunk " + index + " must be " + length + " bytes");
+        }
+
+        boolean resend;
+        synchronized (session) {
+            if (session.closed) {
+                throw new ConflictException("Upload " + uploadId + " is being completed or was aborted");
+            }
+            resend = session.received.get(index);
+            if (!resend) {
+                if (session.writing.get(index)) {
+                    throw new ConflictException("Chunk " + index + " is already being uploaded");
+                }
+                session.writing.set(index);
+            }
+        }
+
+        if (resend) {
+            // The stored bytes stay; the body is only read to check it
+            byte[] actual = receive(body, index, length, null, 0);
+            if (!MessageDigest.isEqual(actual, expectedDigest)) {
+                throw new IllegalArgumentException("Checksum mismatch for chunk " + index);
+            }
+            synchronized (session) {
+                if (session.closed) {
+                    throw new ConflictException("Upload " + uploadId + " is being completed or was aborted");
+                }
+            }
+            return status(session);
+        }
+
+        try {
+            // Written straight to its offset outside the lock, so chunks still upload in parallel;
+            // the bytes only count once the checksum matched
+            try (FileChannel part = FileChannel.open(partFile(uploadId), StandardOpenOption.WRITE)) {
+                byte[] actual = receive(body, index, length, part, (long) index * session.state.chunkSize());
+                if (!MessageDigest.isEqual(actual, expectedDigest)) {
+                    throw new IllegalArgumentException("Checksum mismatch for chunk " + index);
+                }
+                // The sidecar must never claim bytes that are not on disk yet
+                part.force(false);
+            }
+            synchronized (session) {
+                if (session.closed) {
+                    throw new ConflictException("Upload " + uploadId + " is being completed or was aborted");
+                }
+                session.received.set(index);
+                session.receivedPrefix = session.received.nextClearBit(session.receivedPrefix);
+                session.lastActivityAt = System.currentTimeMillis();
+                persist(session);
+            }
+        } finally {
+            synchronized (session) {
+                session.writing.clear(index);
+            }
+        }
+        advanceHash(session);
+        return status(session);
+    }
+
+    /**
+     * Move the assembled file into the upload directory and hand it to the catalog and
+     * the transcoder
+     *
+     * @throws ConflictException if chunks are still missing
+     */
+    public VideoUploadResponse complete(String uploadId) throws IOException {
+        UploadSession session = session(uploadId);
+        synchronized (session) {
+            if (session.closed) {
+                throw new ConflictException("Upload " + uploadId + " is being completed or was aborted");
+            }
+            int missing = session.chunkCount() - session.received.cardinality();
+            if (missing > 0) {
+                throw new ConflictException(missing + " chunks are still missing");
+            }
+            session.closed = true;
+
+            VideoUploadResponse response;
+            try {
+                String sha256 = finishHash(session);
+                String originalFilename = session.state.filename();
+                response = blobStoreService.store(partFile(uploadId), sha256,
+                        originalFilename.substring(originalFilename.lastIndexOf('.') + 1), session.state.size());
+            } catch (IOException | RuntimeException e) {
+                // Nothing was published, so the client may retry
+                session.closed = false;
+                throw e;
+            }
+            Files.deleteIfExists(stateFile(uploadId));
+            sessions.remove(uploadId);
+
+            logger.info("Completed resumable upload {} as {} ({} bytes)", uploadId, response.getFilename(),
+                    session.state.size());
+            return response;
+        }
+    }
+
+    public void abort(String uploadId) throws IOException {
+        UploadSession session = session(uploadId);
+        synchronized (session) {
+            session.closed = true;
+            sessions.remove(uploadId);
+            Files.deleteIfExists(partFile(uploadId));
+            Files.deleteIfExists(stateFile(uploadId));
+        }
+    }
+
+    /**
+     * Delete sessions that received no chunk for longer than the configured expiry
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void purgeExpired() {
+        if (!Files.isDirectory(incomingDir)) {
+            return;
+        }
+        long cutoff = System.currentTimeMillis() - uploadConfig.getExpiry().toMillis();
+        try (DirectoryStream<Path> states = Files.newDirectoryStream(incomingDir, "*.json")) {
+            for (Path stateFile : states) {
+                SessionState state;
+                try {
+                    state = objectMapper.readValue(stateFile.toFile(), SessionState.class);
+                } catch (IOException e) {
+                    // E.g. truncated by a crash; the session cannot be resumed without it
+                    logger.warn("Dropping unreadable upload state {}: {}", stateFile, e.getMessage());
+                    String name = stateFile.getFileName().toString();
+                    Files.deleteIfExists(partFile(name.substring(0, name.length() - ".json".length())));
+                    Files.deleteIfExists(stateFile);
+                    continue;
+                }
+                if (state.lastActive() >= cutoff) {
+                    continue;
+                }
+                UploadSession live = sessions.get(state.uploadId());
+                if (live == null) {
+                    deleteExpired(state);
+                    continue;
+                }
+                synchronized (live) {
+                    // The sidecar may predate a chunk that is being accepted right now
+                    if (!live.closed && live.lastActivityAt < cutoff) {
+                        live.closed = true;
+                        deleteExpired(state);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to purge expired uploads: {}", e.getMessage());
+        }
+    }
+
+    private void deleteExpired(SessionState state) throws IOException {
+        logger.info("Deleting expired upload {} ({})", state.uploadId(), state.filename());
+        sessions.remove(state.uploadId());
+        Files.deleteIfExists(partFile(state.uploadId()));
+        Files.deleteIfExists(stateFile(state.uploadId()));
+    }
+
+    private UploadSession session(String uploadId) throws IOException {
+        try {
+            UUID.fromString(uploadId);
+        } catch (IllegalArgumentException e) {
+            throw new ResourceNotFoundException("Upload", "id", uploadId);
+        }
+        UploadSession session = sessions.get(uploadId);
+        if (session != null) {
+            return session;
+        }
+        // Not in memory, e.g. after a restart: reload from the sidecar
+        Path stateFile = stateFile(uploadId);
+        if (!Files.isRegularFile(stateFile) || !Files.isRegularFile(partFile(uploadId))) {
+            throw new ResourceNotFoundException("Upload", "id", uploadId);
+        }
+        UploadSession loaded = new UploadSession(objectMapper.readValue(stateFile.toFile(), SessionState.class));
+        UploadSession existing = sessions.putIfAbsent(uploadId, loaded);
+        return existing != null ? existing : loaded;
+    }
+
+    private void persist(UploadSession session) throws IOException {
+        SessionState state = session.state;
+        SessionState snapshot = new SessionState(state.uploadId(), state.filename(), state.contentType(),
+                state.size(), state.chunkSize(), state.createdAt(), session.lastActivityAt,
+                session.received.toLongArray());
+        Path tmp = incomingDir.resolve(state.uploadId() + ".json.tmp");
+        objectMapper.writeValue(tmp.toFile(), snapshot);
+        Files.move(tmp, stateFile(state.uploadId()), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private UploadSessionResponse status(UploadSession session) {
+        List<Integer> missing = new ArrayList<>();
+        long bytesReceived = 0;
+        synchronized (session) {
+            for (int i = 0; i < session.chunkCount(); i++) {
+                if (session.received.get(i)) {
+                    bytesReceived += session.chunkLength(i);
+                } else {
+                    missing.add(i);
+                }
+            }
+        }
+        SessionState state = session.state;
+        return new UploadSessionResponse(state.uploadId(), state.filename(), state.size(), state.chunkSize(),
+                session.chunkCount(), bytesReceived, missing);
+    }
+
+    private Path partFile(String uploadId) {
+        return incomingDir.resolve(uploadId + ".part");
+    }
+
+    private Path stateFile(String uploadId) {
+        return incomingDir.resolve(uploadId + ".json");
+    }
+
+    private static byte[] parseDigest(String sha256Hex) {
+        if (sha256Hex == null || sha256Hex.length() != 64) {
+            throw new IllegalArgumentException("A hex SHA-256 of the chunk is required");
+        }
+        try {
+            return HexFormat.of().parseHex(sha256Hex);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("A hex SHA-256 of the chunk is required");
+        }
+    }
+
+    /**
+     * Read exactly {@code length} bytes of a chunk body, writing them to {@code part} at
+     * {@code offset} unless it is null, and return their SHA-256
+     */
+    private static byte[] receive(InputStream body, int index, long length, FileChannel part, long offset)
+            throws IOException {
+        MessageDigest digest = sha256();
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        long received = 0;
+        while (received < length) {
+            int read = body.read(buffer, 0, (int) Math.min(buffer.length, length - received));
+            if (read < 0) {
+                throw new IllegalArgumentException("Chunk " + index + " ended after " + received + " bytes");
+            }
+            digest.update(buffer, 0, read);
+            if (part != null) {
+                ByteBuffer slice = ByteBuffer.wrap(buffer, 0, read);
+                long position = offset + received;
+                while (slice.hasRemaining()) {
+                    position += part.write(slice, position);
+                }
+            }
+            received += read;
+        }
+        if (body.read() >= 0) {
+            throw new IllegalArgumentException("Chunk " + index + " is longer than " + length + " bytes");
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Feed the chunks received since the last call, up to the first gap, into the whole-file hash
+     */
+    private void advanceHash(UploadSession session) {
+        synchronized (session.hashLock) {
+            try {
+                hashUpTo(session, session.receivedPrefix);
+            } catch (IOException e) {
+                // Picked up again by the next chunk or by complete()
+                logger.debug("Could not hash upload {} ahead: {}", session.state.uploadId(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * The whole-file hash, reading only what was not hashed while chunks arrived. Resets the
+     * hash, so a retried completion starts over.
+     */
+    private String finishHash(UploadSession session) throws IOException {
+        synchronized (session.hashLock) {
+            try {
+                hashUpTo(session, session.chunkCount());
+                return HexFormat.of().formatHex(session.digest.digest());
+            } finally {
+                session.digest.reset();
+                session.hashedChunks = 0;
+            }
+        }
+    }
+
+    // Caller holds session.hashLock
+    private void hashUpTo(UploadSession session, int chunks) throws IOException {
+        if (chunks <= session.hashedChunks) {
+            return;
+        }
+        long position = (long) session.hashedChunks * session.state.chunkSize();
+        long end = Math.min(session.state.size(), (long) chunks * session.state.chunkSize());
+        ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+        try (FileChannel part = FileChannel.open(partFile(session.state.uploadId()), StandardOpenOption.READ)) {
+            while (position < end) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+                int read = part.read(buffer, position);
+                if (read < 0) {
+                    throw new IOException("Upload file is shorter than expected");
+                }
+                buffer.flip();
+                session.digest.update(buffer);
+                position += read;
+            }
+        } catch (IOException e) {
+            // A partial update would corrupt the hash; start over next time
+            session.digest.reset();
+            session.hashedChunks = 0;
+            throw e;
+        }
+        session.hashedChunks = chunks;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
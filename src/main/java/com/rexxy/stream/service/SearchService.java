@@ -12,33 +12,40 @@ import com.rexxy.stream.repository.ModuleRepository;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 @Service
 public class SearchService {
 
+    private static final int MAX_TRANSCRIPT_RESULTS = 50;
+
     private final CourseRepository courseRepository;
     private final ModuleRepository moduleRepository;
     private final LessonGroupRepository lessonGroupRepository;
     private final LessonRepository lessonRepository;
+    private final CueIndexService cueIndexService;
 
     public SearchService(CourseRepository courseRepository,
             ModuleRepository moduleRepository,
             LessonGroupRepository lessonGroupRepository,
-            LessonRepository lessonRepository) {
+            LessonRepository lessonRepository,
+            CueIndexService cueIndexService) {
         this.courseRepository = courseRepository;
         this.moduleRepository = moduleRepository;
         this.lessonGroupRepository = lessonGroupRepository;
         this.lessonRepository = lessonRepository;
+        this.cueIndexService = cueIndexService;
     }
 
     /**
-     * Search across courses, modules, and lessons
+     * Search across courses, modules, lessons, and the words spoken in lessons
      */
     public SearchResultDTO search(String query) {
         if (query == null || query.trim().isEmpty()) {
-            return new SearchResultDTO(List.of(), List.of(), List.of(), 0);
+            return new SearchResultDTO(List.of(), List.of(), List.of(), List.of(), 0);
         }
 
         String searchTerm = query.trim().toLowerCase();
@@ -62,8 +69,30 @@ public class SearchService {
                 .map(this::toLessonResult)
                 .collect(Collectors.toList());
 
-        int total = courseResults.size() + moduleResults.size() + lessonResults.size();
-        return new SearchResultDTO(courseResults, moduleResults, lessonResults, total);
+        // Search subtitles
+        List<SearchResultDTO.TranscriptResult> transcriptResults = searchTranscripts(query);
+
+        int total = courseResults.size() + moduleResults.size() + lessonResults.size() + transcriptResults.size();
+        return new SearchResultDTO(courseResults, moduleResults, lessonResults, transcriptResults, total);
+    }
+
+    private List<SearchResultDTO.TranscriptResult> searchTranscripts(String query) {
+        List<CueIndexService.Hit> hits = cueIndexService.search(query, MAX_TRANSCRIPT_RESULTS);
+        if (hits.isEmpty()) {
+            return List.of();
+        }
+        Map<String, Lesson> lessons = lessonRepository.findAllById(
+                hits.stream().map(CueIndexService.Hit::lessonId).distinct().toList()).stream()
+                .collect(Collectors.toMap(Lesson::getId, Function.identity()));
+        return hits.stream()
+                .filter(hit -> lessons.containsKey(hit.lessonId()))
+                .map(hit -> new SearchResultDTO.TranscriptResult(
+                        hit.lessonId(),
+                        lessons.get(hit.lessonId()).getTitle(),
+                        hit.start() / 1000.0,
+                        hit.end() / 1000.0,
+                        hit.text()))
+                .collect(Collectors.toList());
     }
 
     private boolean matchesCourse(Course course, Pattern pattern) {
@@ -38,9 +38,13 @@ public class StreamingService {
                 this.lessonRepository = lessonRepository;
         }
 
+        /**
+         * Shared with every caller through the cache; the list and its courses are read-only
+         */
         @Cacheable(value = "courses")
         public List<CourseDTO> getAllCourses() {
-                return courseRepository.findAll()
+                // Not Stream.toList(): an empty list goes to Redis as JSON, which cannot read that type back
+                return Collections.unmodifiableList(courseRepository.findAll()
                                 .stream()
                                 .map(course -> new CourseDTO(
                                                 course.getId(),
@@ -49,10 +53,13 @@ public class StreamingService {
                                                 course.getCategory(),
                                                 course.getThumbnail(),
                                                 course.getCreateDate().toString(),
-                                                new java.util.ArrayList<>(course.getTags())))
-                                .collect(Collectors.toList());
+                                                course.getTags().stream().toList()))
+                                .collect(Collectors.toList()));
         }
 
+        /**
+         * Shared with every caller through the cache; the hierarchy is read-only
+         */
         @Cacheable(value = "courseHierarchyV2", key = "#courseId")
         @Transactional(readOnly = true)
         public CourseHierarchyDTO getCourseHierarchy(String courseId) {
@@ -66,7 +73,7 @@ public class StreamingService {
                 dto.setCategory(course.getCategory());
                 dto.setThumbnail(course.getThumbnail());
                 dto.setCreatedAt(course.getCreateDate().toString());
-                dto.setTags(new java.util.ArrayList<>(course.getTags()));
+                dto.setTags(course.getTags().stream().toList());
 
                 // Query modules by courseId
                 List<Module> modules = moduleRepository.findByCourseId(courseId);
@@ -123,12 +130,12 @@ public class StreamingService {
                                                                                                 Comparator.nullsLast(
                                                                                                                 Comparator.naturalOrder())))
                                                                                 .map(this::convertLessonToHierarchy)
-                                                                                .collect(Collectors.toList());
+                                                                                .toList();
 
                                                                 groupDTO.setLessons(lessonDTOs);
                                                                 return groupDTO;
                                                         })
-                                                        .collect(Collectors.toList());
+                                                        .toList();
 
                                         moduleDTO.setLessonGroups(groupDTOs);
 
@@ -139,7 +146,7 @@ public class StreamingService {
                                         moduleDTO.setDuration(sumDurations(groupDurations));
                                         return moduleDTO;
                                 })
-                                .collect(Collectors.toList());
+                                .toList();
 
                 // Calculate course duration
                 List<String> moduleDurations = moduleDTOs.stream()
@@ -0,0 +1,218 @@
+package com.rexxy.stream.service;
+
+import com.rexxy.stream.config.UploadConfig;
+import com.rexxy.stream.dto.VideoUploadResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Single-request video upload that never stages the body in the servlet container.
+ *
+ * The multipart request is parsed as it arrives; the file part is hashed, its container
+ * format is sniffed from the first bytes, and it is written through a pooled direct buffer
+ * into a staging file next to the upload directory, which is then renamed to its content
+ * hash. The container's temp files and the second copy done by {@code MultipartFile} are
+ * skipped entirely, and content the client announces by hash is not transferred twice.
+ */
+@Service
+public class StreamingUploadService {
+
+    private static final Logger logger = LoggerFactory.getLogger(StreamingUploadService.class);
+
+    private static final String FILE_PART = "file";
+    private static final int SNIFF_BYTES = 512;
+    private static final int MAX_POOLED_BUFFERS = 16;
+
+    private final UploadConfig uploadConfig;
+    private final BlobStoreService blobStoreService;
+    private final BlockingQueue<ByteBuffer> bufferPool = new ArrayBlockingQueue<>(MAX_POOLED_BUFFERS);
+
+    public StreamingUploadService(UploadConfig uploadConfig, BlobStoreService blobStoreService) {
+        this.uploadConfig = uploadConfig;
+        this.blobStoreService = blobStoreService;
+    }
+
+    /**
+     * Container formats recognised from their leading bytes
+     */
+    enum VideoFormat {
+        MP4("mp4"),
+        QUICKTIME("mov"),
+        MATROSKA("mkv"),
+        WEBM("webm"),
+        AVI("avi"),
+        MPEG_TS("ts");
+
+        final String extension;
+
+        VideoFormat(String extension) {
+            this.extension = extension;
+        }
+    }
+
+    /**
+     * Result of an upload; {@code duplicate} is set when the content was already stored
+     */
+    public record StreamedUpload(VideoUploadResponse response, String sha256, boolean duplicate) {
+    }
+
+    /**
+     * Read a multipart/form-data body and store its "file" part.
+     *
+     * @param expectedSha256 optional hash announced by the client; if that content is already
+     *                       stored the body is not read at all, otherwise it must match
+     */
+    public StreamedUpload ingest(String requestContentType, InputStream body, String expectedSha256)
+            throws IOException {
+        VideoUploadResponse existing = blobStoreService.find(expectedSha256);
+        if (existing != null) {
+            return new StreamedUpload(existing, expectedSha256.toLowerCase(Locale.ROOT), true);
+        }
+        MultipartStream multipart = new MultipartStream(body, MultipartStream.boundary(requestContentType),
+                uploadConfig.getStreamBufferSize());
+        StreamedUpload stored = null;
+        for (MultipartStream.Part part = multipart.nextPart(); part != null; part = multipart.nextPart()) {
+            if (stored == null && FILE_PART.equals(part.name()) && part.filename() != null) {
+                stored = store(part, expectedSha256);
+            }
+        }
+        if (stored == null) {
+            throw new IllegalArgumentException("Request has no file part named '" + FILE_PART + "'");
+        }
+        return stored;
+    }
+
+    private StreamedUpload store(MultipartStream.Part part, String expectedSha256) throws IOException {
+        if (part.filename().isBlank()) {
+            throw new IllegalArgumentException("File must have a name");
+        }
+        byte[] head = part.body().readNBytes(SNIFF_BYTES);
+        if (head.length == 0) {
+            throw new IllegalArgumentException("Cannot upload empty file");
+        }
+        VideoFormat format = sniff(head);
+        if (format == null) {
+            throw new IllegalArgumentException("Only video files are allowed");
+        }
+
+        Path staged = blobStoreService.newStagingFile();
+        MessageDigest digest = sha256();
+        ByteBuffer direct = acquireBuffer();
+        byte[] heap = new byte[direct.capacity()];
+        long size = 0;
+        boolean stored = false;
+        try (FileChannel channel = FileChannel.open(staged, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE)) {
+            byte[] chunk = head;
+            int n = head.length;
+            while (n >= 0) {
+                size += n;
+                if (size > uploadConfig.getMaxUploadSize()) {
+                    throw new IllegalArgumentException("File exceeds the maximum upload size");
+                }
+                digest.update(chunk, 0, n);
+                for (int off = 0; off < n; ) {
+                    int count = Math.min(n - off, direct.remaining());
+                    direct.put(chunk, off, count);
+                    off += count;
+                    if (!direct.hasRemaining()) {
+                        drain(direct, channel);
+                    }
+                }
+                chunk = heap;
+                n = part.body().read(heap, 0, heap.length);
+            }
+            drain(direct, channel);
+            stored = true;
+        } finally {
+            releaseBuffer(direct);
+            if (!stored) {
+                Files.deleteIfExists(staged);
+            }
+        }
+
+        String sha256 = HexFormat.of().formatHex(digest.digest());
+        if (expectedSha256 != null && !expectedSha256.equalsIgnoreCase(sha256)) {
+            Files.deleteIfExists(staged);
+            throw new IllegalArgumentException("Checksum mismatch for uploaded file");
+        }
+        VideoUploadResponse response = blobStoreService.store(staged, sha256, format.extension, size);
+        logger.info("Stored streamed upload {} as {} ({} bytes)", part.filename(), response.getFilename(), size);
+        return new StreamedUpload(response, sha256, false);
+    }
+
+    /**
+     * Identify the container from its magic bytes; null when it is not a known video format
+     */
+    static VideoFormat sniff(byte[] head) {
+        if (head.length >= 12 && matches(head, 4, "ftyp")) {
+            return matches(head, 8, "qt  ") ? VideoFormat.QUICKTIME : VideoFormat.MP4;
+        }
+        if (head.length >= 4 && (head[0] & 0xFF) == 0x1A && (head[1] & 0xFF) == 0x45
+                && (head[2] & 0xFF) == 0xDF && (head[3] & 0xFF) == 0xA3) {
+            String ebmlHeader = new String(head, StandardCharsets.ISO_8859_1);
+            return ebmlHeader.contains("webm") ? VideoFormat.WEBM : VideoFormat.MATROSKA;
+        }
+        if (head.length >= 12 && matches(head, 0, "RIFF") && matches(head, 8, "AVI ")) {
+            return VideoFormat.AVI;
+        }
+        // Transport streams repeat a 0x47 sync byte every 188 bytes
+        if (head.length > 376 && head[0] == 0x47 && head[188] == 0x47 && head[376] == 0x47) {
+            return VideoFormat.MPEG_TS;
+        }
+        return null;
+    }
+
+    private static boolean matches(byte[] bytes, int offset, String ascii) {
+        for (int i = 0; i < ascii.length(); i++) {
+            if (bytes[offset + i] != (byte) ascii.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void drain(ByteBuffer buffer, FileChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private ByteBuffer acquireBuffer() {
+        ByteBuffer buffer = bufferPool.poll();
+        if (buffer == null || buffer.capacity() != uploadConfig.getStreamBufferSize()) {
+            buffer = ByteBuffer.allocateDirect(uploadConfig.getStreamBufferSize());
+        }
+        return buffer.clear();
+    }
+
+    private void releaseBuffer(ByteBuffer buffer) {
+        bufferPool.offer(buffer.clear());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
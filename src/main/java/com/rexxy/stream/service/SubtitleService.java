@@ -0,0 +1,289 @@
+package com.rexxy.stream.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.rexxy.stream.config.FileStorageConfig;
+import com.rexxy.stream.config.MediaStreamingConfig;
+import com.rexxy.stream.exception.ResourceNotFoundException;
+import com.rexxy.stream.model.Lesson;
+import com.rexxy.stream.model.StorageType;
+import com.rexxy.stream.repository.LessonRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Finds and serves the subtitle tracks of local lessons as WebVTT.
+ *
+ * The sidecar files of a lesson ({@code <video>.vtt}, {@code <video>.srt} and language
+ * variants such as {@code <video>.en.srt} or {@code <video>.pt-BR.vtt}) are found with one
+ * scan of the video's directory and remembered per lesson for {@code catalogMaxStaleness}.
+ * SRT files are converted once, line by line, and the VTT bytes are kept together with a
+ * gzipped copy and an ETag in a byte-bounded cache keyed by path and mtime, so repeat
+ * viewers cost one stat and a map lookup.
+ */
+@Service
+public class SubtitleService {
+
+    private static final Pattern SRT_TIMING = Pattern.compile(
+            "(\\d+:\\d{2}:\\d{2})[,.](\\d{1,3})\\s*-->\\s*(\\d+:\\d{2}:\\d{2})[,.](\\d{1,3}).*");
+    private static final Pattern LANGUAGE = Pattern.compile("[A-Za-z]{2,3}(?:[-_][A-Za-z0-9]{2,8})*");
+    private static final int GZIP_MIN_BYTES = 1024;
+
+    private final LessonRepository lessonRepository;
+    private final FileStorageConfig fileStorageConfig;
+    private final MediaStreamingConfig streamingConfig;
+    private final Cache<String, List<SubtitleTrack>> tracks;
+    private final Cache<SubtitleKey, Subtitle> rendered;
+
+    public SubtitleService(LessonRepository lessonRepository, FileStorageConfig fileStorageConfig,
+            MediaStreamingConfig streamingConfig, MeterRegistry meterRegistry) {
+        this.lessonRepository = lessonRepository;
+        this.fileStorageConfig = fileStorageConfig;
+        this.streamingConfig = streamingConfig;
+        this.tracks = Caffeine.newBuilder()
+                .maximumSize(10_000)
+                .expireAfterWrite(streamingConfig.getCatalogMaxStaleness())
+                .build();
+        this.rendered = Caffeine.newBuilder()
+                .maximumWeight(streamingConfig.getSubtitleCacheMaxBytes())
+                .weigher((SubtitleKey key, Subtitle subtitle) -> subtitle.weight())
+                .build();
+        Gauge.builder("subtitle.cache.size", rendered,
+                cache -> cache.policy().eviction().map(e -> e.weightedSize().orElse(0)).orElse(0L))
+                .baseUnit("bytes")
+                .description("Bytes of converted subtitles held in memory")
+                .register(meterRegistry);
+    }
+
+    /**
+     * A sidecar subtitle file; {@code language} is null when the name carries none
+     */
+    public record SubtitleTrack(String language, Path path) {
+        public boolean isVtt() {
+            return path.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".vtt");
+        }
+    }
+
+    /**
+     * A track ready to send: the VTT body, its gzipped form (null when not worth it) and ETag
+     */
+    public record Subtitle(byte[] vtt, byte[] gzip, String etag) {
+        int weight() {
+            return vtt.length + (gzip != null ? gzip.length : 0);
+        }
+    }
+
+    record SubtitleKey(Path path, long lastModified, long size) {
+    }
+
+    /**
+     * Subtitle tracks of a lesson; empty for lessons that are not local files
+     *
+     * @throws ResourceNotFoundException if the lesson does not exist
+     */
+    public List<SubtitleTrack> getTracks(String lessonId) {
+        List<SubtitleTrack> cached = tracks.getIfPresent(lessonId);
+        if (cached != null) {
+            return cached;
+        }
+        Lesson lesson = lessonRepository.findById(lessonId)
+                .orElseThrow(() -> new ResourceNotFoundException("Lesson", "id", lessonId));
+        List<SubtitleTrack> found = lesson.getStorageType() == StorageType.LOCAL && lesson.getResourcePath() != null
+                ? discover(lesson.getResourcePath())
+                : List.of();
+        tracks.put(lessonId, found);
+        return found;
+    }
+
+    /**
+     * The lesson's track for a language, or its default track when {@code language} is null
+     *
+     * @return the converted track, or null when the lesson has no matching subtitles
+     */
+    public Subtitle getSubtitle(String lessonId, String language) throws IOException {
+        SubtitleTrack track = select(getTracks(lessonId), language);
+        if (track == null) {
+            return null;
+        }
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(track.path(), BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            // The sidecar went away since the directory was scanned; look again
+            tracks.invalidate(lessonId);
+            track = select(getTracks(lessonId), language);
+            if (track == null) {
+                return null;
+            }
+            attributes = Files.readAttributes(track.path(), BasicFileAttributes.class);
+        }
+        SubtitleTrack source = track;
+        SubtitleKey key = new SubtitleKey(track.path(), attributes.lastModifiedTime().toMillis(), attributes.size());
+        try {
+            return rendered.get(key, k -> render(source));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Requested language (an exact match, then by primary subtag), then the configured
+     * default language, then an unlabelled track, then any; VTT wins over SRT on a tie
+     */
+    SubtitleTrack select(List<SubtitleTrack> available, String language) {
+        if (available.isEmpty()) {
+            return null;
+        }
+        List<SubtitleTrack> ordered = available.stream()
+                .sorted(Comparator.comparing((SubtitleTrack track) -> !track.isVtt()))
+                .toList();
+        for (String wanted : new String[] { language, streamingConfig.getSubtitleDefaultLanguage() }) {
+            if (wanted == null || wanted.isBlank()) {
+                continue;
+            }
+            String normalized = normalizeLanguage(wanted);
+            String primary = normalized.split("-")[0];
+            SubtitleTrack match = ordered.stream()
+                    .filter(track -> normalized.equals(track.language())).findFirst()
+                    .or(() -> ordered.stream()
+                            .filter(track -> track.language() != null
+                                    && track.language().split("-")[0].equals(primary))
+                            .findFirst())
+                    .orElse(null);
+            if (match != null) {
+                return match;
+            }
+            if (language != null && wanted.equals(language)) {
+                // An explicitly requested language that is missing is not replaced by another one
+                return null;
+            }
+        }
+        return ordered.stream().filter(track -> track.language() == null).findFirst().orElse(ordered.get(0));
+    }
+
+    private List<SubtitleTrack> discover(String resourcePath) {
+        Path libraryRoot = Paths.get(fileStorageConfig.getLocalLibraryRoot());
+        // resourcePath contains forward slashes from import, normalize for OS
+        Path videoPath = libraryRoot.resolve(resourcePath.replace("/", java.io.File.separator));
+        Path directory = videoPath.getParent();
+        if (directory == null || !Files.isDirectory(directory)) {
+            return List.of();
+        }
+        String videoName = videoPath.getFileName().toString();
+        int dot = videoName.lastIndexOf('.');
+        String prefix = (dot > 0 ? videoName.substring(0, dot) : videoName) + ".";
+
+        List<SubtitleTrack> found = new ArrayList<>();
+        try (DirectoryStream<Path> candidates = Files.newDirectoryStream(directory,
+                path -> path.getFileName().toString().startsWith(prefix))) {
+            for (Path candidate : candidates) {
+                String rest = candidate.getFileName().toString().substring(prefix.length());
+                String lower = rest.toLowerCase(Locale.ROOT);
+                if (!lower.endsWith(".srt") && !lower.endsWith(".vtt") && !lower.equals("srt") && !lower.equals("vtt")) {
+                    continue;
+                }
+                String middle = rest.length() > 3 ? rest.substring(0, rest.length() - 4) : "";
+                if (middle.isEmpty()) {
+                    found.add(new SubtitleTrack(null, candidate));
+                } else if (LANGUAGE.matcher(middle).matches()) {
+                    found.add(new SubtitleTrack(normalizeLanguage(middle), candidate));
+                }
+                // Anything else ("lesson.part2.srt") belongs to another video
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        found.sort(Comparator.comparing(SubtitleTrack::path));
+        return List.copyOf(found);
+    }
+
+    private static Subtitle render(SubtitleTrack track) {
+        try {
+            byte[] vtt;
+            if (track.isVtt()) {
+                vtt = Files.readAllBytes(track.path());
+            } else {
+                ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.min(Files.size(track.path()) + 64,
+                        Integer.MAX_VALUE));
+                try (Reader reader = Files.newBufferedReader(track.path(), StandardCharsets.UTF_8);
+                        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+                    convertSrtToVtt(reader, writer);
+                }
+                vtt = out.toByteArray();
+            }
+            return new Subtitle(vtt, vtt.length >= GZIP_MIN_BYTES ? gzip(vtt) : null, EntityTags.forContent(vtt));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Convert SRT to WebVTT line by line: add the header, drop a byte order mark, and put
+     * dots in the cue timings. Cue numbers are kept; WebVTT reads them as cue identifiers.
+     */
+    static void convertSrtToVtt(Reader srt, Writer vtt) throws IOException {
+        BufferedReader reader = srt instanceof BufferedReader buffered ? buffered : new BufferedReader(srt);
+        Matcher timing = SRT_TIMING.matcher("");
+        vtt.write("WEBVTT\n\n");
+        boolean first = true;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (first && !line.isEmpty() && line.charAt(0) == '\uFEFF') {
+                line = line.substring(1);
+            }
+            first = false;
+            if (timing.reset(line).matches()) {
+                vtt.write(timing.group(1));
+                vtt.write('.');
+                vtt.write(millis(timing.group(2)));
+                vtt.write(" --> ");
+                vtt.write(timing.group(3));
+                vtt.write('.');
+                vtt.write(millis(timing.group(4)));
+            } else {
+                vtt.write(line);
+            }
+            vtt.write('\n');
+        }
+    }
+
+    private static String millis(String digits) {
+        return digits.length() == 3 ? digits : (digits + "00").substring(0, 3);
+    }
+
+    private static String normalizeLanguage(String language) {
+        return Locale.forLanguageTag(language.replace('_', '-')).toLanguageTag();
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 3 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(data);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,335 @@
+package com.rexxy.stream.service;
+
+import com.rexxy.stream.config.FileStorageConfig;
+import com.rexxy.stream.config.ThumbnailConfig;
+import com.rexxy.stream.config.TranscodeConfig;
+import com.rexxy.stream.exception.ResourceNotFoundException;
+import com.rexxy.stream.model.Lesson;
+import com.rexxy.stream.model.StorageType;
+import com.rexxy.stream.repository.LessonRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+/**
+ * Seek-preview thumbnails: frames every {@code interval} tiled into sprite JPEGs plus a
+ * WebVTT track whose cues point at a tile of a sheet ({@code thumbs-0.jpg#xywh=x,y,w,h}).
+ *
+ * Sheets are written next to the video as {@code <video>.thumbs-<n>.jpg} and the track as
+ * {@code <video>.thumbs.vtt}; the track is written last, so its presence means the set is
+ * complete, and it is stale once the video is newer. Jobs come from imports and finished
+ * uploads and run on a small ffmpeg pool; when the in-memory queue is full the job is
+ * dropped and made again on the first request for the track.
+ */
+@Service
+public class ThumbnailService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ThumbnailService.class);
+
+    private static final String TRACK_SUFFIX = ".thumbs.vtt";
+    private static final String SHEET_SUFFIX = ".thumbs-";
+
+    private final ThumbnailConfig thumbnailConfig;
+    private final TranscodeConfig transcodeConfig;
+    private final MediaMetadataService mediaMetadataService;
+    private final LessonRepository lessonRepository;
+    private final Path libraryRoot;
+    private final Path uploadRoot;
+    private final ThreadPoolExecutor workers;
+    private final Set<Path> scheduled = ConcurrentHashMap.newKeySet();
+    private final MeterRegistry meterRegistry;
+    private final Counter rejected;
+
+    public ThumbnailService(ThumbnailConfig thumbnailConfig,
+            TranscodeConfig transcodeConfig,
+            FileStorageConfig fileStorageConfig,
+            MediaMetadataService mediaMetadataService,
+            LessonRepository lessonRepository,
+            MeterRegistry meterRegistry) {
+        this.thumbnailConfig = thumbnailConfig;
+        this.transcodeConfig = transcodeConfig;
+        this.mediaMetadataService = mediaMetadataService;
+        this.lessonRepository = lessonRepository;
+        this.meterRegistry = meterRegistry;
+        this.libraryRoot = Paths.get(fileStorageConfig.getLocalLibraryRoot()).toAbsolutePath().normalize();
+        this.uploadRoot = Paths.get(fileStorageConfig.getUploadDir()).toAbsolutePath().normalize();
+
+        int workerCount = Math.max(1, thumbnailConfig.getWorkers());
+        this.workers = new ThreadPoolExecutor(workerCount, workerCount, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, thumbnailConfig.getQueueCapacity())),
+                Thread.ofPlatform().name("thumbnails-", 0).daemon().factory());
+
+        Gauge.builder("thumbnail.queue.depth", workers, pool -> pool.getQueue().size())
+                .description("Thumbnail jobs waiting for a worker")
+                .register(meterRegistry);
+        this.rejected = Counter.builder("thumbnail.jobs.rejected")
+                .description("Thumbnail jobs dropped because the queue was full")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Queue sprite generation for a video unless its thumbnails are current or already queued
+     */
+    public void enqueue(Path video) {
+        if (!thumbnailConfig.isEnabled()) {
+            return;
+        }
+        Path source = video.toAbsolutePath().normalize();
+        if (isCurrent(source) || !scheduled.add(source)) {
+            return;
+        }
+        try {
+            workers.execute(() -> run(source));
+        } catch (RejectedExecutionException e) {
+            scheduled.remove(source);
+            rejected.increment();
+            logger.debug("Thumbnail queue full, skipping {}", source);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+
+    /**
+     * The lesson's thumbnail track, or {@code null} while it is missing or stale; a missing
+     * track is queued for generation
+     *
+     * @throws ResourceNotFoundException if the lesson does not exist
+     */
+    public Path getTrack(String lessonId) {
+        Path video = videoOf(lessonId);
+        if (video == null || !Files.isRegularFile(video)) {
+            return null;
+        }
+        if (!isCurrent(video)) {
+            enqueue(video);
+            return null;
+        }
+        return trackFile(video);
+    }
+
+    /**
+     * Sprite sheet {@code index} of the lesson's thumbnails, or {@code null} when there is none
+     */
+    public Path getSheet(String lessonId, int index) {
+        Path video = videoOf(lessonId);
+        if (video == null || index < 0) {
+            return null;
+        }
+        Path sheet = sheetFile(video, index);
+        return Files.isRegularFile(sheet) ? sheet : null;
+    }
+
+    /**
+     * Delete the thumbnails of an upload whose video is going away; the track goes first so a
+     * partly deleted set is never taken as complete
+     */
+    public void discard(String uploadFilename) throws IOException {
+        Path video = uploadRoot.resolve(uploadFilename).normalize();
+        if (!video.startsWith(uploadRoot)) {
+            return;
+        }
+        Files.deleteIfExists(trackFile(video));
+        removeSheetsFrom(video, 0);
+    }
+
+    private void run(Path video) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String result = "success";
+        try {
+            generate(video);
+        } catch (InterruptedException e) {
+            result = "interrupted";
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            result = "failure";
+            logger.warn("Thumbnail generation for {} failed: {}", video, e.getMessage());
+        } finally {
+            sample.stop(Timer.builder("thumbnail.jobs")
+                    .description("Time spent per thumbnail job")
+                    .tag("result", result)
+                    .register(meterRegistry));
+            scheduled.remove(video);
+        }
+    }
+
+    void generate(Path video) throws IOException, InterruptedException {
+        if (!Files.isRegularFile(video)) {
+            throw new IOException("Video missing: " + video);
+        }
+        double duration = mediaMetadataService.getDuration(video);
+        int width = mediaMetadataService.getVideoWidth(video);
+        int height = mediaMetadataService.getVideoHeight(video);
+        if (duration <= 0 || width <= 0 || height <= 0) {
+            throw new IOException("Could not read duration and size of " + video);
+        }
+        long versionMillis = Files.getLastModifiedTime(video).toMillis();
+
+        int tileWidth = thumbnailConfig.getTileWidth();
+        // Even height keeps the aspect ratio acceptable to every encoder
+        int tileHeight = Math.max(2, (int) Math.round(tileWidth * (double) height / width / 2) * 2);
+        double interval = thumbnailConfig.getInterval().toMillis() / 1000.0;
+        int frames = Math.max(1, (int) Math.ceil(duration / interval));
+        int perSheet = thumbnailConfig.getColumns() * thumbnailConfig.getRows();
+        int sheets = (frames + perSheet - 1) / perSheet;
+
+        Path staging = Files.createTempDirectory("thumbs-");
+        try {
+            runFfmpeg(video, staging, interval, tileWidth, tileHeight);
+            for (int i = 0; i < sheets; i++) {
+                Path sheet = staging.resolve("sheet-" + i + ".jpg");
+                if (!Files.isRegularFile(sheet)) {
+                    throw new IOException("ffmpeg wrote " + i + " of " + sheets + " sprite sheets");
+                }
+                Files.move(sheet, sheetFile(video, i), StandardCopyOption.REPLACE_EXISTING);
+            }
+            removeSheetsFrom(video, sheets);
+
+            String version = Long.toHexString(versionMillis);
+            String track = buildTrack(frames, interval, duration, thumbnailConfig.getColumns(), perSheet,
+                    tileWidth, tileHeight, index -> "thumbs-" + index + ".jpg?v=" + version);
+            Path trackFile = trackFile(video);
+            Path trackTmp = trackFile.resolveSibling(trackFile.getFileName() + ".tmp");
+            Files.writeString(trackTmp, track, StandardCharsets.UTF_8);
+            Files.move(trackTmp, trackFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logger.info("Generated {} thumbnails in {} sprite sheets for {}", frames, sheets, video.getFileName());
+        } finally {
+            deleteRecursively(staging);
+        }
+    }
+
+    // One decode; the tile filter packs frames into sheets and pads the last one
+    private void runFfmpeg(Path video, Path staging, double interval, int tileWidth, int tileHeight)
+            throws IOException, InterruptedException {
+        List<String> command = List.of(transcodeConfig.getFfmpegPath(),
+                "-hide_banner", "-nostdin", "-y", "-i", video.toString(),
+                "-an", "-sn",
+                "-vf", "fps=1/" + interval + ",scale=" + tileWidth + ":" + tileHeight
+                        + ",tile=" + thumbnailConfig.getColumns() + "x" + thumbnailConfig.getRows(),
+                "-q:v", String.valueOf(thumbnailConfig.getJpegQuality()),
+                "-start_number", "0",
+                staging.resolve("sheet-%d.jpg").toString());
+
+        Path log = staging.resolve("ffmpeg.log");
+        Process process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(log.toFile())
+                .start();
+        try {
+            if (!process.waitFor(thumbnailConfig.getTimeout().toMillis(), TimeUnit.MILLISECONDS)) {
+                throw new IOException("ffmpeg timed out after " + thumbnailConfig.getTimeout());
+            }
+            if (process.exitValue() != 0) {
+                throw new IOException("ffmpeg exited with " + process.exitValue());
+            }
+        } finally {
+            if (process.isAlive()) {
+                process.destroyForcibly();
+            }
+        }
+    }
+
+    /**
+     * WebVTT track with one cue per frame pointing at its tile
+     */
+    static String buildTrack(int frames, double interval, double duration, int columns, int perSheet, int tileWidth,
+            int tileHeight, IntFunction<String> sheetUrl) {
+        StringBuilder vtt = new StringBuilder(64 + frames * 64).append("WEBVTT\n");
+        for (int frame = 0; frame < frames; frame++) {
+            int tile = frame % perSheet;
+            vtt.append('\n')
+                    .append(timestamp(frame * interval)).append(" --> ")
+                    .append(timestamp(Math.min(duration, (frame + 1) * interval))).append('\n')
+                    .append(sheetUrl.apply(frame / perSheet))
+                    .append("#xywh=")
+                    .append((tile % columns) * tileWidth).append(',')
+                    .append((tile / columns) * tileHeight).append(',')
+                    .append(tileWidth).append(',')
+                    .append(tileHeight).append('\n');
+        }
+        return vtt.toString();
+    }
+
+    private static String timestamp(double seconds) {
+        long millis = Math.round(seconds * 1000);
+        return String.format("%02d:%02d:%02d.%03d", millis / 3_600_000, millis / 60_000 % 60, millis / 1000 % 60,
+                millis % 1000);
+    }
+
+    private boolean isCurrent(Path video) {
+        try {
+            Path track = trackFile(video);
+            return Files.isRegularFile(track)
+                    && Files.getLastModifiedTime(track).compareTo(Files.getLastModifiedTime(video)) >= 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // Local lessons: paths with a slash are in the library, bare names are uploads
+    private Path videoOf(String lessonId) {
+        Lesson lesson = lessonRepository.findById(lessonId)
+                .orElseThrow(() -> new ResourceNotFoundException("Lesson", "id", lessonId));
+        String resourcePath = lesson.getResourcePath();
+        if (lesson.getStorageType() != StorageType.LOCAL || resourcePath == null) {
+            return null;
+        }
+        Path root = resourcePath.contains("/") ? libraryRoot : uploadRoot;
+        Path video = root.resolve(resourcePath).normalize();
+        return video.startsWith(root) ? video : null;
+    }
+
+    private static Path trackFile(Path video) {
+        return video.resolveSibling(baseName(video) + TRACK_SUFFIX);
+    }
+
+    private static Path sheetFile(Path video, int index) {
+        return video.resolveSibling(baseName(video) + SHEET_SUFFIX + index + ".jpg");
+    }
+
+    private static String baseName(Path video) {
+        String name = video.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    // Sheets beyond the new count are left over from a longer earlier version of the video
+    private static void removeSheetsFrom(Path video, int first) throws IOException {
+        for (int i = first; Files.deleteIfExists(sheetFile(video, i)); i++) {
+            // keep going until the first gap
+        }
+    }
+
+    private static void deleteRecursively(Path dir) {
+        try (var files = Files.walk(dir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            logger.debug("Failed to clean up {}: {}", dir, e.getMessage());
+        }
+    }
+}
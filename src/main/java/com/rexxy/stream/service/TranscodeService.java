@@ -0,0 +1,503 @@
+package com.rexxy.stream.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.rexxy.stream.config.FileStorageConfig;
+import com.rexxy.stream.config.TranscodeConfig;
+import com.rexxy.stream.config.TranscodeConfig.Rendition;
+import com.rexxy.stream.model.TranscodeJob;
+import com.rexxy.stream.model.TranscodeJob.JobStatus;
+import com.rexxy.stream.repository.TranscodeJobRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import jakarta.servlet.http.HttpServletRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Produces a bitrate ladder for every upload with a local ffmpeg worker pool.
+ *
+ * Jobs are rows in transcode_jobs, so they survive restarts: QUEUED and interrupted RUNNING
+ * jobs are picked up again at startup. Only {@code queueCapacity} jobs wait in memory at a
+ * time; the rest stay QUEUED in the database until a worker frees up. A failed job goes back
+ * to QUEUED with a next attempt time that backs off exponentially, so a transient ffmpeg or
+ * disk problem has time to clear before the attempts run out; the poller skips it until then. Each source is decoded
+ * once and encoded into all renditions below its height in a single ffmpeg run, then a
+ * manifest.json describing the ladder is written next to the renditions.
+ */
+@Service
+public class TranscodeService {
+
+    private static final Logger logger = LoggerFactory.getLogger(TranscodeService.class);
+
+    private static final String RENDITIONS_DIR = "renditions";
+    private static final String MANIFEST_FILE = "manifest.json";
+
+    // Only this share of the reported downlink is spent on video
+    private static final double DOWNLINK_HEADROOM = 0.8;
+
+    private final TranscodeJobRepository jobRepository;
+    private final TranscodeConfig transcodeConfig;
+    private final MediaMetadataService mediaMetadataService;
+    private final MediaCatalog mediaCatalog;
+    private final ObjectMapper objectMapper;
+    private final Path uploadRoot;
+    private final ThreadPoolExecutor workers;
+    private final Set<String> scheduled = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger backlog = new AtomicInteger();
+    private final Cache<String, Optional<Manifest>> manifests;
+    private final Cache<String, String> pinnedRenditions;
+    private final MeterRegistry meterRegistry;
+    private final Counter mediaSeconds;
+
+    public TranscodeService(TranscodeJobRepository jobRepository,
+            TranscodeConfig transcodeConfig,
+            FileStorageConfig fileStorageConfig,
+            MediaMetadataService mediaMetadataService,
+            MediaCatalog mediaCatalog,
+            ObjectMapper objectMapper,
+            MeterRegistry meterRegistry) {
+        this.jobRepository = jobRepository;
+        this.transcodeConfig = transcodeConfig;
+        this.mediaMetadataService = mediaMetadataService;
+        this.mediaCatalog = mediaCatalog;
+        this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
+        this.uploadRoot = Paths.get(fileStorageConfig.getUploadDir()).toAbsolutePath().normalize();
+
+        int workerCount = Math.max(1, transcodeConfig.getWorkers());
+        this.workers = new ThreadPoolExecutor(workerCount, workerCount, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, transcodeConfig.getQueueCapacity())),
+                Thread.ofPlatform().name("transcode-", 0).daemon().factory());
+
+        this.manifests = Caffeine.newBuilder()
+                .maximumSize(10_000)
+                .expireAfterWrite(Duration.ofMinutes(10))
+                .build();
+        // A player must keep getting the same file for its range requests
+        this.pinnedRenditions = Caffeine.newBuilder()
+                .maximumSize(50_000)
+                .expireAfterAccess(Duration.ofMinutes(30))
+                .build();
+
+        Gauge.builder("transcode.queue.depth", this, service -> service.workers.getQueue().size()
+                + service.backlog.get())
+                .description("Transcode jobs waiting for a worker")
+                .register(meterRegistry);
+        Gauge.builder("transcode.jobs.active", workers, ThreadPoolExecutor::getActiveCount)
+                .description("ffmpeg processes currently running")
+                .register(meterRegistry);
+        this.mediaSeconds = Counter.builder("transcode.media.seconds")
+                .baseUnit("seconds")
+                .description("Source media duration transcoded; its rate is the pipeline throughput")
+                .register(meterRegistry);
+    }
+
+    /**
+     * One rendition of an upload; {@code file} is relative to the upload directory
+     */
+    public record RenditionInfo(String name, int height, long bandwidth, String file) {
+    }
+
+    public record Manifest(String source, int sourceHeight, long sourceBandwidth, List<RenditionInfo> renditions) {
+    }
+
+    /**
+     * Queue an uploaded file for transcoding
+     */
+    public void enqueue(String sourceFilename) {
+        if (!transcodeConfig.isEnabled()) {
+            return;
+        }
+        TranscodeJob job = new TranscodeJob();
+        job.setSourceFilename(sourceFilename);
+        job.setStatus(JobStatus.QUEUED);
+        job.setCreatedAt(LocalDateTime.now());
+        job = jobRepository.save(job);
+        if (!submit(job.getId())) {
+            backlog.incrementAndGet();
+        }
+    }
+
+    /**
+     * Requeue jobs interrupted by a shutdown and start working through the backlog
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void recover() {
+        if (!transcodeConfig.isEnabled()) {
+            return;
+        }
+        int interrupted = jobRepository.updateStatus(JobStatus.RUNNING, JobStatus.QUEUED);
+        if (interrupted > 0) {
+            logger.info("Requeued {} transcode jobs interrupted by the last shutdown", interrupted);
+        }
+        drainBacklog();
+    }
+
+    /**
+     * Pick up jobs whose retry came due and any the in-memory queue had no room for
+     */
+    @Scheduled(fixedDelayString = "${media.transcode.poll-interval:30s}",
+            initialDelayString = "${media.transcode.poll-interval:30s}")
+    public void poll() {
+        if (transcodeConfig.isEnabled() && !workers.isShutdown()) {
+            drainBacklog();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+
+    private boolean submit(String jobId) {
+        if (!scheduled.add(jobId)) {
+            return true;
+        }
+        try {
+            workers.execute(() -> run(jobId));
+            return true;
+        } catch (RejectedExecutionException e) {
+            scheduled.remove(jobId);
+            return false;
+        }
+    }
+
+    // Move due QUEUED jobs from the database into the in-memory queue while it has room
+    private void drainBacklog() {
+        List<TranscodeJob> queued = jobRepository.findByStatusOrderByCreatedAtAsc(JobStatus.QUEUED);
+        LocalDateTime now = LocalDateTime.now();
+        int waiting = 0;
+        for (TranscodeJob job : queued) {
+            if (scheduled.contains(job.getId())) {
+                continue;
+            }
+            if (!isDue(job, now)) {
+                waiting++;
+                continue;
+            }
+            if (workers.isShutdown() || workers.getQueue().remainingCapacity() == 0 || !submit(job.getId())) {
+                waiting++;
+            }
+        }
+        backlog.set(waiting);
+    }
+
+    private void run(String jobId) {
+        TranscodeJob job = jobRepository.findById(jobId).orElse(null);
+        if (job == null || job.getStatus() != JobStatus.QUEUED || !isDue(job, LocalDateTime.now())) {
+            scheduled.remove(jobId);
+            return;
+        }
+        job.setStatus(JobStatus.RUNNING);
+        job.setAttempts(job.getAttempts() + 1);
+        job.setStartedAt(LocalDateTime.now());
+        job = jobRepository.save(job);
+
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String result = "success";
+        try {
+            transcode(job.getSourceFilename());
+            job.setStatus(JobStatus.COMPLETED);
+            job.setCompletedAt(LocalDateTime.now());
+            job.setNextAttemptAt(null);
+            job.setError(null);
+            logger.info("Transcoded {} in attempt {}", job.getSourceFilename(), job.getAttempts());
+        } catch (InterruptedException e) {
+            // Shutting down: the job is picked up again on the next start
+            result = "interrupted";
+            job.setStatus(JobStatus.QUEUED);
+            job.setAttempts(job.getAttempts() - 1);
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            result = "failure";
+            String message = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            job.setError(message.length() > 2000 ? message.substring(0, 2000) : message);
+            if (job.getAttempts() >= transcodeConfig.getMaxAttempts()) {
+                job.setStatus(JobStatus.FAILED);
+                job.setNextAttemptAt(null);
+                logger.warn("Transcode of {} failed (attempt {}), giving up: {}", job.getSourceFilename(),
+                        job.getAttempts(), message);
+            } else {
+                Duration backoff = retryBackoff(job.getAttempts());
+                job.setNextAttemptAt(LocalDateTime.now().plus(backoff));
+                job.setStatus(JobStatus.QUEUED);
+                logger.warn("Transcode of {} failed (attempt {}), retrying in {}: {}", job.getSourceFilename(),
+                        job.getAttempts(), backoff, message);
+            }
+        } finally {
+            jobRepository.save(job);
+            sample.stop(Timer.builder("transcode.jobs")
+                    .description("Time spent per transcode job")
+                    .tag("result", result)
+                    .register(meterRegistry));
+            manifests.invalidate(job.getSourceFilename());
+            scheduled.remove(jobId);
+        }
+        if (!Thread.currentThread().isInterrupted()) {
+            drainBacklog();
+        }
+    }
+
+    private static boolean isDue(TranscodeJob job, LocalDateTime now) {
+        return job.getNextAttemptAt() == null || !job.getNextAttemptAt().isAfter(now);
+    }
+
+    // retryBackoff after the first failure, doubling after each one up to maxRetryBackoff
+    private Duration retryBackoff(int failedAttempts) {
+        Duration max = transcodeConfig.getMaxRetryBackoff();
+        Duration backoff = transcodeConfig.getRetryBackoff();
+        for (int i = 1; i < failedAttempts && backoff.compareTo(max) < 0; i++) {
+            backoff = backoff.multipliedBy(2);
+        }
+        return backoff.compareTo(max) < 0 ? backoff : max;
+    }
+
+    private void transcode(String sourceFilename) throws IOException, InterruptedException {
+        Path source = uploadRoot.resolve(sourceFilename).normalize();
+        if (!source.startsWith(uploadRoot) || !Files.isRegularFile(source)) {
+            throw new IOException("Source file missing: " + sourceFilename);
+        }
+        int sourceHeight = mediaMetadataService.getVideoHeight(source);
+        if (sourceHeight <= 0) {
+            throw new IOException("Could not determine video height of " + sourceFilename);
+        }
+        double duration = mediaMetadataService.getDuration(source);
+
+        List<Rendition> rungs = transcodeConfig.getLadder().stream()
+                .filter(rung -> rung.getHeight() < sourceHeight)
+                .sorted(Comparator.comparingInt(Rendition::getHeight).reversed())
+                .toList();
+
+        Path outputDir = renditionDir(sourceFilename);
+        Files.createDirectories(outputDir);
+
+        List<RenditionInfo> renditions = new ArrayList<>(rungs.size());
+        if (!rungs.isEmpty()) {
+            runFfmpeg(source, outputDir, rungs);
+            for (Rendition rung : rungs) {
+                Path output = outputDir.resolve(rung.getName() + ".mp4");
+                Files.move(outputDir.resolve(rung.getName() + ".part.mp4"), output,
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                mediaCatalog.refresh(output);
+                renditions.add(new RenditionInfo(rung.getName(), rung.getHeight(),
+                        (rung.getVideoKbps() + rung.getAudioKbps()) * 1000L,
+                        uploadRoot.relativize(output).toString().replace('\\', '/')));
+            }
+        }
+
+        long sourceBandwidth = duration > 0 ? (long) (Files.size(source) * 8 / duration) : 0;
+        Manifest manifest = new Manifest(sourceFilename, sourceHeight, sourceBandwidth, renditions);
+        Path manifestTmp = outputDir.resolve(MANIFEST_FILE + ".tmp");
+        objectMapper.writerWithDefaultPrettyPrinter().writeValue(manifestTmp.toFile(), manifest);
+        Files.move(manifestTmp, outputDir.resolve(MANIFEST_FILE),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (duration > 0) {
+            mediaSeconds.increment(duration);
+        }
+    }
+
+    // One decode, one encode per rung; outputs are written as .part.mp4 and renamed on success
+    private void runFfmpeg(Path source, Path outputDir, List<Rendition> rungs)
+            throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>(List.of(transcodeConfig.getFfmpegPath(),
+                "-hide_banner", "-nostdin", "-y", "-i", source.toString()));
+        for (Rendition rung : rungs) {
+            int videoKbps = rung.getVideoKbps();
+            command.addAll(List.of(
+                    "-map", "0:v:0", "-map", "0:a:0?",
+                    "-vf", "scale=-2:" + rung.getHeight(),
+                    "-c:v", "libx264", "-preset", "veryfast",
+                    "-b:v", videoKbps + "k", "-maxrate", (videoKbps * 107 / 100) + "k",
+                    "-bufsize", (videoKbps * 2) + "k",
+                    // Keyframes every 2 s so HLS segments of renditions line up
+                    "-force_key_frames", "expr:gte(t,n_forced*2)",
+                    "-c:a", "aac", "-b:a", rung.getAudioKbps() + "k",
+                    "-movflags", "+faststart",
+                    outputDir.resolve(rung.getName() + ".part.mp4").toString()));
+        }
+
+        Path log = outputDir.resolve("transcode.log");
+        Process process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(log.toFile())
+                .start();
+        try {
+            if (!process.waitFor(transcodeConfig.getTimeout().toMillis(), TimeUnit.MILLISECONDS)) {
+                throw new IOException("ffmpeg timed out after " + transcodeConfig.getTimeout());
+            }
+            if (process.exitValue() != 0) {
+                throw new IOException("ffmpeg exited with " + process.exitValue() + ": " + tail(log));
+            }
+        } catch (IOException | InterruptedException e) {
+            process.destroyForcibly();
+            for (Rendition rung : rungs) {
+                Files.deleteIfExists(outputDir.resolve(rung.getName() + ".part.mp4"));
+            }
+            throw e;
+        }
+    }
+
+    private static String tail(Path log) {
+        try {
+            List<String> lines = Files.readAllLines(log);
+            return String.join(" | ", lines.subList(Math.max(0, lines.size() - 5), lines.size()));
+        } catch (IOException e) {
+            return "";
+        }
+    }
+
+    private Path renditionDir(String sourceFilename) {
+        int dot = sourceFilename.lastIndexOf('.');
+        String baseName = dot > 0 ? sourceFilename.substring(0, dot) : sourceFilename;
+        return uploadRoot.resolve(RENDITIONS_DIR).resolve(baseName);
+    }
+
+    /**
+     * Ladder of an upload, or {@code null} while it has not been transcoded
+     */
+    public Manifest manifest(String sourceFilename) {
+        return manifests.get(sourceFilename, name -> {
+            Path file = renditionDir(name).resolve(MANIFEST_FILE);
+            if (!Files.isRegularFile(file)) {
+                return Optional.empty();
+            }
+            try {
+                return Optional.of(objectMapper.readValue(file.toFile(), Manifest.class));
+            } catch (IOException e) {
+                logger.warn("Unreadable manifest {}: {}", file, e.getMessage());
+                return Optional.empty();
+            }
+        }).orElse(null);
+    }
+
+    /**
+     * Delete the renditions of an upload whose source is going away
+     */
+    public void discard(String sourceFilename) throws IOException {
+        Path dir = renditionDir(sourceFilename);
+        manifests.invalidate(sourceFilename);
+        mediaCatalog.remove(dir);
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        try (var files = Files.walk(dir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    /**
+     * Pick the file to stream for an upload from the client's hints, or {@code null} for
+     * the original. An explicit {@code ?rendition=} wins; otherwise Save-Data selects the
+     * lowest rung, Downlink caps the bandwidth and Viewport-Width x DPR caps the height.
+     * The choice is pinned per client so later range requests hit the same file.
+     */
+    public Path selectRendition(String sourceFilename, HttpServletRequest request) {
+        Manifest manifest = manifest(sourceFilename);
+        if (manifest == null || manifest.renditions().isEmpty()) {
+            return null;
+        }
+
+        String requested = request.getParameter("rendition");
+        String pinKey = request.getRemoteAddr() + "|" + sourceFilename;
+        String choice = requested != null ? requested : pinnedRenditions.getIfPresent(pinKey);
+        if (choice == null) {
+            choice = chooseFromHints(manifest, request);
+            pinnedRenditions.put(pinKey, choice);
+        }
+
+        for (RenditionInfo rendition : manifest.renditions()) {
+            if (rendition.name().equals(choice)) {
+                return uploadRoot.resolve(rendition.file()).normalize();
+            }
+        }
+        return null;
+    }
+
+    private String chooseFromHints(Manifest manifest, HttpServletRequest request) {
+        // Renditions from highest to lowest
+        List<RenditionInfo> ladder = manifest.renditions().stream()
+                .sorted(Comparator.comparingInt(RenditionInfo::height).reversed())
+                .toList();
+        RenditionInfo lowest = ladder.get(ladder.size() - 1);
+
+        if ("on".equalsIgnoreCase(header(request, "Sec-CH-Save-Data", "Save-Data"))) {
+            return lowest.name();
+        }
+
+        long bandwidthCap = Long.MAX_VALUE;
+        Double downlink = number(header(request, "Sec-CH-Downlink", "Downlink"));
+        if (downlink != null) {
+            bandwidthCap = (long) (downlink * 1_000_000 * DOWNLINK_HEADROOM);
+        }
+
+        // Smallest rung that still covers the viewport; the source when none does
+        int heightCap = Integer.MAX_VALUE;
+        Double viewportWidth = number(header(request, "Sec-CH-Viewport-Width", "Viewport-Width"));
+        if (viewportWidth != null) {
+            Double dpr = number(header(request, "Sec-CH-DPR", "DPR"));
+            int neededHeight = (int) Math.ceil(viewportWidth * (dpr != null ? dpr : 1.0) * 9 / 16);
+            for (RenditionInfo rendition : ladder) {
+                if (rendition.height() >= neededHeight) {
+                    heightCap = rendition.height();
+                }
+            }
+        }
+
+        if (heightCap == Integer.MAX_VALUE && manifest.sourceBandwidth() <= bandwidthCap) {
+            return "source";
+        }
+        for (RenditionInfo rendition : ladder) {
+            if (rendition.height() <= heightCap && rendition.bandwidth() <= bandwidthCap) {
+                return rendition.name();
+            }
+        }
+        return lowest.name();
+    }
+
+    private static String header(HttpServletRequest request, String name, String legacyName) {
+        String value = request.getHeader(name);
+        return value != null ? value : request.getHeader(legacyName);
+    }
+
+    private static Double number(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            double parsed = Double.parseDouble(value.trim());
+            return parsed > 0 ? parsed : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.rexxy.stream.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.rexxy.stream.config.MediaStreamingConfig;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Off-heap cache of fixed-size video chunks that are requested over and over
+ * (moov atoms, first GOPs, popular resume points).
+ *
+ * Chunks live in direct ByteBuffers keyed by path, mtime and chunk index. The byte
+ * budget is enforced by Caffeine's W-TinyLFU eviction. A chunk is only loaded once it
+ * has been asked for {@code segmentAdmissionThreshold} times, so a viewer scrubbing
+ * through a cold file keeps using the zero-copy path instead of churning the cache.
+ */
+@Service
+public class VideoSegmentCache {
+
+    private final MediaStreamingConfig streamingConfig;
+    private final Cache<SegmentKey, ByteBuffer> segments;
+    private final Cache<SegmentKey, AtomicInteger> touches;
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter evictions;
+
+    public VideoSegmentCache(MediaStreamingConfig streamingConfig, MeterRegistry meterRegistry) {
+        this.streamingConfig = streamingConfig;
+        this.hits = Counter.builder("video.segment.cache.gets").tag("result", "hit")
+                .description("Chunk lookups answered from the segment cache")
+                .register(meterRegistry);
+        this.misses = Counter.builder("video.segment.cache.gets").tag("result", "miss")
+                .description("Chunk lookups that had to go to disk")
+                .register(meterRegistry);
+        this.evictions = Counter.builder("video.segment.cache.evictions")
+                .description("Chunks evicted to stay within the byte budget")
+                .register(meterRegistry);
+
+        this.segments = Caffeine.newBuilder()
+                .maximumWeight(streamingConfig.getSegmentCacheMaxBytes())
+                .weigher((SegmentKey key, ByteBuffer buffer) -> buffer.capacity())
+                .evictionListener((SegmentKey key, ByteBuffer buffer, RemovalCause cause) -> evictions.increment())
+                .build();
+        this.touches = Caffeine.newBuilder()
+                .maximumSize(100_000)
+                .expireAfterAccess(Duration.ofMinutes(30))
+                .build();
+
+        Gauge.builder("video.segment.cache.size", segments,
+                cache -> cache.policy().eviction().map(e -> e.weightedSize().orElse(0)).orElse(0L))
+                .baseUnit("bytes")
+                .description("Bytes held off-heap by the segment cache")
+                .register(meterRegistry);
+        Gauge.builder("video.segment.cache.segments", segments, Cache::estimatedSize)
+                .description("Chunks held by the segment cache")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Chunk identity; mtime is part of the key so a replaced file never serves stale bytes
+     */
+    record SegmentKey(Path path, long lastModified, long index) {
+    }
+
+    /**
+     * Return read-only views covering bytes [start, end] when every chunk of the window is
+     * resident or hot enough to be admitted, otherwise {@code null} so the caller can fall
+     * back to the zero-copy path. Every lookup counts towards admission.
+     */
+    public List<ByteBuffer> lookup(Path filePath, long fileSize, long lastModified, long start, long end) {
+        if (!streamingConfig.isSegmentCacheEnabled()
+                || end - start + 1 > streamingConfig.getSegmentCacheMaxWindow()) {
+            return null;
+        }
+
+        long chunkSize = streamingConfig.getSegmentChunkSize();
+        long firstChunk = start / chunkSize;
+        long lastChunk = end / chunkSize;
+
+        boolean servable = true;
+        for (long index = firstChunk; index <= lastChunk; index++) {
+            SegmentKey key = new SegmentKey(filePath, lastModified, index);
+            if (segments.getIfPresent(key) != null) {
+                hits.increment();
+                continue;
+            }
+            misses.increment();
+            int seen = touches.get(key, k -> new AtomicInteger()).incrementAndGet();
+            if (seen < streamingConfig.getSegmentAdmissionThreshold()) {
+                servable = false;
+            }
+        }
+        if (!servable) {
+            return null;
+        }
+
+        List<ByteBuffer> views = new ArrayList<>((int) (lastChunk - firstChunk + 1));
+        try {
+            for (long index = firstChunk; index <= lastChunk; index++) {
+                long chunkStart = index * chunkSize;
+                ByteBuffer chunk = segments.get(new SegmentKey(filePath, lastModified, index),
+                        key -> load(filePath, chunkStart, Math.min(chunkSize, fileSize - chunkStart)));
+
+                ByteBuffer view = chunk.duplicate();
+                view.position((int) (Math.max(start, chunkStart) - chunkStart));
+                view.limit((int) (Math.min(end, chunkStart + chunk.capacity() - 1) - chunkStart + 1));
+                views.add(view);
+            }
+        } catch (UncheckedIOException e) {
+            return null;
+        }
+        return views;
+    }
+
+    /**
+     * Drop every cached chunk of a file, e.g. after it was replaced or deleted
+     */
+    public void invalidate(Path filePath) {
+        segments.asMap().keySet().removeIf(key -> key.path().equals(filePath));
+        touches.asMap().keySet().removeIf(key -> key.path().equals(filePath));
+    }
+
+    // Runs pending eviction work now; used by tests
+    void cleanUp() {
+        segments.cleanUp();
+    }
+
+    private ByteBuffer load(Path filePath, long position, long length) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) length);
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("Unexpected end of file while caching " + filePath);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        buffer.flip();
+        return buffer.asReadOnlyBuffer();
+    }
+}
@@ -9,20 +9,25 @@ import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
-import java.util.UUID;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
 
 @Service
 public class VideoStreamingService {
     private final Path fileStorageLocation;
+    private final BlobStoreService blobStoreService;
 
-    public VideoStreamingService(FileStorageConfig fileStorageConfig) {
+    public VideoStreamingService(FileStorageConfig fileStorageConfig, BlobStoreService blobStoreService) {
         this.fileStorageLocation = Paths.get(fileStorageConfig.getUploadDir())
                 .toAbsolutePath().normalize();
+        this.blobStoreService = blobStoreService;
     }
 
     @PostConstruct
@@ -51,20 +56,20 @@ public class VideoStreamingService {
         }
 
         try {
-            // Generate unique filename
-            String fileExtension = originalFilename.substring(originalFilename.lastIndexOf("."));
-            String uniqueFilename = UUID.randomUUID().toString() + fileExtension;
+            String fileExtension = originalFilename.substring(originalFilename.lastIndexOf(".") + 1);
 
-            // Copy file to storage location
-            Path targetLocation = this.fileStorageLocation.resolve(uniqueFilename);
-            Files.copy(file.getInputStream(), targetLocation, StandardCopyOption.REPLACE_EXISTING);
-
-            return new VideoUploadResponse(
-                    uniqueFilename,
-                    "File uploaded successfully",
-                    "/api/videos/stream/" + uniqueFilename,
+            // Hash while copying to staging, then publish under the content hash
+            Path staged = blobStoreService.newStagingFile();
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            try (InputStream in = new DigestInputStream(file.getInputStream(), digest)) {
+                Files.copy(in, staged);
+            } catch (IOException ex) {
+                Files.deleteIfExists(staged);
+                throw ex;
+            }
+            return blobStoreService.store(staged, HexFormat.of().formatHex(digest.digest()), fileExtension,
                     file.getSize());
-        } catch (IOException ex) {
+        } catch (IOException | NoSuchAlgorithmException ex) {
             throw new RuntimeException("Failed to store file", ex);
         }
     }
@@ -87,4 +92,13 @@ public class VideoStreamingService {
     public Path getFilePath(String filename) {
         return this.fileStorageLocation.resolve(filename).normalize();
     }
+
+    /**
+     * Check that a resolved path points inside the upload directory; existence is
+     * answered by the MediaCatalog
+     */
+    public boolean isInStorage(Path filePath) {
+        return filePath.startsWith(this.fileStorageLocation)
+                && !filePath.equals(this.fileStorageLocation);
+    }
 }
@@ -0,0 +1,94 @@
+package com.rexxy.stream.benchmark;
+
+import com.rexxy.stream.config.CompactCacheSerializer;
+import com.rexxy.stream.dto.CourseHierarchyDTO;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the JSON serializer the hierarchy cache used with the compact binary one, with
+ * and without LZ4, on course hierarchies of different sizes. The payload size of each
+ * combination is printed when its trial starts.
+ *
+ * java -cp target/test-classes:<test classpath> org.openjdk.jmh.Main CacheSerializerBenchmark -prof gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CacheSerializerBenchmark {
+
+    @Param({ "json", "compact", "compact-lz4" })
+    public String serializer;
+
+    @Param({ "50", "500" })
+    public int lessons;
+
+    private RedisSerializer<Object> redisSerializer;
+    private CourseHierarchyDTO hierarchy;
+    private byte[] payload;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        redisSerializer = switch (serializer) {
+            case "json" -> new GenericJackson2JsonRedisSerializer();
+            case "compact" -> new CompactCacheSerializer(0);
+            default -> new CompactCacheSerializer(1);
+        };
+        hierarchy = hierarchy(lessons);
+        payload = redisSerializer.serialize(hierarchy);
+        System.out.printf("%n%s, %d lessons: %d bytes%n", serializer, lessons, payload.length);
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return redisSerializer.serialize(hierarchy);
+    }
+
+    @Benchmark
+    public Object deserialize() {
+        return redisSerializer.deserialize(payload);
+    }
+
+    private static CourseHierarchyDTO hierarchy(int lessons) {
+        List<CourseHierarchyDTO.ModuleHierarchyDTO> modules = new ArrayList<>();
+        int lesson = 0;
+        for (int m = 0; lesson < lessons; m++) {
+            List<CourseHierarchyDTO.LessonGroupHierarchyDTO> groups = new ArrayList<>();
+            for (int g = 0; g < 5 && lesson < lessons; g++) {
+                List<CourseHierarchyDTO.LessonHierarchyDTO> items = new ArrayList<>();
+                for (int l = 0; l < 10 && lesson < lessons; l++, lesson++) {
+                    items.add(new CourseHierarchyDTO.LessonHierarchyDTO(UUID.randomUUID().toString(),
+                            "Lesson " + lesson + " - Working with streams", "12:34", null,
+                            "The Java Series/Part " + m + "/Section " + g + "/" + lesson + ".mp4"));
+                }
+                groups.add(new CourseHierarchyDTO.LessonGroupHierarchyDTO(UUID.randomUUID().toString(),
+                        "Section " + g, "02:05:40", items));
+            }
+            modules.add(new CourseHierarchyDTO.ModuleHierarchyDTO(UUID.randomUUID().toString(),
+                    "Part " + m, "10:28:20", groups));
+        }
+        return new CourseHierarchyDTO(UUID.randomUUID().toString(), "The Java Series",
+                "Everything about Java", "Programming", null, "2024-01-01T10:00", "104:43:20",
+                new ArrayList<>(List.of("java", "backend")), modules);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(CacheSerializerBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
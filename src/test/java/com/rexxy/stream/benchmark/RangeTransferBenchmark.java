@@ -0,0 +1,167 @@
+package com.rexxy.stream.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the old RandomAccessFile + InputStream range path with FileChannel.transferTo
+ * when writing a byte window into a loopback socket.
+ *
+ * Run with the GC profiler to get allocation rate per operation:
+ * java -cp target/test-classes:<test classpath> org.openjdk.jmh.Main RangeTransferBenchmark -prof gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RangeTransferBenchmark {
+
+    private static final long FILE_SIZE = 64L * 1024 * 1024;
+
+    // Same copy buffer StreamUtils uses when Spring drains an InputStreamResource
+    private static final int LEGACY_BUFFER_SIZE = 8192;
+
+    @Param({ "1048576", "16777216" })
+    public long windowSize;
+
+    private Path videoFile;
+    private ServerSocketChannel server;
+    private SocketChannel client;
+    private Thread drainer;
+    private long offset;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        videoFile = Files.createTempFile("range-bench", ".mp4");
+        byte[] block = new byte[1024 * 1024];
+        new Random(42).nextBytes(block);
+        try (OutputStream out = Files.newOutputStream(videoFile)) {
+            for (long written = 0; written < FILE_SIZE; written += block.length) {
+                out.write(block);
+            }
+        }
+
+        server = ServerSocketChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        client = SocketChannel.open(server.getLocalAddress());
+        SocketChannel peer = server.accept();
+        drainer = new Thread(() -> drain(peer), "range-bench-drain");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        client.close();
+        server.close();
+        drainer.interrupt();
+        Files.deleteIfExists(videoFile);
+    }
+
+    /**
+     * What VideoStreamingController did before: new RandomAccessFile per request,
+     * seek, then copy through a heap buffer into the socket stream.
+     */
+    @Benchmark
+    public long legacyRandomAccessFile() throws IOException {
+        long start = nextOffset();
+        long remaining = windowSize;
+        OutputStream socketOut = Channels.newOutputStream(client);
+        try (RandomAccessFile file = new RandomAccessFile(videoFile.toFile(), "r")) {
+            file.seek(start);
+            InputStream in = new InputStream() {
+                private long left = windowSize;
+
+                @Override
+                public int read() throws IOException {
+                    if (left <= 0)
+                        return -1;
+                    left--;
+                    return file.read();
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    if (left <= 0)
+                        return -1;
+                    int read = file.read(b, off, (int) Math.min(len, left));
+                    if (read > 0)
+                        left -= read;
+                    return read;
+                }
+            };
+            byte[] buffer = new byte[LEGACY_BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                socketOut.write(buffer, 0, read);
+                remaining -= read;
+            }
+        }
+        return remaining;
+    }
+
+    /**
+     * MediaRangeService path: FileChannel.transferTo straight into the socket (sendfile on Linux).
+     */
+    @Benchmark
+    public long zeroCopyTransferTo() throws IOException {
+        long position = nextOffset();
+        long remaining = windowSize;
+        try (FileChannel channel = FileChannel.open(videoFile, StandardOpenOption.READ)) {
+            while (remaining > 0) {
+                long sent = channel.transferTo(position, remaining, client);
+                position += sent;
+                remaining -= sent;
+            }
+        }
+        return remaining;
+    }
+
+    // Walk the file so consecutive invocations look like a viewer scrubbing forward
+    private long nextOffset() {
+        long start = offset;
+        offset += windowSize;
+        if (offset + windowSize > FILE_SIZE) {
+            offset = 0;
+        }
+        return start;
+    }
+
+    private static void drain(SocketChannel peer) {
+        ByteBuffer sink = ByteBuffer.allocateDirect(256 * 1024);
+        try (peer) {
+            while (peer.read(sink) >= 0) {
+                sink.clear();
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(RangeTransferBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
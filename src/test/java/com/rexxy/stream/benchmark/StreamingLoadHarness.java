@@ -0,0 +1,166 @@
+package com.rexxy.stream.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load-test harness for the streaming endpoints. It is a plain main class, not run by surefire.
+ *
+ * It measures latency of a cheap API call on its own, then again while N simulated players
+ * stream a video at a fixed bitrate. Each player requests consecutive ranges the way a
+ * browser does. With request handling on virtual threads, API latency should stay flat.
+ *
+ * Usage (against a running server):
+ * java -cp target/test-classes com.rexxy.stream.benchmark.StreamingLoadHarness \
+ *     http://localhost:8080 /api/videos/library/Course/lesson.mp4 [streams=1000] [seconds=60] \
+ *     [probePath=/api/courses] [kbps=2000]
+ */
+public class StreamingLoadHarness {
+
+    private static final long RANGE_WINDOW = 1024 * 1024;
+    private static final Duration PROBE_INTERVAL = Duration.ofMillis(100);
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: StreamingLoadHarness <baseUrl> <videoPath> [streams] [seconds] [probePath] [kbps]");
+            System.exit(1);
+        }
+        String baseUrl = args[0];
+        String videoPath = args[1];
+        int streams = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 60;
+        String probePath = args.length > 4 ? args[4] : "/api/courses";
+        int kbps = args.length > 5 ? Integer.parseInt(args[5]) : 2000;
+
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+        URI probeUri = URI.create(baseUrl + probePath);
+        URI videoUri = URI.create(baseUrl + videoPath);
+
+        System.out.printf("Baseline: probing %s for %ds with no streams%n", probePath, seconds / 2);
+        List<Long> baseline = probe(client, probeUri, Duration.ofSeconds(Math.max(5, seconds / 2)));
+        report("baseline", baseline);
+
+        System.out.printf("Load: %d streams at %d kbps from %s for %ds%n", streams, kbps, videoPath, seconds);
+        AtomicLong bytesStreamed = new AtomicLong();
+        AtomicLong streamErrors = new AtomicLong();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+
+        List<Long> underLoad;
+        try (ExecutorService players = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < streams; i++) {
+                players.submit(() -> play(client, videoUri, kbps, deadline, bytesStreamed, streamErrors));
+            }
+            // Give the players a moment to ramp up before measuring
+            Thread.sleep(2000);
+            underLoad = probe(client, probeUri, Duration.ofSeconds(Math.max(5, seconds - 4)));
+        }
+        report("under load", underLoad);
+
+        System.out.printf("Streamed %.1f MB, %d stream errors%n", bytesStreamed.get() / 1e6, streamErrors.get());
+        double ratio = (double) percentile(underLoad, 99) / Math.max(1, percentile(baseline, 99));
+        System.out.printf("p99 ratio under load / baseline: %.2f%n", ratio);
+    }
+
+    private static void play(HttpClient client, URI videoUri, int kbps, long deadline,
+            AtomicLong bytesStreamed, AtomicLong streamErrors) {
+        long bytesPerSecond = kbps * 1000L / 8;
+        long offset = 0;
+        long started = System.nanoTime();
+        long received = 0;
+        byte[] buffer = new byte[16 * 1024];
+
+        while (System.nanoTime() < deadline) {
+            HttpRequest request = HttpRequest.newBuilder(videoUri)
+                    .header("Range", "bytes=" + offset + "-" + (offset + RANGE_WINDOW - 1))
+                    .timeout(Duration.ofSeconds(30))
+                    .build();
+            try {
+                HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+                if (response.statusCode() == 416) {
+                    // Reached the end of the file: start again like a looping player
+                    offset = 0;
+                    response.body().close();
+                    continue;
+                }
+                try (InputStream body = response.body()) {
+                    int read;
+                    while ((read = body.read(buffer)) != -1) {
+                        offset += read;
+                        received += read;
+                        bytesStreamed.addAndGet(read);
+                        throttle(started, received, bytesPerSecond);
+                        if (System.nanoTime() >= deadline) {
+                            return;
+                        }
+                    }
+                }
+                if (response.statusCode() == 200) {
+                    offset = 0;
+                }
+            } catch (IOException e) {
+                streamErrors.incrementAndGet();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    // Sleep just enough to keep the player at its target bitrate
+    private static void throttle(long startedNanos, long received, long bytesPerSecond) throws InterruptedException {
+        long expectedNanos = received * 1_000_000_000L / bytesPerSecond;
+        long aheadNanos = expectedNanos - (System.nanoTime() - startedNanos);
+        if (aheadNanos > 1_000_000) {
+            TimeUnit.NANOSECONDS.sleep(aheadNanos);
+        }
+    }
+
+    private static List<Long> probe(HttpClient client, URI probeUri, Duration duration) throws InterruptedException {
+        List<Long> latenciesMicros = new ArrayList<>();
+        long end = System.nanoTime() + duration.toNanos();
+        while (System.nanoTime() < end) {
+            long start = System.nanoTime();
+            try {
+                client.send(HttpRequest.newBuilder(probeUri).timeout(Duration.ofSeconds(30)).build(),
+                        HttpResponse.BodyHandlers.discarding());
+                latenciesMicros.add((System.nanoTime() - start) / 1000);
+            } catch (IOException e) {
+                latenciesMicros.add(TimeUnit.SECONDS.toMicros(30));
+            }
+            Thread.sleep(PROBE_INTERVAL.toMillis());
+        }
+        return latenciesMicros;
+    }
+
+    private static void report(String phase, List<Long> latenciesMicros) {
+        System.out.printf("%-10s n=%d p50=%.1fms p95=%.1fms p99=%.1fms max=%.1fms%n", phase, latenciesMicros.size(),
+                percentile(latenciesMicros, 50) / 1000.0, percentile(latenciesMicros, 95) / 1000.0,
+                percentile(latenciesMicros, 99) / 1000.0, percentile(latenciesMicros, 100) / 1000.0);
+    }
+
+    private static long percentile(List<Long> values, int percentile) {
+        if (values.isEmpty()) {
+            return 0;
+        }
+        List<Long> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(index, sorted.size() - 1)));
+    }
+}
@@ -0,0 +1,154 @@
+package com.rexxy.stream.config;
+
+import com.rexxy.stream.dto.CourseDTO;
+import com.rexxy.stream.dto.CourseHierarchyDTO;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CompactCacheSerializerTest {
+
+    private final CompactCacheSerializer serializer = new CompactCacheSerializer(4096);
+    private final GenericJackson2JsonRedisSerializer json = new GenericJackson2JsonRedisSerializer();
+
+    @Test
+    void hierarchyRoundTripsAndIsSmallerThanJson() {
+        CourseHierarchyDTO hierarchy = hierarchy(500);
+
+        byte[] bytes = serializer.serialize(hierarchy);
+
+        assertThat(serializer.deserialize(bytes)).isEqualTo(hierarchy);
+        assertThat(bytes[0]).isEqualTo(CompactCacheSerializer.VERSION);
+        assertThat(bytes[2] & CompactCacheSerializer.FLAG_LZ4).isEqualTo(CompactCacheSerializer.FLAG_LZ4);
+        assertThat(bytes.length).isLessThan(json.serialize(hierarchy).length / 4);
+    }
+
+    @Test
+    void smallEntriesAndNullsAreKeptUncompressed() {
+        CourseHierarchyDTO hierarchy = new CourseHierarchyDTO("c", "Course", null, null, null, "2024-01-01T00:00",
+                "00:00", null, List.of());
+        CourseDTO course = new CourseDTO("c", "Course", "Ünïcode ✓", "General", null, "2024-01-01T00:00",
+                new ArrayList<>(List.of("java")));
+
+        byte[] bytes = serializer.serialize(hierarchy);
+
+        assertThat(bytes[2]).isZero();
+        assertThat(serializer.deserialize(bytes)).isEqualTo(hierarchy);
+        assertThat(serializer.deserialize(serializer.serialize(course))).isEqualTo(course);
+        assertThat(serializer.deserialize(serializer.serialize(List.of(course, course)))).isEqualTo(List.of(course, course));
+    }
+
+    @Test
+    void readListsAreUnmodifiableBecauseReadersShareThem() {
+        CourseHierarchyDTO hierarchy = (CourseHierarchyDTO) serializer.deserialize(serializer.serialize(hierarchy(12)));
+        CourseDTO course = new CourseDTO("c", "Course", null, null, null, "2024-01-01T00:00",
+                new ArrayList<>(List.of("java")));
+        List<?> courses = (List<?>) serializer.deserialize(serializer.serialize(new ArrayList<>(List.of(course))));
+
+        assertThatThrownBy(() -> hierarchy.getTags().add("spring")).isInstanceOf(UnsupportedOperationException.class);
+        assertThatThrownBy(() -> hierarchy.getModules().clear()).isInstanceOf(UnsupportedOperationException.class);
+        assertThatThrownBy(() -> hierarchy.getModules().get(0).getLessonGroups().get(0).getLessons().remove(0))
+                .isInstanceOf(UnsupportedOperationException.class);
+        assertThatThrownBy(() -> courses.remove(0)).isInstanceOf(UnsupportedOperationException.class);
+        assertThatThrownBy(() -> ((CourseDTO) courses.get(0)).getTags().add("spring"))
+                .isInstanceOf(UnsupportedOperationException.class);
+    }
+
+    @Test
+    void codecsWriteExactlyTheFieldsTheDtosDeclare() {
+        for (Map.Entry<Class<?>, List<String>> codec : CompactCacheSerializer.FIELDS.entrySet()) {
+            assertThat(Arrays.stream(codec.getKey().getDeclaredFields())
+                    .filter(field -> !Modifier.isStatic(field.getModifiers()) && !field.isSynthetic())
+                    .map(Field::getName))
+                    .as("fields of %s", codec.getKey().getSimpleName())
+                    .containsExactlyElementsOf(codec.getValue());
+        }
+        assertThat(CompactCacheSerializer.FIELDS).containsOnlyKeys(CourseDTO.class, CourseHierarchyDTO.class,
+                CourseHierarchyDTO.ModuleHierarchyDTO.class, CourseHierarchyDTO.LessonGroupHierarchyDTO.class,
+                CourseHierarchyDTO.LessonHierarchyDTO.class);
+    }
+
+    @Test
+    void everyDeclaredFieldSurvivesARoundTrip() throws Exception {
+        CourseHierarchyDTO.LessonHierarchyDTO lesson = filled(CourseHierarchyDTO.LessonHierarchyDTO.class, null);
+        CourseHierarchyDTO.LessonGroupHierarchyDTO group = filled(CourseHierarchyDTO.LessonGroupHierarchyDTO.class,
+                List.of(lesson));
+        CourseHierarchyDTO.ModuleHierarchyDTO module = filled(CourseHierarchyDTO.ModuleHierarchyDTO.class,
+                List.of(group));
+        CourseHierarchyDTO hierarchy = filled(CourseHierarchyDTO.class, List.of(module));
+        CourseDTO course = filled(CourseDTO.class, null);
+
+        assertThat(serializer.deserialize(serializer.serialize(hierarchy))).isEqualTo(hierarchy);
+        assertThat(serializer.deserialize(serializer.serialize(course))).isEqualTo(course);
+    }
+
+    @Test
+    void otherValuesAndOlderEntriesGoThroughJson() {
+        Map<String, Object> session = new HashMap<>(Map.of("user", "u-1"));
+        assertThat(serializer.deserialize(serializer.serialize(session))).isEqualTo(session);
+
+        // Written by the JSON serializer before the upgrade
+        CourseHierarchyDTO hierarchy = hierarchy(3);
+        assertThat(serializer.deserialize(json.serialize(hierarchy))).isEqualTo(hierarchy);
+
+        // Written by a newer version: a cache miss rather than an error
+        byte[] newer = serializer.serialize(hierarchy);
+        newer[0] = CompactCacheSerializer.VERSION + 1;
+        assertThat(serializer.deserialize(newer)).isNull();
+    }
+
+    /**
+     * A DTO with a distinct value in every field: strings are named after their field, lists of
+     * strings hold one such string and the list of children is {@code children}
+     */
+    private static <T> T filled(Class<T> type, List<?> children) throws Exception {
+        T dto = type.getDeclaredConstructor().newInstance();
+        for (Field field : type.getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers()) || field.isSynthetic()) {
+                continue;
+            }
+            field.setAccessible(true);
+            if (field.getType() == String.class) {
+                field.set(dto, type.getSimpleName() + "." + field.getName());
+            } else if (field.getType() == List.class && field.getGenericType().getTypeName().endsWith("<java.lang.String>")) {
+                field.set(dto, List.of(type.getSimpleName() + "." + field.getName()));
+            } else if (field.getType() == List.class) {
+                field.set(dto, children);
+            } else {
+                throw new AssertionError("No test value for " + type.getSimpleName() + "." + field.getName());
+            }
+        }
+        return dto;
+    }
+
+    static CourseHierarchyDTO hierarchy(int lessons) {
+        List<CourseHierarchyDTO.ModuleHierarchyDTO> modules = new ArrayList<>();
+        int lesson = 0;
+        for (int m = 0; lesson < lessons; m++) {
+            List<CourseHierarchyDTO.LessonGroupHierarchyDTO> groups = new ArrayList<>();
+            for (int g = 0; g < 5 && lesson < lessons; g++) {
+                List<CourseHierarchyDTO.LessonHierarchyDTO> items = new ArrayList<>();
+                for (int l = 0; l < 10 && lesson < lessons; l++, lesson++) {
+                    items.add(new CourseHierarchyDTO.LessonHierarchyDTO("lesson-" + lesson,
+                            "Lesson " + lesson + " - Working with streams", "12:34", null,
+                            "The Java Series/Part " + m + "/Section " + g + "/" + lesson + ".mp4"));
+                }
+                groups.add(new CourseHierarchyDTO.LessonGroupHierarchyDTO("group-" + m + "-" + g, "Section " + g,
+                        "02:05:40", items));
+            }
+            modules.add(new CourseHierarchyDTO.ModuleHierarchyDTO("module-" + m, "Part " + m, "10:28:20", groups));
+        }
+        return new CourseHierarchyDTO("course-1", "The Java Series", "Everything about Java", "Programming",
+                null, "2024-01-01T10:00", "104:43:20", new ArrayList<>(List.of("java", "backend")), modules);
+    }
+}
@@ -0,0 +1,188 @@
+package com.rexxy.stream.config;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+import org.springframework.cache.Cache;
+import org.springframework.cache.concurrent.ConcurrentMapCache;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class TwoTierCacheManagerTest {
+
+    // Stands in for Redis: one shared tier and one pub/sub channel for every instance
+    private final ConcurrentMapCacheManager redis = new ConcurrentMapCacheManager() {
+        @Override
+        protected Cache createConcurrentMapCache(String name) {
+            return new ConcurrentMapCache(name) {
+                @Override
+                public ValueWrapper get(Object key) {
+                    ValueWrapper value = super.get(key);
+                    afterRedisRead();
+                    return value;
+                }
+
+                @Override
+                public <T> T get(Object key, Callable<T> valueLoader) {
+                    T value = super.get(key, valueLoader);
+                    afterRedisLoad();
+                    return value;
+                }
+            };
+        }
+    };
+    // Run once, right after the next Redis read or load returns
+    private volatile Runnable afterRedisRead;
+    private volatile Runnable afterRedisLoad;
+    private final List<TwoTierCacheManager> instances = new ArrayList<>();
+    private CacheTierConfig config;
+
+    @BeforeEach
+    void setUp() {
+        config = new CacheTierConfig();
+    }
+
+    @Test
+    void repeatedReadsAreServedFromTheNearTier() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        Cache cache = instance(registry).getCache("courseHierarchyV2");
+        redis.getCache("courseHierarchyV2").put("course-1", "hierarchy");
+
+        assertThat(cache.get("course-1").get()).isEqualTo("hierarchy");
+        // Gone from Redis, still answered from the heap
+        redis.getCache("courseHierarchyV2").evict("course-1");
+        assertThat(cache.get("course-1").get()).isEqualTo("hierarchy");
+        assertThat(cache.get("course-2")).isNull();
+
+        assertThat(gets(registry, "near", "hit")).isEqualTo(1);
+        assertThat(gets(registry, "near", "miss")).isEqualTo(2);
+        assertThat(gets(registry, "redis", "hit")).isEqualTo(1);
+        assertThat(gets(registry, "redis", "miss")).isEqualTo(1);
+        assertThat(registry.get("cache.tier.hit.ratio").tag("cache", "courseHierarchyV2").tag("tier", "near")
+                .gauge().value()).isEqualTo(1 / 3.0);
+    }
+
+    @Test
+    void nearTierHandsEveryReaderTheSameValue() {
+        Cache cache = instance(new SimpleMeterRegistry()).getCache("courseHierarchyV2");
+        List<String> value = List.of("read-only");
+        cache.put("course-1", value);
+
+        // Not copied per reader, which is why cached values must never be modified
+        assertThat(cache.get("course-1").get()).isSameAs(value);
+        assertThat(cache.get("course-1", List.class)).isSameAs(value);
+    }
+
+    @Test
+    void anEvictionDuringARedisReadKeepsTheOldValueOutOfTheNearTier() throws Exception {
+        Cache cache = instance(new SimpleMeterRegistry()).getCache("courseHierarchyV2");
+        Cache other = instance(new SimpleMeterRegistry()).getCache("courseHierarchyV2");
+        redis.getCache("courseHierarchyV2").put("course-1", "v1");
+
+        afterRedisRead = () -> cache.evict("course-1");
+        assertThat(cache.get("course-1").get()).isEqualTo("v1");
+        assertThat(cache.get("course-1")).isNull();
+
+        // Same for a load, and for an eviction announced by another instance
+        afterRedisLoad = () -> other.evict("course-1");
+        assertThat(cache.get("course-1", () -> "loaded")).isEqualTo("loaded");
+        redis.getCache("courseHierarchyV2").put("course-1", "v2");
+        assertThat(cache.get("course-1").get()).isEqualTo("v2");
+
+        afterRedisRead = () -> other.clear();
+        redis.getCache("courseHierarchyV2").put("course-2", "v1");
+        assertThat(cache.get("course-2").get()).isEqualTo("v1");
+        assertThat(cache.get("course-2")).isNull();
+    }
+
+    @Test
+    void writesOnOneInstanceDropTheNearCopyOnTheOthers() {
+        Cache writer = instance(new SimpleMeterRegistry()).getCache("courseHierarchyV2");
+        Cache reader = instance(new SimpleMeterRegistry()).getCache("courseHierarchyV2");
+        writer.put("course-1", "v1");
+        writer.put("course-2", "v1");
+        assertThat(reader.get("course-1").get()).isEqualTo("v1");
+        assertThat(reader.get("course-2").get()).isEqualTo("v1");
+
+        writer.put("course-1", "v2");
+        assertThat(reader.get("course-1").get()).isEqualTo("v2");
+        assertThat(writer.get("course-1").get()).isEqualTo("v2");
+
+        writer.evict("course-1");
+        assertThat(reader.get("course-1")).isNull();
+        // Only the announced key was dropped
+        redis.getCache("courseHierarchyV2").put("course-2", "changed behind the near tier");
+        assertThat(reader.get("course-2").get()).isEqualTo("v1");
+
+        writer.clear();
+        assertThat(reader.get("course-2")).isNull();
+    }
+
+    @Test
+    void perCacheSettingsBindFromProperties() {
+        new Binder(new MapConfigurationPropertySource(Map.of(
+                "cache.tiers.near-ttl", "2m",
+                "cache.tiers.caches.courseHierarchyV2.maximum-size", "500",
+                "cache.tiers.caches.courseHierarchyV2.redis-ttl", "1h",
+                "cache.tiers.caches.userSessions.maximum-size", "0")))
+                .bind("cache.tiers", Bindable.ofInstance(config));
+
+        assertThat(config.maximumSize("courseHierarchyV2")).isEqualTo(500);
+        assertThat(config.redisTtl("courseHierarchyV2")).isEqualTo(Duration.ofHours(1));
+        assertThat(config.nearTtl("courseHierarchyV2")).isEqualTo(Duration.ofMinutes(2));
+        assertThat(config.maximumSize("courses")).isEqualTo(1000);
+
+        TwoTierCacheManager manager = instance(new SimpleMeterRegistry());
+        assertThat(manager.getCache("courseHierarchyV2")).isInstanceOf(TwoTierCache.class);
+        // A size of 0 leaves the cache in Redis only
+        assertThat(manager.getCache("userSessions")).isSameAs(redis.getCache("userSessions"));
+    }
+
+    private void afterRedisRead() {
+        Runnable hook = afterRedisRead;
+        afterRedisRead = null;
+        if (hook != null) {
+            hook.run();
+        }
+    }
+
+    private void afterRedisLoad() {
+        Runnable hook = afterRedisLoad;
+        afterRedisLoad = null;
+        if (hook != null) {
+            hook.run();
+        }
+    }
+
+    private TwoTierCacheManager instance(SimpleMeterRegistry registry) {
+        StringRedisTemplate template = mock(StringRedisTemplate.class);
+        when(template.convertAndSend(anyString(), any())).thenAnswer(invocation -> {
+            for (TwoTierCacheManager instance : instances) {
+                instance.onInvalidation(invocation.getArgument(1));
+            }
+            return (long) instances.size();
+        });
+        TwoTierCacheManager manager = new TwoTierCacheManager(redis, config, template, registry);
+        instances.add(manager);
+        return manager;
+    }
+
+    private static double gets(SimpleMeterRegistry registry, String tier, String result) {
+        return registry.get("cache.tier.gets").tag("tier", tier).tag("result", result).counter().count();
+    }
+}
@@ -0,0 +1,33 @@
+package com.rexxy.stream.controller;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AcceptEncodingTest {
+
+    @Test
+    void listedCodingsAreAccepted() {
+        assertThat(AcceptEncoding.accepts("gzip", "gzip")).isTrue();
+        assertThat(AcceptEncoding.accepts("br, GZIP;q=0.5", "gzip")).isTrue();
+        assertThat(AcceptEncoding.accepts("deflate, x-gzip", "gzip")).isTrue();
+        assertThat(AcceptEncoding.accepts("*", "gzip")).isTrue();
+    }
+
+    @Test
+    void zeroWeightRefusesACoding() {
+        assertThat(AcceptEncoding.accepts("gzip;q=0", "gzip")).isFalse();
+        assertThat(AcceptEncoding.accepts("br, gzip ; q=0.000", "gzip")).isFalse();
+        assertThat(AcceptEncoding.accepts("gzip;q=0, *", "gzip")).isFalse();
+        assertThat(AcceptEncoding.accepts("br, *;q=0", "gzip")).isFalse();
+    }
+
+    @Test
+    void missingOrUnrelatedHeadersMeanIdentity() {
+        assertThat(AcceptEncoding.accepts(null, "gzip")).isFalse();
+        assertThat(AcceptEncoding.accepts("", "gzip")).isFalse();
+        assertThat(AcceptEncoding.accepts("br, deflate", "gzip")).isFalse();
+        assertThat(AcceptEncoding.accepts("gzipped", "gzip")).isFalse();
+        assertThat(AcceptEncoding.accepts("gzip;q=high", "gzip")).isFalse();
+    }
+}
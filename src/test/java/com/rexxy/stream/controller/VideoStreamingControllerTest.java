@@ -0,0 +1,273 @@
+package com.rexxy.stream.controller;
+
+import com.rexxy.stream.config.FileStorageConfig;
+import com.rexxy.stream.config.MediaStreamingConfig;
+import com.rexxy.stream.config.UploadConfig;
+import com.rexxy.stream.service.AdaptiveChunkSizer;
+import com.rexxy.stream.service.BlobStoreService;
+import com.rexxy.stream.service.HlsPackager;
+import com.rexxy.stream.service.MediaCatalog;
+import com.rexxy.stream.service.MediaRangeService;
+import com.rexxy.stream.service.StreamingUploadService;
+import com.rexxy.stream.service.TranscodeService;
+import com.rexxy.stream.service.VideoSegmentCache;
+import com.rexxy.stream.service.VideoStreamingService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+class VideoStreamingControllerTest {
+
+    private static final int FILE_SIZE = 64 * 1024;
+    private static final long CHUNK_SIZE = 4096;
+
+    @TempDir
+    Path uploadDir;
+
+    private byte[] content;
+    private MediaStreamingConfig streamingConfig;
+    private VideoStreamingController controller;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        content = new byte[FILE_SIZE];
+        new Random(7).nextBytes(content);
+        Files.write(uploadDir.resolve("lecture.mp4"), content);
+
+        FileStorageConfig storageConfig = new FileStorageConfig();
+        storageConfig.setUploadDir(uploadDir.toString());
+        storageConfig.setLocalLibraryRoot(uploadDir.toString());
+
+        streamingConfig = new MediaStreamingConfig();
+        streamingConfig.setDefaultChunkSize(CHUNK_SIZE);
+
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        VideoSegmentCache segmentCache = new VideoSegmentCache(streamingConfig, meterRegistry);
+        MediaCatalog mediaCatalog = new MediaCatalog(storageConfig, streamingConfig, segmentCache);
+        TranscodeService transcodeService = mock(TranscodeService.class);
+        BlobStoreService blobStoreService = mock(BlobStoreService.class);
+        VideoStreamingService videoStreamingService = new VideoStreamingService(storageConfig, blobStoreService);
+        videoStreamingService.init();
+        controller = new VideoStreamingController(videoStreamingService, storageConfig, streamingConfig,
+                new MediaRangeService(streamingConfig, segmentCache,
+                        new AdaptiveChunkSizer(streamingConfig, meterRegistry)),
+                mediaCatalog, new HlsPackager(streamingConfig), transcodeService,
+                new StreamingUploadService(new UploadConfig(), blobStoreService));
+    }
+
+    @Test
+    void closedRangeReturnsExactlyTheRequestedBytes() throws Exception {
+        MockHttpServletResponse response = stream("bytes=1000-1999");
+
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getHeader("Content-Range")).isEqualTo("bytes 1000-1999/" + FILE_SIZE);
+        assertThat(response.getContentLengthLong()).isEqualTo(1000);
+        assertThat(response.getContentAsByteArray()).isEqualTo(Arrays.copyOfRange(content, 1000, 2000));
+    }
+
+    @Test
+    void openEndedRangeIsCappedToDefaultChunk() throws Exception {
+        MockHttpServletResponse response = stream("bytes=5000-");
+
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getHeader("Content-Range")).isEqualTo("bytes 5000-9095/" + FILE_SIZE);
+        assertThat(response.getContentAsByteArray()).isEqualTo(Arrays.copyOfRange(content, 5000, 9096));
+    }
+
+    @Test
+    void rangePastEndOfFileIsClamped() throws Exception {
+        MockHttpServletResponse response = stream("bytes=" + (FILE_SIZE - 10) + "-" + (FILE_SIZE + 500));
+
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getHeader("Content-Range"))
+                .isEqualTo("bytes " + (FILE_SIZE - 10) + "-" + (FILE_SIZE - 1) + "/" + FILE_SIZE);
+        assertThat(response.getContentAsByteArray())
+                .isEqualTo(Arrays.copyOfRange(content, FILE_SIZE - 10, FILE_SIZE));
+    }
+
+    @Test
+    void suffixRangeReturnsTail() throws Exception {
+        MockHttpServletResponse response = stream("bytes=-500");
+
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getHeader("Content-Range"))
+                .isEqualTo("bytes " + (FILE_SIZE - 500) + "-" + (FILE_SIZE - 1) + "/" + FILE_SIZE);
+        assertThat(response.getContentAsByteArray())
+                .isEqualTo(Arrays.copyOfRange(content, FILE_SIZE - 500, FILE_SIZE));
+    }
+
+    @Test
+    void multiRangeReturnsMultipartByteranges() throws Exception {
+        MockHttpServletResponse response = stream("bytes=0-99,-100");
+
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getContentType()).startsWith("multipart/byteranges; boundary=");
+        String boundary = response.getContentType().substring(response.getContentType().indexOf('=') + 1);
+
+        byte[] body = response.getContentAsByteArray();
+        assertThat(response.getContentLengthLong()).isEqualTo(body.length);
+
+        String partType = Files.probeContentType(uploadDir.resolve("lecture.mp4"));
+        if (partType == null) {
+            partType = "application/octet-stream";
+        }
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(("\r\n--" + boundary + "\r\nContent-Type: " + partType + "\r\n"
+                + "Content-Range: bytes 0-99/" + FILE_SIZE + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        expected.write(content, 0, 100);
+        expected.write(("\r\n--" + boundary + "\r\nContent-Type: " + partType + "\r\n"
+                + "Content-Range: bytes " + (FILE_SIZE - 100) + "-" + (FILE_SIZE - 1) + "/" + FILE_SIZE
+                + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        expected.write(content, FILE_SIZE - 100, 100);
+        expected.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+        assertThat(body).isEqualTo(expected.toByteArray());
+    }
+
+    @Test
+    void unsatisfiableRangeReturns416() throws Exception {
+        MockHttpServletResponse response = stream("bytes=" + FILE_SIZE + "-");
+
+        assertThat(response.getStatus()).isEqualTo(416);
+        assertThat(response.getHeader("Content-Range")).isEqualTo("bytes */" + FILE_SIZE);
+        assertThat(response.getContentAsByteArray()).isEmpty();
+    }
+
+    @Test
+    void malformedRangeFallsBackToWholeFile() throws Exception {
+        MockHttpServletResponse response = stream("bytes=oops");
+
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getContentAsByteArray()).isEqualTo(content);
+    }
+
+    @Test
+    void noRangeReturnsWholeFile() throws Exception {
+        MockHttpServletResponse response = stream(null);
+
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getHeader("Accept-Ranges")).isEqualTo("bytes");
+        assertThat(response.getContentAsByteArray()).isEqualTo(content);
+    }
+
+    @Test
+    void sendfileIsDelegatedToContainerWhenSupported() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/videos/stream/lecture.mp4");
+        request.setAttribute("org.apache.tomcat.sendfile.support", Boolean.TRUE);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        controller.streamVideo("lecture.mp4", request, response, "bytes=100-199");
+
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getContentLengthLong()).isEqualTo(100);
+        assertThat(response.getContentAsByteArray()).isEmpty();
+        assertThat(request.getAttribute("org.apache.tomcat.sendfile.filename"))
+                .isEqualTo(uploadDir.resolve("lecture.mp4").toAbsolutePath().toString());
+        assertThat(request.getAttribute("org.apache.tomcat.sendfile.start")).isEqualTo(100L);
+        assertThat(request.getAttribute("org.apache.tomcat.sendfile.end")).isEqualTo(200L);
+    }
+
+    @Test
+    void missingOrEscapingFileIsNotFound() throws Exception {
+        MockHttpServletResponse missing = new MockHttpServletResponse();
+        controller.streamVideo("nope.mp4", new MockHttpServletRequest(), missing, "bytes=0-10");
+        assertThat(missing.getStatus()).isEqualTo(404);
+
+        MockHttpServletResponse escaping = new MockHttpServletResponse();
+        controller.streamVideo("..", new MockHttpServletRequest(), escaping, null);
+        assertThat(escaping.getStatus()).isEqualTo(404);
+    }
+
+    @Test
+    void responsesCarryValidatorsAndCachePolicy() throws Exception {
+        MockHttpServletResponse response = stream(null);
+
+        assertThat(response.getHeader("ETag")).startsWith("\"").endsWith("\"");
+        assertThat(response.getHeader("Last-Modified")).isNotNull();
+        assertThat(response.getHeader("Cache-Control")).contains("public").contains("immutable");
+    }
+
+    @Test
+    void matchingIfNoneMatchReturns304WithoutBody() throws Exception {
+        String etag = stream(null).getHeader("ETag");
+
+        MockHttpServletRequest request = get();
+        request.addHeader("If-None-Match", etag);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        controller.streamVideo("lecture.mp4", request, response, "bytes=0-99");
+
+        assertThat(response.getStatus()).isEqualTo(304);
+        assertThat(response.getContentAsByteArray()).isEmpty();
+    }
+
+    @Test
+    void ifModifiedSinceReturns304WhenUnchanged() throws Exception {
+        MockHttpServletRequest request = get();
+        request.addHeader("If-Modified-Since",
+                Files.getLastModifiedTime(uploadDir.resolve("lecture.mp4")).toMillis());
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        controller.streamVideo("lecture.mp4", request, response, null);
+
+        assertThat(response.getStatus()).isEqualTo(304);
+    }
+
+    @Test
+    void ifRangeWithCurrentEtagHonoursRange() throws Exception {
+        String etag = stream(null).getHeader("ETag");
+
+        MockHttpServletRequest request = get();
+        request.addHeader("If-Range", etag);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        controller.streamVideo("lecture.mp4", request, response, "bytes=0-99");
+
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getContentAsByteArray()).isEqualTo(Arrays.copyOfRange(content, 0, 100));
+    }
+
+    @Test
+    void ifRangeWithStaleEtagReturnsFullFile() throws Exception {
+        MockHttpServletRequest request = get();
+        request.addHeader("If-Range", "\"stale\"");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        controller.streamVideo("lecture.mp4", request, response, "bytes=0-99");
+
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getContentAsByteArray()).isEqualTo(content);
+    }
+
+    private MockHttpServletRequest get() {
+        return new MockHttpServletRequest("GET", "/api/videos/stream/lecture.mp4");
+    }
+
+    @Test
+    void hlsRejectsFilesThatAreNotProgressiveMp4() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/videos/hls/lecture.mp4/index.m3u8");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        controller.streamLibraryHls(request, response);
+        assertThat(response.getStatus()).isEqualTo(415);
+
+        MockHttpServletResponse escaping = new MockHttpServletResponse();
+        controller.streamLibraryHls(new MockHttpServletRequest("GET", "/api/videos/hls/../x.mp4/index.m3u8"),
+                escaping);
+        assertThat(escaping.getStatus()).isEqualTo(403);
+    }
+
+    private MockHttpServletResponse stream(String range) throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        controller.streamVideo("lecture.mp4", get(), response, range);
+        return response;
+    }
+}
@@ -0,0 +1,252 @@
+package com.rexxy.stream.controller;
+
+import com.rexxy.stream.config.FileStorageConfig;
+import com.rexxy.stream.config.MediaStreamingConfig;
+import com.rexxy.stream.config.TomcatConfig;
+import com.rexxy.stream.config.UploadConfig;
+import com.rexxy.stream.model.VideoBlob;
+import com.rexxy.stream.repository.LessonRepository;
+import com.rexxy.stream.repository.VideoBlobRepository;
+import com.rexxy.stream.service.AdaptiveChunkSizer;
+import com.rexxy.stream.service.BlobStoreService;
+import com.rexxy.stream.service.HlsPackager;
+import com.rexxy.stream.service.MediaCatalog;
+import com.rexxy.stream.service.MediaRangeService;
+import com.rexxy.stream.service.StreamingUploadService;
+import com.rexxy.stream.service.ThumbnailService;
+import com.rexxy.stream.service.TranscodeService;
+import com.rexxy.stream.service.VideoSegmentCache;
+import com.rexxy.stream.service.VideoStreamingService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.http.HttpMessageConvertersAutoConfiguration;
+import org.springframework.boot.autoconfigure.jackson.JacksonAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.servlet.DispatcherServletAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.servlet.MultipartAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.servlet.ServletWebServerFactoryAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.servlet.WebMvcAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.web.multipart.MultipartResolver;
+import org.springframework.web.multipart.support.StandardServletMultipartResolver;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Posts real multipart bodies to {@code /api/videos/upload/stream} on an embedded Tomcat, with
+ * the multipart settings from application.properties, so the container's request parsing is
+ * part of what is tested.
+ */
+@SpringBootTest(classes = VideoUploadEndpointTest.UploadEndpoint.class,
+        webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class VideoUploadEndpointTest {
+
+    private static final String BOUNDARY = "----form9QpXkz3Lm2Rd";
+
+    @TempDir
+    static Path uploadDir;
+
+    @LocalServerPort
+    int port;
+
+    @Autowired
+    MultipartResolver multipartResolver;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    @DynamicPropertySource
+    static void storage(DynamicPropertyRegistry registry) {
+        registry.add("file.storage.upload-dir", uploadDir::toString);
+        registry.add("file.storage.local-library-root", uploadDir::toString);
+    }
+
+    @Test
+    void newContentIsCreatedAndAnnouncedDuplicatesAreNotStoredTwice() throws Exception {
+        byte[] video = mp4(200_000);
+        String sha256 = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(video));
+
+        HttpResponse<String> created = post(form(video), null);
+
+        // The handler parses the raw body itself; had the resolver read it first there would
+        // be no file part left and the upload would fail instead of storing these bytes
+        assertThat(created.statusCode()).isEqualTo(201);
+        assertThat(created.headers().firstValue("X-Content-SHA256")).hasValue(sha256);
+        assertThat(created.body()).contains("\"filename\":\"" + sha256 + ".mp4\"");
+        assertThat(Files.readAllBytes(uploadDir.resolve(sha256 + ".mp4"))).isEqualTo(video);
+
+        HttpResponse<String> duplicate = post(form(video), sha256);
+
+        assertThat(duplicate.statusCode()).isEqualTo(200);
+        assertThat(duplicate.headers().firstValue("X-Content-SHA256")).hasValue(sha256);
+        assertThat(duplicate.body()).contains("\"filename\":\"" + sha256 + ".mp4\"");
+        try (var stored = Files.list(uploadDir)) {
+            assertThat(stored.filter(Files::isRegularFile)).containsExactly(uploadDir.resolve(sha256 + ".mp4"));
+        }
+    }
+
+    @Test
+    void announcedDuplicatesAreAnsweredBeforeTheBodyIsSent() throws Exception {
+        byte[] video = mp4(150_000);
+        String sha256 = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(video));
+        assertThat(post(form(video), null).statusCode()).isEqualTo(201);
+
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(10_000);
+            socket.getOutputStream().write(("POST /api/videos/upload/stream HTTP/1.1\r\n"
+                    + "Host: localhost\r\n"
+                    + "Content-Type: multipart/form-data; boundary=" + BOUNDARY + "\r\n"
+                    + "Content-Length: " + form(video).length + "\r\n"
+                    + "Expect: 100-continue\r\n"
+                    + "X-Content-SHA256: " + sha256 + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            socket.getOutputStream().flush();
+
+            // No body is sent: the final response must come without asking for it first
+            BufferedReader response = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+            assertThat(response.readLine()).startsWith("HTTP/1.1 200");
+        }
+    }
+
+    @Test
+    void multipartBodiesAreResolvedLazily() {
+        assertThat(multipartResolver).isInstanceOf(StandardServletMultipartResolver.class)
+                .hasFieldOrPropertyWithValue("resolveLazily", true);
+    }
+
+    private HttpResponse<String> post(byte[] body, String sha256) throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder(
+                        URI.create("http://localhost:" + port + "/api/videos/upload/stream"))
+                .header("Content-Type", "multipart/form-data; boundary=" + BOUNDARY)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body));
+        if (sha256 != null) {
+            request.header("X-Content-SHA256", sha256);
+        }
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static byte[] mp4(int size) {
+        byte[] data = new byte[size];
+        new Random(5).nextBytes(data);
+        byte[] header = "\0\0\0\u0018ftypisom".getBytes(StandardCharsets.ISO_8859_1);
+        System.arraycopy(header, 0, data, 0, header.length);
+        return data;
+    }
+
+    private static byte[] form(byte[] file) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(("--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"title\"\r\n\r\n"
+                + "Week 2\r\n--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"lecture.mp4\"\r\n"
+                + "Content-Type: video/mp4\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        out.write(file);
+        out.write(("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        return out.toByteArray();
+    }
+
+    /**
+     * Just the web layer and the upload path; the blob table is an in-memory map
+     */
+    @Configuration
+    @ImportAutoConfiguration({ServletWebServerFactoryAutoConfiguration.class,
+            DispatcherServletAutoConfiguration.class, MultipartAutoConfiguration.class,
+            WebMvcAutoConfiguration.class, HttpMessageConvertersAutoConfiguration.class,
+            JacksonAutoConfiguration.class})
+    @Import({VideoStreamingController.class, TomcatConfig.class})
+    static class UploadEndpoint {
+
+        @Bean
+        FileStorageConfig fileStorageConfig() {
+            return new FileStorageConfig();
+        }
+
+        @Bean
+        MediaStreamingConfig mediaStreamingConfig() {
+            return new MediaStreamingConfig();
+        }
+
+        @Bean
+        VideoSegmentCache videoSegmentCache(MediaStreamingConfig streamingConfig) {
+            return new VideoSegmentCache(streamingConfig, new SimpleMeterRegistry());
+        }
+
+        @Bean
+        MediaCatalog mediaCatalog(FileStorageConfig storageConfig, MediaStreamingConfig streamingConfig,
+                VideoSegmentCache segmentCache) {
+            return new MediaCatalog(storageConfig, streamingConfig, segmentCache);
+        }
+
+        @Bean
+        MediaRangeService mediaRangeService(MediaStreamingConfig streamingConfig, VideoSegmentCache segmentCache) {
+            return new MediaRangeService(streamingConfig, segmentCache,
+                    new AdaptiveChunkSizer(streamingConfig, new SimpleMeterRegistry()));
+        }
+
+        @Bean
+        HlsPackager hlsPackager(MediaStreamingConfig streamingConfig) {
+            return new HlsPackager(streamingConfig);
+        }
+
+        @Bean
+        TranscodeService transcodeService() {
+            return mock(TranscodeService.class);
+        }
+
+        @Bean
+        BlobStoreService blobStoreService(FileStorageConfig storageConfig, MediaCatalog catalog,
+                TranscodeService transcodeService) {
+            Map<String, VideoBlob> blobs = new ConcurrentHashMap<>();
+            VideoBlobRepository blobRepository = mock(VideoBlobRepository.class);
+            when(blobRepository.findById(anyString()))
+                    .thenAnswer(call -> Optional.ofNullable(blobs.get(call.<String>getArgument(0))));
+            when(blobRepository.save(any(VideoBlob.class))).thenAnswer(call -> {
+                VideoBlob blob = call.getArgument(0);
+                blobs.put(blob.getSha256(), blob);
+                return blob;
+            });
+            return new BlobStoreService(blobRepository, mock(LessonRepository.class), storageConfig, catalog,
+                    transcodeService, mock(ThumbnailService.class));
+        }
+
+        @Bean
+        VideoStreamingService videoStreamingService(FileStorageConfig storageConfig,
+                BlobStoreService blobStoreService) {
+            return new VideoStreamingService(storageConfig, blobStoreService);
+        }
+
+        @Bean
+        StreamingUploadService streamingUploadService(BlobStoreService blobStoreService) {
+            return new StreamingUploadService(new UploadConfig(), blobStoreService);
+        }
+    }
+}
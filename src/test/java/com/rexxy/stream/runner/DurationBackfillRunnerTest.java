@@ -0,0 +1,129 @@
+package com.rexxy.stream.runner;
+
+import com.rexxy.stream.config.DurationBackfillConfig;
+import com.rexxy.stream.config.FileStorageConfig;
+import com.rexxy.stream.repository.LessonRepository;
+import com.rexxy.stream.service.CourseCacheInvalidator;
+import com.rexxy.stream.service.MediaMetadataService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.data.domain.Pageable;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class DurationBackfillRunnerTest {
+
+    @TempDir
+    Path root;
+
+    // Lessons without a duration, by id
+    private final TreeMap<String, String> missing = new TreeMap<>();
+    private final List<List<Object[]>> batches = new ArrayList<>();
+    private LessonRepository lessonRepository;
+    private MediaMetadataService metadata;
+    private JdbcTemplate jdbcTemplate;
+    private CourseCacheInvalidator cacheInvalidator;
+    private DurationBackfillConfig config;
+    private FileStorageConfig storageConfig;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Files.createDirectories(root.resolve("library/course"));
+        Files.createDirectories(root.resolve("uploads"));
+        for (int i = 0; i < 5; i++) {
+            Files.write(root.resolve("library/course/" + i + ".mp4"), new byte[10]);
+            missing.put("id-" + i, "course/" + i + ".mp4");
+        }
+        missing.put("id-5", "gone.mp4");
+
+        lessonRepository = mock(LessonRepository.class);
+        when(lessonRepository.countByDurationIsNullAndResourcePathIsNotNull())
+                .thenAnswer(invocation -> (long) missing.size());
+        when(lessonRepository.findMissingDurationAfter(anyString(), any(Pageable.class))).thenAnswer(invocation -> {
+            String after = invocation.getArgument(0);
+            int limit = invocation.<Pageable>getArgument(1).getPageSize();
+            return missing.tailMap(after, false).entrySet().stream()
+                    .limit(limit)
+                    .map(entry -> new Object[] { entry.getKey(), entry.getValue() })
+                    .toList();
+        });
+        jdbcTemplate = mock(JdbcTemplate.class);
+        when(jdbcTemplate.batchUpdate(anyString(), anyList())).thenAnswer(invocation -> {
+            List<Object[]> batch = invocation.getArgument(1);
+            batches.add(batch);
+            return new int[batch.size()];
+        });
+        metadata = mock(MediaMetadataService.class);
+        when(metadata.getDuration(any())).thenReturn(75.0);
+        when(metadata.formatDuration(75.0)).thenReturn("01:15");
+
+        cacheInvalidator = mock(CourseCacheInvalidator.class);
+        storageConfig = new FileStorageConfig();
+        storageConfig.setLocalLibraryRoot(root.resolve("library").toString());
+        storageConfig.setUploadDir(root.resolve("uploads").toString());
+        config = new DurationBackfillConfig();
+        config.setWorkers(3);
+        config.setBatchSize(2);
+        config.setCheckpointFile(root.resolve("state/backfill.checkpoint").toString());
+    }
+
+    @Test
+    void probesInParallelAndWritesOneBatchPerPage() {
+        DurationBackfillRunner runner = runner();
+        runner.backfill();
+
+        // Three pages of two; the missing file is skipped
+        assertThat(batches).hasSize(3);
+        assertThat(batches.stream().flatMap(List::stream).map(row -> row[1]))
+                .containsExactly("id-0", "id-1", "id-2", "id-3", "id-4");
+        assertThat(batches.get(0).get(0)[0]).isEqualTo("01:15");
+        verify(jdbcTemplate, times(3)).batchUpdate(eq(
+                "UPDATE lessons SET duration = ? WHERE id = ? AND duration IS NULL"), anyList());
+
+        DurationBackfillRunner.Progress progress = runner.progress();
+        assertThat(progress.state()).isEqualTo(DurationBackfillRunner.State.COMPLETED);
+        assertThat(progress.pending()).isEqualTo(6);
+        assertThat(progress.processed()).isEqualTo(6);
+        assertThat(progress.updated()).isEqualTo(5);
+        assertThat(progress.lessonsPerSecond()).isPositive();
+        // A finished run leaves no checkpoint behind; each batch evicts only the courses it wrote to
+        assertThat(root.resolve("state/backfill.checkpoint")).doesNotExist();
+        verify(cacheInvalidator).evictCoursesOfLessons(List.of("id-0", "id-1"));
+        verify(cacheInvalidator).evictCoursesOfLessons(List.of("id-2", "id-3"));
+        verify(cacheInvalidator).evictCoursesOfLessons(List.of("id-4"));
+    }
+
+    @Test
+    void restartResumesAfterTheCheckpoint() throws Exception {
+        Files.createDirectories(root.resolve("state"));
+        Files.writeString(root.resolve("state/backfill.checkpoint"), "id-3");
+
+        runner().backfill();
+
+        assertThat(batches.stream().flatMap(List::stream).map(row -> row[1])).containsExactly("id-4");
+        verify(lessonRepository, never()).findMissingDurationAfter(eq(""), any(Pageable.class));
+    }
+
+    private DurationBackfillRunner runner() {
+        return new DurationBackfillRunner(lessonRepository, metadata, storageConfig, config, jdbcTemplate,
+                cacheInvalidator, new SimpleMeterRegistry());
+    }
+}
@@ -0,0 +1,145 @@
+package com.rexxy.stream.service;
+
+import com.rexxy.stream.config.MediaStreamingConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AdaptiveChunkSizerTest {
+
+    private static final long KB = 1024;
+    private static final long FILE_SIZE = 1024 * KB;
+
+    @TempDir
+    Path dir;
+
+    private Path file;
+    private MediaStreamingConfig config;
+    private SimpleMeterRegistry registry;
+    private AdaptiveChunkSizer sizer;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        file = dir.resolve("lesson.mp4");
+        Files.write(file, new byte[(int) FILE_SIZE]);
+
+        config = new MediaStreamingConfig();
+        config.setDefaultChunkSize(16 * KB);
+        config.setMinChunkSize(4 * KB);
+        config.setMaxChunkSize(64 * KB);
+        registry = new SimpleMeterRegistry();
+        sizer = new AdaptiveChunkSizer(config, registry);
+    }
+
+    @Test
+    void sequentialClientsGrowUpToTheMaximum() {
+        long offset = 0;
+        long window = 0;
+        for (int i = 0; i < 6; i++) {
+            window = play("a", offset);
+            offset += window;
+        }
+        assertThat(window).isEqualTo(64 * KB);
+    }
+
+    @Test
+    void seekingClientsShrinkDownToTheMinimum() {
+        long window = 0;
+        for (int i = 0; i < 6; i++) {
+            window = play("a", (i * 97 * KB) % FILE_SIZE);
+        }
+        assertThat(window).isEqualTo(4 * KB);
+    }
+
+    @Test
+    void clientsAndFilesAreTrackedSeparately() {
+        play("a", 0);
+        assertThat(play("a", 16 * KB)).isEqualTo(32 * KB);
+        assertThat(play("b", 16 * KB)).isEqualTo(16 * KB);
+    }
+
+    @Test
+    void readAheadIsCountedAsHitWhenTheNextRequestUsesIt() {
+        play("a", 0);
+        play("a", 16 * KB);
+        sizer.pendingReadAhead("a", file).join();
+
+        play("a", 48 * KB);
+
+        assertThat(registry.get("video.readahead.issued").counter().count()).isEqualTo(2);
+        assertThat(registry.get("video.readahead.requests").tag("result", "hit").counter().count()).isEqualTo(1);
+        assertThat(registry.get("video.stream.chunk.size").summary().count()).isEqualTo(3);
+    }
+
+    @Test
+    void seekAwayFromReadAheadIsAMiss() {
+        play("a", 0);
+        play("a", 16 * KB);
+        sizer.pendingReadAhead("a", file).join();
+
+        play("a", 900 * KB);
+
+        assertThat(registry.get("video.readahead.requests").tag("result", "miss").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void requestsThatSentNothingLeaveTheWindowAlone() {
+        play("a", 0);
+        // e.g. answered with a 304 or 416, or aborted before the body
+        sizer.openEndedWindow("a", file, 16 * KB);
+        sizer.openEndedWindow("a", file, 900 * KB);
+
+        assertThat(play("a", 16 * KB)).isEqualTo(32 * KB);
+    }
+
+    @Test
+    void slowClientsStopGrowingAtWhatTheyDownloadInTheTargetTime() {
+        config.setChunkTargetDuration(Duration.ofSeconds(1));
+        // 16 KB/s measured on the first window
+        long window = sizer.openEndedWindow("a", file, 0);
+        sizer.recordTransfer("a", file, FILE_SIZE, 0, AdaptiveChunkSizer.MIN_MEASURED_BYTES,
+                TimeUnit.SECONDS.toNanos(4));
+        long offset = AdaptiveChunkSizer.MIN_MEASURED_BYTES;
+        for (int i = 0; i < 4; i++) {
+            window = play("a", offset);
+            offset += window;
+        }
+
+        assertThat(sizer.throughput("a", file)).isEqualTo(16 * KB);
+        assertThat(window).isEqualTo(16 * KB);
+    }
+
+    @Test
+    void playersBehindOneAddressAreToldApartByAgent() {
+        MockHttpServletRequest tv = new MockHttpServletRequest();
+        tv.addHeader(HttpHeaders.USER_AGENT, "SmartTV");
+        MockHttpServletRequest phone = new MockHttpServletRequest();
+        phone.addHeader(HttpHeaders.USER_AGENT, "Phone");
+
+        assertThat(MediaRangeService.clientKey(tv)).isNotEqualTo(MediaRangeService.clientKey(phone));
+    }
+
+    @Test
+    void fixedWindowWhenDisabled() {
+        config.setAdaptiveChunkEnabled(false);
+        play("a", 0);
+        assertThat(play("a", 16 * KB)).isEqualTo(16 * KB);
+    }
+
+    // Serve an open-ended range and report it as a 206 written through sendfile (untimed)
+    private long play(String client, long start) {
+        long window = sizer.openEndedWindow(client, file, start);
+        sizer.recordTransfer(client, file, FILE_SIZE, start, Math.min(window, FILE_SIZE - start), -1);
+        return window;
+    }
+}
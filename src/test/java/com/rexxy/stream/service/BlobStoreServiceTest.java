@@ -0,0 +1,170 @@
+package com.rexxy.stream.service;
+
+import com.rexxy.stream.config.FileStorageConfig;
+import com.rexxy.stream.config.MediaStreamingConfig;
+import com.rexxy.stream.dto.VideoUploadResponse;
+import com.rexxy.stream.model.VideoBlob;
+import com.rexxy.stream.repository.LessonRepository;
+import com.rexxy.stream.repository.VideoBlobRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class BlobStoreServiceTest {
+
+    private static final String HASH_A = "a".repeat(64);
+    private static final String HASH_B = "b".repeat(64);
+    private static final String HASH_C = "c".repeat(64);
+
+    @TempDir
+    Path uploadDir;
+
+    private final Map<String, VideoBlob> blobs = new ConcurrentHashMap<>();
+    private VideoBlobRepository blobRepository;
+    private LessonRepository lessonRepository;
+    private TranscodeService transcodeService;
+    private ThumbnailService thumbnailService;
+    private BlobStoreService service;
+
+    @BeforeEach
+    void setUp() {
+        blobRepository = mock(VideoBlobRepository.class);
+        when(blobRepository.save(any())).thenAnswer(invocation -> {
+            VideoBlob blob = invocation.getArgument(0);
+            blobs.put(blob.getSha256(), blob);
+            return blob;
+        });
+        when(blobRepository.findById(anyString())).thenAnswer(invocation ->
+                Optional.ofNullable(blobs.get(invocation.<String>getArgument(0))));
+        when(blobRepository.findAll()).thenAnswer(invocation -> new ArrayList<>(blobs.values()));
+        when(blobRepository.markClaimed(anyString(), any())).thenAnswer(invocation -> {
+            blobs.get(invocation.<String>getArgument(0)).setClaimedAt(invocation.getArgument(1));
+            return 1;
+        });
+        lessonRepository = mock(LessonRepository.class);
+        transcodeService = mock(TranscodeService.class);
+        thumbnailService = mock(ThumbnailService.class);
+
+        FileStorageConfig storageConfig = new FileStorageConfig();
+        storageConfig.setUploadDir(uploadDir.toString());
+        storageConfig.setLocalLibraryRoot(uploadDir.toString());
+        MediaStreamingConfig streamingConfig = new MediaStreamingConfig();
+        MediaCatalog catalog = new MediaCatalog(storageConfig, streamingConfig,
+                new VideoSegmentCache(streamingConfig, new SimpleMeterRegistry()));
+        service = new BlobStoreService(blobRepository, lessonRepository, storageConfig, catalog, transcodeService,
+                thumbnailService);
+    }
+
+    @Test
+    void identicalUploadsShareOneFile() throws Exception {
+        VideoUploadResponse first = service.store(staged("same bytes"), HASH_A, "MP4", 10);
+        Path second = staged("same bytes");
+        VideoUploadResponse again = service.store(second, HASH_A, "mov", 10);
+
+        assertThat(first.getFilename()).isEqualTo(HASH_A + ".mp4");
+        assertThat(again.getFilename()).isEqualTo(first.getFilename());
+        assertThat(again.getMessage()).contains("already");
+        assertThat(second).doesNotExist();
+        assertThat(Files.readString(uploadDir.resolve(first.getFilename()))).isEqualTo("same bytes");
+        verify(transcodeService, times(1)).enqueue(first.getFilename());
+        verify(thumbnailService, times(1)).enqueue(uploadDir.toAbsolutePath().normalize().resolve(first.getFilename()));
+        assertThat(service.find(HASH_A.toUpperCase()).getFilename()).isEqualTo(first.getFilename());
+        assertThat(service.find(HASH_B)).isNull();
+    }
+
+    @Test
+    void onlyBlobPathsAreReferenceCounted() {
+        service.acquire(HASH_A + ".mp4");
+        service.release(HASH_A + ".mp4");
+        service.acquire("lecture.mp4");
+        service.acquire("1abcDriveFileId");
+        service.release(null);
+
+        verify(blobRepository).adjustRefCount(HASH_A + ".mp4", 1);
+        verify(blobRepository).adjustRefCount(HASH_A + ".mp4", -1);
+        verify(blobRepository, never()).adjustRefCount("lecture.mp4", 1);
+        verify(blobRepository, never()).adjustRefCount("1abcDriveFileId", 1);
+    }
+
+    @Test
+    void reconcileRecountsAndDeletesOldOrphans() throws Exception {
+        LocalDateTime old = LocalDateTime.now().minusDays(30);
+        blob(HASH_A, 0, old);
+        blob(HASH_B, 3, old);
+        blob(HASH_C, 0, LocalDateTime.now());
+        List<Object[]> counts = new ArrayList<>();
+        counts.add(new Object[] { HASH_A + ".mp4", 2L });
+        when(lessonRepository.countByResourcePathIn(anyCollection())).thenReturn(counts);
+
+        service.reconcile();
+
+        assertThat(blobs.get(HASH_A).getRefCount()).isEqualTo(2);
+        assertThat(uploadDir.resolve(HASH_A + ".mp4")).exists();
+        verify(blobRepository).delete(blobs.get(HASH_B));
+        verify(transcodeService).discard(HASH_B + ".mp4");
+        verify(thumbnailService).discard(HASH_B + ".mp4");
+        assertThat(uploadDir.resolve(HASH_B + ".mp4")).doesNotExist();
+        // Unreferenced but still inside the retention period
+        assertThat(uploadDir.resolve(HASH_C + ".mp4")).exists();
+    }
+
+    @Test
+    void handingOutAnOrphanKeepsItPastTheNextReconcile() throws Exception {
+        blob(HASH_A, 0, LocalDateTime.now().minusDays(30));
+        blob(HASH_B, 0, LocalDateTime.now().minusDays(30));
+        when(lessonRepository.countByResourcePathIn(anyCollection())).thenReturn(List.of());
+
+        assertThat(service.find(HASH_A).getFilename()).isEqualTo(HASH_A + ".mp4");
+        assertThat(service.store(staged(HASH_B), HASH_B, "mp4", 64).getMessage()).contains("already");
+        service.reconcile();
+
+        assertThat(uploadDir.resolve(HASH_A + ".mp4")).exists();
+        assertThat(uploadDir.resolve(HASH_B + ".mp4")).exists();
+        verify(blobRepository, never()).delete(any());
+    }
+
+    @Test
+    void reconcileKeepsBlobsReferencedAfterItCounted() throws Exception {
+        blob(HASH_A, 0, LocalDateTime.now().minusDays(30));
+        when(lessonRepository.countByResourcePathIn(anyCollection())).thenReturn(List.of());
+        // A lesson picked the blob up between the count and the delete
+        when(lessonRepository.existsByResourcePath(HASH_A + ".mp4")).thenReturn(true);
+
+        service.reconcile();
+
+        assertThat(uploadDir.resolve(HASH_A + ".mp4")).exists();
+        verify(blobRepository, never()).delete(any());
+        verify(transcodeService, never()).discard(anyString());
+    }
+
+    private void blob(String hash, int refCount, LocalDateTime createdAt) throws Exception {
+        Files.writeString(uploadDir.resolve(hash + ".mp4"), hash);
+        blobs.put(hash, new VideoBlob(hash, hash + ".mp4", hash.length(), refCount, createdAt, null));
+    }
+
+    private Path staged(String content) throws Exception {
+        Path file = service.newStagingFile();
+        Files.writeString(file, content);
+        return file;
+    }
+}
@@ -0,0 +1,87 @@
+package com.rexxy.stream.service;
+
+import com.rexxy.stream.service.ByteRangeParser.ByteRange;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ByteRangeParserTest {
+
+    private static final long LENGTH = 10_000;
+    private static final long LIMIT = 1_000;
+
+    @Test
+    void parsesClosedRange() {
+        assertThat(parse("bytes=0-499")).containsExactly(new ByteRange(0, 499));
+    }
+
+    @Test
+    void capsOpenEndedRangeToLimit() {
+        assertThat(parse("bytes=2000-")).containsExactly(new ByteRange(2000, 2999));
+        assertThat(parse("bytes=9500-")).containsExactly(new ByteRange(9500, 9999));
+    }
+
+    @Test
+    void parsesSuffixRange() {
+        assertThat(parse("bytes=-500")).containsExactly(new ByteRange(9500, 9999));
+        assertThat(parse("bytes=-50000")).containsExactly(new ByteRange(0, 9999));
+    }
+
+    @Test
+    void clampsLastBytePosition() {
+        assertThat(parse("bytes=9000-20000")).containsExactly(new ByteRange(9000, 9999));
+    }
+
+    @Test
+    void parsesMultipleRangesWithWhitespace() {
+        assertThat(parse("bytes=0-99, 5000-5099 ,-100"))
+                .containsExactly(new ByteRange(0, 99), new ByteRange(5000, 5099), new ByteRange(9900, 9999));
+    }
+
+    @Test
+    void coalescesOverlappingAndAdjacentRanges() {
+        assertThat(parse("bytes=500-999,0-499,800-1200")).containsExactly(new ByteRange(0, 1200));
+    }
+
+    @Test
+    void unitIsCaseInsensitive() {
+        assertThat(parse("Bytes = 10-19")).containsExactly(new ByteRange(10, 19));
+    }
+
+    @Test
+    void unsatisfiableRangesYieldEmptyList() {
+        assertThat(parse("bytes=10000-10100")).isEmpty();
+        assertThat(parse("bytes=-0")).isEmpty();
+    }
+
+    @Test
+    void unsatisfiableSpecsAreDroppedFromMultiRange() {
+        assertThat(parse("bytes=20000-,0-9")).containsExactly(new ByteRange(0, 9));
+    }
+
+    @Test
+    void tooManyRangesYieldEmptyList() {
+        StringBuilder header = new StringBuilder("bytes=");
+        for (int i = 0; i <= ByteRangeParser.MAX_RANGES; i++) {
+            header.append(i * 100).append('-').append(i * 100 + 9).append(',');
+        }
+        assertThat(parse(header.toString())).isEmpty();
+    }
+
+    @Test
+    void malformedHeadersAreIgnored() {
+        assertThat(parse("items=0-10")).isNull();
+        assertThat(parse("bytes=")).isNull();
+        assertThat(parse("bytes=-")).isNull();
+        assertThat(parse("bytes=abc")).isNull();
+        assertThat(parse("bytes=500-100")).isNull();
+        assertThat(parse("bytes=0-10;x")).isNull();
+        assertThat(parse("bytes=99999999999999999999-")).isNull();
+    }
+
+    private static List<ByteRange> parse(String header) {
+        return ByteRangeParser.parse(header, LENGTH, LIMIT);
+    }
+}
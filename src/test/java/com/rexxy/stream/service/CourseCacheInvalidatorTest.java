@@ -0,0 +1,197 @@
+package com.rexxy.stream.service;
+
+import com.rexxy.stream.config.FileStorageConfig;
+import com.rexxy.stream.dto.CourseHierarchyDTO;
+import com.rexxy.stream.dto.LessonDTO;
+import com.rexxy.stream.model.Course;
+import com.rexxy.stream.model.Lesson;
+import com.rexxy.stream.model.LessonGroup;
+import com.rexxy.stream.model.Module;
+import com.rexxy.stream.repository.CourseRepository;
+import com.rexxy.stream.repository.LessonGroupRepository;
+import com.rexxy.stream.repository.LessonRepository;
+import com.rexxy.stream.repository.ModuleRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class CourseCacheInvalidatorTest {
+
+    // Two courses, each with one module, one group and one lesson
+    private final Map<String, Course> courses = new HashMap<>();
+    private final Map<String, LessonGroup> groups = new HashMap<>();
+    private final Map<String, Lesson> lessons = new HashMap<>();
+    private CourseRepository courseRepository;
+    private AnnotationConfigApplicationContext context;
+    private StreamingService streamingService;
+    private LessonService lessonService;
+    private CourseCacheInvalidator invalidator;
+
+    @BeforeEach
+    void setUp() {
+        for (String name : List.of("a", "b")) {
+            Course course = new Course();
+            course.setId("course-" + name);
+            course.setTitle("Course " + name);
+            course.setCreateDate(LocalDateTime.now());
+            Module module = new Module();
+            module.setId("module-" + name);
+            module.setCourse(course);
+            LessonGroup group = new LessonGroup();
+            group.setId("group-" + name);
+            group.setModule(module);
+            Lesson lesson = new Lesson();
+            lesson.setId("lesson-" + name);
+            lesson.setTitle("Lesson " + name);
+            lesson.setLessonGroup(group);
+            courses.put(course.getId(), course);
+            groups.put(group.getId(), group);
+            lessons.put(lesson.getId(), lesson);
+        }
+
+        courseRepository = mock(CourseRepository.class);
+        when(courseRepository.findById(anyString()))
+                .thenAnswer(invocation -> Optional.ofNullable(courses.get(invocation.<String>getArgument(0))));
+        ModuleRepository moduleRepository = mock(ModuleRepository.class);
+        when(moduleRepository.findByCourseId(anyString())).thenAnswer(invocation -> groups.values().stream()
+                .map(LessonGroup::getModule)
+                .filter(module -> module.getCourse().getId().equals(invocation.getArgument(0)))
+                .toList());
+        LessonGroupRepository groupRepository = mock(LessonGroupRepository.class);
+        when(groupRepository.findById(anyString()))
+                .thenAnswer(invocation -> Optional.ofNullable(groups.get(invocation.<String>getArgument(0))));
+        when(groupRepository.findByModuleIn(anyList())).thenAnswer(invocation -> groups.values().stream()
+                .filter(group -> invocation.<List<Module>>getArgument(0).contains(group.getModule()))
+                .toList());
+        when(groupRepository.findCourseIdById(anyString())).thenAnswer(invocation -> Optional
+                .ofNullable(groups.get(invocation.<String>getArgument(0)))
+                .map(group -> group.getModule().getCourse().getId()));
+        LessonRepository lessonRepository = mock(LessonRepository.class);
+        when(lessonRepository.findById(anyString()))
+                .thenAnswer(invocation -> Optional.ofNullable(lessons.get(invocation.<String>getArgument(0))));
+        when(lessonRepository.findByLessonGroupIn(anyList())).thenAnswer(invocation -> lessons.values().stream()
+                .filter(lesson -> invocation.<List<LessonGroup>>getArgument(0).contains(lesson.getLessonGroup()))
+                .toList());
+        when(lessonRepository.findCourseIdsByIdIn(any())).thenAnswer(invocation -> invocation
+                .<Collection<String>>getArgument(0).stream()
+                .map(id -> lessons.get(id).getLessonGroup().getModule().getCourse().getId())
+                .distinct()
+                .toList());
+        when(lessonRepository.save(any(Lesson.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        context = new AnnotationConfigApplicationContext();
+        context.registerBean(CourseRepository.class, () -> courseRepository);
+        context.registerBean(ModuleRepository.class, () -> moduleRepository);
+        context.registerBean(LessonGroupRepository.class, () -> groupRepository);
+        context.registerBean(LessonRepository.class, () -> lessonRepository);
+        context.registerBean(MediaMetadataService.class, () -> mock(MediaMetadataService.class));
+        context.registerBean(FileStorageConfig.class, FileStorageConfig::new);
+        context.registerBean(BlobStoreService.class, () -> mock(BlobStoreService.class));
+        context.registerBean(CourseCacheWarmer.class, () -> mock(CourseCacheWarmer.class));
+        context.register(CachingConfig.class, StreamingService.class, LessonService.class,
+                CourseCacheInvalidator.class);
+        context.refresh();
+        streamingService = context.getBean(StreamingService.class);
+        lessonService = context.getBean(LessonService.class);
+        invalidator = context.getBean(CourseCacheInvalidator.class);
+    }
+
+    @AfterEach
+    void tearDown() {
+        context.close();
+    }
+
+    @Test
+    void updateIsReadBackAndOtherCoursesStayCached() {
+        streamingService.getCourseHierarchy("course-a");
+        streamingService.getCourseHierarchy("course-b");
+
+        lessonService.updateLesson("lesson-a", lesson("group-a", "Renamed"));
+
+        assertThat(lessonTitles(streamingService.getCourseHierarchy("course-a"))).containsExactly("Renamed");
+        assertThat(lessonTitles(streamingService.getCourseHierarchy("course-b"))).containsExactly("Lesson b");
+        verify(courseRepository, times(2)).findById("course-a");
+        // Course b was not touched, so it is still served from the cache
+        verify(courseRepository, times(1)).findById("course-b");
+    }
+
+    @Test
+    void movingALessonEvictsBothCourses() {
+        streamingService.getCourseHierarchy("course-a");
+        streamingService.getCourseHierarchy("course-b");
+
+        lessonService.updateLesson("lesson-a", lesson("group-b", "Lesson a"));
+
+        assertThat(lessonTitles(streamingService.getCourseHierarchy("course-a"))).isEmpty();
+        assertThat(lessonTitles(streamingService.getCourseHierarchy("course-b")))
+                .containsExactlyInAnyOrder("Lesson a", "Lesson b");
+    }
+
+    @Test
+    void evictionInsideATransactionWaitsForTheCommit() {
+        streamingService.getCourseHierarchy("course-a");
+        Cache cache = context.getBean(CacheManager.class).getCache(CourseCacheInvalidator.HIERARCHY_CACHE);
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            invalidator.evictCoursesOfLessons(List.of("lesson-a"));
+            // Not yet committed: a read now would see the old rows anyway
+            assertThat(cache.get("course-a")).isNotNull();
+
+            TransactionSynchronizationUtils.triggerAfterCommit();
+            assertThat(cache.get("course-a")).isNull();
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    private static LessonDTO lesson(String groupId, String title) {
+        LessonDTO dto = new LessonDTO();
+        dto.setLessonGroupId(groupId);
+        dto.setTitle(title);
+        dto.setDuration("01:00");
+        return dto;
+    }
+
+    private static List<String> lessonTitles(CourseHierarchyDTO hierarchy) {
+        return hierarchy.getModules().stream()
+                .flatMap(module -> module.getLessonGroups().stream())
+                .flatMap(group -> group.getLessons().stream())
+                .map(CourseHierarchyDTO.LessonHierarchyDTO::getTitle)
+                .toList();
+    }
+
+    @Configuration
+    @EnableCaching
+    static class CachingConfig {
+        @Bean
+        CacheManager cacheManager() {
+            return new ConcurrentMapCacheManager();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.rexxy.stream.service;
+
+import com.rexxy.stream.config.CacheWarmingConfig;
+import com.rexxy.stream.exception.ResourceNotFoundException;
+import com.rexxy.stream.repository.EnrollmentRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class CourseCacheWarmerTest {
+
+    private HierarchyResponseCache hierarchyResponseCache;
+    private EnrollmentRepository enrollmentRepository;
+    private CourseCacheWarmer warmer;
+
+    @BeforeEach
+    void setUp() {
+        hierarchyResponseCache = mock(HierarchyResponseCache.class);
+        enrollmentRepository = mock(EnrollmentRepository.class);
+        CacheWarmingConfig config = new CacheWarmingConfig();
+        config.setTopCourses(2);
+        config.setConcurrency(1);
+        config.setEnrollmentWeight(5);
+        warmer = new CourseCacheWarmer(hierarchyResponseCache, enrollmentRepository, config,
+                new SimpleMeterRegistry());
+    }
+
+    @AfterEach
+    void tearDown() {
+        warmer.shutdown();
+    }
+
+    @Test
+    void startupBuildsTheMostEnrolledCourses() {
+        when(enrollmentRepository.countByCourseMostEnrolledFirst(any())).thenReturn(List.of(
+                new Object[] { "course-a", 3L }, new Object[] { "course-b", 2L }));
+        warmer.recordView("course-c");
+
+        warmer.warmOnStartup();
+
+        assertThat(warmer.topCourses()).containsExactly("course-a", "course-b");
+        verify(hierarchyResponseCache, timeout(1000)).get("course-a");
+        verify(hierarchyResponseCache, timeout(1000)).get("course-b");
+        verify(hierarchyResponseCache, after(100).never()).get("course-c");
+    }
+
+    @Test
+    void onlyPopularCoursesAreRebuiltAfterAnEviction() {
+        warmer.recordEnrollment("course-a");
+        for (int i = 0; i < 3; i++) {
+            warmer.recordView("course-b");
+        }
+        warmer.recordView("course-c");
+
+        warmer.evicted(List.of("course-a", "course-c"));
+
+        verify(hierarchyResponseCache, timeout(1000)).get("course-a");
+        verify(hierarchyResponseCache, after(100).never()).get("course-c");
+    }
+
+    @Test
+    void coldAndDeletedCoursesLeaveTheTop() {
+        warmer.recordView("course-a");
+        warmer.recordEnrollment("course-b");
+        warmer.recordEnrollment("course-gone");
+        warmer.recordEnrollment("course-gone");
+        when(hierarchyResponseCache.get("course-gone"))
+                .thenThrow(new ResourceNotFoundException("Course", "id", "course-gone"));
+
+        // One builder, so the deleted course is done with once course b is built
+        warmer.refresh();
+        verify(hierarchyResponseCache, timeout(1000)).get("course-b");
+        warmer.decay();
+
+        // A view halved to nothing is dropped, the deleted course went with its failed build
+        assertThat(warmer.topCourses()).containsExactly("course-b");
+    }
+}
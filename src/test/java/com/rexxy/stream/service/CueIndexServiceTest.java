@@ -0,0 +1,161 @@
+package com.rexxy.stream.service;
+
+import com.rexxy.stream.config.FileStorageConfig;
+import com.rexxy.stream.config.MediaStreamingConfig;
+import com.rexxy.stream.model.Lesson;
+import com.rexxy.stream.model.StorageType;
+import com.rexxy.stream.repository.LessonRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class CueIndexServiceTest {
+
+    private static final String VTT = "WEBVTT\n\nNOTE recorded live\n\n"
+            + "intro\n00:00:01.000 --> 00:00:04.000 align:start\nWelcome to <b>dependency</b> injection\n\n"
+            + "00:00:03.500 --> 00:01:00.000\nA long cue\n\n"
+            + "00:00:10.000 --> 00:00:12.000\nSpring wires the dependency\nfor you\n\n"
+            + "01:00:00.000 --> 01:00:02.500\nThe end\n";
+
+    @TempDir
+    Path library;
+
+    @TempDir
+    Path indexDir;
+
+    private LessonRepository lessonRepository;
+    private MediaStreamingConfig streamingConfig;
+    private SubtitleService subtitleService;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Files.createDirectories(library.resolve("course"));
+        Files.writeString(library.resolve("course/one.vtt"), VTT);
+        Files.writeString(library.resolve("course/two.srt"),
+                "1\n00:00:05,000 --> 00:00:06,000\nInjection by constructor\n");
+
+        lessonRepository = mock(LessonRepository.class);
+        when(lessonRepository.findById(anyString())).thenReturn(Optional.empty());
+        when(lessonRepository.findById("lesson-1")).thenReturn(Optional.of(lesson("lesson-1", "course/one.mp4")));
+        when(lessonRepository.findById("lesson-2")).thenReturn(Optional.of(lesson("lesson-2", "course/two.mp4")));
+        when(lessonRepository.findIdsByStorageType(StorageType.LOCAL)).thenReturn(List.of("lesson-1", "lesson-2"));
+
+        FileStorageConfig storageConfig = new FileStorageConfig();
+        storageConfig.setLocalLibraryRoot(library.toString());
+        streamingConfig = new MediaStreamingConfig();
+        streamingConfig.setCueIndexDir(indexDir.toString());
+        subtitleService = spy(new SubtitleService(lessonRepository, storageConfig, streamingConfig,
+                new SimpleMeterRegistry()));
+    }
+
+    @Test
+    void tableParsesCuesAndFindsTimeWindows() throws Exception {
+        CueTable table = CueTable.parse(VTT.getBytes(StandardCharsets.UTF_8), new CueTable.Source("one.vtt", 1, 2));
+
+        assertThat(table.size()).isEqualTo(4);
+        assertThat(table.text(0)).isEqualTo("Welcome to dependency injection");
+        assertThat(table.text(2)).isEqualTo("Spring wires the dependency\nfor you");
+        assertThat(table.end(3)).isEqualTo(3_602_500);
+        // The long cue started before the window but is still showing
+        assertThat(table.window(11_000, 20_000)).containsExactly(1, 2);
+        assertThat(table.window(0, 1_000)).isEmpty();
+        assertThat(table.find(List.of("dependency"))).containsExactly(0, 2);
+        assertThat(table.find(List.of("dependency", "spring"))).containsExactly(2);
+        assertThat(table.find(List.of("missing"))).isEmpty();
+    }
+
+    @Test
+    void searchMatchesWordsAcrossLessons() {
+        CueIndexService index = new CueIndexService(subtitleService, lessonRepository, streamingConfig);
+        index.refresh();
+
+        assertThat(index.search("Injection!", 10))
+                .extracting(CueIndexService.Hit::lessonId, CueIndexService.Hit::start)
+                .containsExactlyInAnyOrder(
+                        tuple("lesson-1", 1_000),
+                        tuple("lesson-2", 5_000));
+        assertThat(index.search("spring DEPENDENCY", 10)).singleElement()
+                .extracting(CueIndexService.Hit::start).isEqualTo(10_000);
+        assertThat(index.search("spring constructor", 10)).isEmpty();
+        assertThat(index.search("injection", 1)).hasSize(1);
+    }
+
+    @Test
+    void storedTablesAreReusedUntilTheSubtitleChanges() throws Exception {
+        new CueIndexService(subtitleService, lessonRepository, streamingConfig).refresh();
+        assertThat(indexDir.resolve("lesson-1.cues")).exists();
+        verify(subtitleService, times(2)).getSubtitle(anyString(), isNull());
+
+        // A restarted index picks up the stored tables without converting anything
+        CueIndexService restarted = new CueIndexService(subtitleService, lessonRepository, streamingConfig);
+        restarted.refresh();
+        verify(subtitleService, times(2)).getSubtitle(anyString(), isNull());
+        assertThat(restarted.window("lesson-2", 0, 10_000)).singleElement()
+                .extracting(CueIndexService.Hit::text).isEqualTo("Injection by constructor");
+
+        Path srt = library.resolve("course/two.srt");
+        Files.writeString(srt, "1\n00:00:07,000 --> 00:00:08,000\nField injection\n");
+        Files.setLastModifiedTime(srt, FileTime.fromMillis(System.currentTimeMillis() + 5_000));
+        assertThat(restarted.update("lesson-2")).isTrue();
+        assertThat(restarted.search("field", 10)).singleElement()
+                .extracting(CueIndexService.Hit::start).isEqualTo(7_000);
+        assertThat(restarted.search("constructor", 10)).isEmpty();
+    }
+
+    @Test
+    void corruptStoredTablesAreRejectedAndRebuilt() throws Exception {
+        new CueIndexService(subtitleService, lessonRepository, streamingConfig).refresh();
+        Path stored = indexDir.resolve("lesson-1.cues");
+        byte[] bytes = Files.readAllBytes(stored);
+        String path = library.resolve("course/one.vtt").toString();
+        // Cue count follows the magic, the source path and its two longs
+        ByteBuffer.wrap(bytes).putInt(4 + 2 + path.getBytes(StandardCharsets.UTF_8).length + 16, Integer.MAX_VALUE);
+        Files.write(stored, bytes);
+
+        assertThatThrownBy(() -> CueTable.read(new DataInputStream(new ByteArrayInputStream(bytes)), bytes.length))
+                .isInstanceOf(IOException.class);
+        CueIndexService restarted = new CueIndexService(subtitleService, lessonRepository, streamingConfig);
+        assertThat(restarted.window("lesson-1", 0, 5_000)).hasSize(2);
+        verify(subtitleService, times(3)).getSubtitle(anyString(), isNull());
+    }
+
+    @Test
+    void lessonsWithoutSubtitlesHaveNoCues() throws Exception {
+        when(lessonRepository.findById("lesson-3")).thenReturn(Optional.of(lesson("lesson-3", "course/three.mp4")));
+        CueIndexService index = new CueIndexService(subtitleService, lessonRepository, streamingConfig);
+
+        assertThat(index.window("lesson-3", 0, 1_000)).isNull();
+        assertThat(index.window("lesson-1", 0, 5_000)).hasSize(2);
+    }
+
+    private static Lesson lesson(String id, String resourcePath) {
+        Lesson lesson = new Lesson();
+        lesson.setId(id);
+        lesson.setStorageType(StorageType.LOCAL);
+        lesson.setResourcePath(resourcePath);
+        return lesson;
+    }
+}
@@ -0,0 +1,270 @@
+package com.rexxy.stream.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rexxy.stream.config.DriveProxyConfig;
+import com.rexxy.stream.exception.ResourceNotFoundException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs the proxy against a local HTTP server that mimics the Drive v3 files endpoint
+ */
+class DriveRangeProxyTest {
+
+    private static final String FILE_ID = "1AbCdEfGhIjKlMnOp";
+    private static final int CHUNK = 1024;
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d+)");
+
+    @TempDir
+    Path cacheDir;
+
+    private byte[] content;
+    private volatile String md5 = "v1";
+    private final List<String> mediaRanges = new CopyOnWriteArrayList<>();
+    private volatile CountDownLatch mediaGate;
+    private HttpServer drive;
+    private DriveProxyConfig config;
+    private DriveChunkCache chunkCache;
+    private DriveRangeProxy proxy;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        content = new byte[10 * CHUNK + 123];
+        new Random(21).nextBytes(content);
+
+        drive = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        drive.createContext("/drive/v3/files/", this::handle);
+        drive.start();
+
+        config = new DriveProxyConfig();
+        config.setApiBaseUrl("http://127.0.0.1:" + drive.getAddress().getPort() + "/drive/v3");
+        config.setCacheDir(cacheDir.toString());
+        config.setChunkSize(CHUNK);
+        config.setFetchChunks(2);
+        config.setMaxWindow(3 * CHUNK);
+
+        GoogleDriveService googleDriveService = mock(GoogleDriveService.class);
+        when(googleDriveService.getAccessToken()).thenReturn("test-token");
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        chunkCache = new DriveChunkCache(config, new ObjectMapper(), registry);
+        proxy = new DriveRangeProxy(config, googleDriveService, chunkCache, new ObjectMapper(), registry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        drive.stop(0);
+        chunkCache.close();
+    }
+
+    @Test
+    void rangeIsFetchedOnceThenServedFromDisk() throws Exception {
+        MockHttpServletResponse first = get("bytes=1500-2600");
+
+        assertThat(first.getStatus()).isEqualTo(206);
+        assertThat(first.getHeader("Content-Range")).isEqualTo("bytes 1500-2600/" + content.length);
+        assertThat(first.getContentAsByteArray()).isEqualTo(Arrays.copyOfRange(content, 1500, 2601));
+        // Aligned to chunks, two chunks per Drive request
+        assertThat(mediaRanges).containsExactly("bytes=1024-3071");
+
+        MockHttpServletResponse again = get("bytes=1024-3071");
+        assertThat(again.getContentAsByteArray()).isEqualTo(Arrays.copyOfRange(content, 1024, 3072));
+        assertThat(mediaRanges).hasSize(1);
+        assertThat(chunkCache.cachedBytes()).isEqualTo(2 * CHUNK);
+    }
+
+    @Test
+    void onlyMissingChunksAreFetchedAndTheShortLastChunkIsCached() throws Exception {
+        get("bytes=2048-3071");
+        mediaRanges.clear();
+
+        MockHttpServletResponse tail = get("bytes=0-");
+        assertThat(tail.getContentAsByteArray()).isEqualTo(Arrays.copyOfRange(content, 0, 3 * CHUNK));
+        assertThat(mediaRanges).containsExactly("bytes=0-2047");
+
+        MockHttpServletResponse end = get("bytes=-200");
+        assertThat(end.getContentAsByteArray()).isEqualTo(Arrays.copyOfRange(content, content.length - 200,
+                content.length));
+        assertThat(mediaRanges).last().isEqualTo("bytes=9216-10362");
+        get("bytes=-200");
+        assertThat(mediaRanges).hasSize(2);
+    }
+
+    @Test
+    void newDriveVersionDropsTheCachedCopy() throws Exception {
+        get("bytes=0-1023");
+        MockHttpServletRequest conditional = request("bytes=0-1023");
+        conditional.addHeader("If-None-Match", "\"v1\"");
+        MockHttpServletResponse notModified = new MockHttpServletResponse();
+        proxy.serve(FILE_ID, "bytes=0-1023", conditional, notModified);
+        assertThat(notModified.getStatus()).isEqualTo(304);
+
+        md5 = "v2";
+        content[10] ^= 0x55;
+        DriveRangeProxy fresh = new DriveRangeProxy(config, mockDrive(), chunkCache, new ObjectMapper(),
+                new SimpleMeterRegistry());
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        fresh.serve(FILE_ID, "bytes=0-1023", request("bytes=0-1023"), response);
+
+        assertThat(response.getContentAsByteArray()).isEqualTo(Arrays.copyOfRange(content, 0, 1024));
+        assertThat(response.getHeader("ETag")).isEqualTo("\"v2\"");
+        assertThat(mediaRanges).hasSize(2);
+    }
+
+    @Test
+    void readersOfAReplacedCopyKeepReadingItUntilTheyRelease() throws Exception {
+        get("bytes=0-1023");
+        DriveChunkCache.CachedFile old = chunkCache.acquire(FILE_ID, content.length, "v1");
+
+        DriveChunkCache.CachedFile replacement = chunkCache.acquire(FILE_ID, content.length, "v2");
+
+        assertThat(replacement.has(0)).isFalse();
+        assertThat(chunkCache.cachedBytes()).isZero();
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        old.transferTo(0, CHUNK, Channels.newChannel(read));
+        assertThat(read.toByteArray()).isEqualTo(Arrays.copyOfRange(content, 0, CHUNK));
+        assertThat(retiredFiles()).hasSize(1);
+
+        chunkCache.release(old);
+        chunkCache.release(replacement);
+        assertThat(retiredFiles()).isEmpty();
+    }
+
+    @Test
+    void concurrentRequestsForAMissingChunkFetchItOnce() throws Exception {
+        mediaGate = new CountDownLatch(1);
+        CompletableFuture<MockHttpServletResponse> first = CompletableFuture.supplyAsync(() -> getUnchecked("bytes=0-1023"));
+        while (mediaRanges.isEmpty()) {
+            Thread.sleep(5);
+        }
+        CompletableFuture<MockHttpServletResponse> second = CompletableFuture.supplyAsync(() -> getUnchecked("bytes=100-900"));
+        // Give the second request time to reach Drive, which it should not
+        Thread.sleep(200);
+        mediaGate.countDown();
+
+        assertThat(first.get(10, TimeUnit.SECONDS).getContentAsByteArray())
+                .isEqualTo(Arrays.copyOfRange(content, 0, 1024));
+        assertThat(second.get(10, TimeUnit.SECONDS).getContentAsByteArray())
+                .isEqualTo(Arrays.copyOfRange(content, 100, 901));
+        assertThat(mediaRanges).containsExactly("bytes=0-1023");
+    }
+
+    @Test
+    void cacheStaysWithinItsBound() throws Exception {
+        config.setCacheMaxBytes(3 * CHUNK);
+        get("bytes=0-2047");
+        get("bytes=4096-6143");
+
+        assertThat(chunkCache.cachedBytes()).isLessThanOrEqualTo(3 * CHUNK);
+    }
+
+    @Test
+    void unknownFileIsNotFound() {
+        assertThatThrownBy(() -> proxy.serve("1MissingFileIdX", null, request(null), new MockHttpServletResponse()))
+                .isInstanceOf(ResourceNotFoundException.class);
+    }
+
+    private GoogleDriveService mockDrive() throws IOException {
+        GoogleDriveService googleDriveService = mock(GoogleDriveService.class);
+        when(googleDriveService.getAccessToken()).thenReturn("test-token");
+        return googleDriveService;
+    }
+
+    private MockHttpServletResponse get(String range) throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        proxy.serve(FILE_ID, range, request(range), response);
+        return response;
+    }
+
+    private MockHttpServletResponse getUnchecked(String range) {
+        try {
+            return get(range);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private List<Path> retiredFiles() throws IOException {
+        try (Stream<Path> files = Files.list(cacheDir)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".retired")).toList();
+        }
+    }
+
+    private static MockHttpServletRequest request(String range) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/drive/stream/" + FILE_ID);
+        if (range != null) {
+            request.addHeader("Range", range);
+        }
+        return request;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String id = exchange.getRequestURI().getPath().substring("/drive/v3/files/".length());
+        String query = exchange.getRequestURI().getQuery();
+        if (!"Bearer test-token".equals(exchange.getRequestHeaders().getFirst("Authorization"))) {
+            exchange.sendResponseHeaders(401, -1);
+        } else if (!FILE_ID.equals(id)) {
+            exchange.sendResponseHeaders(404, -1);
+        } else if (query.contains("alt=media")) {
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            mediaRanges.add(range);
+            CountDownLatch gate = mediaGate;
+            if (gate != null) {
+                try {
+                    gate.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            Matcher matcher = RANGE.matcher(range);
+            assertThat(matcher.matches()).isTrue();
+            int start = Integer.parseInt(matcher.group(1));
+            int end = Math.min(content.length - 1, Integer.parseInt(matcher.group(2)));
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + content.length);
+            exchange.sendResponseHeaders(206, end - start + 1);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(content, start, end - start + 1);
+            }
+        } else {
+            byte[] json = ("{\"id\":\"" + FILE_ID + "\",\"name\":\"lecture.mp4\",\"mimeType\":\"video/mp4\","
+                    + "\"size\":\"" + content.length + "\",\"md5Checksum\":\"" + md5 + "\"}")
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, json.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(json);
+            }
+        }
+        exchange.close();
+    }
+}
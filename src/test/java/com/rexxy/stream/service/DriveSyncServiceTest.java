@@ -0,0 +1,233 @@
+package com.rexxy.stream.service;
+
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponseException;
+import com.rexxy.stream.config.DriveSyncConfig;
+import com.rexxy.stream.exception.ConflictException;
+import com.rexxy.stream.model.DriveFolderWatch;
+import com.rexxy.stream.model.Lesson;
+import com.rexxy.stream.model.LessonGroup;
+import com.rexxy.stream.model.StorageType;
+import com.rexxy.stream.repository.DriveFolderWatchRepository;
+import com.rexxy.stream.repository.LessonGroupRepository;
+import com.rexxy.stream.repository.LessonRepository;
+import com.rexxy.stream.repository.UserProgressRepository;
+import com.rexxy.stream.service.GoogleDriveService.ChangePage;
+import com.rexxy.stream.service.GoogleDriveService.DriveChange;
+import com.rexxy.stream.service.GoogleDriveService.VideoFileInfo;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class DriveSyncServiceTest {
+
+    private static final String FOLDER = "folderAAAAAA";
+    private static final String OTHER_FOLDER = "folderBBBBBB";
+
+    private final Map<String, Lesson> lessons = new ConcurrentHashMap<>();
+    private final Map<String, DriveFolderWatch> watches = new ConcurrentHashMap<>();
+    private final LessonGroup group = new LessonGroup();
+    private GoogleDriveService drive;
+    private DriveSyncService service;
+
+    @BeforeEach
+    void setUp() {
+        group.setId("group-1");
+        LessonGroupRepository groupRepository = mock(LessonGroupRepository.class);
+        when(groupRepository.findById(anyString())).thenAnswer(invocation ->
+                Optional.ofNullable(group.getId().equals(invocation.getArgument(0)) ? group : null));
+
+        LessonRepository lessonRepository = mock(LessonRepository.class);
+        when(lessonRepository.saveAll(any())).thenAnswer(invocation -> {
+            List<Lesson> saved = new ArrayList<>();
+            for (Lesson lesson : invocation.<Iterable<Lesson>>getArgument(0)) {
+                if (lesson.getId() == null) {
+                    lesson.setId(UUID.randomUUID().toString());
+                }
+                lessons.put(lesson.getId(), lesson);
+                saved.add(lesson);
+            }
+            return saved;
+        });
+        when(lessonRepository.findByLessonGroupId(anyString())).thenAnswer(invocation -> new ArrayList<>(lessons.values()));
+        when(lessonRepository.findByLessonGroupIdAndResourcePathIn(anyString(), anyCollection()))
+                .thenAnswer(invocation -> {
+                    Collection<String> paths = invocation.getArgument(1);
+                    return lessons.values().stream().filter(l -> paths.contains(l.getResourcePath())).toList();
+                });
+        doAnswer(invocation -> {
+            for (Lesson lesson : invocation.<Iterable<Lesson>>getArgument(0)) {
+                lessons.remove(lesson.getId());
+            }
+            return null;
+        }).when(lessonRepository).deleteAll(any());
+
+        DriveFolderWatchRepository watchRepository = mock(DriveFolderWatchRepository.class);
+        when(watchRepository.save(any())).thenAnswer(invocation -> {
+            DriveFolderWatch watch = invocation.getArgument(0);
+            if (watch.getId() == null) {
+                watch.setId(UUID.randomUUID().toString());
+            }
+            watches.put(watch.getFolderId(), watch);
+            return watch;
+        });
+        when(watchRepository.findAll()).thenAnswer(invocation -> new ArrayList<>(watches.values()));
+        when(watchRepository.findByFolderId(anyString())).thenAnswer(invocation ->
+                Optional.ofNullable(watches.get(invocation.<String>getArgument(0))));
+
+        drive = mock(GoogleDriveService.class);
+        service = new DriveSyncService(new DriveSyncConfig(), drive, watchRepository, lessonRepository,
+                groupRepository, mock(UserProgressRepository.class),
+                new CourseCacheInvalidator(new ConcurrentMapCacheManager(), lessonRepository, groupRepository,
+                        mock(CourseCacheWarmer.class)));
+    }
+
+    @Test
+    void importListsOnceAndRemembersTheTokenTakenBeforeListing() throws Exception {
+        lessons.put("existing", lesson("existing", "fileB00001", "Old title"));
+        when(drive.getStartPageToken()).thenReturn("100");
+        when(drive.listVideosInFolder(FOLDER)).thenReturn(List.of(video("fileA00001", "intro_to-java.mp4"),
+                video("fileB00001", "Old title.mp4")));
+
+        DriveSyncService.SyncResult result = service.importFolder(FOLDER, group.getId());
+
+        assertThat(result).isEqualTo(new DriveSyncService.SyncResult(2, 1, 0, 0));
+        assertThat(titles()).containsExactlyInAnyOrder("intro to java", "Old title");
+        assertThat(watches.get(FOLDER).getPageToken()).isEqualTo("100");
+        assertThat(watches.get(FOLDER).getLastSyncedAt()).isNotNull();
+    }
+
+    @Test
+    void syncAppliesAddsRenamesAndTrashesPageByPage() throws Exception {
+        watch(FOLDER, "100");
+        lessons.put("renamed", lesson("renamed", "fileB00001", "before"));
+        lessons.put("trashed", lesson("trashed", "fileC00001", "going away"));
+        lessons.put("moved", lesson("moved", "fileD00001", "moving out"));
+        when(drive.listChanges("100", 1000)).thenReturn(new ChangePage(List.of(
+                change("fileA00001", "new.mp4", FOLDER, false),
+                change("fileB00001", "after.mp4", FOLDER, false),
+                change("fileE00001", "elsewhere.mp4", OTHER_FOLDER, false)), "101", null));
+        when(drive.listChanges("101", 1000)).thenReturn(new ChangePage(List.of(
+                change("fileC00001", "going away.mp4", FOLDER, true),
+                change("fileD00001", "moving out.mp4", OTHER_FOLDER, false)), null, "102"));
+
+        DriveSyncService.SyncResult result = service.syncAll();
+
+        assertThat(result.added()).isEqualTo(1);
+        assertThat(result.updated()).isEqualTo(1);
+        assertThat(result.removed()).isEqualTo(2);
+        assertThat(titles()).containsExactlyInAnyOrder("new", "after");
+        assertThat(watches.get(FOLDER).getPageToken()).isEqualTo("102");
+        verify(drive, never()).listVideosInFolder(anyString());
+    }
+
+    @Test
+    void watchesAtTheSameTokenShareOneReadOfTheFeed() throws Exception {
+        watch(FOLDER, "200");
+        watch(OTHER_FOLDER, "200");
+        when(drive.listChanges("200", 1000)).thenReturn(new ChangePage(List.of(
+                change("fileA00001", "a.mp4", FOLDER, false),
+                change("fileB00001", "b.mp4", OTHER_FOLDER, false)), null, "201"));
+
+        assertThat(service.syncAll().added()).isEqualTo(2);
+        verify(drive, times(1)).listChanges(anyString(), anyInt());
+        assertThat(watches.values()).allSatisfy(watch -> assertThat(watch.getPageToken()).isEqualTo("201"));
+    }
+
+    @Test
+    void rejectedTokenFallsBackToAFullListingThatMirrorsTheFolder() throws Exception {
+        watch(FOLDER, "stale");
+        lessons.put("kept", lesson("kept", "fileA00001", "kept"));
+        lessons.put("gone", lesson("gone", "fileZ00001", "gone"));
+        when(drive.listChanges(eq("stale"), anyInt())).thenThrow(new GoogleJsonResponseException(
+                new HttpResponseException.Builder(400, "Bad Request", new HttpHeaders()), null));
+        when(drive.getStartPageToken()).thenReturn("300");
+        when(drive.listVideosInFolder(FOLDER)).thenReturn(List.of(video("fileA00001", "kept.mp4")));
+
+        DriveSyncService.SyncResult result = service.syncAll();
+
+        assertThat(result.removed()).isEqualTo(1);
+        assertThat(titles()).containsExactly("kept");
+        assertThat(watches.get(FOLDER).getPageToken()).isEqualTo("300");
+    }
+
+    @Test
+    void otherChangeFeedErrorsKeepTheTokenForTheNextRun() throws Exception {
+        watch(FOLDER, "100");
+        lessons.put("kept", lesson("kept", "fileA00001", "kept"));
+        when(drive.listChanges(eq("100"), anyInt())).thenThrow(new GoogleJsonResponseException(
+                new HttpResponseException.Builder(403, "Forbidden", new HttpHeaders()), null));
+
+        assertThatThrownBy(service::syncAll).isInstanceOf(GoogleJsonResponseException.class);
+
+        verify(drive, never()).listVideosInFolder(anyString());
+        assertThat(titles()).containsExactly("kept");
+        assertThat(watches.get(FOLDER).getPageToken()).isEqualTo("100");
+    }
+
+    @Test
+    void folderCannotBeSyncedIntoTwoGroups() throws Exception {
+        DriveFolderWatch watch = watch(FOLDER, "100");
+        watch.setLessonGroupId("another-group");
+
+        assertThatThrownBy(() -> service.importFolder(FOLDER, group.getId())).isInstanceOf(ConflictException.class);
+        verify(drive, never()).getStartPageToken();
+    }
+
+    private DriveFolderWatch watch(String folderId, String token) {
+        DriveFolderWatch watch = new DriveFolderWatch(UUID.randomUUID().toString(), folderId, group.getId(), token,
+                null);
+        watches.put(folderId, watch);
+        return watch;
+    }
+
+    private List<String> titles() {
+        return lessons.values().stream().map(Lesson::getTitle).toList();
+    }
+
+    private Lesson lesson(String id, String fileId, String title) {
+        Lesson lesson = new Lesson();
+        lesson.setId(id);
+        lesson.setTitle(title);
+        lesson.setResourcePath(fileId);
+        lesson.setDuration("0:00");
+        lesson.setStorageType(StorageType.GOOGLE_DRIVE);
+        lesson.setLessonGroup(group);
+        return lesson;
+    }
+
+    private static VideoFileInfo video(String fileId, String name) {
+        VideoFileInfo info = new VideoFileInfo();
+        info.setFileId(fileId);
+        info.setFileName(name);
+        info.setMimeType("video/mp4");
+        return info;
+    }
+
+    private static DriveChange change(String fileId, String name, String parent, boolean trashed) {
+        return new DriveChange(fileId, video(fileId, name), List.of(parent), trashed);
+    }
+}
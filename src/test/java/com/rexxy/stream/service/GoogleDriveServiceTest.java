@@ -0,0 +1,181 @@
+package com.rexxy.stream.service;
+
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.rexxy.stream.config.DriveApiConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Drives the client against a fake transport to check retries, batching and metrics
+ */
+class GoogleDriveServiceTest {
+
+    private static final String BOUNDARY = "batch_test";
+    private static final Pattern PART_FILE_ID = Pattern.compile("GET \\S*/files/([A-Za-z0-9_-]+)");
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final List<Long> sleeps = new CopyOnWriteArrayList<>();
+    private final AtomicInteger calls = new AtomicInteger();
+    private GoogleDriveService service;
+
+    @BeforeEach
+    void setUp() {
+        service = new GoogleDriveService(new DriveApiConfig(), registry);
+    }
+
+    @Test
+    void rateLimitedCallsAreRetriedWithBackoff() {
+        respondWith(request -> calls.get() <= 2 ? json(429, error(429)) : json(200, file("1AbCdEfGhIjK")));
+
+        GoogleDriveService.VideoFileInfo info = service.getFileInfo("1AbCdEfGhIjK");
+
+        assertThat(info.getFileName()).isEqualTo("1AbCdEfGhIjK.mp4");
+        assertThat(info.getDuration()).isEqualTo("1:05");
+        assertThat(calls.get()).isEqualTo(3);
+        assertThat(sleeps).hasSize(2);
+        assertThat(registry.get("drive.api.retries").counter().count()).isEqualTo(2);
+        assertThat(registry.get("drive.api.requests").tags("operation", "files.get", "outcome", "success")
+                .timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    void missingFileIsNotRetried() {
+        respondWith(request -> json(404, error(404)));
+
+        assertThat(service.getFileInfo("1MissingFileId")).isNull();
+        assertThat(calls.get()).isEqualTo(1);
+        assertThat(sleeps).isEmpty();
+        assertThat(registry.get("drive.api.requests").tags("outcome", "404").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    void onlyRateLimitedForbiddenResponsesAreRetried() {
+        respondWith(request -> calls.get() == 1 ? json(403, error(403, "userRateLimitExceeded"))
+                : json(403, error(403, "insufficientFilePermissions")));
+
+        assertThatThrownBy(() -> service.listChanges("100", 10))
+                .isInstanceOfSatisfying(GoogleJsonResponseException.class, e ->
+                        // The body is still there for the caller to read
+                        assertThat(e.getDetails().getErrors().get(0).getReason())
+                                .isEqualTo("insufficientFilePermissions"));
+        assertThat(calls.get()).isEqualTo(2);
+        assertThat(sleeps).hasSize(1);
+    }
+
+    @Test
+    void lookupsAreBatchedAndThrottledPartsRetriedTogether() throws IOException {
+        Set<String> throttledOnce = ConcurrentHashMap.newKeySet();
+        respondWith(request -> {
+            StringBuilder body = new StringBuilder();
+            Matcher matcher = PART_FILE_ID.matcher(contentOf(request));
+            int part = 0;
+            while (matcher.find()) {
+                String fileId = matcher.group(1);
+                int index = Integer.parseInt(fileId.substring(fileId.length() - 3));
+                if (fileId.endsWith("042")) {
+                    appendPart(body, ++part, 404, error(404));
+                } else if (fileId.endsWith("043")) {
+                    appendPart(body, ++part, 403, error(403, "insufficientFilePermissions"));
+                } else if (index == 7 && throttledOnce.add(fileId)) {
+                    appendPart(body, ++part, 403, error(403, "rateLimitExceeded"));
+                } else if (index % 50 == 0 && throttledOnce.add(fileId)) {
+                    appendPart(body, ++part, 429, error(429));
+                } else {
+                    appendPart(body, ++part, 200, file(fileId));
+                }
+            }
+            body.append("--").append(BOUNDARY).append("--\r\n");
+            return new MockLowLevelHttpResponse()
+                    .setStatusCode(200)
+                    .setContentType("multipart/mixed; boundary=" + BOUNDARY)
+                    .setContent(body.toString());
+        });
+        List<String> fileIds = IntStream.range(0, 150).mapToObj(i -> String.format("1FileId%03d", i)).toList();
+
+        Map<String, GoogleDriveService.VideoFileInfo> infos = service.getFileInfos(fileIds);
+
+        assertThat(infos).hasSize(148).doesNotContainKeys("1FileId042", "1FileId043");
+        assertThat(infos.keySet()).first().isEqualTo("1FileId000");
+        assertThat(infos.get("1FileId100").getDuration()).isEqualTo("1:05");
+        // Two batches of 100 and 50, then one more for the four throttled lookups
+        assertThat(calls.get()).isEqualTo(3);
+        assertThat(sleeps).hasSize(1);
+        assertThat(registry.get("drive.api.retries").counter().count()).isEqualTo(4);
+    }
+
+    private void respondWith(Function<MockLowLevelHttpRequest, MockLowLevelHttpResponse> handler) {
+        MockHttpTransport transport = new MockHttpTransport() {
+            @Override
+            public LowLevelHttpRequest buildRequest(String method, String url) {
+                return new MockLowLevelHttpRequest(url) {
+                    @Override
+                    public LowLevelHttpResponse execute() {
+                        calls.incrementAndGet();
+                        return handler.apply(this);
+                    }
+                };
+            }
+        };
+        service.useTransport(transport, request -> {
+        }, sleeps::add);
+    }
+
+    private static String contentOf(MockLowLevelHttpRequest request) {
+        try {
+            return request.getContentAsString();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void appendPart(StringBuilder body, int part, int status, String json) {
+        body.append("--").append(BOUNDARY).append("\r\n")
+                .append("Content-Type: application/http\r\n")
+                .append("Content-ID: <response-").append(part).append(">\r\n\r\n")
+                .append("HTTP/1.1 ").append(status).append(status == 200 ? " OK" : " Error").append("\r\n")
+                .append("Content-Type: application/json; charset=UTF-8\r\n\r\n")
+                .append(json).append("\r\n");
+    }
+
+    private static MockLowLevelHttpResponse json(int status, String json) {
+        return new MockLowLevelHttpResponse()
+                .setStatusCode(status)
+                .setContentType("application/json; charset=UTF-8")
+                .setContent(json);
+    }
+
+    private static String file(String fileId) {
+        return "{\"id\":\"" + fileId + "\",\"name\":\"" + fileId + ".mp4\",\"mimeType\":\"video/mp4\","
+                + "\"size\":\"42\",\"videoMediaMetadata\":{\"durationMillis\":\"65000\"}}";
+    }
+
+    private static String error(int code) {
+        return "{\"error\":{\"code\":" + code + ",\"message\":\"status " + code + "\"}}";
+    }
+
+    private static String error(int code, String reason) {
+        return "{\"error\":{\"code\":" + code + ",\"message\":\"" + reason + "\",\"errors\":[{\"domain\":"
+                + "\"usageLimits\",\"reason\":\"" + reason + "\",\"message\":\"" + reason + "\"}]}}";
+    }
+}
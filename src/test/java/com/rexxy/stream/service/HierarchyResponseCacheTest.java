@@ -0,0 +1,108 @@
+package com.rexxy.stream.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rexxy.stream.config.CacheTierConfig;
+import com.rexxy.stream.dto.CourseHierarchyDTO;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class HierarchyResponseCacheTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private StreamingService streamingService;
+    private SimpleMeterRegistry meterRegistry;
+    private HierarchyResponseCache cache;
+
+    @BeforeEach
+    void setUp() {
+        streamingService = mock(StreamingService.class);
+        meterRegistry = new SimpleMeterRegistry();
+        cache = new HierarchyResponseCache(streamingService, objectMapper, new CacheTierConfig(), meterRegistry);
+    }
+
+    @Test
+    void sameHierarchyIsServedFromTheRenderedBytes() throws Exception {
+        CourseHierarchyDTO hierarchy = hierarchy("Course", 100);
+        when(streamingService.getCourseHierarchy("c")).thenReturn(hierarchy);
+
+        HierarchyResponseCache.Rendered first = cache.get("c");
+        HierarchyResponseCache.Rendered second = cache.get("c");
+
+        assertThat(second).isSameAs(first);
+        assertThat(meterRegistry.counter("hierarchy.response.renders").count()).isEqualTo(1);
+        assertThat(objectMapper.readValue(first.json(), CourseHierarchyDTO.class)).isEqualTo(hierarchy);
+        assertThat(new GZIPInputStream(new ByteArrayInputStream(first.gzip())).readAllBytes())
+                .isEqualTo(first.json());
+        assertThat(first.etag()).isEqualTo(EntityTags.forContent(first.json()));
+    }
+
+    @Test
+    void evictedHierarchyIsRenderedAgain() {
+        when(streamingService.getCourseHierarchy("c")).thenReturn(hierarchy("Course", 100));
+        HierarchyResponseCache.Rendered before = cache.get("c");
+
+        // A write evicted the course, so the hierarchy cache hands out a new instance
+        when(streamingService.getCourseHierarchy("c")).thenReturn(hierarchy("Renamed", 100));
+        HierarchyResponseCache.Rendered after = cache.get("c");
+
+        assertThat(after.etag()).isNotEqualTo(before.etag());
+        assertThat(meterRegistry.counter("hierarchy.response.renders").count()).isEqualTo(2);
+    }
+
+    @Test
+    void renderedResponsesDoNotKeepTheirHierarchyAlive() throws Exception {
+        AtomicReference<CourseHierarchyDTO> current = new AtomicReference<>(hierarchy("Course", 100));
+        when(streamingService.getCourseHierarchy("c")).thenAnswer(invocation -> current.get());
+        HierarchyResponseCache.Rendered before = cache.get("c");
+        WeakReference<CourseHierarchyDTO> rendered = new WeakReference<>(current.get());
+
+        // The hierarchy cache dropped it; only the rendered response could still hold it
+        current.set(null);
+        for (int i = 0; i < 50 && rendered.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertThat(rendered.get()).isNull();
+
+        current.set(hierarchy("Course", 100));
+        assertThat(cache.get("c").json()).isEqualTo(before.json());
+        assertThat(meterRegistry.counter("hierarchy.response.renders").count()).isEqualTo(2);
+    }
+
+    @Test
+    void smallHierarchiesAreNotCompressed() {
+        when(streamingService.getCourseHierarchy("c")).thenReturn(hierarchy("Course", 0));
+
+        HierarchyResponseCache.Rendered rendered = cache.get("c");
+
+        assertThat(rendered.gzip()).isNull();
+        assertThat(meterRegistry.get("hierarchy.response.cache.size").gauge().value())
+                .isEqualTo(rendered.json().length);
+    }
+
+    private static CourseHierarchyDTO hierarchy(String title, int lessons) {
+        List<CourseHierarchyDTO.LessonHierarchyDTO> items = new ArrayList<>();
+        for (int i = 0; i < lessons; i++) {
+            items.add(new CourseHierarchyDTO.LessonHierarchyDTO("lesson-" + i, "Lesson " + i, "12:34", null,
+                    "course/" + i + ".mp4"));
+        }
+        CourseHierarchyDTO.LessonGroupHierarchyDTO group = new CourseHierarchyDTO.LessonGroupHierarchyDTO("g",
+                "Section", "00:00", items);
+        CourseHierarchyDTO.ModuleHierarchyDTO module = new CourseHierarchyDTO.ModuleHierarchyDTO("m", "Part",
+                "00:00", List.of(group));
+        return new CourseHierarchyDTO("c", title, null, null, null, "2024-01-01T00:00", "00:00", null,
+                List.of(module));
+    }
+}
@@ -0,0 +1,333 @@
+package com.rexxy.stream.service;
+
+import com.rexxy.stream.config.MediaStreamingConfig;
+import com.rexxy.stream.service.MediaCatalog.MediaEntry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class HlsPackagerTest {
+
+    // Video: 20 samples of 250 ms, keyframe every 8 samples, 4 samples per chunk
+    private static final int VIDEO_SAMPLES = 20;
+    private static final int VIDEO_DELTA = 250;
+    private static final int VIDEO_PER_CHUNK = 4;
+
+    // Audio: 40 samples of 125 ms at 48 kHz, 8 samples per chunk
+    private static final int AUDIO_SAMPLES = 40;
+    private static final int AUDIO_DELTA = 6000;
+    private static final int AUDIO_PER_CHUNK = 8;
+
+    @TempDir
+    Path dir;
+
+    private Path file;
+    private HlsPackager packager;
+    private MediaEntry entry;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        file = dir.resolve("lesson.mp4");
+        Files.write(file, buildMp4());
+
+        MediaStreamingConfig config = new MediaStreamingConfig();
+        config.setHlsSegmentDuration(Duration.ofSeconds(1));
+        packager = new HlsPackager(config);
+        entry = new MediaEntry(file, Files.size(file), 1L, "video/mp4", "\"t\"", System.currentTimeMillis());
+    }
+
+    @Test
+    void segmentsStartOnKeyframesAndAudioFollowsTheSameCut() throws Exception {
+        Mp4SampleIndex index = packager.index(entry);
+
+        assertThat(index.segmentCount()).isEqualTo(3);
+        assertThat(index.segmentStart(0, 1)).isEqualTo(8);
+        assertThat(index.segmentStart(0, 2)).isEqualTo(16);
+        // 2 s and 4 s expressed in 125 ms audio samples
+        assertThat(index.segmentStart(1, 1)).isEqualTo(16);
+        assertThat(index.segmentStart(1, 2)).isEqualTo(32);
+        assertThat(packager.index(entry)).isSameAs(index);
+    }
+
+    @Test
+    void playlistListsEverySegment() throws Exception {
+        String playlist = packager.playlist(packager.index(entry));
+
+        assertThat(playlist).startsWith("#EXTM3U\n")
+                .contains("#EXT-X-TARGETDURATION:2\n")
+                .contains("#EXT-X-MAP:URI=\"init.mp4\"\n")
+                .contains("#EXTINF:2.000,\n0.m4s\n")
+                .contains("#EXTINF:2.000,\n1.m4s\n")
+                .contains("#EXTINF:1.000,\n2.m4s\n")
+                .endsWith("#EXT-X-ENDLIST\n");
+    }
+
+    @Test
+    void initSegmentDeclaresFragmentedTracks() throws Exception {
+        ByteBuffer init = ByteBuffer.wrap(packager.initSegment(packager.index(entry)));
+
+        assertThat(childTypes(init, 0, init.limit())).containsExactly("ftyp", "moov");
+        int moov = init.getInt(0);
+        assertThat(childTypes(init, moov + 8, moov + init.getInt(moov))).containsExactly("mvhd", "trak", "trak", "mvex");
+    }
+
+    @Test
+    void mediaSegmentCarriesTheSampleBytesOfBothTracks() throws Exception {
+        Mp4SampleIndex index = packager.index(entry);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        packager.writeSegment(file, index, 1, out);
+        ByteBuffer segment = ByteBuffer.wrap(out.toByteArray());
+
+        assertThat((long) segment.limit()).isEqualTo(packager.segmentLength(index, 1));
+        assertThat(childTypes(segment, 0, segment.limit())).containsExactly("moof", "mdat");
+
+        List<int[]> runs = truns(segment);
+        assertThat(runs).hasSize(2);
+        assertTrackData(segment, runs.get(0), 1, 8, 16);
+        assertTrackData(segment, runs.get(1), 2, 16, 32);
+        assertThat(tfdts(segment)).containsExactly(2000L, 96000L);
+    }
+
+    @Test
+    void nonMp4FilesAreRejected() throws Exception {
+        Path text = Files.writeString(dir.resolve("notes.mp4"), "not a movie");
+        MediaEntry textEntry = new MediaEntry(text, Files.size(text), 1L, null, "\"x\"", 0);
+
+        assertThatThrownBy(() -> packager.index(textEntry)).isInstanceOf(java.io.IOException.class);
+    }
+
+    @Test
+    void corruptTableCountsAreRejectedAsIoErrors() throws Exception {
+        byte[] mp4 = buildMp4();
+        for (String table : List.of("stsz", "stts", "stsc", "stco", "ctts", "stss")) {
+            for (int count : new int[] { -1, Integer.MAX_VALUE, 1000 }) {
+                byte[] corrupt = mp4.clone();
+                int box = indexOf(corrupt, table);
+                // stsz has its default sample size ahead of the count
+                ByteBuffer.wrap(corrupt).putInt(box + (table.equals("stsz") ? 12 : 8), count);
+                Path path = Files.write(dir.resolve(table + count + ".mp4"), corrupt);
+                MediaEntry corruptEntry = new MediaEntry(path, corrupt.length, 1L, "video/mp4", "\"c\"", 0);
+
+                assertThatThrownBy(() -> packager.index(corruptEntry))
+                        .as("%s with %d entries", table, count)
+                        .isInstanceOf(java.io.IOException.class);
+            }
+        }
+    }
+
+    @Test
+    void constantSampleSizeCannotClaimMoreSamplesThanTheFileHolds() throws Exception {
+        byte[] corrupt = buildMp4();
+        int stsz = indexOf(corrupt, "stsz");
+        ByteBuffer.wrap(corrupt).putInt(stsz + 8, 1).putInt(stsz + 12, Integer.MAX_VALUE);
+        Path path = Files.write(dir.resolve("huge.mp4"), corrupt);
+        MediaEntry corruptEntry = new MediaEntry(path, corrupt.length, 1L, "video/mp4", "\"h\"", 0);
+
+        assertThatThrownBy(() -> packager.index(corruptEntry)).isInstanceOf(java.io.IOException.class);
+    }
+
+    // Offset of the first box of the given type, pointing at its type field
+    private static int indexOf(byte[] data, String type) {
+        byte[] needle = ascii(type);
+        outer:
+        for (int i = 0; i + 4 <= data.length; i++) {
+            for (int k = 0; k < 4; k++) {
+                if (data[i + k] != needle[k]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        throw new IllegalArgumentException(type);
+    }
+
+    // Sample payloads are filled with (track * 64 + sample % 64) so each one is recognisable
+    private static void assertTrackData(ByteBuffer segment, int[] run, int track, int first, int last) {
+        int count = run[0];
+        int dataOffset = run[1];
+        assertThat(count).isEqualTo(last - first);
+        int position = dataOffset;
+        for (int sample = first; sample < last; sample++) {
+            int size = sampleSize(track, sample);
+            for (int k = 0; k < size; k++) {
+                assertThat(segment.get(position + k)).isEqualTo(fill(track, sample));
+            }
+            position += size;
+        }
+    }
+
+    // {sample count, data offset} of every trun in the moof
+    private static List<int[]> truns(ByteBuffer segment) {
+        List<int[]> runs = new ArrayList<>();
+        for (int p = 8; p < segment.getInt(0); p += segment.getInt(p)) {
+            if (type(segment, p).equals("traf")) {
+                for (int c = p + 8; c < p + segment.getInt(p); c += segment.getInt(c)) {
+                    if (type(segment, c).equals("trun")) {
+                        runs.add(new int[] { segment.getInt(c + 12), segment.getInt(c + 16) });
+                    }
+                }
+            }
+        }
+        return runs;
+    }
+
+    private static List<Long> tfdts(ByteBuffer segment) {
+        List<Long> times = new ArrayList<>();
+        for (int p = 8; p < segment.getInt(0); p += segment.getInt(p)) {
+            if (type(segment, p).equals("traf")) {
+                for (int c = p + 8; c < p + segment.getInt(p); c += segment.getInt(c)) {
+                    if (type(segment, c).equals("tfdt")) {
+                        times.add(segment.getLong(c + 12));
+                    }
+                }
+            }
+        }
+        return times;
+    }
+
+    private static List<String> childTypes(ByteBuffer buffer, int from, int to) {
+        List<String> types = new ArrayList<>();
+        for (int p = from; p < to; p += buffer.getInt(p)) {
+            types.add(type(buffer, p));
+        }
+        return types;
+    }
+
+    private static String type(ByteBuffer buffer, int p) {
+        byte[] bytes = new byte[4];
+        buffer.get(p + 4, bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    private static int sampleSize(int track, int sample) {
+        return track == 1 ? 100 + sample * 3 : 20 + sample % 5;
+    }
+
+    private static byte fill(int track, int sample) {
+        return (byte) (track * 64 + sample % 64);
+    }
+
+    /**
+     * Progressive MP4 with interleaved chunks and the moov after the mdat
+     */
+    private static byte[] buildMp4() {
+        ByteArrayOutputStream mdat = new ByteArrayOutputStream();
+        byte[] ftyp = box("ftyp", ascii("isom"), ints(512), ascii("isommp41"));
+        long mdatStart = ftyp.length + 8;
+
+        int videoChunks = VIDEO_SAMPLES / VIDEO_PER_CHUNK;
+        int audioChunks = AUDIO_SAMPLES / AUDIO_PER_CHUNK;
+        int[] videoOffsets = new int[videoChunks];
+        int[] audioOffsets = new int[audioChunks];
+        for (int chunk = 0; chunk < Math.max(videoChunks, audioChunks); chunk++) {
+            if (chunk < videoChunks) {
+                videoOffsets[chunk] = (int) (mdatStart + mdat.size());
+                for (int s = chunk * VIDEO_PER_CHUNK; s < (chunk + 1) * VIDEO_PER_CHUNK; s++) {
+                    writeSample(mdat, 1, s);
+                }
+            }
+            if (chunk < audioChunks) {
+                audioOffsets[chunk] = (int) (mdatStart + mdat.size());
+                for (int s = chunk * AUDIO_PER_CHUNK; s < (chunk + 1) * AUDIO_PER_CHUNK; s++) {
+                    writeSample(mdat, 2, s);
+                }
+            }
+        }
+
+        int[] videoSizes = new int[VIDEO_SAMPLES];
+        for (int s = 0; s < VIDEO_SAMPLES; s++) {
+            videoSizes[s] = sampleSize(1, s);
+        }
+        int[] audioSizes = new int[AUDIO_SAMPLES];
+        for (int s = 0; s < AUDIO_SAMPLES; s++) {
+            audioSizes[s] = sampleSize(2, s);
+        }
+
+        byte[] video = trak(1, "vide", 1000, VIDEO_SAMPLES, VIDEO_DELTA, VIDEO_PER_CHUNK, videoSizes, videoOffsets,
+                fullBox("stss", 0, ints(3, 1, 9, 17)),
+                fullBox("ctts", 0, ints(1, VIDEO_SAMPLES, VIDEO_DELTA)));
+        byte[] audio = trak(2, "soun", 48000, AUDIO_SAMPLES, AUDIO_DELTA, AUDIO_PER_CHUNK, audioSizes, audioOffsets);
+        byte[] moov = box("moov", fullBox("mvhd", 0, new byte[96]), video, audio);
+
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        file.writeBytes(ftyp);
+        file.writeBytes(box("mdat", mdat.toByteArray()));
+        file.writeBytes(moov);
+        return file.toByteArray();
+    }
+
+    private static void writeSample(ByteArrayOutputStream out, int track, int sample) {
+        for (int k = 0; k < sampleSize(track, sample); k++) {
+            out.write(fill(track, sample));
+        }
+    }
+
+    private static byte[] trak(int trackId, String handler, int timescale, int samples, int delta, int perChunk,
+            int[] sizes, int[] chunkOffsets, byte[]... extraTables) {
+        byte[] tkhd = fullBox("tkhd", 0, ints(0, 0, trackId, 0, samples * delta), new byte[60]);
+        byte[] mdhd = fullBox("mdhd", 0, ints(0, 0, timescale, samples * delta, 0));
+        byte[] hdlr = fullBox("hdlr", 0, ints(0), ascii(handler), new byte[13]);
+        byte[] mediaHeader = handler.equals("vide") ? fullBox("vmhd", 1, new byte[8]) : fullBox("smhd", 0, new byte[4]);
+
+        int[] stszEntries = new int[sizes.length + 2];
+        stszEntries[0] = 0;
+        stszEntries[1] = sizes.length;
+        System.arraycopy(sizes, 0, stszEntries, 2, sizes.length);
+        int[] stcoEntries = new int[chunkOffsets.length + 1];
+        stcoEntries[0] = chunkOffsets.length;
+        System.arraycopy(chunkOffsets, 0, stcoEntries, 1, chunkOffsets.length);
+
+        List<byte[]> tables = new ArrayList<>(List.of(
+                fullBox("stsd", 0, ints(1), box(handler.equals("vide") ? "avc1" : "mp4a", new byte[16])),
+                fullBox("stts", 0, ints(1, samples, delta)),
+                fullBox("stsc", 0, ints(1, 1, perChunk, 1)),
+                fullBox("stsz", 0, ints(stszEntries)),
+                fullBox("stco", 0, ints(stcoEntries))));
+        tables.addAll(List.of(extraTables));
+
+        byte[] stbl = box("stbl", tables.toArray(byte[][]::new));
+        byte[] minf = box("minf", mediaHeader, box("dinf", new byte[0]), stbl);
+        return box("trak", tkhd, box("mdia", mdhd, hdlr, minf));
+    }
+
+    private static byte[] box(String type, byte[]... parts) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            body.writeBytes(part);
+        }
+        ByteBuffer box = ByteBuffer.allocate(8 + body.size());
+        box.putInt(8 + body.size()).put(ascii(type)).put(body.toByteArray());
+        return box.array();
+    }
+
+    private static byte[] fullBox(String type, int version, byte[]... parts) {
+        byte[][] withHeader = new byte[parts.length + 1][];
+        withHeader[0] = ints(version << 24);
+        System.arraycopy(parts, 0, withHeader, 1, parts.length);
+        return box(type, withHeader);
+    }
+
+    private static byte[] ints(int... values) {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * 4);
+        for (int value : values) {
+            buffer.putInt(value);
+        }
+        return buffer.array();
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
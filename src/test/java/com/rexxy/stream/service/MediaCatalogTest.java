@@ -0,0 +1,79 @@
+package com.rexxy.stream.service;
+
+import com.rexxy.stream.config.FileStorageConfig;
+import com.rexxy.stream.config.MediaStreamingConfig;
+import com.rexxy.stream.service.MediaCatalog.MediaEntry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MediaCatalogTest {
+
+    @TempDir
+    Path root;
+
+    private MediaStreamingConfig streamingConfig;
+    private MediaCatalog catalog;
+    private Path video;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        video = Files.createDirectories(root.resolve("Course/Module")).resolve("lesson.mp4");
+        Files.write(video, new byte[1000]);
+
+        FileStorageConfig storageConfig = new FileStorageConfig();
+        storageConfig.setLocalLibraryRoot(root.toString());
+        storageConfig.setUploadDir(root.resolve("uploads").toString());
+        streamingConfig = new MediaStreamingConfig();
+        catalog = new MediaCatalog(storageConfig, streamingConfig,
+                new VideoSegmentCache(streamingConfig, new SimpleMeterRegistry()));
+    }
+
+    @Test
+    void lookupIndexesOnMissAndAnswersFromMemoryAfterwards() throws Exception {
+        MediaEntry entry = catalog.lookup(video);
+        assertThat(entry.size()).isEqualTo(1000);
+        assertThat(entry.etag()).startsWith("\"");
+        assertThat(catalog.size()).isEqualTo(1);
+
+        // Within the staleness window the entry is served without a stat, even if the file changed
+        Files.write(video, new byte[10]);
+        assertThat(catalog.lookup(video)).isSameAs(entry);
+    }
+
+    @Test
+    void staleEntriesAreRevalidated() throws Exception {
+        streamingConfig.setCatalogMaxStaleness(Duration.ZERO);
+        MediaEntry before = catalog.lookup(video);
+
+        Files.write(video, new byte[10]);
+        Files.setLastModifiedTime(video, FileTime.fromMillis(before.lastModified() + 5000));
+
+        MediaEntry after = catalog.lookup(video);
+        assertThat(after.size()).isEqualTo(10);
+        assertThat(after.etag()).isNotEqualTo(before.etag());
+    }
+
+    @Test
+    void missingFilesAndDirectoriesAreNotEntries() {
+        assertThat(catalog.lookup(root.resolve("Course/missing.mp4"))).isNull();
+        assertThat(catalog.lookup(root.resolve("Course"))).isNull();
+        assertThat(catalog.size()).isZero();
+    }
+
+    @Test
+    void removingADirectoryForgetsEverythingBelowIt() {
+        catalog.lookup(video);
+        catalog.remove(root.resolve("Course"));
+
+        assertThat(catalog.size()).isZero();
+    }
+}
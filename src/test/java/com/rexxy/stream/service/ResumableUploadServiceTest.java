@@ -0,0 +1,337 @@
+package com.rexxy.stream.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.rexxy.stream.config.FileStorageConfig;
+import com.rexxy.stream.config.MediaStreamingConfig;
+import com.rexxy.stream.config.UploadConfig;
+import com.rexxy.stream.dto.UploadSessionRequest;
+import com.rexxy.stream.dto.UploadSessionResponse;
+import com.rexxy.stream.dto.VideoUploadResponse;
+import com.rexxy.stream.exception.ConflictException;
+import com.rexxy.stream.exception.ResourceNotFoundException;
+import com.rexxy.stream.model.VideoBlob;
+import com.rexxy.stream.repository.LessonRepository;
+import com.rexxy.stream.repository.VideoBlobRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ResumableUploadServiceTest {
+
+    private static final int CHUNK = 1024;
+
+    @TempDir
+    Path uploadDir;
+
+    private byte[] content;
+    private UploadConfig uploadConfig;
+    private TranscodeService transcodeService;
+    private final Map<String, VideoBlob> blobs = new ConcurrentHashMap<>();
+    private ResumableUploadService service;
+
+    @BeforeEach
+    void setUp() {
+        content = new byte[10 * CHUNK + 300];
+        new Random(11).nextBytes(content);
+
+        uploadConfig = new UploadConfig();
+        uploadConfig.setMinChunkSize(CHUNK);
+        uploadConfig.setDefaultChunkSize(CHUNK);
+        transcodeService = mock(TranscodeService.class);
+        service = newService();
+    }
+
+    private ResumableUploadService newService() {
+        FileStorageConfig storageConfig = new FileStorageConfig();
+        storageConfig.setUploadDir(uploadDir.toString());
+        storageConfig.setLocalLibraryRoot(uploadDir.toString());
+        MediaStreamingConfig streamingConfig = new MediaStreamingConfig();
+        MediaCatalog catalog = new MediaCatalog(storageConfig, streamingConfig,
+                new VideoSegmentCache(streamingConfig, new SimpleMeterRegistry()));
+        VideoBlobRepository blobRepository = mock(VideoBlobRepository.class);
+        when(blobRepository.save(any())).thenAnswer(invocation -> {
+            VideoBlob blob = invocation.getArgument(0);
+            blobs.put(blob.getSha256(), blob);
+            return blob;
+        });
+        when(blobRepository.findById(anyString())).thenAnswer(invocation ->
+                Optional.ofNullable(blobs.get(invocation.<String>getArgument(0))));
+        BlobStoreService blobStore = new BlobStoreService(blobRepository,
+                mock(LessonRepository.class), storageConfig, catalog, transcodeService,
+                mock(ThumbnailService.class));
+        return new ResumableUploadService(uploadConfig, storageConfig, blobStore, new ObjectMapper());
+    }
+
+    @Test
+    void parallelOutOfOrderChunksAssembleIntoTheOriginalFile() throws Exception {
+        UploadSessionResponse session = create();
+        assertThat(session.getChunkCount()).isEqualTo(11);
+
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < session.getChunkCount(); i++) {
+            order.add(i);
+        }
+        Collections.shuffle(order, new Random(5));
+        try (ExecutorService pool = Executors.newFixedThreadPool(4)) {
+            List<Future<UploadSessionResponse>> puts = new ArrayList<>();
+            for (int index : order) {
+                puts.add(pool.submit(() -> put(session.getUploadId(), index, chunk(index))));
+            }
+            for (Future<UploadSessionResponse> put : puts) {
+                put.get();
+            }
+        }
+
+        assertThat(service.status(session.getUploadId()).getMissingChunks()).isEmpty();
+        VideoUploadResponse done = service.complete(session.getUploadId());
+
+        assertThat(Files.readAllBytes(uploadDir.resolve(done.getFilename()))).isEqualTo(content);
+        assertThat(done.getFilename()).isEqualTo(sha256(content) + ".mp4");
+        try (var incoming = Files.list(uploadDir.resolve(".incoming"))) {
+            assertThat(incoming).isEmpty();
+        }
+        verify(transcodeService).enqueue(done.getFilename());
+    }
+
+    @Test
+    void badChecksumLeavesTheChunkMissing() throws Exception {
+        UploadSessionResponse session = create();
+        byte[] chunk = chunk(2);
+
+        assertThatThrownBy(() -> service.putChunk(session.getUploadId(), 2, sha256(chunk(3)), chunk.length,
+                new ByteArrayInputStream(chunk)))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Checksum");
+        assertThat(service.status(session.getUploadId()).getMissingChunks()).contains(2);
+
+        assertThatThrownBy(() -> service.putChunk(session.getUploadId(), 2, sha256(chunk), chunk.length - 1,
+                new ByteArrayInputStream(chunk)))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void badRetryOfAReceivedChunkKeepsTheGoodBytes() throws Exception {
+        UploadSessionResponse session = create();
+        for (int i = 0; i < session.getChunkCount(); i++) {
+            put(session.getUploadId(), i, chunk(i));
+        }
+        byte[] garbage = new byte[CHUNK];
+
+        assertThatThrownBy(() -> service.putChunk(session.getUploadId(), 4, sha256(chunk(4)), CHUNK,
+                new ByteArrayInputStream(garbage)))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Checksum");
+        VideoUploadResponse done = service.complete(session.getUploadId());
+
+        assertThat(done.getFilename()).isEqualTo(sha256(content) + ".mp4");
+        assertThat(sha256(Files.readAllBytes(uploadDir.resolve(done.getFilename())))).isEqualTo(sha256(content));
+    }
+
+    @Test
+    void aChunkIsWrittenByOneRequestAtATime() throws Exception {
+        UploadSessionResponse session = create();
+        byte[] chunk = chunk(3);
+        Throwable[] concurrent = new Throwable[1];
+        // A retry of the chunk arrives while the first request is still sending it
+        InputStream body = new ByteArrayInputStream(chunk) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                if (concurrent[0] == null) {
+                    try {
+                        put(session.getUploadId(), 3, chunk);
+                        concurrent[0] = new AssertionError("accepted");
+                    } catch (Exception e) {
+                        concurrent[0] = e;
+                    }
+                }
+                return super.read(b, off, len);
+            }
+        };
+
+        UploadSessionResponse status = service.putChunk(session.getUploadId(), 3, sha256(chunk), chunk.length, body);
+
+        assertThat(concurrent[0]).isInstanceOf(ConflictException.class);
+        assertThat(status.getMissingChunks()).doesNotContain(3);
+        // Once received, a good re-send is acknowledged again
+        assertThat(put(session.getUploadId(), 3, chunk).getMissingChunks()).doesNotContain(3);
+    }
+
+    @Test
+    void chunksArrivingWhileTheUploadCompletesAreRejected() throws Exception {
+        UploadSessionResponse session = create();
+        for (int i = 0; i < session.getChunkCount(); i++) {
+            put(session.getUploadId(), i, chunk(i));
+        }
+        byte[] retry = chunk(0);
+        VideoUploadResponse[] done = new VideoUploadResponse[1];
+        // The upload completes while this retry is still being received
+        InputStream body = new ByteArrayInputStream(retry) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                if (done[0] == null) {
+                    try {
+                        done[0] = service.complete(session.getUploadId());
+                    } catch (Exception e) {
+                        throw new AssertionError(e);
+                    }
+                }
+                return super.read(b, off, len);
+            }
+        };
+
+        assertThatThrownBy(() -> service.putChunk(session.getUploadId(), 0, sha256(retry), retry.length, body))
+                .isInstanceOf(ConflictException.class);
+        assertThat(Files.readAllBytes(uploadDir.resolve(done[0].getFilename()))).isEqualTo(content);
+        try (var incoming = Files.list(uploadDir.resolve(".incoming"))) {
+            assertThat(incoming).isEmpty();
+        }
+    }
+
+    @Test
+    void uploadsExpireAfterInactivityNotAge() throws Exception {
+        UploadSessionResponse active = create();
+        UploadSessionResponse idle = create();
+        long twoHoursAgo = System.currentTimeMillis() - Duration.ofHours(2).toMillis();
+        backdate(active.getUploadId(), twoHoursAgo);
+        backdate(idle.getUploadId(), twoHoursAgo);
+        uploadConfig.setExpiry(Duration.ofHours(1));
+
+        // Started long ago but still receiving chunks
+        ResumableUploadService restarted = newService();
+        put(restarted, active.getUploadId(), 0, chunk(0));
+        restarted.purgeExpired();
+
+        assertThat(restarted.status(active.getUploadId()).getMissingChunks()).doesNotContain(0);
+        assertThatThrownBy(() -> restarted.status(idle.getUploadId()))
+                .isInstanceOf(ResourceNotFoundException.class);
+    }
+
+    @Test
+    void progressSurvivesARestart() throws Exception {
+        UploadSessionResponse session = create();
+        put(session.getUploadId(), 0, chunk(0));
+        put(session.getUploadId(), 10, chunk(10));
+
+        ResumableUploadService restarted = newService();
+        UploadSessionResponse status = restarted.status(session.getUploadId());
+
+        assertThat(status.getBytesReceived()).isEqualTo(CHUNK + 300);
+        assertThat(status.getMissingChunks()).hasSize(9).doesNotContain(0, 10);
+    }
+
+    @Test
+    void storedContentIsFoundBeforeASessionIsCreated() throws Exception {
+        UploadSessionResponse session = create();
+        for (int i = 0; i < session.getChunkCount(); i++) {
+            put(session.getUploadId(), i, chunk(i));
+        }
+        VideoUploadResponse stored = service.complete(session.getUploadId());
+
+        VideoUploadResponse existing = service.findExisting(
+                new UploadSessionRequest("Copy.mp4", "video/mp4", content.length, null, sha256(content)));
+
+        assertThat(existing.getFilename()).isEqualTo(stored.getFilename());
+        assertThat(service.findExisting(
+                new UploadSessionRequest("Other.mp4", "video/mp4", content.length, null, "0".repeat(64)))).isNull();
+        assertThat(service.findExisting(
+                new UploadSessionRequest("Other.mp4", "video/mp4", content.length, null, null))).isNull();
+    }
+
+    @Test
+    void completingWithMissingChunksIsAConflict() throws Exception {
+        UploadSessionResponse session = create();
+        put(session.getUploadId(), 0, chunk(0));
+
+        assertThatThrownBy(() -> service.complete(session.getUploadId()))
+                .isInstanceOf(ConflictException.class)
+                .hasMessageContaining("10 chunks");
+    }
+
+    @Test
+    void expiredAndUnknownUploadsAreGone() throws Exception {
+        UploadSessionResponse session = create();
+        uploadConfig.setExpiry(Duration.ofMillis(-1));
+        service.purgeExpired();
+
+        assertThatThrownBy(() -> service.status(session.getUploadId()))
+                .isInstanceOf(ResourceNotFoundException.class);
+        assertThatThrownBy(() -> service.status("../../etc/passwd"))
+                .isInstanceOf(ResourceNotFoundException.class);
+    }
+
+    @Test
+    void anUnreadableSidecarDoesNotStopThePurge() throws Exception {
+        UploadSessionResponse expired = create();
+        Path incoming = uploadDir.resolve(".incoming");
+        Files.writeString(incoming.resolve("00000000-0000-0000-0000-000000000000.json"), "{\"uploadId\":");
+        Files.createFile(incoming.resolve("00000000-0000-0000-0000-000000000000.part"));
+        backdate(expired.getUploadId(), System.currentTimeMillis() - Duration.ofHours(2).toMillis());
+        uploadConfig.setExpiry(Duration.ofHours(1));
+
+        newService().purgeExpired();
+
+        try (var left = Files.list(incoming)) {
+            assertThat(left).isEmpty();
+        }
+    }
+
+    private UploadSessionResponse create() throws Exception {
+        return service.create(new UploadSessionRequest("Lecture 1.mp4", "video/mp4", content.length, null, null));
+    }
+
+    private UploadSessionResponse put(String uploadId, int index, byte[] chunk) throws Exception {
+        return put(service, uploadId, index, chunk);
+    }
+
+    private static UploadSessionResponse put(ResumableUploadService target, String uploadId, int index,
+            byte[] chunk) throws Exception {
+        return target.putChunk(uploadId, index, sha256(chunk), chunk.length, new ByteArrayInputStream(chunk));
+    }
+
+    // Rewrite a session's sidecar as if it was created and last written at the given time
+    private void backdate(String uploadId, long millis) throws Exception {
+        Path stateFile = uploadDir.resolve(".incoming").resolve(uploadId + ".json");
+        ObjectMapper mapper = new ObjectMapper();
+        ObjectNode state = (ObjectNode) mapper.readTree(stateFile.toFile());
+        state.put("createdAt", millis);
+        state.put("lastActivityAt", millis);
+        mapper.writeValue(stateFile.toFile(), state);
+    }
+
+    private byte[] chunk(int index) {
+        return Arrays.copyOfRange(content, index * CHUNK, Math.min(content.length, (index + 1) * CHUNK));
+    }
+
+    private static String sha256(byte[] bytes) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+    }
+}
@@ -0,0 +1,185 @@
+package com.rexxy.stream.service;
+
+import com.rexxy.stream.config.FileStorageConfig;
+import com.rexxy.stream.config.MediaStreamingConfig;
+import com.rexxy.stream.config.UploadConfig;
+import com.rexxy.stream.model.VideoBlob;
+import com.rexxy.stream.repository.LessonRepository;
+import com.rexxy.stream.repository.VideoBlobRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class StreamingUploadServiceTest {
+
+    private static final String BOUNDARY = "----form7MA4YWxkTrZu0gW";
+    private static final String CONTENT_TYPE = "multipart/form-data; boundary=" + BOUNDARY;
+
+    @TempDir
+    Path uploadDir;
+
+    private TranscodeService transcodeService;
+    private VideoBlobRepository blobRepository;
+    private StreamingUploadService service;
+
+    @BeforeEach
+    void setUp() {
+        FileStorageConfig storageConfig = new FileStorageConfig();
+        storageConfig.setUploadDir(uploadDir.toString());
+        storageConfig.setLocalLibraryRoot(uploadDir.toString());
+        MediaStreamingConfig streamingConfig = new MediaStreamingConfig();
+        MediaCatalog catalog = new MediaCatalog(storageConfig, streamingConfig,
+                new VideoSegmentCache(streamingConfig, new SimpleMeterRegistry()));
+
+        UploadConfig uploadConfig = new UploadConfig();
+        // Small enough that delimiters straddle buffer refills
+        uploadConfig.setStreamBufferSize(64);
+        transcodeService = mock(TranscodeService.class);
+        blobRepository = mock(VideoBlobRepository.class);
+        service = new StreamingUploadService(uploadConfig, new BlobStoreService(blobRepository,
+                mock(LessonRepository.class), storageConfig, catalog, transcodeService, mock(ThumbnailService.class)));
+    }
+
+    @Test
+    void fileIsStoredUnderSniffedExtensionWithItsHash() throws Exception {
+        byte[] video = mp4(50_000);
+        byte[] body = form(video, "lecture.bin");
+
+        StreamingUploadService.StreamedUpload upload = service.ingest(CONTENT_TYPE, trickle(body), null);
+
+        String filename = upload.response().getFilename();
+        assertThat(filename).isEqualTo(upload.sha256() + ".mp4");
+        assertThat(upload.response().getSize()).isEqualTo(video.length);
+        assertThat(Files.readAllBytes(uploadDir.resolve(filename))).isEqualTo(video);
+        assertThat(upload.sha256()).isEqualTo(HexFormat.of().formatHex(
+                MessageDigest.getInstance("SHA-256").digest(video)));
+        verify(transcodeService).enqueue(filename);
+    }
+
+    @Test
+    void announcedHashOfStoredContentSkipsTheBody() throws Exception {
+        String sha256 = "ab".repeat(32);
+        Files.write(uploadDir.resolve(sha256 + ".mp4"), new byte[10]);
+        when(blobRepository.findById(sha256)).thenReturn(
+                Optional.of(new VideoBlob(sha256, sha256 + ".mp4", 10, 1, LocalDateTime.now(), null)));
+        InputStream body = mock(InputStream.class);
+
+        StreamingUploadService.StreamedUpload upload = service.ingest(CONTENT_TYPE, body, sha256.toUpperCase());
+
+        assertThat(upload.duplicate()).isTrue();
+        assertThat(upload.response().getFilename()).isEqualTo(sha256 + ".mp4");
+        verifyNoInteractions(body);
+    }
+
+    @Test
+    void announcedHashMustMatchTheBody() throws Exception {
+        byte[] body = form(mp4(2_000), "clip.mp4");
+
+        assertThatThrownBy(() -> service.ingest(CONTENT_TYPE, new ByteArrayInputStream(body), "cd".repeat(32)))
+                .hasMessageContaining("Checksum mismatch");
+        assertNoVideosStored();
+    }
+
+    @Test
+    void nonVideoContentIsRejectedAndNothingIsLeftBehind() throws Exception {
+        byte[] text = "just some notes\r\n".repeat(100).getBytes(StandardCharsets.UTF_8);
+
+        assertThatThrownBy(() -> service.ingest(CONTENT_TYPE, new ByteArrayInputStream(form(text, "notes.mp4")), null))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> service.ingest("application/json", new ByteArrayInputStream(new byte[0]), null))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertNoVideosStored();
+    }
+
+    @Test
+    void truncatedBodyDeletesThePartialFile() throws Exception {
+        byte[] body = form(mp4(10_000), "clip.mp4");
+        byte[] truncated = java.util.Arrays.copyOf(body, body.length - 200);
+
+        assertThatThrownBy(() -> service.ingest(CONTENT_TYPE, new ByteArrayInputStream(truncated), null))
+                .hasMessageContaining("Unexpected end");
+        assertNoVideosStored();
+    }
+
+    @Test
+    void containersAreRecognisedByMagicBytes() {
+        assertThat(StreamingUploadService.sniff(ascii("\0\0\0\u0014ftypqt  "))).isEqualTo(
+                StreamingUploadService.VideoFormat.QUICKTIME);
+        assertThat(StreamingUploadService.sniff(ascii("\u001aEß£\u0093B\u0082\u0088webm")))
+                .isEqualTo(StreamingUploadService.VideoFormat.WEBM);
+        assertThat(StreamingUploadService.sniff(ascii("RIFF\0\0\0\0AVI LIST"))).isEqualTo(
+                StreamingUploadService.VideoFormat.AVI);
+        assertThat(StreamingUploadService.sniff(ascii("<html><body>"))).isNull();
+    }
+
+    private void assertNoVideosStored() throws Exception {
+        try (var files = Files.walk(uploadDir)) {
+            assertThat(files.filter(Files::isRegularFile)).isEmpty();
+        }
+    }
+
+    /**
+     * An MP4-looking payload whose data is full of near-miss delimiter prefixes
+     */
+    private static byte[] mp4(int size) {
+        byte[] data = new byte[size];
+        new Random(3).nextBytes(data);
+        byte[] header = ascii("\0\0\0\u0018ftypisom");
+        System.arraycopy(header, 0, data, 0, header.length);
+        byte[] nearMiss = ("\r\n--" + BOUNDARY.substring(0, BOUNDARY.length() - 1)).getBytes(StandardCharsets.ISO_8859_1);
+        for (int at = 100; at + nearMiss.length < size; at += 997) {
+            System.arraycopy(nearMiss, 0, data, at, nearMiss.length);
+        }
+        return data;
+    }
+
+    private static byte[] form(byte[] file, String filename) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(ascii("preamble\r\n--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"title\"\r\n\r\n"
+                + "Week 1\r\n--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"" + filename + "\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n"));
+        out.write(file);
+        out.write(ascii("\r\n--" + BOUNDARY + "--\r\n"));
+        return out.toByteArray();
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Hands out the body a few bytes at a time, like a slow network would
+     */
+    private static InputStream trickle(byte[] body) {
+        return new ByteArrayInputStream(body) {
+            private final Random sizes = new Random(9);
+
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 1 + sizes.nextInt(40)));
+            }
+        };
+    }
+}
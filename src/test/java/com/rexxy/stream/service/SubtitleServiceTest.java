@@ -0,0 +1,115 @@
+package com.rexxy.stream.service;
+
+import com.rexxy.stream.config.FileStorageConfig;
+import com.rexxy.stream.config.MediaStreamingConfig;
+import com.rexxy.stream.exception.ResourceNotFoundException;
+import com.rexxy.stream.model.Lesson;
+import com.rexxy.stream.model.StorageType;
+import com.rexxy.stream.repository.LessonRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Optional;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SubtitleServiceTest {
+
+    private static final String SRT = "\uFEFF1\r\n00:00:20,000 --> 00:00:24,400\r\nHello\r\n\r\n"
+            + "2\r\n00:01:02,5 --> 00:01:04,250 X1:10 X2:20\r\nWorld\r\n";
+
+    @TempDir
+    Path library;
+
+    private LessonRepository lessonRepository;
+    private SubtitleService service;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Files.createDirectories(library.resolve("course"));
+        Files.writeString(library.resolve("course/intro.mp4"), "video");
+
+        Lesson lesson = new Lesson();
+        lesson.setId("lesson-1");
+        lesson.setStorageType(StorageType.LOCAL);
+        lesson.setResourcePath("course/intro.mp4");
+        lessonRepository = mock(LessonRepository.class);
+        when(lessonRepository.findById(anyString())).thenReturn(Optional.empty());
+        when(lessonRepository.findById("lesson-1")).thenReturn(Optional.of(lesson));
+
+        FileStorageConfig storageConfig = new FileStorageConfig();
+        storageConfig.setLocalLibraryRoot(library.toString());
+        service = new SubtitleService(lessonRepository, storageConfig, new MediaStreamingConfig(),
+                new SimpleMeterRegistry());
+    }
+
+    @Test
+    void srtIsConvertedLineByLine() throws Exception {
+        StringWriter vtt = new StringWriter();
+        SubtitleService.convertSrtToVtt(new StringReader(SRT), vtt);
+
+        assertThat(vtt.toString()).isEqualTo("WEBVTT\n\n1\n00:00:20.000 --> 00:00:24.400\nHello\n\n"
+                + "2\n00:01:02.500 --> 00:01:04.250\nWorld\n");
+    }
+
+    @Test
+    void sidecarVariantsAreFoundWithOneScanAndLanguagesSelected() throws Exception {
+        write("intro.en.srt", SRT);
+        write("intro.pt_BR.vtt", "WEBVTT\n\n00:00.000 --> 00:01.000\nOlá\n");
+        write("intro.srt", SRT);
+        write("intro.part2.srt", SRT);
+        write("intro.en.txt", "notes");
+
+        assertThat(service.getTracks("lesson-1")).extracting(SubtitleService.SubtitleTrack::language)
+                .containsExactlyInAnyOrder("en", "pt-BR", null);
+        assertThat(new String(service.getSubtitle("lesson-1", "pt").vtt(), StandardCharsets.UTF_8)).contains("Olá");
+        assertThat(new String(service.getSubtitle("lesson-1", null).vtt(), StandardCharsets.UTF_8))
+                .startsWith("WEBVTT").contains("00:00:20.000");
+        assertThat(service.getSubtitle("lesson-1", "de")).isNull();
+        // Lesson and directory are looked up once
+        verify(lessonRepository, times(1)).findById("lesson-1");
+    }
+
+    @Test
+    void convertedBodyIsCachedUntilTheFileChanges() throws Exception {
+        Path srt = write("intro.srt", SRT.repeat(40));
+
+        SubtitleService.Subtitle first = service.getSubtitle("lesson-1", null);
+        assertThat(service.getSubtitle("lesson-1", null)).isSameAs(first);
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(first.gzip()))) {
+            assertThat(gzip.readAllBytes()).isEqualTo(first.vtt());
+        }
+
+        Files.writeString(srt, SRT.replace("Hello", "Changed"));
+        Files.setLastModifiedTime(srt, FileTime.fromMillis(System.currentTimeMillis() + 5_000));
+        SubtitleService.Subtitle changed = service.getSubtitle("lesson-1", null);
+        assertThat(new String(changed.vtt(), StandardCharsets.UTF_8)).contains("Changed");
+        assertThat(changed.etag()).isNotEqualTo(first.etag());
+        assertThat(changed.gzip()).isNull();
+    }
+
+    @Test
+    void unknownLessonIsNotFound() {
+        assertThatThrownBy(() -> service.getSubtitle("missing", null)).isInstanceOf(ResourceNotFoundException.class);
+    }
+
+    private Path write(String name, String content) throws Exception {
+        return Files.writeString(library.resolve("course").resolve(name), content);
+    }
+}
@@ -0,0 +1,164 @@
+package com.rexxy.stream.service;
+
+import com.rexxy.stream.config.FileStorageConfig;
+import com.rexxy.stream.config.ThumbnailConfig;
+import com.rexxy.stream.config.TranscodeConfig;
+import com.rexxy.stream.model.Lesson;
+import com.rexxy.stream.model.StorageType;
+import com.rexxy.stream.repository.LessonRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ThumbnailServiceTest {
+
+    @TempDir
+    Path uploadDir;
+
+    @TempDir
+    Path scripts;
+
+    private TranscodeConfig transcodeConfig;
+    private SimpleMeterRegistry registry;
+    private ThumbnailService service;
+
+    @BeforeEach
+    void setUp() {
+        MediaMetadataService metadata = mock(MediaMetadataService.class);
+        when(metadata.getDuration(any())).thenReturn(1495.0);
+        when(metadata.getVideoWidth(any())).thenReturn(1920);
+        when(metadata.getVideoHeight(any())).thenReturn(1080);
+
+        Lesson lesson = new Lesson();
+        lesson.setId("lesson-1");
+        lesson.setStorageType(StorageType.LOCAL);
+        lesson.setResourcePath("clip.mp4");
+        LessonRepository lessonRepository = mock(LessonRepository.class);
+        when(lessonRepository.findById("lesson-1")).thenReturn(Optional.of(lesson));
+
+        FileStorageConfig storageConfig = new FileStorageConfig();
+        storageConfig.setUploadDir(uploadDir.toString());
+        storageConfig.setLocalLibraryRoot(uploadDir.resolve("library").toString());
+        transcodeConfig = new TranscodeConfig();
+        registry = new SimpleMeterRegistry();
+        service = new ThumbnailService(new ThumbnailConfig(), transcodeConfig, storageConfig, metadata,
+                lessonRepository, registry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+    }
+
+    @Test
+    void trackPointsEachFrameAtItsTile() {
+        String track = ThumbnailService.buildTrack(150, 10, 1495, 10, 100, 160, 90,
+                index -> "thumbs-" + index + ".jpg");
+
+        assertThat(track).startsWith("WEBVTT\n\n00:00:00.000 --> 00:00:10.000\nthumbs-0.jpg#xywh=0,0,160,90\n");
+        assertThat(track).contains("00:01:50.000 --> 00:02:00.000\nthumbs-0.jpg#xywh=160,90,160,90\n");
+        assertThat(track).contains("00:16:40.000 --> 00:16:50.000\nthumbs-1.jpg#xywh=0,0,160,90\n");
+        assertThat(track).endsWith("00:24:50.000 --> 00:24:55.000\nthumbs-1.jpg#xywh=1440,360,160,90\n");
+    }
+
+    @Test
+    @DisabledOnOs(OS.WINDOWS)
+    void spritesAndTrackAreWrittenNextToTheVideo() throws Exception {
+        // Stand-in for ffmpeg: expand the output pattern for the first three sheets
+        transcodeConfig.setFfmpegPath(script(
+                "for a in \"$@\"; do out=\"$a\"; done; for i in 0 1 2; do echo jpg > \"$(printf \"$out\" $i)\"; done"));
+        Path video = Files.write(uploadDir.resolve("clip.mp4"), new byte[100]);
+
+        assertThat(service.getTrack("lesson-1")).isNull();
+        Path track = awaitTrack();
+
+        assertThat(track).isEqualTo(uploadDir.resolve("clip.thumbs.vtt"));
+        assertThat(Files.readString(track)).contains("thumbs-1.jpg?v=" + Long.toHexString(
+                Files.getLastModifiedTime(video).toMillis()) + "#xywh=0,0,160,90");
+        assertThat(service.getSheet("lesson-1", 1)).isEqualTo(uploadDir.resolve("clip.thumbs-1.jpg"));
+        // Only the sheets the track refers to are kept
+        assertThat(service.getSheet("lesson-1", 2)).isNull();
+        awaitJobs("success", 1);
+
+        // A video newer than its track makes the track stale until it is generated again
+        Files.setLastModifiedTime(track, FileTime.fromMillis(Files.getLastModifiedTime(video).toMillis() - 60_000));
+        assertThat(service.getTrack("lesson-1")).isNull();
+        awaitTrack();
+        awaitJobs("success", 2);
+    }
+
+    @Test
+    @DisabledOnOs(OS.WINDOWS)
+    void failedRunsLeaveNoTrack() throws Exception {
+        transcodeConfig.setFfmpegPath(script("echo boom; exit 1"));
+        Files.write(uploadDir.resolve("clip.mp4"), new byte[100]);
+
+        service.enqueue(uploadDir.resolve("clip.mp4"));
+
+        awaitJobs("failure", 1);
+        assertThat(uploadDir.resolve("clip.thumbs.vtt")).doesNotExist();
+        assertThat(uploadDir.resolve("clip.thumbs-0.jpg")).doesNotExist();
+    }
+
+    @Test
+    void discardRemovesTheSpritesAndTrackOfAnUpload() throws Exception {
+        Files.write(uploadDir.resolve("clip.mp4"), new byte[100]);
+        for (String name : new String[] { "clip.thumbs.vtt", "clip.thumbs-0.jpg", "clip.thumbs-1.jpg",
+                "other.thumbs-0.jpg" }) {
+            Files.writeString(uploadDir.resolve(name), name);
+        }
+
+        service.discard("clip.mp4");
+
+        assertThat(uploadDir.resolve("clip.thumbs.vtt")).doesNotExist();
+        assertThat(uploadDir.resolve("clip.thumbs-0.jpg")).doesNotExist();
+        assertThat(uploadDir.resolve("clip.thumbs-1.jpg")).doesNotExist();
+        assertThat(uploadDir.resolve("other.thumbs-0.jpg")).exists();
+    }
+
+    private Path awaitTrack() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (System.currentTimeMillis() < deadline) {
+            Path track = service.getTrack("lesson-1");
+            if (track != null) {
+                return track;
+            }
+            Thread.sleep(20);
+        }
+        throw new AssertionError("No thumbnail track was generated");
+    }
+
+    private void awaitJobs(String result, long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (System.currentTimeMillis() < deadline) {
+            var timer = registry.find("thumbnail.jobs").tag("result", result).timer();
+            if (timer != null && timer.count() == count) {
+                return;
+            }
+            Thread.sleep(20);
+        }
+        throw new AssertionError("Expected " + count + " thumbnail jobs with result " + result);
+    }
+
+    private String script(String body) throws Exception {
+        Path script = scripts.resolve("fake-ffmpeg.sh");
+        Files.writeString(script, "#!/bin/sh\n" + body + "\n");
+        Files.setPosixFilePermissions(script, PosixFilePermissions.fromString("rwx------"));
+        return script.toString();
+    }
+}
@@ -0,0 +1,212 @@
+package com.rexxy.stream.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rexxy.stream.config.FileStorageConfig;
+import com.rexxy.stream.config.MediaStreamingConfig;
+import com.rexxy.stream.config.TranscodeConfig;
+import com.rexxy.stream.model.TranscodeJob;
+import com.rexxy.stream.model.TranscodeJob.JobStatus;
+import com.rexxy.stream.repository.TranscodeJobRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class TranscodeServiceTest {
+
+    @TempDir
+    Path uploadDir;
+
+    private final Map<String, TranscodeJob> jobs = new ConcurrentHashMap<>();
+    private TranscodeConfig transcodeConfig;
+    private SimpleMeterRegistry registry;
+    private TranscodeService service;
+
+    @BeforeEach
+    void setUp() {
+        TranscodeJobRepository repository = mock(TranscodeJobRepository.class);
+        when(repository.save(any())).thenAnswer(invocation -> {
+            TranscodeJob job = invocation.getArgument(0);
+            if (job.getId() == null) {
+                job.setId(UUID.randomUUID().toString());
+            }
+            jobs.put(job.getId(), job);
+            return job;
+        });
+        when(repository.findById(anyString())).thenAnswer(invocation ->
+                Optional.ofNullable(jobs.get(invocation.<String>getArgument(0))));
+        when(repository.findByStatusOrderByCreatedAtAsc(any())).thenAnswer(invocation -> jobs.values().stream()
+                .filter(job -> job.getStatus() == invocation.getArgument(0))
+                .toList());
+
+        MediaMetadataService metadata = mock(MediaMetadataService.class);
+        when(metadata.getVideoHeight(any())).thenReturn(1080);
+        when(metadata.getDuration(any())).thenReturn(10.0);
+
+        FileStorageConfig storageConfig = new FileStorageConfig();
+        storageConfig.setUploadDir(uploadDir.toString());
+        storageConfig.setLocalLibraryRoot(uploadDir.toString());
+        MediaStreamingConfig streamingConfig = new MediaStreamingConfig();
+        MediaCatalog catalog = new MediaCatalog(storageConfig, streamingConfig,
+                new VideoSegmentCache(streamingConfig, new SimpleMeterRegistry()));
+
+        transcodeConfig = new TranscodeConfig();
+        transcodeConfig.setWorkers(1);
+        registry = new SimpleMeterRegistry();
+        service = new TranscodeService(repository, transcodeConfig, storageConfig, metadata, catalog,
+                new ObjectMapper(), registry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+    }
+
+    @Test
+    @DisabledOnOs(OS.WINDOWS)
+    void producesLadderBelowSourceHeightAndManifest() throws Exception {
+        // Stand-in for ffmpeg: create every output file named on the command line
+        transcodeConfig.setFfmpegPath(script("for a in \"$@\"; do case \"$a\" in *.part.mp4) echo x > \"$a\";; esac; done"));
+        Files.write(uploadDir.resolve("clip.mp4"), new byte[1000]);
+
+        service.enqueue("clip.mp4");
+        TranscodeJob job = awaitJob(JobStatus.COMPLETED);
+
+        assertThat(job.getAttempts()).isEqualTo(1);
+        TranscodeService.Manifest manifest = service.manifest("clip.mp4");
+        assertThat(manifest.renditions()).extracting(TranscodeService.RenditionInfo::name)
+                .containsExactly("720p", "480p", "360p");
+        assertThat(uploadDir.resolve("renditions/clip/720p.mp4")).exists();
+        assertThat(manifest.sourceBandwidth()).isEqualTo(800);
+        assertThat(registry.get("transcode.media.seconds").counter().count()).isEqualTo(10.0);
+    }
+
+    @Test
+    @DisabledOnOs(OS.WINDOWS)
+    void failingJobsBackOffBeforeEachRetryThenAreMarkedFailed() throws Exception {
+        transcodeConfig.setFfmpegPath(script("echo boom; exit 1"));
+        transcodeConfig.setRetryBackoff(Duration.ofMillis(200));
+        Files.write(uploadDir.resolve("broken.mp4"), new byte[10]);
+        long started = System.nanoTime();
+
+        service.enqueue("broken.mp4");
+        TranscodeJob job = awaitAttempts(1);
+        assertThat(job.getStatus()).isEqualTo(JobStatus.QUEUED);
+        assertThat(job.getNextAttemptAt()).isAfter(LocalDateTime.now());
+
+        // Not due yet: polling right away does not start another attempt
+        service.poll();
+        Thread.sleep(50);
+        assertThat(job.getAttempts()).isEqualTo(1);
+
+        while (job.getStatus() != JobStatus.FAILED) {
+            assertThat(System.nanoTime() - started).isLessThan(TimeUnit.SECONDS.toNanos(10));
+            service.poll();
+            Thread.sleep(20);
+        }
+
+        // 200 ms after the first failure, 400 ms after the second
+        assertThat(System.nanoTime() - started).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(600));
+        assertThat(job.getAttempts()).isEqualTo(transcodeConfig.getMaxAttempts());
+        assertThat(job.getNextAttemptAt()).isNull();
+        assertThat(job.getError()).contains("boom");
+        assertThat(uploadDir.resolve("renditions/broken/720p.part.mp4")).doesNotExist();
+        assertThat(service.manifest("broken.mp4")).isNull();
+    }
+
+    @Test
+    void renditionFollowsClientHintsAndStaysPinned() throws Exception {
+        Path dir = Files.createDirectories(uploadDir.resolve("renditions/talk"));
+        Files.writeString(dir.resolve("manifest.json"), """
+                {"source":"talk.mp4","sourceHeight":1080,"sourceBandwidth":6000000,"renditions":[
+                {"name":"720p","height":720,"bandwidth":2928000,"file":"renditions/talk/720p.mp4"},
+                {"name":"480p","height":480,"bandwidth":1496000,"file":"renditions/talk/480p.mp4"},
+                {"name":"360p","height":360,"bandwidth":864000,"file":"renditions/talk/360p.mp4"}]}
+                """);
+
+        assertThat(service.selectRendition("talk.mp4", client("10.0.0.1"))).isNull();
+
+        MockHttpServletRequest saveData = client("10.0.0.2");
+        saveData.addHeader("Save-Data", "on");
+        assertThat(service.selectRendition("talk.mp4", saveData)).hasFileName("360p.mp4");
+
+        MockHttpServletRequest slow = client("10.0.0.3");
+        slow.addHeader("Downlink", "2");
+        assertThat(service.selectRendition("talk.mp4", slow)).hasFileName("480p.mp4");
+
+        MockHttpServletRequest small = client("10.0.0.4");
+        small.addHeader("Viewport-Width", "360");
+        small.addHeader("DPR", "2");
+        assertThat(service.selectRendition("talk.mp4", small)).hasFileName("480p.mp4");
+
+        // Later requests from the same client keep their file even if the hints change
+        MockHttpServletRequest again = client("10.0.0.3");
+        again.addHeader("Downlink", "50");
+        assertThat(service.selectRendition("talk.mp4", again)).hasFileName("480p.mp4");
+
+        MockHttpServletRequest explicit = client("10.0.0.3");
+        explicit.setParameter("rendition", "720p");
+        assertThat(service.selectRendition("talk.mp4", explicit)).hasFileName("720p.mp4");
+    }
+
+    private static MockHttpServletRequest client(String address) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setRemoteAddr(address);
+        return request;
+    }
+
+    private String script(String body) throws Exception {
+        Path script = uploadDir.resolve("fake-ffmpeg.sh");
+        Files.writeString(script, "#!/bin/sh\n" + body + "\n");
+        Files.setPosixFilePermissions(script, PosixFilePermissions.fromString("rwx------"));
+        return script.toString();
+    }
+
+    // Wait until a job has finished this many attempts
+    private TranscodeJob awaitAttempts(int attempts) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (System.currentTimeMillis() < deadline) {
+            for (TranscodeJob job : jobs.values()) {
+                if (job.getAttempts() == attempts && job.getStatus() != JobStatus.RUNNING) {
+                    return job;
+                }
+            }
+            Thread.sleep(20);
+        }
+        throw new AssertionError("No job finished attempt " + attempts + ": " + jobs.values());
+    }
+
+    private TranscodeJob awaitJob(JobStatus status) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (System.currentTimeMillis() < deadline) {
+            List<TranscodeJob> matching = jobs.values().stream().filter(job -> job.getStatus() == status).toList();
+            if (!matching.isEmpty()) {
+                return matching.get(0);
+            }
+            Thread.sleep(20);
+        }
+        throw new AssertionError("No job reached " + status + ": " + jobs.values());
+    }
+}
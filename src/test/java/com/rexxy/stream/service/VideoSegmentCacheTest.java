@@ -0,0 +1,106 @@
+package com.rexxy.stream.service;
+
+import com.rexxy.stream.config.MediaStreamingConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class VideoSegmentCacheTest {
+
+    private static final int CHUNK = 1024;
+
+    @TempDir
+    Path dir;
+
+    private Path file;
+    private byte[] content;
+    private SimpleMeterRegistry registry;
+    private VideoSegmentCache cache;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        content = new byte[10 * CHUNK + 100];
+        new Random(3).nextBytes(content);
+        file = dir.resolve("lesson.mp4");
+        Files.write(file, content);
+
+        MediaStreamingConfig config = new MediaStreamingConfig();
+        config.setSegmentChunkSize(CHUNK);
+        config.setSegmentCacheMaxBytes(4 * CHUNK);
+        config.setSegmentCacheMaxWindow(3 * CHUNK);
+        config.setSegmentAdmissionThreshold(2);
+        registry = new SimpleMeterRegistry();
+        cache = new VideoSegmentCache(config, registry);
+    }
+
+    @Test
+    void admitsWindowOnlyAfterThreshold() {
+        assertThat(cache.lookup(file, content.length, 1L, 500, 1500)).isNull();
+
+        List<ByteBuffer> views = cache.lookup(file, content.length, 1L, 500, 1500);
+        assertThat(concat(views)).isEqualTo(Arrays.copyOfRange(content, 500, 1501));
+
+        // Third request is a pure hit
+        double hitsBefore = registry.get("video.segment.cache.gets").tag("result", "hit").counter().count();
+        assertThat(concat(cache.lookup(file, content.length, 1L, 500, 1500)))
+                .isEqualTo(Arrays.copyOfRange(content, 500, 1501));
+        assertThat(registry.get("video.segment.cache.gets").tag("result", "hit").counter().count())
+                .isEqualTo(hitsBefore + 2);
+    }
+
+    @Test
+    void servesShortLastChunk() {
+        long start = 10L * CHUNK;
+        long end = content.length - 1;
+        cache.lookup(file, content.length, 1L, start, end);
+        assertThat(concat(cache.lookup(file, content.length, 1L, start, end)))
+                .isEqualTo(Arrays.copyOfRange(content, (int) start, content.length));
+    }
+
+    @Test
+    void changedMtimeIsANewKey() {
+        cache.lookup(file, content.length, 1L, 0, 99);
+        assertThat(cache.lookup(file, content.length, 1L, 0, 99)).isNotNull();
+        assertThat(cache.lookup(file, content.length, 2L, 0, 99)).isNull();
+    }
+
+    @Test
+    void largeWindowsBypassTheCache() {
+        for (int i = 0; i < 3; i++) {
+            assertThat(cache.lookup(file, content.length, 1L, 0, 4L * CHUNK)).isNull();
+        }
+    }
+
+    @Test
+    void staysWithinByteBudget() {
+        for (int chunk = 0; chunk < 8; chunk++) {
+            long start = (long) chunk * CHUNK;
+            cache.lookup(file, content.length, 1L, start, start + 10);
+            cache.lookup(file, content.length, 1L, start, start + 10);
+        }
+        cache.cleanUp();
+        assertThat(registry.get("video.segment.cache.size").gauge().value()).isLessThanOrEqualTo(4 * CHUNK);
+        assertThat(registry.get("video.segment.cache.evictions").counter().count()).isPositive();
+    }
+
+    private static byte[] concat(List<ByteBuffer> views) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (ByteBuffer view : views) {
+            byte[] bytes = new byte[view.remaining()];
+            view.get(bytes);
+            out.writeBytes(bytes);
+        }
+        return out.toByteArray();
+    }
+}